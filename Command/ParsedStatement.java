@@ -0,0 +1,587 @@
+/*
+ * File: ParsedStatement.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ *
+ *  $Author$
+ *  $Date$
+ *  $Revision$
+ */
+
+package Command;
+
+
+/**
+ *  The parsed form of one statement executed by execOneLine.  The
+ *  statement is lexed and parsed once, following the same rules and
+ *  character positions as execOneLine.execute(), into a tree of
+ *  constants, variables and operations.  Each execution then only
+ *  evaluates the tree, using execOneLine's getVal(), operateArith(),
+ *  operateCompare() and Assign() methods, so the data types of the
+ *  operands are still checked every time.<P>
+ *
+ *  Only assignments and expressions built from numbers, variables,
+ *  parentheses and the arithmetic, range, comparison, AND, OR and NOT
+ *  operations are parsed.  Statements using commands, strings, arrays
+ *  or operators, and executions that would give an error or work with
+ *  other data types, are left to execOneLine, so they behave exactly
+ *  as before.
+ */
+class ParsedStatement{
+
+  /**
+   *  Returned by execute() if the statement must be executed by
+   *  execOneLine instead.
+   */
+  static final int NOT_PARSED = Integer.MIN_VALUE;
+
+  // The delimiters used by execOneLine to find a command and a factor
+  private static final String COMMAND_DELIMITERS =
+                                         " \t(+-*=;:'/^+,[]<>&)\",";
+  private static final String FACTOR_DELIMITERS  =
+                                         "\t+-*<>(=&^/):[]{},\" ";
+
+  private final String S;        // the trimmed statement
+  private final int    start;
+  private final int    end;
+
+  private Node   expr;           // null if the statement is not parsed
+  private int    next;           // position returned by the expression
+  private String name;           // variable assigned to, or null
+  private int    name_pos;       // position of the variable's name
+  private int    value_pos;      // first position after the '='
+
+  private Node   node;           // the node from the last parse method
+
+
+  private ParsedStatement( String S, int start, int end ){
+    this.S     = S;
+    this.start = start;
+    this.end   = end;
+  }
+
+
+  /**
+   *  Parse the part of the statement S from start to end.
+   *
+   *  @param S      The statement, without trailing non printing characters.
+   *  @param start  The starting character, as passed to execute().
+   *  @param end    The last character to be considered, at most the
+   *                length of S.
+   *
+   *  @return the parsed statement, whose execute() method returns
+   *          NOT_PARSED if S can't be parsed.
+   */
+  static ParsedStatement Parse( String S, int start, int end ){
+    ParsedStatement P = new ParsedStatement( S, start, end );
+    if( S == null || S.length() <= 0 || start < 0 || end <= 0 ||
+        start >= end || start >= S.length() )
+      return P;
+
+    try{
+      P.next = P.parseExecute( start );
+      P.expr = P.node;
+    }catch( CantParse ex ){
+      P.expr = null;
+      P.name = null;
+    }
+    P.node = null;
+    return P;
+  }
+
+
+  /**
+   *  Check whether this is the parsed form of the specified part of
+   *  the statement S.
+   */
+  boolean isFor( String S, int start, int end ){
+    return this.start == start && this.end == end &&
+           ( this.S == S || this.S.equals( S ) );
+  }
+
+
+  /**
+   *  Evaluate the statement, setting the Result, and the error
+   *  variables if an assignment fails, of exec just as
+   *  exec.execute( S, start, end ) would.
+   *
+   *  @return the position returned by exec.execute( S, start, end ), or
+   *          NOT_PARSED if exec must execute the statement instead.  In
+   *          that case exec is left as it was.
+   */
+  int execute( execOneLine exec ){
+    if( expr == null )
+      return NOT_PARSED;
+
+    Object result = exec.Result;
+    int    perror = exec.perror;
+    String serror = exec.serror;
+    Object value;
+    try{
+      value = expr.eval( exec );
+    }catch( Exception ex ){
+      value = null;
+    }
+    if( value == null || exec.perror >= 0 ){
+      exec.Result = result;
+      exec.perror = perror;
+      exec.serror = serror;
+      return NOT_PARSED;
+    }
+
+    exec.Result = value;
+    if( name == null )
+      return next;
+
+    try{
+      exec.Assign( name, value );
+    }catch( Exception ex ){
+      return exec.ExceptionError( ex, name_pos );
+    }
+    if( exec.perror >= 0 )
+      exec.perror = next;
+
+    exec.Result = null;
+    if( next <= value_pos || exec.perror >= 0 )
+      return S.length() + 1;
+
+    return skip( next );
+  }
+
+
+  //------------------------- Parse methods ----------------------------
+  // Each method follows the execOneLine method with the corresponding
+  // name, leaving the parsed node in the node variable and returning the
+  // same position.  Anything that execOneLine would treat as an error,
+  // or that is not parsed here, throws CantParse.
+
+  private int parseExecute( int start ) throws CantParse{
+    int len = S.length();
+    if( start >= end || start >= len )
+      throw new CantParse();
+
+    int i = skip( start );
+    if( i > end )
+      i = end;
+    int j = findEnd( i, COMMAND_DELIMITERS );
+    if( j > end )
+      j = end;
+    if( i >= 0 && i < len && i < end &&
+        COMMAND_DELIMITERS.indexOf( S.charAt( i ) ) >= 0 )
+      j = i;
+    if( j < i || i < 0 || i >= end || i >= len )
+      throw new CantParse();
+
+    int j1 = skip( j );
+    if( j1 > end )
+      j1 = end;
+    String Command;
+    if( j <= i ){
+      Command = S.substring( i, i + 1 );
+      j1 = j;
+    }else
+      Command = S.substring( i, j ).trim();
+
+    if( j1 >= 0 && j1 < len && j1 < end && S.charAt( j1 ) == '[' &&
+        j == j1 && j1 > 0 && i < j1 )
+      throw new CantParse();
+    if( Command.charAt( 0 ) == '\"' )
+      throw new CantParse();
+
+    Command = Command.toUpperCase();
+    if( Command.equals( "LOAD" ) || Command.equals( "DISPLAY" ) ||
+        Command.equals( "SAVE" ) || Command.equals( "SEND" ) ||
+        Command.equals( "RETURN" ) ||
+        ( Command.equals( "REM" ) && start == 0 ) )
+      throw new CantParse();
+
+    if( j1 < len && j1 >= 0 && j1 < end && start == 0 &&
+        S.charAt( j1 ) == '=' ){
+      if( j <= i )
+        throw new CantParse();
+      int kk = parseExecute( j1 + 1 );
+      name      = Command;
+      name_pos  = i;
+      value_pos = j1 + 1;
+      return kk;
+    }
+
+    return parseExpr( start );
+  }
+
+
+  private int parseExpr( int start ) throws CantParse{
+    int i = skip( start );
+    if( i >= end || i >= S.length() )
+      throw new CantParse();
+
+    int  j    = parseNonAndOrExpr( i );
+    Node left = node;
+    j = skip( j );
+    char op = AndOr( j );
+    if( j >= end || j >= S.length() || op == 0 ){
+      node = left;
+      return j;
+    }
+    j += ( op == '#' ) ? 3 : 2;
+
+    int k = skip( j );
+    if( k >= end || k >= S.length() ||
+        " \t(+-".indexOf( S.charAt( j ) ) < 0 )
+      throw new CantParse();
+
+    while( true ){
+      j    = parseNonAndOrExpr( j );
+      left = new Operation( op, left, node, false );
+      j    = skip( j );
+      if( j >= end || j >= S.length() ){
+        node = left;
+        return j;
+      }
+      op = AndOr( j );
+      if( op == 0 ){
+        node = left;
+        return j;
+      }
+      j += ( op == '#' ) ? 3 : 2;
+      if( j >= end || j >= S.length() )
+        throw new CantParse();
+    }
+  }
+
+
+  private int parseNonAndOrExpr( int start ) throws CantParse{
+    start = skip( start );
+    if( start >= end || start >= S.length() )
+      throw new CantParse();
+
+    if( S.substring( start ).toUpperCase().indexOf( "NOT" ) == 0 ){
+      if( start + 3 >= end || start + 3 >= S.length() )
+        throw new CantParse();
+      if( " \t(".indexOf( S.charAt( start + 3 ) ) >= 0 ){
+        int j = parseNonAndOrExpr( start + 3 );
+        node = new Not( node );
+        return j;
+      }
+    }
+    return parseNonAndOrNotExpr( start );
+  }
+
+
+  private int parseNonAndOrNotExpr( int start ) throws CantParse{
+    start = skip( start );
+    if( start >= end || start >= S.length() || start < 0 )
+      throw new CantParse();
+
+    int  j    = parseArithm( start );
+    Node left = node;
+    j = skip( j );
+    if( j >= end || j >= S.length() || j < 0 ||
+        "=<>".indexOf( S.charAt( j ) ) < 0 ){
+      node = left;
+      return j;
+    }
+    if( j + 1 >= S.length() || j + 1 >= end )
+      throw new CantParse();
+
+    // same coding of the comparisons as execNonAndOrNotExpr
+    char op = S.charAt( j );
+    if( "=>".indexOf( S.charAt( j + 1 ) ) >= 0 ){
+      if( S.charAt( j + 1 ) == '=' ){
+        if( op != '=' )
+          op = (char)( op + 5 );
+      }else
+        op = (char)( '=' + 5 );
+      j++;
+    }
+    j++;
+
+    j    = parseArithm( j );
+    node = new Operation( op, left, node, true );
+    return skip( j );
+  }
+
+
+  private int parseArithm( int start ) throws CantParse{
+    int i = skip( start );
+    if( i >= end || i >= S.length() )
+      throw new CantParse();
+
+    i = parseOneTerm( i );
+    Node left = node;
+    while( !ArithmDone( i ) ){
+      char op = S.charAt( i );
+      if( op == ':' ){
+        int j = parseArithm( i + 1 );
+        if( j < end && j < S.length() &&
+            "),]<>=".indexOf( S.charAt( j ) ) < 0 )
+          throw new CantParse();
+        node = new Operation( op, left, node, false );
+        return j;
+      }
+      i    = parseOneTerm( i + 1 );
+      left = new Operation( op, left, node, false );
+    }
+    node = left;
+    return i;
+  }
+
+
+  private int parseOneTerm( int start ) throws CantParse{
+    int i = skip( parseOneFactor( skip( start ) ) );
+    Node left = node;
+    boolean done = i < 0 || i >= S.length() || i >= end;
+    while( !done && !TermDone( i ) ){
+      int j = skip( parseOneFactor( i + 1 ) );
+      left = new Operation( S.charAt( i ), left, node, false );
+      i    = j;
+      done = i < 0 || i >= S.length() || i > end;
+    }
+    node = left;
+    return i;
+  }
+
+
+  private int parseOneFactor( int start ) throws CantParse{
+    int len = S.length();
+    int i   = skip( start );
+    if( i >= len || i >= end || i < 0 )
+      throw new CantParse();
+
+    char c = S.charAt( i );
+    if( c == '-' || c == '+' ){
+      int j = parseOneFactor( i + 1 );
+      if( c == '-' )
+        node = new Operation( '*', node, new IntegerConstant( -1 ), false );
+      return skip( j );
+    }
+
+    if( c == '(' ){
+      int j = parseExecute( i + 1 );
+      if( j < 0 || j >= len || j >= end || S.charAt( j ) != ')' )
+        throw new CantParse();
+      j = skip( j + 1 );
+      if( j >= end || j >= len || j < 0 || S.charAt( j ) != '^' )
+        return j;
+      return parsePower( j );
+    }
+
+    if( FACTOR_DELIMITERS.indexOf( c ) >= 0 || c == '[' )
+      throw new CantParse();
+
+    int j = findEnd( i, FACTOR_DELIMITERS );
+    if( j > end )
+      j = end;
+    int j1 = skip( j );
+    if( j1 > end )
+      j1 = end;
+    if( j > len || j1 > len )
+      throw new CantParse();
+    if( j1 < len && j1 < end && "\"[([{}".indexOf( S.charAt( j1 ) ) >= 0 )
+      throw new CantParse();
+
+    String C = S.substring( i, j );
+    String U = C.toUpperCase();
+    if( U.equals( "AND" ) || U.equals( "OR" ) || U.equals( "NOT" ) )
+      throw new CantParse();
+
+    try{
+      node = new IntegerConstant( Integer.parseInt( C ) );
+    }catch( NumberFormatException ex ){
+      try{
+        node = new FloatConstant( Float.parseFloat( C ) );
+      }catch( NumberFormatException ex2 ){
+        node = new Variable( C );
+      }
+    }
+    if( j < len && j < end && S.charAt( j ) == '^' )
+      return parsePower( j );
+
+    return j;
+  }
+
+
+  // The factor after the '^' at position j, raising the value in node to
+  // that power.
+  private int parsePower( int j ) throws CantParse{
+    Node base = node;
+    j    = parseOneFactor( j + 1 );
+    node = new Operation( '^', base, node, false );
+    return j;
+  }
+
+
+  //------------------------ Lexing utilities ---------------------------
+
+  private boolean ArithmDone( int i ){
+    if( i >= end || i >= S.length() || i < 0 )
+      return true;
+
+    char c = S.charAt( i );
+    return "),]<>=".indexOf( c ) >= 0 || "+-&:".indexOf( c ) < 0;
+  }
+
+
+  private boolean TermDone( int i ){
+    char c = S.charAt( i );
+    return "+-)&<>,=:]".indexOf( c ) >= 0 || "*/".indexOf( c ) < 0;
+  }
+
+
+  // '#' for AND, '|' for OR, as used by operateArith, otherwise 0.
+  private char AndOr( int j ){
+    if( j >= end || j >= S.length() )
+      return 0;
+
+    String U = S.substring( j ).toUpperCase();
+    if( U.indexOf( "AND" ) == 0 )
+      return '#';
+    if( U.indexOf( "OR" ) == 0 )
+      return '|';
+    return 0;
+  }
+
+
+  // The first position after i that has one of the delimiters, as found
+  // by execOneLine.findfirst() starting at a non space character i.
+  private int findEnd( int i, String delimiters ){
+    int k = i + 1;
+    while( k < S.length() && delimiters.indexOf( S.charAt( k ) ) < 0 )
+      k++;
+    return k;
+  }
+
+
+  private int skip( int i ){
+    while( i >= 0 && i < S.length() && S.charAt( i ) <= ' ' )
+      i++;
+    return i;
+  }
+
+
+  //------------------------------ Nodes -------------------------------
+  // eval() returns null if execOneLine must execute the statement
+  // instead, for an error or for data types that are not handled here.
+
+  private static abstract class Node{
+    abstract Object eval( execOneLine exec );
+  }
+
+
+  private static class IntegerConstant extends Node{
+    private final int value;
+
+    IntegerConstant( int value ){
+      this.value = value;
+    }
+
+    Object eval( execOneLine exec ){
+      return new Integer( value );
+    }
+  }
+
+
+  private static class FloatConstant extends Node{
+    private final float value;
+
+    FloatConstant( float value ){
+      this.value = value;
+    }
+
+    Object eval( execOneLine exec ){
+      return new Float( value );
+    }
+  }
+
+
+  private static class Variable extends Node{
+    private final String name;
+
+    Variable( String name ){
+      this.name = name;
+    }
+
+    Object eval( execOneLine exec ){
+      Object value = exec.getVal( name );
+      if( exec.perror >= 0 )
+        return null;
+      return value;
+    }
+  }
+
+
+  private static class Not extends Node{
+    private final Node arg;
+
+    Not( Node arg ){
+      this.arg = arg;
+    }
+
+    Object eval( execOneLine exec ){
+      Object value = arg.eval( exec );
+      if( value instanceof Boolean )
+        return new Boolean( !((Boolean)value).booleanValue() );
+      if( value instanceof Integer )
+        return new Boolean( ((Integer)value).intValue() != 0 );
+      return null;
+    }
+  }
+
+
+  private static class Operation extends Node{
+    private final char    op;
+    private final Node    left;
+    private final Node    right;
+    private final boolean compare;
+
+    Operation( char op, Node left, Node right, boolean compare ){
+      this.op      = op;
+      this.left    = left;
+      this.right   = right;
+      this.compare = compare;
+    }
+
+    Object eval( execOneLine exec ){
+      Object L = left.eval( exec );
+      if( !IsSimple( L ) )
+        return null;
+      Object R = right.eval( exec );
+      if( !IsSimple( R ) )
+        return null;
+
+      if( compare )
+        exec.operateCompare( L, R, op );
+      else
+        exec.operateArith( L, R, op );
+      if( exec.perror >= 0 )
+        return null;
+      return exec.Result;
+    }
+
+    private static boolean IsSimple( Object value ){
+      return value instanceof Integer || value instanceof Float ||
+             value instanceof Boolean || value instanceof String;
+    }
+  }
+
+
+  private static class CantParse extends Exception{
+  }
+
+}
@@ -69,6 +69,8 @@
 package Command;
 
 import DataSetTools.util.FilenameUtil;
+import java.io.File;
+import java.util.Hashtable;
 import javax.swing.text.Document;
 import javax.swing.text.PlainDocument;
 import javax.swing.text.BadLocationException;
@@ -82,6 +84,15 @@ public class Script extends Object{
                              // has one more element than necessary to mark the
                              // end of the string.
 
+  // Text and line table of each script read from a file, keyed by the
+  // filename.  An entry is reused by reload() while the file's modification
+  // time and length are unchanged, so scripts that are cloned or called
+  // repeatedly are not read and scanned again.  The table is cleared when
+  // it holds MAX_CACHED_FILES scripts, so it can't grow without limit.
+  private static final int MAX_CACHED_FILES = 200;
+  private static final Hashtable<String,CachedScript> FILE_CACHE =
+                                      new Hashtable<String,CachedScript>();
+
   // ============================== CONSTRUCTORS
   private Script(){
     this.script=null;
@@ -144,16 +155,43 @@ public class Script extends Object{
     if( filename==null || filename.equals(UNKNOWN) || filename.length()<=0 )
       return false;
 
+    File file=new File(this.filename);
+    long modified=file.lastModified();     // zero if it can't be determined
+    long length=file.length();
+    CachedScript cached=FILE_CACHE.get(this.filename);
+    if( cached!=null && modified!=0 && cached.modified==modified
+                                    && cached.length==length ){
+      this.script=cached.script;           // neither is modified in place,
+      this.linenum=cached.linenum;         // so they can be shared
+      return true;
+    }
+
     StringBuffer buffer=IsawGUI.Util.readTextFile(this.filename);
-    if(buffer==null || buffer.length()<=0)
+    if(buffer==null || buffer.length()<=0){
+      FILE_CACHE.remove(this.filename);
       return false;
+    }
 
     this.script=buffer.toString();
     this.fix_script();
     this.init_linenum(true);
+    if(modified!=0){
+      if(FILE_CACHE.size()>=MAX_CACHED_FILES)
+        FILE_CACHE.clear();
+      FILE_CACHE.put(this.filename,
+                     new CachedScript(modified,length,script,linenum));
+    }
     return true;
   }
 
+  /**
+   * Discard the text of all scripts cached by reload(), so that the
+   * next reload() reads the file again.
+   */
+  public static void clearFileCache(){
+    FILE_CACHE.clear();
+  }
+
   public String getFilename(){
     if(this.filename!=null && this.filename.length()>0)
       return this.filename;
@@ -281,6 +319,24 @@ public class Script extends Object{
     }
   }
 
+  /**
+   * The text and line table read from a script file, along with the
+   * modification time and length of the file when it was read.
+   */
+  private static class CachedScript{
+    final long   modified;
+    final long   length;
+    final String script;
+    final int[]  linenum;
+
+    CachedScript(long modified, long length, String script, int[] linenum){
+      this.modified=modified;
+      this.length=length;
+      this.script=script;
+      this.linenum=linenum;
+    }
+  }
+
   // ============================== MAIN METHOD FOR TESTING ONLY
   public static void main(String[] args){
     if(args.length<1){
@@ -338,7 +338,11 @@ import java.lang.reflect.*;
  * works on Isaw scripts.<P>
  * execOneLine is used to lex, parse, and executes lines not containing
  * structure or parameter statements and also expressions that are part of the
- * lines of the script containing the structure commands.
+ * lines of the script containing the structure commands.<P>
+ * The joining of continuation lines and the kind of statement each logical
+ * line starts with are cached until the script's text changes, and
+ * execOneLine keeps the parsed form of the statements it can parse, so
+ * executing them again only evaluates them.
  */
 public class ScriptOperator  extends  GenericOperator
                                implements  IScriptProcessor,PropertyChangeListener, IObservable,
@@ -358,6 +362,30 @@ public class ScriptOperator  extends  GenericOperator
   private boolean Debug = false;
   private Vector vnames= new Vector();
   private IssScript script=null;
+
+  // Kinds of logical lines, as classified by LineKind()
+  private static final int MACRO_LINE      = -1; // has ${..}, not cached
+  private static final int NO_LINE         =  0;
+  private static final int COMMENT_LINE    =  1;
+  private static final int ELSE_ERROR_LINE =  2;
+  private static final int END_ERROR_LINE  =  3;
+  private static final int ON_ERROR_LINE   =  4;
+  private static final int FOR_LINE        =  5;
+  private static final int ENDFOR_LINE     =  6;
+  private static final int IF_LINE         =  7;
+  private static final int ELSE_LINE       =  8;
+  private static final int ELSEIF_LINE     =  9;
+  private static final int ENDIF_LINE      = 10;
+  private static final int BLANK_LINE      = 11;
+  private static final int STATEMENT_LINE  = 12;
+
+  // The text, kind and following line of each logical line of the script,
+  // cached by PrepareLines() and valid while prepared_text is the script's
+  // text.
+  private transient String   prepared_text = null;
+  private transient String[] line_text     = null;
+  private transient int[]    line_kind     = null;
+  private transient int[]    next_line     = null;
   //private ParameterClassList param_types = new ParameterClassList();
 
   //--------------------------- Constructors ---------------------------
@@ -922,7 +950,6 @@ public class ScriptOperator  extends  GenericOperator
   private int executeBlock( Script script, int start, boolean exec,
                             int onerror ){
     int line ;
-    String S ; 
         
 
     if( script == null){
@@ -936,42 +963,32 @@ public class ScriptOperator  extends  GenericOperator
       System.out.print( "In exeBlock line ,ex=" + line+","+
                         exec + perror ) ; 
     while ( ( line < script.numLines() ) && ( perror < 0 ) ){
-      S = getLine( line );
-
-      if( S !=  null ){
-        int i ; 
-        for( i = S.length() - 1 ;  i >=  0  ;  i-- ){
-          if( S.charAt( i ) <=  ' ' )S = S.substring( 0 , i ) ; 
-          else i = -1 ; 
-        }
-      }
+      int kind = getLineKind( line );
            
-      if( S == null ){
+      if( kind == NO_LINE ){
         if( Debug )
           System.out.println(" S is null " );
-      }else if( S.trim() == null){
-      }else if( S.trim().indexOf( "#") == 0 ){
-      }else if( S.trim().indexOf("$" ) == 0){
-      }else if( S.toUpperCase().trim().indexOf( "ELSE ERROR" ) == 0 ){
+      }else if( kind == COMMENT_LINE ){
+      }else if( kind == ELSE_ERROR_LINE ){
         return line ; 
-      }else if( S.toUpperCase().trim().indexOf( "END ERROR" ) == 0 ){
+      }else if( kind == END_ERROR_LINE ){
         return line ; 
-      }else if( S.toUpperCase().trim().indexOf( "ON ERROR" ) == 0 ){
+      }else if( kind == ON_ERROR_LINE ){
         line = executeErrorBlock( script , line , exec ) ;               
       }else if( onerror > 0 ){
-      }else if( S.toUpperCase().trim().indexOf( "FOR " ) == 0 ){
+      }else if( kind == FOR_LINE ){
         line = executeForBlock ( script , line , exec ,onerror ) ; 
-      }else if( S.toUpperCase().trim().indexOf( "ENDFOR" ) == 0 ){
+      }else if( kind == ENDFOR_LINE ){
         return line ; 
-      }else if( S.toUpperCase().trim().indexOf("IF ") == 0){
+      }else if( kind == IF_LINE ){
         line = executeIfStruct( script, line, exec , onerror );
-      }else if( S.toUpperCase().trim().equals("ELSE")){
+      }else if( kind == ELSE_LINE ){
         return line;
-      }else if( S.toUpperCase().trim().indexOf("ELSEIF") == 0){
+      }else if( kind == ELSEIF_LINE ){
         return line;
-      }else if( S.toUpperCase().trim().equals("ENDIF")){
+      }else if( kind == ENDIF_LINE ){
         return line;
-      }else if( S.trim().length() <= 0 ){
+      }else if( kind == BLANK_LINE ){
       }else if( exec ){
         //can transverse a sequence of lines. On error , if then
         ExecLine.resetError();               
@@ -985,20 +1002,7 @@ public class ScriptOperator  extends  GenericOperator
         return line ; 
       }
       if(Debug)System.out.println( " Thru" +line) ; 
-      boolean done = false;
-      while( !done ){
-        String SS = script.getLine( line );//gets one physical line
-        SS=elimNonChars(SS);
-        if( SS == null )
-          done = true;
-        else if( SS.length() < 1)
-          done = true;
-        else if( SS.charAt( SS.length() - 1) != '\\' )
-          done = true;
-        else
-          line ++;
-      }
-      line++;
+      line = nextLine( script, line );    // skips continuation lines
     }
     return line; 
   }
@@ -1812,6 +1816,18 @@ public class ScriptOperator  extends  GenericOperator
   
   //----------------------- Text Utilities ------------------
   private int nextLine( Script script, int line1 ){
+    if( script == this.script && PrepareLines() &&
+        line1 >= 0 && line1 < next_line.length )
+      return next_line[line1];
+
+    return SkipContinuation( script, line1 );
+  }
+
+  /**
+   * Get the line following the logical line that starts at line1, by
+   * examining the physical lines of the script.
+   */
+  private int SkipContinuation( Script script, int line1 ){
     boolean done=false;
     int line=line1;
     String SS=null;
@@ -1841,7 +1857,118 @@ public class ScriptOperator  extends  GenericOperator
        return S;
    }
       
+   /**
+    * Get the logical line starting at the given line of the script, with
+    * string macros replaced and continuation lines appended.  Lines
+    * without macros are taken from the lines cached by PrepareLines().
+    */
    private String getLine(  int start){
+       if( PrepareLines() && start >= 0 && start < line_kind.length &&
+           line_kind[start] != MACRO_LINE )
+         return line_text[start];
+
+       return ExpandLine( start );
+   }
+
+   /**
+    * Get the kind of the logical line starting at the given line of the
+    * script, from the lines cached by PrepareLines() if possible.
+    */
+   private int getLineKind( int start ){
+       if( PrepareLines() && start >= 0 && start < line_kind.length &&
+           line_kind[start] != MACRO_LINE )
+         return line_kind[start];
+
+       return LineKind( ExpandLine( start ) );
+   }
+
+   /**
+    * Cache the text with continuation lines joined, the statement kind and
+    * the following line for each logical line of the script, unless this
+    * was already done for the script's current text.  The text and kind of
+    * lines with string macros are not kept, since the values of the
+    * macros can change between executions.  The statements themselves are
+    * parsed by execOneLine the first time they are executed.
+    *
+    * @return true if the cached lines are available.
+    */
+   private boolean PrepareLines(){
+       if( script == null )
+         return false;
+
+       String text = script.toString();
+       if( text == null )
+         return false;
+
+       if( text == prepared_text )
+         return true;
+
+       int n_lines = script.numLines();
+       if( n_lines < 0 )
+         return false;
+
+       String[] texts = new String[ n_lines ];
+       int[]    kinds = new int[ n_lines ];
+       int[]    nexts = new int[ n_lines ];
+       for( int i = 0; i < n_lines; i++ ){
+         String S1 = script.getLine( i );
+         if( S1 != null && S1.indexOf( "${" ) >= 0 )
+           kinds[i] = MACRO_LINE;
+         else{
+           texts[i] = ExpandLine( i );
+           kinds[i] = LineKind( texts[i] );
+         }
+       }
+       for( int i = 0; i < n_lines; i++ )
+         nexts[i] = SkipContinuation( script, i );
+
+       line_text     = texts;
+       line_kind     = kinds;
+       next_line     = nexts;
+       prepared_text = text;
+       return true;
+   }
+
+   /**
+    * Classify a logical line of a script by the statement that it
+    * starts with.
+    */
+   private static int LineKind( String S ){
+       if( S == null )
+         return NO_LINE;
+
+       S = S.trim();
+       String U = S.toUpperCase().trim();
+       if( S.indexOf( "#" ) == 0 || S.indexOf( "$" ) == 0 )
+         return COMMENT_LINE;
+       if( U.indexOf( "ELSE ERROR" ) == 0 )
+         return ELSE_ERROR_LINE;
+       if( U.indexOf( "END ERROR" ) == 0 )
+         return END_ERROR_LINE;
+       if( U.indexOf( "ON ERROR" ) == 0 )
+         return ON_ERROR_LINE;
+       if( U.indexOf( "FOR " ) == 0 )
+         return FOR_LINE;
+       if( U.indexOf( "ENDFOR" ) == 0 )
+         return ENDFOR_LINE;
+       if( U.indexOf( "IF " ) == 0 )
+         return IF_LINE;
+       if( U.equals( "ELSE" ) )
+         return ELSE_LINE;
+       if( U.indexOf( "ELSEIF" ) == 0 )
+         return ELSEIF_LINE;
+       if( U.equals( "ENDIF" ) )
+         return ENDIF_LINE;
+       if( S.length() <= 0 )
+         return BLANK_LINE;
+       return STATEMENT_LINE;
+   }
+
+   /**
+    * Build the logical line starting at the given line of the script,
+    * replacing string macros and appending continuation lines.
+    */
+   private String ExpandLine(  int start){
        String S1 = script.getLine(start);
        
        if( S1 == null) return S1;
@@ -330,6 +330,14 @@ public class execOneLine implements gov.anl.ipns.Util.Messaging.IObserver,IObser
     private Document logDocument       = null;
     private static final boolean Debug = false;
 
+    // The parsed form of statements that were executed, keyed by the
+    // statement text, so that executing a statement again only has to
+    // evaluate it.  The table is cleared when it gets too large, so
+    // statements built at run time can't make it grow without limit.
+    private static final int MAX_PARSED_STATEMENTS = 1000;
+    private static final Hashtable<String,ParsedStatement> PARSED_STATEMENTS =
+                                     new Hashtable<String,ParsedStatement>();
+
    
     /******************* Symbol Table(s) ********************/
 
@@ -698,6 +706,10 @@ public class execOneLine implements gov.anl.ipns.Util.Messaging.IObserver,IObser
             kk,
             retn;
 
+        kk = executeParsed( S , start , end );
+        if( kk != ParsedStatement.NOT_PARSED )
+            return kk;
+
       try{
       
         //----------------- Check for error conditions---------------------
@@ -879,8 +891,54 @@ public class execOneLine implements gov.anl.ipns.Util.Messaging.IObserver,IObser
             
         }
       }catch(Exception sss){
+        return ExceptionError( sss , i );
+      }
+    }
+
+
+    /**
+     * Executes the parsed form of the String S from start to end, if S
+     * can be parsed, parsing it only the first time it is executed.
+     *
+     * @param S The string to be executed
+     * @param start The starting character
+     * @param end The last character of the string to be considered
+     *
+     * @return The same position as execute, or ParsedStatement.NOT_PARSED
+     * if execute must lex, parse and execute S itself
+     */
+    private int executeParsed( String S , int start , int end ){
+        if( S == null || perror >= 0 )
+            return ParsedStatement.NOT_PARSED;
+
+        S = Trimm( S );
+        if( end > S.length() )
+            end = S.length();
+
+        ParsedStatement P = PARSED_STATEMENTS.get( S );
+        if( P == null || !P.isFor( S , start , end ) ){
+            P = ParsedStatement.Parse( S , start , end );
+            if( PARSED_STATEMENTS.size() >= MAX_PARSED_STATEMENTS )
+                PARSED_STATEMENTS.clear();
+            PARSED_STATEMENTS.put( S , P );
+        }
+        return P.execute( this );
+    }
+
+
+    /**
+     * Sets the error variables for an exception that occurred while
+     * executing a line, giving the exception and where it occurred
+     *
+     * @param sss The exception
+     * @param i The error position to use if where the exception
+     * occurred is not known
+     *
+     * @return The error position
+     */
+    int ExceptionError( Exception sss , int i ){
         String[] SS = ScriptUtil.GetExceptionStackInfo(sss,true,1);
-        S ="";
+        String S ="";
         if( SS != null) 
           for(  i = 0 ; ( i < 3 ) && ( i < SS.length ) ;  i++){
         	S +=  SS[i]+"\n  ";  
@@ -888,7 +946,6 @@ public class execOneLine implements gov.anl.ipns.Util.Messaging.IObserver,IObser
         serror= sss.toString()+"\n  "+ S;
         perror = i;
         return i;
-      }
     }
     
 
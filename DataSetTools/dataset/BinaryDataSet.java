@@ -0,0 +1,726 @@
+/* 
+ * File: BinaryDataSet.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package  DataSetTools.dataset;
+
+import gov.anl.ipns.MathTools.Geometry.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+import DataSetTools.instruments.*;
+
+/**
+ *  This class sends a DataSet in a framed binary form, as an alternative to
+ *  Java serialization of the full DataSet object graph, as done by
+ *  CompressedDataSet.  The DataSet is encoded as a frame header with the
+ *  title, units, labels and attribute list, followed by one small header
+ *  per Data block and the raw x, y and error arrays for the Data block.
+ *  Integer, float, double, String, int list and detector position
+ *  attributes are written directly.  Other attributes, the operation log
+ *  and Data blocks that are not HistogramTables or FunctionTables are
+ *  written in serialized form.  Data blocks that share the same XScale 
+ *  object only send the XScale once, and uniform XScales are sent as just
+ *  the start, end and number of points.
+ *    The frame can be written to any WritableByteChannel, such as a 
+ *  SocketChannel or FileChannel, using write(), and read back using read().
+ *  The frame is streamed through one fixed size buffer, so the x, y and
+ *  error arrays are never copied in full.
+ *  Since this class is Externalizable, it can also be sent in place of a 
+ *  CompressedDataSet through the ObjectStreams used by NetComm.TCPComm, 
+ *  with the DataSet being rebuilt directly from the frame, rather than
+ *  by reflection.
+ */  
+
+public class BinaryDataSet implements Externalizable
+{
+  public static final long serialVersionUID = 1L;
+
+  public static final int MAGIC   = 0x49424453;          // "IBDS"
+  public static final int VERSION = 1;
+
+  private static final byte HISTOGRAM_TABLE  = 0;     // codes for Data types
+  private static final byte FUNCTION_TABLE   = 1;
+  private static final byte SERIALIZED_DATA  = 2;
+
+  private static final byte UNIFORM_X_SCALE  = 0;     // codes for XScales
+  private static final byte VARIABLE_X_SCALE = 1;
+  private static final byte SAME_X_SCALE     = 2;
+
+  private static final byte NO_ERRORS        = 0;     // codes for errors
+  private static final byte SQRT_ERRORS      = 1;
+  private static final byte STORED_ERRORS    = 2;
+
+  private static final byte INT_ATTR         = 0;     // codes for attributes
+  private static final byte FLOAT_ATTR       = 1;
+  private static final byte DOUBLE_ATTR      = 2;
+  private static final byte STRING_ATTR      = 3;
+  private static final byte INT_LIST_ATTR    = 4;
+  private static final byte DET_POS_ATTR     = 5;
+  private static final byte SERIALIZED_ATTR  = 6;
+
+  private static final int  CHUNK_SIZE       = 65536;  // bytes buffered 
+                                                        // between writes
+
+  private DataSet ds;
+
+
+  /**
+   *  Public no-argument constructor, required for Externalizable objects.
+   *  This should only be used when reading the object from a stream.
+   */
+  public BinaryDataSet()
+  {
+    ds = DataSet.EMPTY_DATA_SET;
+  }
+
+
+  /**
+   *  Construct a BinaryDataSet to send the specified DataSet.  The DataSet
+   *  is not copied, so it should not be changed until it has been sent.
+   *
+   *  @param ds   The DataSet to send in binary form.
+   */
+  public BinaryDataSet( DataSet ds )
+  {
+    this.ds = ds;
+  }
+
+
+  /**
+   *  Get the DataSet that was sent or received.
+   *
+   *  @return the DataSet.
+   */
+  public DataSet getDataSet()
+  {
+    return ds;
+  }
+
+
+  /**
+   *  Write the binary frame for the DataSet to the ObjectOutput.
+   */
+  public void writeExternal( final ObjectOutput out ) throws IOException
+  {
+    encode( ds, new FrameSink()
+                {
+                  void drain( ByteBuffer chunk ) throws IOException
+                  {
+                    out.write( chunk.array(), 0, chunk.limit() );
+                  }
+                } );
+  }
+
+
+  /**
+   *  Read the binary frame from the ObjectInput and rebuild the DataSet.
+   */
+  public void readExternal( ObjectInput in ) throws IOException
+  {
+    ds = decode( in );
+  }
+
+
+  /**
+   *  Write the binary frame for a DataSet to a channel.  The frame is 
+   *  written in chunks of at most CHUNK_SIZE bytes, so no copy of the 
+   *  x, y and error arrays is made.
+   *
+   *  @param  ds       The DataSet to write.
+   *  @param  channel  The channel to write to.
+   *
+   *  @return the number of bytes written.
+   */
+  public static long write( DataSet ds, final WritableByteChannel channel )
+         throws IOException
+  {
+    return encode( ds, new FrameSink()
+                       {
+                         void drain( ByteBuffer chunk ) throws IOException
+                         {
+                           while ( chunk.hasRemaining() )
+                             channel.write( chunk );
+                         }
+                       } );
+  }
+
+
+  /**
+   *  Read a DataSet in binary form from a channel.
+   *
+   *  @param  channel  The channel to read from.
+   *
+   *  @return the DataSet read from the channel.
+   */
+  public static DataSet read( ReadableByteChannel channel ) throws IOException
+  {
+    return decode( new DataInputStream(
+                     new BufferedInputStream( 
+                       Channels.newInputStream( channel ), 65536 ) ) );
+  }
+
+
+  /**
+   *  Encode the DataSet as a binary frame and pass it to the sink.  Only
+   *  the small header for the DataSet and for each Data block are built
+   *  in memory, the x, y and error arrays are copied directly into the 
+   *  sink's buffer.
+   *  
+   *  @param  ds    The DataSet to encode.
+   *  @param  sink  The sink that the frame is written to.
+   *
+   *  @return the number of bytes in the frame.
+   */
+  private static long encode( DataSet ds, FrameSink sink ) throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream      out   = new DataOutputStream( bytes );
+    out.writeInt( MAGIC );
+    out.writeInt( VERSION );
+    out.writeUTF( ds.getTitle() );
+    out.writeUTF( ds.getX_units() );
+    out.writeUTF( ds.getX_label() );
+    out.writeUTF( ds.getY_units() );
+    out.writeUTF( ds.getY_label() );
+    writeSerialized( ds.getOp_log(), out );
+    writeAttributes( ds.getAttributeList(), out );
+    out.writeInt( ds.getNum_entries() );
+    out.flush();
+    sink.put( bytes.toByteArray() );
+
+    XScale last_x_scale = null;
+    for ( int i = 0; i < ds.getNum_entries(); i++ )
+    {
+      Data d = ds.getData_entry(i);
+      bytes.reset();
+
+      boolean is_histogram = d.getClass() == HistogramTable.class ||
+                             d instanceof LazyHistogramTable;
+      if ( !is_histogram && d.getClass() != FunctionTable.class )
+      {
+        out.writeByte( SERIALIZED_DATA );
+        writeSerialized( d, out );
+        out.flush();
+        sink.put( bytes.toByteArray() );
+        continue;
+      }
+
+      if ( is_histogram )
+        out.writeByte( HISTOGRAM_TABLE );
+      else
+        out.writeByte( FUNCTION_TABLE );
+      out.writeInt( d.getGroup_ID() );
+      out.writeBoolean( d.isSelected() );
+
+      XScale x_scale  = d.getX_scale();
+      float[] x_vals  = null;
+      if ( x_scale == last_x_scale )
+        out.writeByte( SAME_X_SCALE );
+      else if ( x_scale instanceof UniformXScale )
+      {
+        out.writeByte( UNIFORM_X_SCALE );
+        out.writeFloat( x_scale.getStart_x() );
+        out.writeFloat( x_scale.getEnd_x() );
+        out.writeInt( x_scale.getNum_x() );
+      }
+      else
+      {
+        x_vals = x_scale.getXs();
+        out.writeByte( VARIABLE_X_SCALE );
+        out.writeInt( x_vals.length );
+      }
+      last_x_scale = x_scale;
+
+      float[] y_vals = d.getY_values();
+      float[] errors = null;
+      out.writeInt( y_vals.length );
+      if ( d.isSqrtErrors() )
+        out.writeByte( SQRT_ERRORS );
+      else
+      {
+        errors = d.getErrors();
+        if ( errors == null )
+          out.writeByte( NO_ERRORS );
+        else
+          out.writeByte( STORED_ERRORS );
+      }
+      writeAttributes( d.getAttributeList(), out );
+      out.flush();
+      sink.put( bytes.toByteArray() );
+
+      if ( x_vals != null )
+        sink.putFloats( x_vals );
+      sink.putFloats( y_vals );
+      if ( errors != null )
+        sink.putFloats( errors );
+    }
+
+    return sink.finish();
+  }
+
+
+  /**
+   *  Decode a DataSet from its binary frame.  The HistogramTables and
+   *  FunctionTables are constructed directly from the arrays in the frame.
+   *
+   *  @param  in  The DataInput from which the frame is read.
+   *
+   *  @return the DataSet read from the frame.
+   */
+  public static DataSet decode( DataInput in ) throws IOException
+  {
+    if ( in.readInt() != MAGIC )
+      throw new IOException( "Not a binary DataSet frame" );
+
+    int version = in.readInt();
+    if ( version != VERSION )
+      throw new IOException( "Binary DataSet version " + version +
+                             " not supported, need " + VERSION );
+
+    String title   = in.readUTF();
+    String x_units = in.readUTF();
+    String x_label = in.readUTF();
+    String y_units = in.readUTF();
+    String y_label = in.readUTF();
+    OperationLog op_log = (OperationLog)readSerialized( in );
+
+    DataSet ds = new DataSet( title, op_log, x_units, x_label, 
+                                             y_units, y_label );
+    ds.setAttributeList( readAttributes( in ) );
+
+    int    num_entries = in.readInt();
+    XScale x_scale     = null;
+    for ( int i = 0; i < num_entries; i++ )
+    {
+      byte type = in.readByte();
+      if ( type == SERIALIZED_DATA )
+      {
+        ds.addData_entry( (Data)readSerialized( in ) );
+        continue;
+      }
+
+      int     group_id = in.readInt();
+      boolean selected = in.readBoolean();
+      byte    x_type   = in.readByte();
+      if ( x_type == UNIFORM_X_SCALE )
+      {
+        float start_x = in.readFloat();
+        float end_x   = in.readFloat();
+        int   num_x   = in.readInt();
+        x_scale = new UniformXScale( start_x, end_x, num_x );
+      }
+      else if ( x_type == VARIABLE_X_SCALE )
+      {
+        int num_x = in.readInt();
+        x_scale = new VariableXScale( readFloats( in, num_x ) );
+      }
+      else if ( x_type != SAME_X_SCALE || x_scale == null )
+        throw new IOException( "Invalid XScale code " + x_type + 
+                               " in binary DataSet" );
+
+      int  num_y    = in.readInt();
+      byte err_type = in.readByte();
+      AttributeList attr_list = readAttributes( in );
+
+      float[] y_vals = readFloats( in, num_y );
+      float[] errors = null;
+      if ( err_type == STORED_ERRORS )
+        errors = readFloats( in, num_y );
+
+      TabulatedData d;
+      if ( type == HISTOGRAM_TABLE )
+        d = new HistogramTable( x_scale, y_vals, errors, group_id );
+      else
+        d = new FunctionTable( x_scale, y_vals, errors, group_id );
+
+      if ( err_type == SQRT_ERRORS )
+        d.setSqrtErrors( true );
+
+      d.setAttributeList( attr_list );
+      d.setSelected( selected );
+      ds.addData_entry( d );
+    }
+
+    addOperators( ds );
+    return ds;
+  }
+
+
+  /**
+   *  Write an attribute list, using direct binary forms for simple 
+   *  attributes.
+   */
+  private static void writeAttributes( AttributeList attr_list, 
+                                       DataOutput    out       )
+          throws IOException
+  {
+    int num_attr = attr_list.getNum_attributes();
+    out.writeInt( num_attr );
+    for ( int i = 0; i < num_attr; i++ )
+    {
+      Attribute attr = attr_list.getAttribute(i);
+      if ( attr instanceof IntAttribute )
+      {
+        out.writeByte( INT_ATTR );
+        out.writeUTF( attr.getName() );
+        out.writeInt( ((IntAttribute)attr).getIntegerValue() );
+      }
+      else if ( attr instanceof FloatAttribute )
+      {
+        out.writeByte( FLOAT_ATTR );
+        out.writeUTF( attr.getName() );
+        out.writeFloat( ((FloatAttribute)attr).getFloatValue() );
+      }
+      else if ( attr instanceof DoubleAttribute )
+      {
+        out.writeByte( DOUBLE_ATTR );
+        out.writeUTF( attr.getName() );
+        out.writeDouble( ((DoubleAttribute)attr).getDoubleValue() );
+      }
+      else if ( attr instanceof StringAttribute )
+      {
+        out.writeByte( STRING_ATTR );
+        out.writeUTF( attr.getName() );
+        out.writeUTF( attr.getStringValue() );
+      }
+      else if ( attr instanceof IntListAttribute )
+      {
+        int[] list = ((IntListAttribute)attr).getIntegerValue();
+        out.writeByte( INT_LIST_ATTR );
+        out.writeUTF( attr.getName() );
+        out.writeInt( list.length );
+        for ( int k = 0; k < list.length; k++ )
+          out.writeInt( list[k] );
+      }
+      else if ( attr instanceof DetPosAttribute )
+      {
+        float[] coords = ((DetPosAttribute)attr).getDetectorPosition()
+                                                .getCartesianCoords();
+        out.writeByte( DET_POS_ATTR );
+        out.writeUTF( attr.getName() );
+        out.writeFloat( coords[0] );
+        out.writeFloat( coords[1] );
+        out.writeFloat( coords[2] );
+      }
+      else
+      {
+        out.writeByte( SERIALIZED_ATTR );
+        writeSerialized( attr, out );
+      }
+    }
+  }
+
+
+  /**
+   *  Read an attribute list written by writeAttributes().
+   */
+  private static AttributeList readAttributes( DataInput in ) 
+          throws IOException
+  {
+    AttributeList attr_list = new AttributeList();
+    int num_attr = in.readInt();
+    for ( int i = 0; i < num_attr; i++ )
+    {
+      byte type = in.readByte();
+      if ( type == SERIALIZED_ATTR )
+      {
+        attr_list.addAttribute( (Attribute)readSerialized( in ) );
+        continue;
+      }
+
+      String name = in.readUTF();
+      if ( type == INT_ATTR )
+        attr_list.addAttribute( new IntAttribute( name, in.readInt() ) );
+
+      else if ( type == FLOAT_ATTR )
+        attr_list.addAttribute( new FloatAttribute( name, in.readFloat() ) );
+
+      else if ( type == DOUBLE_ATTR )
+        attr_list.addAttribute( new DoubleAttribute( name, in.readDouble() ) );
+
+      else if ( type == STRING_ATTR )
+        attr_list.addAttribute( new StringAttribute( name, in.readUTF() ) );
+
+      else if ( type == INT_LIST_ATTR )
+      {
+        int[] list = new int[ in.readInt() ];
+        for ( int k = 0; k < list.length; k++ )
+          list[k] = in.readInt();
+        attr_list.addAttribute( new IntListAttribute( name, list ) );
+      }
+
+      else if ( type == DET_POS_ATTR )
+      {
+        DetectorPosition position = new DetectorPosition();
+        float x = in.readFloat();
+        float y = in.readFloat();
+        float z = in.readFloat();
+        position.setCartesianCoords( x, y, z );
+        attr_list.addAttribute( new DetPosAttribute( name, position ) );
+      }
+
+      else
+        throw new IOException( "Invalid attribute code " + type + 
+                               " in binary DataSet" );
+    }
+    return attr_list;
+  }
+
+
+  /**
+   *  Write an object in serialized form, preceded by the number of bytes.
+   */
+  private static void writeSerialized( Object obj, DataOutput out )
+          throws IOException
+  {
+    ByteArrayOutputStream bytes   = new ByteArrayOutputStream();
+    ObjectOutputStream    obj_out = new ObjectOutputStream( bytes );
+    obj_out.writeObject( obj );
+    obj_out.close();
+    out.writeInt( bytes.size() );
+    out.write( bytes.toByteArray() );
+  }
+
+
+  /**
+   *  Read an object written by writeSerialized().
+   */
+  private static Object readSerialized( DataInput in ) throws IOException
+  {
+    byte[] bytes = new byte[ in.readInt() ];
+    in.readFully( bytes );
+    try
+    {
+      ObjectInputStream obj_in = new ObjectInputStream( 
+                                          new ByteArrayInputStream( bytes ) );
+      return obj_in.readObject();
+    }
+    catch ( ClassNotFoundException ex )
+    {
+      throw new IOException( "Unknown class in binary DataSet: " + ex );
+    }
+  }
+
+
+  /**
+   *  This class collects the bytes of a frame in one fixed size buffer,
+   *  and passes the buffer to drain() each time it is full.
+   */
+  private static abstract class FrameSink
+  {
+    private ByteBuffer chunk = ByteBuffer.allocate( CHUNK_SIZE );
+    private long       total = 0;
+
+    /**
+     *  Write out all of the bytes in the chunk, which has been flipped.
+     */
+    abstract void drain( ByteBuffer chunk ) throws IOException;
+
+    void put( byte[] bytes ) throws IOException
+    {
+      int pos = 0;
+      while ( pos < bytes.length )
+      {
+        if ( !chunk.hasRemaining() )
+          flush();
+        int n = Math.min( chunk.remaining(), bytes.length - pos );
+        chunk.put( bytes, pos, n );
+        pos += n;
+      }
+    }
+
+    void putFloats( float[] values ) throws IOException
+    {
+      int pos = 0;
+      while ( pos < values.length )
+      {
+        if ( chunk.remaining() < 4 )
+          flush();
+        int n = Math.min( chunk.remaining() / 4, values.length - pos );
+        chunk.asFloatBuffer().put( values, pos, n );
+        chunk.position( chunk.position() + 4 * n );
+        pos += n;
+      }
+    }
+
+    long finish() throws IOException
+    {
+      flush();
+      return total;
+    }
+
+    private void flush() throws IOException
+    {
+      chunk.flip();
+      total += chunk.remaining();
+      if ( chunk.hasRemaining() )
+        drain( chunk );
+      chunk.clear();
+    }
+  }
+
+
+  /**
+   *  Read the specified number of floats in one block.
+   */
+  private static float[] readFloats( DataInput in, int num ) 
+          throws IOException
+  {
+    byte[] bytes = new byte[ 4 * num ];
+    in.readFully( bytes );
+    float[] values = new float[ num ];
+    ByteBuffer.wrap( bytes ).asFloatBuffer().get( values );
+    return values;
+  }
+
+
+  /**
+   *  Add the basic operators and instrument specific operators to a 
+   *  DataSet that was read in binary form, the same way as is done when
+   *  a DataSet is de-serialized.
+   */
+  private static void addOperators( DataSet ds )
+  {
+    DataSetFactory.addOperators( ds );
+
+    Object types_obj = ds.getAttributeValue( Attribute.INST_TYPE );
+    if ( types_obj == null )
+      return;
+
+    int inst_type = InstrumentType.UNKNOWN;
+    if ( types_obj instanceof Integer )
+      inst_type = ((Integer)types_obj).intValue();
+    else if ( types_obj instanceof int[] && ((int[])types_obj).length > 0 )
+      inst_type = ((int[])types_obj)[0];
+
+    String ds_type = (String)ds.getAttributeValue( Attribute.DS_TYPE );
+    if ( ds_type != null )
+      try
+      {
+        if ( ds_type.equals( Attribute.SAMPLE_DATA ) )
+          DataSetFactory.addOperators( ds, inst_type );
+        else if ( ds_type.equals( Attribute.MONITOR_DATA ) )
+          DataSetFactory.addMonitorOperators( ds, inst_type );
+      }
+      catch ( Throwable ex )
+      {
+        System.out.println("Failed to add operators to " + ds + " : " + ex);
+      }
+  }
+
+
+  /* ----------------------------- main --------------------------------- */
+  /** 
+   *  main program providing a basic test and throughput benchmark, 
+   *  comparing the binary frame, written to a FileChannel and through an
+   *  ObjectOutputStream, with the current CompressedDataSet form.
+   */
+  static public void main( String args[] ) throws Exception
+  { 
+    int num_spectra = 10000;
+    int num_bins    = 1000;
+    if ( args.length > 0 )
+      num_spectra = Integer.parseInt( args[0] );
+
+    DataSet ds = new DataSet( "Test DataSet", "Binary transport test" );
+    ds.setAttribute( new StringAttribute( Attribute.RUN_TITLE, "test" ) );
+    XScale x_scale = new UniformXScale( 1000, 20000, num_bins + 1 );
+    Random random  = new Random( 1 );
+    for ( int i = 0; i < num_spectra; i++ )
+    {
+      float y[] = new float[ num_bins ];
+      for ( int k = 0; k < num_bins; k++ )
+        y[k] = random.nextInt( 100 );
+      HistogramTable d = new HistogramTable( x_scale, y, i + 1 );
+      d.setSqrtErrors( true );
+      d.setAttribute( new FloatAttribute( Attribute.SOLID_ANGLE, 0.001f ) );
+      DetectorPosition position = new DetectorPosition();
+      position.setCartesianCoords( 1, i * 0.001f, 0 );
+      d.setAttribute( new DetPosAttribute( Attribute.DETECTOR_POS, position ));
+      ds.addData_entry( d );
+    }
+    System.out.println("DataSet with " + num_spectra + " spectra of " + 
+                        num_bins + " bins" );
+
+    File file = File.createTempFile( "BinaryDataSet", ".dat" );
+    file.deleteOnExit();
+
+    long start = System.nanoTime();
+    FileChannel channel = new FileOutputStream( file ).getChannel();
+    long n_bytes = write( ds, channel );
+    channel.close();
+    long mid = System.nanoTime();
+    channel = new FileInputStream( file ).getChannel();
+    DataSet new_ds = read( channel );
+    channel.close();
+    long end = System.nanoTime();
+    System.out.printf("Binary channel:   %10d bytes, write %7.1f ms, " +
+                      "read %7.1f ms\n", 
+                      n_bytes, (mid-start)/1.0e6, (end-mid)/1.0e6 );
+
+    int n_bad = 0;
+    for ( int i = 0; i < ds.getNum_entries(); i++ )
+      if ( !Arrays.equals( ds.getData_entry(i).getY_values(),
+                           new_ds.getData_entry(i).getY_values() ) ||
+           ds.getData_entry(i).getGroup_ID() != 
+                           new_ds.getData_entry(i).getGroup_ID() )
+        n_bad++;
+    System.out.println("Number of mismatched Data blocks = " + n_bad );
+
+    start = System.nanoTime();
+    ByteArrayOutputStream bytes   = new ByteArrayOutputStream();
+    ObjectOutputStream    obj_out = new ObjectOutputStream( bytes );
+    obj_out.writeObject( new BinaryDataSet( ds ) );
+    obj_out.close();
+    mid = System.nanoTime();
+    ObjectInputStream obj_in = new ObjectInputStream(
+                             new ByteArrayInputStream( bytes.toByteArray() ) );
+    new_ds = ((BinaryDataSet)obj_in.readObject()).getDataSet();
+    end = System.nanoTime();
+    System.out.printf("Binary object:    %10d bytes, write %7.1f ms, " +
+                      "read %7.1f ms\n", 
+                      bytes.size(), (mid-start)/1.0e6, (end-mid)/1.0e6 );
+
+    start = System.nanoTime();
+    bytes   = new ByteArrayOutputStream();
+    obj_out = new ObjectOutputStream( bytes );
+    obj_out.writeObject( new CompressedDataSet( ds ) );
+    obj_out.close();
+    mid = System.nanoTime();
+    obj_in = new ObjectInputStream(
+                             new ByteArrayInputStream( bytes.toByteArray() ) );
+    new_ds = ((CompressedDataSet)obj_in.readObject()).getDataSet();
+    end = System.nanoTime();
+    System.out.printf("CompressedDataSet:%10d bytes, write %7.1f ms, " +
+                      "read %7.1f ms\n", 
+                      bytes.size(), (mid-start)/1.0e6, (end-mid)/1.0e6 );
+  }
+
+}
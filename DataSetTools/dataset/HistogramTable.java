@@ -184,6 +184,20 @@ public class HistogramTable extends    TabulatedData
   }
 
 
+  /**
+   * Constructs a Data object with the specified X scale and group id, 
+   * without allocating the Y values.  This is used by subclasses, such as
+   * LazyHistogramTable, that set the Y values later.
+   *
+   * @param   x_scale   the list of x values for this data object
+   * @param   group_id  an integer id for this data object
+   */
+  protected HistogramTable( XScale x_scale, int group_id )
+  {
+    super( x_scale, null, group_id );
+  }
+
+
   /**
    * Constructs a Data object by specifying an "X" scale, 
    * "Y" values and an array of error values.
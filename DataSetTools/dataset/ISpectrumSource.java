@@ -0,0 +1,53 @@
+/* 
+ * File: ISpectrumSource.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package  DataSetTools.dataset;
+
+/**
+ *  This interface is implemented by objects that can read the y values for
+ *  one spectrum from a data file on demand, such as a Retriever.  It is 
+ *  used by LazyHistogramTable to load the y values the first time they 
+ *  are needed.
+ *
+ *  @see LazyHistogramTable
+ */
+
+public interface ISpectrumSource
+{
+  /**
+   *  Read the y values for the specified group from the underlying file.
+   *  This may be called from any thread, so implementations must be 
+   *  thread safe.
+   *
+   *  @param  group_id  The group ID of the spectrum to read.
+   *
+   *  @return a new array holding the y values of the spectrum.
+   *
+   *  @throws IllegalStateException if the spectrum can't be read.
+   */
+  public float[] getSpectrum( int group_id );
+}
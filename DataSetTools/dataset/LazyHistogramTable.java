@@ -0,0 +1,272 @@
+/* 
+ * File: LazyHistogramTable.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package  DataSetTools.dataset;
+
+import java.io.*;
+
+/**
+ *  A LazyHistogramTable is a HistogramTable whose y values are not read
+ *  when it is constructed.  Instead, the y values are read from an 
+ *  ISpectrumSource, such as a Retriever, the first time that they are 
+ *  needed.  This allows a DataSet with a very large number of spectra to 
+ *  be opened in about the time it takes to read the file header, with 
+ *  memory only being used for the spectra that are actually accessed.
+ *    Since the array returned by getY_values() may be changed by the 
+ *  caller, once the y values have been loaded they are kept by this Data
+ *  block, just as for a HistogramTable.  When cloned, serialized or written
+ *  as XML, the values are loaded and a normal HistogramTable is used.
+ *    If requested, the TOTAL_COUNT attribute is also set when the values
+ *  are loaded.  Asking for that attribute by name loads the values.
+ */
+
+public class LazyHistogramTable extends HistogramTable
+{
+  public  static final long serialVersionUID = 1L;
+
+  private transient ISpectrumSource source;
+  private boolean add_total_count = false;
+
+
+  /**
+   * Construct a Data object for a histogram with the specified x scale,
+   * whose y values will be obtained from the specified source when they
+   * are first needed.
+   *
+   * @param   x_scale   the list of bin boundaries for this Data object 
+   * @param   group_id  an integer id for this Data object, which is also
+   *                    used to get the spectrum from the source
+   * @param   source    the object that will provide the y values
+   */
+  public LazyHistogramTable( XScale          x_scale, 
+                             int             group_id, 
+                             ISpectrumSource source    )
+  {
+    super( x_scale, group_id );
+    this.source = source;
+  }
+
+
+  /**
+   * Construct a Data object for a histogram with the specified x scale,
+   * whose y values will be obtained from the specified source when they
+   * are first needed.  If add_total_count is true, the TOTAL_COUNT
+   * attribute is set to the sum of the y values when they are read.
+   *
+   * @param   x_scale          the list of bin boundaries for this Data 
+   *                           object 
+   * @param   group_id         an integer id for this Data object, which is 
+   *                           also used to get the spectrum from the source
+   * @param   source           the object that will provide the y values
+   * @param   add_total_count  flag indicating whether to set the 
+   *                           TOTAL_COUNT attribute when loading
+   */
+  public LazyHistogramTable( XScale          x_scale, 
+                             int             group_id, 
+                             ISpectrumSource source,
+                             boolean         add_total_count )
+  {
+    this( x_scale, group_id, source );
+    this.add_total_count = add_total_count;
+  }
+
+
+  /**
+   *  Check whether or not the y values have been loaded.
+   *
+   *  @return true if the y values have been read from the source.
+   */
+  public synchronized boolean isLoaded()
+  {
+    return y_values != null;
+  }
+
+
+  /**
+   * Get the table of y values, reading them from the source if they have
+   * not yet been read.
+   *
+   * @return a reference to the list of "Y" values for this Data object.
+   */
+  public float[] getY_values()
+  { 
+    load();
+    return super.getY_values();
+  }
+
+
+  public float[] getY_values( XScale x_scale, int smooth_flag )
+  {
+    load();
+    return super.getY_values( x_scale, smooth_flag );
+  }
+
+
+  public float getY_value( float x_value, int smooth_flag )
+  {
+    load();
+    return super.getY_value( x_value, smooth_flag );
+  }
+
+
+  public float[] getErrors()
+  { 
+    load();
+    return super.getErrors();
+  }
+
+
+  public void setErrors( float err[] )
+  {
+    load();
+    super.setErrors( err );
+  }
+
+
+  public void resample( XScale new_X, int smooth_flag )
+  {
+    load();
+    super.resample( new_X, smooth_flag );
+  }
+
+
+  /**
+   * Get the named attribute.  If the TOTAL_COUNT attribute is requested
+   * and has not been set yet, the y values are loaded first.
+   */
+  public Attribute getAttribute( String name )
+  {
+    if ( add_total_count && Attribute.TOTAL_COUNT.equals( name ) )
+      load();
+    return super.getAttribute( name );
+  }
+
+
+  /**
+   * Get the value of the named attribute.  If the TOTAL_COUNT attribute 
+   * is requested and has not been set yet, the y values are loaded first.
+   */
+  public Object getAttributeValue( String name )
+  {
+    if ( add_total_count && Attribute.TOTAL_COUNT.equals( name ) )
+      load();
+    return super.getAttributeValue( name );
+  }
+
+
+  public void print( int first_index, int last_index )
+  {
+    load();
+    super.print( first_index, last_index );
+  }
+
+
+  /**
+   * Return a new HistogramTable containing a copy of the x_scale, y_values,
+   * errors, group_id and attributes from the current Data object.
+   *
+   * @return  A "deep copy" clone of the current Data object, as a 
+   *          HistogramTable.
+   */
+  public Object clone()
+  {
+    load();
+    return super.clone();
+  }
+
+
+  /**
+   *  Write this Data block as a normal HistogramTable, so that the XML 
+   *  can be read back without the underlying file.
+   */
+  public boolean XMLwrite( OutputStream stream, int mode )
+  {
+    return ((HistogramTable)clone()).XMLwrite( stream, mode );
+  }
+
+
+  public boolean XMLread( InputStream stream )
+  {
+    load();
+    return super.XMLread( stream );
+  }
+
+
+  /**
+   *  Read the y values from the source, if they have not been read yet.
+   *  If the spectrum has the wrong length, a warning is printed and it is
+   *  padded with zeros or truncated to match the number of bins.
+   *  The TOTAL_COUNT attribute is set here, if requested.
+   *
+   *  @throws IllegalStateException if the source could not read the 
+   *          spectrum.  The source is kept, so a later call can try again.
+   */
+  private synchronized void load()
+  {
+    if ( y_values != null )
+      return;
+
+    int     n_bins   = x_scale.getNum_x() - 1;
+    float[] spectrum = source.getSpectrum( group_id );
+    if ( spectrum == null )
+      throw new IllegalStateException( "Could not read spectrum for group " +
+                                        group_id );
+
+    if ( spectrum.length != n_bins )
+    {
+      System.out.println( "WARNING: spectrum for group " + group_id + 
+                          " has " + spectrum.length + " values, expected " +
+                          n_bins );
+      float[] fixed = new float[ n_bins ];
+      System.arraycopy( spectrum, 0, fixed, 0, 
+                        Math.min( n_bins, spectrum.length ) );
+      spectrum = fixed;
+    }
+    y_values = spectrum;
+    source   = null;                         // no longer needed
+
+    if ( add_total_count )
+    {
+      float total = 0;
+      for ( int i = 0; i < spectrum.length; i++ )
+        total += spectrum[i];
+      super.setAttribute( new FloatAttribute( Attribute.TOTAL_COUNT, total ) );
+    }
+  }
+
+
+/* ---------------------------- writeReplace ----------------------------- */
+/**
+ *  When serialized, replace this object with a normal HistogramTable 
+ *  holding the loaded y values, since the source is not sent.
+ */
+  private Object writeReplace() throws ObjectStreamException
+  {
+    return clone();
+  }
+
+}
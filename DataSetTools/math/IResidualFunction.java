@@ -0,0 +1,125 @@
+/* 
+ * File: IResidualFunction.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package DataSetTools.math;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * This interface describes a vector valued function of a list of 
+ * parameters, whose sum of squares is to be minimized by the
+ * LevenbergMarquardt class.  After setParameters() has been called, the
+ * Jacobian for different ranges of residuals may be requested 
+ * concurrently from several threads, so getJacobian() must only read 
+ * the state set up by setParameters().
+ */
+public interface IResidualFunction
+{
+
+  /**
+   *  Get the number of parameters of the function.
+   *
+   *  @return the number of parameters.
+   */
+  public int numParameters();
+
+
+  /**
+   *  Get a copy of the current values of the parameters.
+   *
+   *  @return array with the current parameter values.
+   */
+  public double[] getParameters();
+
+
+  /**
+   *  Get the names of the parameters.
+   *
+   *  @return array with the name of each parameter.
+   */
+  public String[] getParameterNames();
+
+
+  /**
+   *  Set new values for the parameters and do any calculations that the
+   *  residuals depend on.  This is only called from one thread at a time.
+   *
+   *  @param  parameters  Array containing the new parameter values.
+   */
+  public void setParameters( double parameters[] );
+
+
+  /**
+   *  Get the number of residuals, which is the length of the vector
+   *  valued function.
+   *
+   *  @return the number of residuals.
+   */
+  public int numResiduals();
+
+
+  /**
+   *  Calculate the residuals first..last, using the current parameters.
+   *
+   *  @param  first      Index of the first residual to calculate.
+   *  @param  last       Index of the last residual to calculate.
+   *  @param  residuals  Array of length numResiduals(), into which 
+   *                     residuals first..last are stored.
+   */
+  public void getResiduals( int first, int last, double residuals[] );
+
+
+  /**
+   *  Calculate the partial derivatives of residuals first..last with 
+   *  respect to each parameter, using the current parameters, if the
+   *  function can do so analytically.
+   *
+   *  @param  first  Index of the first residual.
+   *  @param  last   Index of the last residual.
+   *  @param  jac_t  The transpose of the Jacobian, with one row of length
+   *                 numResiduals() for each parameter.  The derivative of
+   *                 residual i with respect to parameter j is stored in 
+   *                 jac_t[j][i], for i from first to last.
+   *
+   *  @return true if the derivatives were calculated, or false if the
+   *          function has no analytic derivatives, in which case the
+   *          caller must approximate them with finite differences.
+   */
+  public boolean getJacobian( int first, int last, double jac_t[][] );
+
+
+  /**
+   *  Set the thread pool that setParameters() may use to split up its
+   *  calculations.  The fitter sets the pool at the start of a fit and
+   *  sets it back to null at the end, when the pool is shut down.
+   *
+   *  @param  executor  The pool to use, or null if the calculations 
+   *                    should be done on the calling thread.
+   */
+  public void setExecutor( ExecutorService executor );
+
+}
@@ -0,0 +1,728 @@
+/* 
+ * File: LevenbergMarquardt.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package DataSetTools.math;
+
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import DataSetTools.util.TaskUtil;
+
+/**
+ * This class minimizes the sum of the squares of the residuals of an
+ * IResidualFunction, using the Levenberg-Marquardt algorithm.  The fit
+ * is done when the object is constructed, in the same way as for the
+ * MarquardtArrayFitter, and the function is left set to the best
+ * parameters found.  One thread pool is used for the whole fit.  The
+ * analytic Jacobian, if the function provides one, and the normal 
+ * equations are calculated in blocks of residuals that are processed
+ * concurrently, and the pool is passed to the function so that it can
+ * use it in setParameters().  The residuals themselves are calculated
+ * on the fitting thread.  If the function does not provide analytic 
+ * derivatives, the Jacobian is approximated by forward differences.
+ * The number of steps, function evaluations, chi-square after each 
+ * step and estimated errors of the parameters are available after the
+ * fit.
+ */
+public class LevenbergMarquardt
+{
+  public static final double INITIAL_LAMBDA = 1.0e-3;
+  public static final double MAX_LAMBDA     = 1.0e12;
+
+  /**
+   *  Relative size of the step in each parameter used to approximate
+   *  derivatives by forward differences.  Parameters with magnitude less
+   *  than one use this as an absolute step.
+   */
+  public static final double DELTA          = 1.0e-7;
+
+  /**
+   *  Number of residuals in each block used to form the normal equations.
+   */
+  public static final int    BLOCK_SIZE     = 512;
+
+  private static int n_threads = Runtime.getRuntime().availableProcessors();
+
+  private IResidualFunction f;
+  private ExecutorService   executor = null;
+  private int               num_threads;
+  private double            tolerance;
+  private int               max_steps;
+
+  private int               n_params;
+  private int               n_res;
+  private double            params[];
+  private double            sigmas[];
+  private double            chi_sq;
+  private double            lambda;
+  private double            grad_norm;
+  private int               n_steps  = 0;
+  private int               n_evals  = 0;
+  private boolean           analytic = false;
+  private String            status   = "Not started";
+  private Vector<Double>    chi_sq_history = new Vector<Double>();
+
+
+  /**
+   *  Construct a LevenbergMarquardt object and do the fit, starting from
+   *  the current parameters of the function.
+   *
+   *  @param  f          The function whose sum of squared residuals is
+   *                     minimized.
+   *  @param  tolerance  The fit stops when the relative decrease in 
+   *                     chi-square, or the relative change in every
+   *                     parameter, on a step is less than this.
+   *  @param  max_steps  The maximum number of steps to take.
+   */
+  public LevenbergMarquardt( IResidualFunction f, 
+                             double            tolerance, 
+                             int               max_steps )
+  {
+    if ( f == null )
+      throw new IllegalArgumentException("Residual function is null");
+
+    if ( f.numParameters() <= 0 || f.numResiduals() <= 0 )
+      throw new IllegalArgumentException("No parameters or no residuals " +
+                              f.numParameters() + ", " + f.numResiduals() );
+    this.f         = f;
+    this.tolerance = tolerance;
+    this.max_steps = max_steps;
+
+    n_params = f.numParameters();
+    n_res    = f.numResiduals();
+
+    num_threads = n_threads;
+    if ( num_threads > 1 )
+      executor = Executors.newFixedThreadPool( num_threads );
+    f.setExecutor( executor );
+    try
+    {
+      DoFit();
+    }
+    finally
+    {
+      f.setExecutor( null );
+      if ( executor != null )
+        executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+
+  /**
+   *  Set the number of threads in the pool used for later fits, to 
+   *  calculate the function, derivatives and normal equations.  The result of a fit does not depend on the
+   *  number of threads.
+   *
+   *  @param num_threads  The number of threads to use.  This must be at
+   *                      least 1.
+   */
+  public static void setNumThreads( int num_threads )
+  {
+    if ( num_threads < 1 )
+      throw new IllegalArgumentException("Number of threads must be at least 1 "
+                                         + num_threads );
+    n_threads = num_threads;
+  }
+
+
+  /**
+   *  Get the number of threads in the pool used for later fits.
+   *
+   *  @return the number of threads that will be used.
+   */
+  public static int getNumThreads()
+  {
+    return n_threads;
+  }
+
+
+  /**
+   *  Get the best parameters found.
+   *
+   *  @return a copy of the array of parameter values.
+   */
+  public double[] getParameters()
+  {
+    return (double[])params.clone();
+  }
+
+
+  /**
+   *  Get the estimated errors of the best parameters, from the diagonal
+   *  of the inverse of the normal equations, scaled by the reduced 
+   *  chi-square.  
+   *
+   *  @return a copy of the array of estimated errors, which are NaN if
+   *          the normal equations were singular.
+   */
+  public double[] getParameterSigmas()
+  {
+    return (double[])sigmas.clone();
+  }
+
+
+  /**
+   *  Get the sum of the squared residuals for the best parameters.
+   */
+  public double getChiSquare()
+  {
+    return chi_sq;
+  }
+
+
+  /**
+   *  Get the sum of the squared residuals before the fit, followed by the
+   *  value after each accepted step.
+   */
+  public double[] getChiSquareHistory()
+  {
+    double history[] = new double[ chi_sq_history.size() ];
+    for ( int i = 0; i < history.length; i++ )
+      history[i] = chi_sq_history.elementAt(i);
+    return history;
+  }
+
+
+  /**
+   *  Get the number of Levenberg-Marquardt steps taken.
+   */
+  public int getNumSteps()
+  {
+    return n_steps;
+  }
+
+
+  /**
+   *  Get the number of times the residuals were calculated for a new 
+   *  set of parameters, including those used for finite differences.
+   */
+  public int getNumEvaluations()
+  {
+    return n_evals;
+  }
+
+
+  /**
+   *  Get the damping factor lambda at the end of the fit.
+   */
+  public double getLambda()
+  {
+    return lambda;
+  }
+
+
+  /**
+   *  Get the largest absolute value of the components of the gradient
+   *  of half the chi-square, at the last point the Jacobian was found.
+   */
+  public double getGradientNorm()
+  {
+    return grad_norm;
+  }
+
+
+  /**
+   *  Get a message saying why the fit stopped.
+   */
+  public String getStatus()
+  {
+    return status;
+  }
+
+
+  /**
+   *  Get a multi-line String describing the result of the fit, and listing
+   *  the parameter values with their estimated errors.
+   */
+  public String getResultsString()
+  {
+    String names[] = f.getParameterNames();
+    StringBuffer buff = new StringBuffer();
+    buff.append( "Levenberg-Marquardt: " + status + "\n" );
+    buff.append( "Steps = " + n_steps + 
+                 ", Function Evaluations = " + n_evals + 
+                 ", Threads = " + num_threads + 
+                 ( analytic ? ", Analytic" : ", Finite Difference" ) +
+                 " Derivatives\n" );
+    buff.append( String.format( "Chi Sq = %14.7e, Reduced Chi Sq = %14.7e\n",
+                                 chi_sq, ReducedChiSquare() ) );
+    buff.append( String.format( "Lambda = %10.3e, Max |Gradient| = %10.3e\n",
+                                 lambda, grad_norm ) );
+    for ( int i = 0; i < n_params; i++ )
+    {
+      String name = "Parameter " + i;
+      if ( names != null && i < names.length && names[i] != null )
+        name = names[i];
+      buff.append( String.format( "%-25s %20.12e +- %14.7e\n",
+                                   name, params[i], sigmas[i] ) );
+    }
+    return buff.toString();
+  }
+
+
+  /**
+   *  Do the Levenberg-Marquardt iteration, starting from the current
+   *  parameters of the function.
+   */
+  private void DoFit()
+  {
+    params = (double[])f.getParameters().clone();
+    sigmas = new double[ n_params ];
+
+    double residuals[]     = new double[ n_res ];
+    double new_residuals[] = new double[ n_res ];
+    double jac_t[][]       = new double[ n_params ][ n_res ];
+    double alpha[][]       = new double[ n_params ][ n_params ];
+    double beta[]          = new double[ n_params ];
+    double step[]          = new double[ n_params ];
+    double new_params[]    = new double[ n_params ];
+    double damped[][]      = new double[ n_params ][ n_params ];
+
+    chi_sq = Evaluate( params, residuals );
+    chi_sq_history.add( chi_sq );
+    lambda = INITIAL_LAMBDA;
+    status = "Maximum number of steps taken";
+
+    boolean need_jacobian = true;
+    while ( n_steps < max_steps )
+    {
+      if ( chi_sq == 0 )
+      {
+        status = "Residuals are zero";
+        break;
+      }
+
+      if ( need_jacobian )
+      {
+        analytic = FindJacobian( params, residuals, jac_t );
+        NormalEquations( jac_t, residuals, alpha, beta );
+        grad_norm = 0;
+        for ( int i = 0; i < n_params; i++ )
+          grad_norm = Math.max( grad_norm, Math.abs( beta[i] ) );
+        need_jacobian = false;
+      }
+
+      for ( int i = 0; i < n_params; i++ )
+      {
+        for ( int j = 0; j < n_params; j++ )
+          damped[i][j] = alpha[i][j];
+        if ( alpha[i][i] > 0 )
+          damped[i][i] = alpha[i][i] * ( 1 + lambda );
+        else
+          damped[i][i] = lambda;
+      }
+
+      n_steps++;
+      if ( !CholeskySolve( damped, beta, step ) )
+      {
+        lambda *= 10;
+        if ( lambda > MAX_LAMBDA )
+        {
+          status = "Normal equations are singular";
+          break;
+        }
+        continue;
+      }
+
+      boolean small_step = true;
+      for ( int i = 0; i < n_params; i++ )
+      {
+        new_params[i] = params[i] + step[i];
+        if ( Math.abs( step[i] ) > 
+             tolerance * ( Math.abs( params[i] ) + tolerance ) )
+          small_step = false;
+      }
+
+      double new_chi_sq = Evaluate( new_params, new_residuals );
+      if ( new_chi_sq < chi_sq )
+      {
+        double decrease = ( chi_sq - new_chi_sq ) / chi_sq;
+
+        double temp[] = params;
+        params        = new_params;
+        new_params    = temp;
+        temp          = residuals;
+        residuals     = new_residuals;
+        new_residuals = temp;
+        chi_sq        = new_chi_sq;
+        chi_sq_history.add( chi_sq );
+
+        lambda = Math.max( lambda / 10, 1.0e-12 );
+        need_jacobian = true;
+
+        if ( decrease < tolerance || small_step )
+        {
+          status = "Converged";
+          break;
+        }
+      }
+      else
+      {
+        if ( small_step )
+        {
+          status = "Converged, step size less than tolerance";
+          break;
+        }
+        lambda *= 10;
+        if ( lambda > MAX_LAMBDA )
+        {
+          status = "No further decrease in chi-square possible";
+          break;
+        }
+      }
+    }
+                                    // leave the function at the best params
+    f.setParameters( params );
+    if ( need_jacobian )
+    {
+      analytic = FindJacobian( params, residuals, jac_t );
+      NormalEquations( jac_t, residuals, alpha, beta );
+      f.setParameters( params );
+    }
+    FindSigmas( alpha );
+  }
+
+
+  /**
+   *  Set the parameters of the function and calculate all residuals.
+   *  The residuals are calculated on this thread, since the work of 
+   *  an evaluation is done in setParameters().
+   *
+   *  @return the sum of the squares of the residuals.
+   */
+  private double Evaluate( double p[], double residuals[] )
+  {
+    f.setParameters( (double[])p.clone() );
+    n_evals++;
+
+    f.getResiduals( 0, n_res - 1, residuals );
+
+    double sum = 0;
+    for ( int i = 0; i < n_res; i++ )
+      sum += residuals[i] * residuals[i];
+    return sum;
+  }
+
+
+  /**
+   *  Calculate the transpose of the Jacobian at the specified parameters,
+   *  analytically if the function supports it, or else by forward
+   *  differences.  NOTE: When finite differences are used, the function
+   *  is left set to shifted parameters.
+   *
+   *  @return true if analytic derivatives were used.
+   */
+  private boolean FindJacobian( double p[], double residuals[],
+                                double jac_t[][] )
+  {
+    int num_parts = TaskUtil.NumParts( n_res, num_threads );
+    Vector<Callable<Boolean>> tasks = new Vector<Callable<Boolean>>();
+    for ( int part = 0; part < num_parts; part++ )
+      tasks.add( new JacobianTask( f, jac_t,
+                          TaskUtil.PartStart( part,   num_parts, n_res ),
+                          TaskUtil.PartStart( part+1, num_parts, n_res ) - 1 ));
+    Vector<Boolean> results = TaskUtil.RunTasks( executor, tasks );
+
+    boolean all_analytic = true;
+    for ( int i = 0; i < results.size(); i++ )
+      if ( !results.elementAt(i) )
+        all_analytic = false;
+
+    if ( all_analytic )
+      return true;
+
+    double shifted[] = new double[ n_params ];
+    for ( int j = 0; j < n_params; j++ )
+    {
+      System.arraycopy( p, 0, shifted, 0, n_params );
+      double h = DELTA * Math.max( Math.abs( p[j] ), 1 );
+      shifted[j] = p[j] + h;
+      h = shifted[j] - p[j];                  // exactly representable step
+
+      double row[] = jac_t[j];
+      Evaluate( shifted, row );
+      for ( int i = 0; i < n_res; i++ )
+        row[i] = ( row[i] - residuals[i] ) / h;
+    }
+    return false;
+  }
+
+
+  /**
+   *  Form the normal equations alpha = J^T J and beta = -J^T r, summing
+   *  the contributions from blocks of BLOCK_SIZE residuals concurrently.
+   *  The blocks do not depend on the number of threads and the partial
+   *  sums are added in order, so neither does the result.
+   */
+  private void NormalEquations( double jac_t[][], double residuals[], 
+                                double alpha[][], double beta[] )
+  {
+    int num_parts   = ( n_res + BLOCK_SIZE - 1 ) / BLOCK_SIZE;
+    Vector<Callable<double[][]>> tasks = new Vector<Callable<double[][]>>();
+    for ( int part = 0; part < num_parts; part++ )
+      tasks.add( new NormalTask( jac_t, residuals,
+                          TaskUtil.PartStart( part,   num_parts, n_res ),
+                          TaskUtil.PartStart( part+1, num_parts, n_res ) - 1 ));
+    Vector<double[][]> results = TaskUtil.RunTasks( executor, tasks );
+
+    for ( int i = 0; i < n_params; i++ )
+    {
+      beta[i] = 0;
+      for ( int j = 0; j < n_params; j++ )
+        alpha[i][j] = 0;
+    }
+
+    for ( int part = 0; part < results.size(); part++ )
+    {
+      double sums[][] = results.elementAt( part );
+      for ( int i = 0; i < n_params; i++ )
+      {
+        for ( int j = i; j < n_params; j++ )
+          alpha[i][j] += sums[i][j];
+        beta[i] += sums[ n_params ][i];
+      }
+    }
+
+    for ( int i = 0; i < n_params; i++ )
+      for ( int j = 0; j < i; j++ )
+        alpha[i][j] = alpha[j][i];
+  }
+
+
+  /**
+   *  Estimate the errors in the parameters from the diagonal of the 
+   *  inverse of the normal equations.
+   */
+  private void FindSigmas( double alpha[][] )
+  {
+    double reduced = ReducedChiSquare();
+    double unit[]  = new double[ n_params ];
+    double column[] = new double[ n_params ];
+    double a[][]   = new double[ n_params ][ n_params ];
+    for ( int i = 0; i < n_params; i++ )
+    {
+      for ( int j = 0; j < n_params; j++ )
+      {
+        a[j]    = (double[])alpha[j].clone();
+        unit[j] = 0;
+      }
+      unit[i] = 1;
+      if ( CholeskySolve( a, unit, column ) && column[i] >= 0 )
+        sigmas[i] = Math.sqrt( column[i] * reduced );
+      else
+        sigmas[i] = Double.NaN;
+    }
+  }
+
+
+  /**
+   *  Get the chi-square divided by the number of degrees of freedom.
+   */
+  private double ReducedChiSquare()
+  {
+    if ( n_res > n_params )
+      return chi_sq / ( n_res - n_params );
+    return chi_sq;
+  }
+
+
+  /**
+   *  Solve the symmetric positive definite system a x = b, using the 
+   *  Cholesky factorization.  The lower triangle of a is overwritten 
+   *  with the factor.
+   *
+   *  @return true if the system was solved, or false if the matrix is
+   *          not positive definite.
+   */
+  private static boolean CholeskySolve( double a[][], double b[], double x[] )
+  {
+    int n = b.length;
+    for ( int j = 0; j < n; j++ )
+    {
+      double d = a[j][j];
+      for ( int k = 0; k < j; k++ )
+        d -= a[j][k] * a[j][k];
+      if ( !( d > 0 ) )
+        return false;
+      d = Math.sqrt( d );
+      a[j][j] = d;
+
+      for ( int i = j+1; i < n; i++ )
+      {
+        double s = a[i][j];
+        for ( int k = 0; k < j; k++ )
+          s -= a[i][k] * a[j][k];
+        a[i][j] = s / d;
+      }
+    }
+
+    for ( int i = 0; i < n; i++ )             // solve L y = b
+    {
+      double s = b[i];
+      for ( int k = 0; k < i; k++ )
+        s -= a[i][k] * x[k];
+      x[i] = s / a[i][i];
+    }
+
+    for ( int i = n-1; i >= 0; i-- )          // solve L^T x = y
+    {
+      double s = x[i];
+      for ( int k = i+1; k < n; k++ )
+        s -= a[k][i] * x[k];
+      x[i] = s / a[i][i];
+    }
+    return true;
+  }
+
+
+  /**
+   *  Calculate the Jacobian for one block of residuals.  The call returns
+   *  true if the function provided analytic derivatives.
+   */
+  private static class JacobianTask implements Callable<Boolean>
+  {
+    private IResidualFunction f;
+    private double            jac_t[][];
+    private int               first;
+    private int               last;
+
+    public JacobianTask( IResidualFunction f, 
+                         double            jac_t[][], 
+                         int               first, 
+                         int               last )
+    {
+      this.f         = f;
+      this.jac_t     = jac_t;
+      this.first     = first;
+      this.last      = last;
+    }
+
+    public Boolean call()
+    {
+      if ( last < first )
+        return true;
+
+      return f.getJacobian( first, last, jac_t );
+    }
+  }
+
+
+  /**
+   *  Sum the contributions of one block of residuals to the normal 
+   *  equations.  The upper triangle of J^T J is returned in the first
+   *  n_params rows, and -J^T r in the last row.
+   */
+  private static class NormalTask implements Callable<double[][]>
+  {
+    private double jac_t[][];
+    private double residuals[];
+    private int    first;
+    private int    last;
+
+    public NormalTask( double jac_t[][], double residuals[], 
+                       int first, int last )
+    {
+      this.jac_t     = jac_t;
+      this.residuals = residuals;
+      this.first     = first;
+      this.last      = last;
+    }
+
+    public double[][] call()
+    {
+      int n = jac_t.length;
+      double sums[][] = new double[ n+1 ][ n ];
+      for ( int i = 0; i < n; i++ )
+      {
+        double row_i[] = jac_t[i];
+        for ( int j = i; j < n; j++ )
+        {
+          double row_j[] = jac_t[j];
+          double sum = 0;
+          for ( int k = first; k <= last; k++ )
+            sum += row_i[k] * row_j[k];
+          sums[i][j] = sum;
+        }
+        double sum = 0;
+        for ( int k = first; k <= last; k++ )
+          sum -= row_i[k] * residuals[k];
+        sums[n][i] = sum;
+      }
+      return sums;
+    }
+  }
+
+
+  /**
+   *  Basic test program that fits y = a*exp(-b*x) + c to exact data from
+   *  different starting parameters.
+   */
+  public static void main( String args[] )
+  {
+    final double x[] = new double[200];
+    final double y[] = new double[200];
+    for ( int i = 0; i < x.length; i++ )
+    {
+      x[i] = i * 0.05;
+      y[i] = 5 * Math.exp( -0.8 * x[i] ) + 2;
+    }
+
+    IResidualFunction test_f = new IResidualFunction()
+    {
+      double p[] = { 1, 0.1, 0 };
+
+      public int numParameters()        { return 3; }
+      public double[] getParameters()   { return (double[])p.clone(); }
+      public String[] getParameterNames(){ return new String[]{"a","b","c"}; }
+      public void setParameters( double parameters[] )
+      {
+        p = (double[])parameters.clone();
+      }
+      public int numResiduals()         { return x.length; }
+      public void getResiduals( int first, int last, double residuals[] )
+      {
+        for ( int i = first; i <= last; i++ )
+          residuals[i] = p[0] * Math.exp( -p[1] * x[i] ) + p[2] - y[i];
+      }
+      public boolean getJacobian( int first, int last, double jac_t[][] )
+      {
+        return false;
+      }
+      public void setExecutor( ExecutorService executor ) {}
+    };
+
+    long start = System.nanoTime();
+    LevenbergMarquardt fitter = new LevenbergMarquardt( test_f, 1e-12, 500 );
+    long end = System.nanoTime();
+    System.out.println( fitter.getResultsString() );
+    System.out.printf( "Time to fit = %5.1f ms\n", (end - start)/1.0e6 );
+  }
+
+}
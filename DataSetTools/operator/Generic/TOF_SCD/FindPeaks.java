@@ -93,7 +93,12 @@ package DataSetTools.operator.Generic.TOF_SCD;
 
 import gov.anl.ipns.Util.SpecialStrings.ErrorString;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
 import DataSetTools.dataset.Attribute;
 import DataSetTools.dataset.Data;
@@ -106,6 +111,7 @@ import DataSetTools.operator.Parameter;
 import DataSetTools.operator.DataSet.Attribute.LoadSCDCalib;
 import DataSetTools.retriever.RunfileRetriever;
 import DataSetTools.util.SharedData;
+import DataSetTools.util.TaskUtil;
 import gov.anl.ipns.Util.SpecialStrings.*;
 import gov.anl.ipns.Util.Numeric.*;
 import DataSetTools.dataset.IDataGrid;
@@ -126,6 +132,9 @@ public class FindPeaks extends GenericTOF_SCD implements HiddenOperator{
   private              int        run_number            = -1;
   private              int        maxNumPeaks           = 0;
   private              int        min_count             = 0;
+
+  private static       int        n_threads  = 
+                                   Runtime.getRuntime().availableProcessors();
   
   /* ------------------------ Default constructor ------------------------- */ 
   /**
@@ -168,6 +177,35 @@ public class FindPeaks extends GenericTOF_SCD implements HiddenOperator{
                                  new Integer(maxTimeChan) ) );
     addParameter( new Parameter("Pixel Rows/Cols", PixelRows ));
   }
+
+  /* --------------------------- setNumThreads ---------------------------- */ 
+  /**
+   *  Set the number of threads used by getResult() to scan the detectors 
+   *  for local maxima.  The detectors, and slabs of time channels within
+   *  each detector, are scanned concurrently.  The peaks found do not 
+   *  depend on the number of threads.  findDetectorPeaks() always scans
+   *  on the calling thread, since its callers already run several 
+   *  detectors in parallel.
+   *
+   *  @param num_threads  The number of threads to use.  This must be at
+   *                      least 1.
+   */
+  public static void setNumThreads( int num_threads ){
+    if ( num_threads < 1 )
+      throw new IllegalArgumentException("Number of threads must be at least 1 "
+                                         + num_threads );
+    n_threads = num_threads;
+  }
+
+  /* --------------------------- getNumThreads ---------------------------- */ 
+  /**
+   *  Get the number of threads used to scan the detectors for local maxima.
+   *
+   *  @return the number of threads that will be used.
+   */
+  public static int getNumThreads(){
+    return n_threads;
+  }
   
   /* --------------------------- getCommand ------------------------------- */ 
   /** 
@@ -278,12 +316,20 @@ public class FindPeaks extends GenericTOF_SCD implements HiddenOperator{
     pkfac.sample_orient(chi,phi,omega);
     pkfac.monct(moncount);
     pkfac.L1(init_path);
+    // scan all of the detectors for local maxima concurrently
+    ScanRegion[] regions=new ScanRegion[det_number.length];
+    for( int i=0 ; i<det_number.length ; i++ )
+      regions[i]=getScanRegion( data_set,
+                                det_number[i],
+                                minTimeChan,
+                                maxTimeChan, PixelRows );
+    FindLocalMaxima( regions, n_threads );
+
     for( int i=0 ; i<det_number.length ; i++ ){
       Vector innerPeakList=findPeaks( pkfac,
                                       data_set,
                                       det_number[i],
-                                      minTimeChan,
-                                      maxTimeChan, PixelRows );
+                                      regions[i] );
 
       if(innerPeakList!=null && innerPeakList.size()>0)
         peaks.addAll(innerPeakList);
@@ -303,17 +349,14 @@ public class FindPeaks extends GenericTOF_SCD implements HiddenOperator{
   }
 
   /**
-   * This does the real work of finding a bunch of peaks for a given
-   * detector number.
+   * Get the region of the specified detector that will be scanned for
+   * local maxima.  The edges of the detector are not scanned.
    */
-  private  Vector findPeaks( PeakFactory pkfac,
-                            DataSet     data_set,
-                            int         detNum,
-                            int         minTimeChan,
-                            int         maxTimeChan,
-                            IntListString PixelRow ){
-    pkfac.detnum(detNum);
-
+  private ScanRegion getScanRegion( DataSet     data_set,
+                                    int         detNum,
+                                    int         minTimeChan,
+                                    int         maxTimeChan,
+                                    IntListString PixelRow ){
     // create an array of for indexing into the data
     int[][] ids=Util.createIdMap(data_set,detNum);
     Data data=null;
@@ -322,11 +365,6 @@ public class FindPeaks extends GenericTOF_SCD implements HiddenOperator{
     int minRow=1000;
     int maxRow=0;
 
-    // position of detector center
-    float detA  = Util.detector_angle(data_set,detNum);
-    float detA2 = Util.detector_angle2(data_set,detNum);
-    float detD  = Util.detector_distance(data_set,detNum);
-
     // determine the minimum and maximum row and columns
     outer: for( int i=0 ; i<ids.length ; i++ ){
       for( int j=0 ; j<ids[0].length ; j++ ){
@@ -347,14 +385,59 @@ public class FindPeaks extends GenericTOF_SCD implements HiddenOperator{
     data=data_set.getData_entry(ids[minColumn][minRow]);
     maxTimeChan= Math.min( maxTimeChan, (data.getY_values()).length );
 
+    int[] rowList= IntList.ToArray( PixelRow.toString());
+    java.util.Arrays.sort(rowList);
+
+    // stay off of the edges
+    ScanRegion region=new ScanRegion( data_set, ids, null );
+    region.i_list=rowList;
+    region.j_list=rowList;
+    region.first_i=minColumn+1;
+    region.last_i =maxColumn-2;
+    region.first_j=minRow+1;
+    region.last_j =maxRow-2;
+    region.first_k=minTimeChan+1;
+    region.last_k =maxTimeChan-2;
+    region.min_count=min_count;
+    region.max_keep =maxNumPeaks;
+
+    region.min_col =minColumn;
+    region.max_col =maxColumn;
+    region.min_row =minRow;
+    region.max_row =maxRow;
+    region.min_chan=minTimeChan;
+    region.max_chan=maxTimeChan;
+    return region;
+  }
+
+  /**
+   * This does the real work of finding a bunch of peaks for a given
+   * detector number, from the local maxima found in the scan region
+   * for the detector.
+   */
+  private  Vector findPeaks( PeakFactory pkfac,
+                            DataSet     data_set,
+                            int         detNum,
+                            ScanRegion  region ){
+    pkfac.detnum(detNum);
+
+    // position of detector center
+    float detA  = Util.detector_angle(data_set,detNum);
+    float detA2 = Util.detector_angle2(data_set,detNum);
+    float detD  = Util.detector_distance(data_set,detNum);
+
+    int[][] ids=region.ids;
+    int minColumn=region.min_col;
+    int maxColumn=region.max_col;
+    int minRow=region.min_row;
+    int maxRow=region.max_row;
+    int minTimeChan=region.min_chan;
+    int maxTimeChan=region.max_chan;
+
     SharedData.addmsg("Columns("+minColumn+"<"+maxColumn
                       +") Rows("+minRow+"<"+maxRow
                       +") TimeIndices("+minTimeChan+"<"+maxTimeChan+")");
     
-    float[] Dpp=null, Dtp=null, Dnp=null,
-            Dpt=null, Dtt=null, Dnt=null,
- 	    Dpn=null, Dtn=null, Dnn=null;
-    
     Peak peak=null;
     Vector peaks=new Vector();
     int peakNum=0;
@@ -367,86 +450,28 @@ public class FindPeaks extends GenericTOF_SCD implements HiddenOperator{
     pkfac.detA(detA);
     pkfac.detA2(detA2);
     pkfac.detD(detD);
-    int[] rowList= IntList.ToArray( PixelRow.toString());
-    java.util.Arrays.sort(rowList);
-    // stay off of the edges
-    for( int i=minColumn+1 ; i<maxColumn-1 ; i++ ){  // loop over column
-      for( int j=minRow+1 ; j<maxRow-1 ; j++ )
-      if( java.util.Arrays.binarySearch(rowList,i)>=0)
-      if( java.util.Arrays.binarySearch(rowList,j)>=0)
-      {      // loop over row
-        // set up datasets for adjacent pixels
-        Dpp=data_set.getData_entry(ids[i-1][j-1]).getCopyOfY_values();
-        Dpt=data_set.getData_entry(ids[i+0][j-1]).getCopyOfY_values();
-        Dpn=data_set.getData_entry(ids[i+1][j-1]).getCopyOfY_values();
-        Dtp=data_set.getData_entry(ids[i-1][j+0]).getCopyOfY_values();
-        Dtt=data_set.getData_entry(ids[i+0][j+0]).getCopyOfY_values();
-        Dtn=data_set.getData_entry(ids[i+1][j+0]).getCopyOfY_values();
-        Dnp=data_set.getData_entry(ids[i-1][j+1]).getCopyOfY_values();
-        Dnt=data_set.getData_entry(ids[i+0][j+1]).getCopyOfY_values();
-        Dnn=data_set.getData_entry(ids[i+1][j+1]).getCopyOfY_values();
-        for( int k=minTimeChan+1 ; k<maxTimeChan-1 ; k++ ){ // loop over times
-          float I=Dtt[k];
-          if(I>min_count){
-            if(I<Dpp[k-1]) continue;
-            if(I<Dpp[k+0]) continue;
-            if(I<Dpp[k+1]) continue;
-            
-            if(I<Dtp[k-1]) continue;
-            if(I<Dtp[k+0]) continue;
-            if(I<Dtp[k+1]) continue;
-            
-            if(I<Dnp[k-1]) continue;
-            if(I<Dnp[k+0]) continue;
-            if(I<Dnp[k+1]) continue;
-            
-            if(I<Dpt[k-1]) continue;
-            if(I<Dpt[k+0]) continue;
-            if(I<Dpt[k+1]) continue;
-            
-            if(I<Dtt[k-1]) continue;
-            // this is the current one
-            if(I<Dtt[k+1]) continue;
-            
-            if(I<Dnt[k-1]) continue;
-            if(I<Dnt[k+0]) continue;
-            if(I<Dnt[k+1]) continue;
-            
-            if(I<Dpn[k-1]) continue;
-            if(I<Dpn[k+0]) continue;
-            if(I<Dpn[k+1]) continue;
-            
-            if(I<Dtn[k-1]) continue;
-            if(I<Dtn[k+0]) continue;
-            if(I<Dtn[k+1]) continue;
-            
-            if(I<Dnn[k-1]) continue;
-            if(I<Dnn[k+0]) continue;
-            if(I<Dnn[k+1]) continue;
-            
-            peak=pkfac.getPixelInstance(i,j,k,0,0);
-            peak.seqnum(peakNum);
-            peak.ipkobs( Math.round(I));
-            peak.nearedge( minColumn,   maxColumn,
-                           minRow,      maxRow,
-                           minTimeChan, maxTimeChan);
-            if(peak.nearedge()<3)
-              peak.reflag(2);
-            else
-              peak.reflag(1);
-            peaks.add(peak.clone());
-            peakNum++;
-          }
-          
-          
-        } // end of loop over timeslice
-      }     // end of loop over row
-    }         // end of loop over column
-    SharedData.addmsg("Found "+peaks.size()+" peaks (maximum number "+
+
+    Candidate cand=null;
+    for( int n=0 ; n<region.found.size() ; n++ ){
+      cand=region.found.elementAt(n);
+      peak=pkfac.getPixelInstance(cand.i,cand.j,cand.k,0,0);
+      peak.seqnum(peakNum);
+      peak.ipkobs(cand.ipkobs);
+      peak.nearedge( minColumn,   maxColumn,
+                     minRow,      maxRow,
+                     minTimeChan, maxTimeChan);
+      if(peak.nearedge()<3)
+        peak.reflag(2);
+      else
+        peak.reflag(1);
+      peaks.add(peak.clone());
+      peakNum++;
+    }
+    SharedData.addmsg("Found "+region.num_found+" peaks (maximum number "+
                       maxNumPeaks+")");
     
     SharedData.addmsg("Sorting peaks");
-    peaks=sort(peaks,maxNumPeaks, null);
+    peaks=sort(peaks,maxNumPeaks,region.num_found,null);
     
     if(peaks.size()>maxNumPeaks){
       for( int i=peaks.size()-1 ; i>=maxNumPeaks ; i-- ){
@@ -605,7 +630,8 @@ public class FindPeaks extends GenericTOF_SCD implements HiddenOperator{
   
   /**
    * This does the real work of finding a bunch of peaks for a given
-   * detector number.
+   * detector number.  The scan is done on the calling thread, since 
+   * this is called for several detectors in parallel.
    */
  public static  Vector findDetectorPeaks( 
                             DataSet     data_set,
@@ -643,9 +669,6 @@ public class FindPeaks extends GenericTOF_SCD implements HiddenOperator{
                       +") Rows("+1+"<"+grid.num_rows()
                       +") TimeIndices("+minTimeChan+"<"+maxTimeChan+")");
     log.append( "\n" );
-    float[] Dpp=null, Dtp=null, Dnp=null,
-            Dpt=null, Dtt=null, Dnt=null,
-       Dpn=null, Dtn=null, Dnn=null;
     
     Peak peak=null;
     Vector peaks=new Vector();
@@ -671,85 +694,42 @@ public class FindPeaks extends GenericTOF_SCD implements HiddenOperator{
     if( colList== null || colList.length < 1 || rowList == null ||
              rowList.length < 1 )
          return new Vector();
-    for( int i=1+1 ; i< grid.num_cols()-1 ; i++ ){  // loop over column
-      for( int j=1+1 ; j<grid.num_rows()-1 ; j++ )
-      if( java.util.Arrays.binarySearch(colList,i)>=0)
-      if( java.util.Arrays.binarySearch(rowList,j)>=0)
-      {      // loop over row
-        // set up datasets for adjacent pixels
-        Dpp=grid.getData_entry(j-1,i-1).getY_values();
-        Dpt=grid.getData_entry(j-1,i+0).getY_values();
-        Dpn=grid.getData_entry(j-1,i+1).getY_values();
-        Dtp=grid.getData_entry(j+0,i-1).getY_values();
-        Dtt=grid.getData_entry(j+0,i+0).getY_values();
-        Dtn=grid.getData_entry(j+0,i+1).getY_values();
-        Dnp=grid.getData_entry(j+1,i-1).getY_values();
-        Dnt=grid.getData_entry(j+1,i+0).getY_values();
-        Dnn=grid.getData_entry(j+1,i+1).getY_values();
-        for( int k=minTimeChan+1 ; k<maxTimeChan-1 ; k++ ){ // loop over times
-          float I=Dtt[k];
-          if(I>min_count){
-            if(I<Dpp[k-1]) continue;
-            if(I<Dpp[k+0]) continue;
-            if(I<Dpp[k+1]) continue;
-            
-            if(I<Dtp[k-1]) continue;
-            if(I<Dtp[k+0]) continue;
-            if(I<Dtp[k+1]) continue;
-            
-            if(I<Dnp[k-1]) continue;
-            if(I<Dnp[k+0]) continue;
-            if(I<Dnp[k+1]) continue;
-            
-            if(I<Dpt[k-1]) continue;
-            if(I<Dpt[k+0]) continue;
-            if(I<Dpt[k+1]) continue;
-            
-            if(I<Dtt[k-1]) continue;
-            // this is the current one
-            if(I<Dtt[k+1]) continue;
-            
-            if(I<Dnt[k-1]) continue;
-            if(I<Dnt[k+0]) continue;
-            if(I<Dnt[k+1]) continue;
-            
-            if(I<Dpn[k-1]) continue;
-            if(I<Dpn[k+0]) continue;
-            if(I<Dpn[k+1]) continue;
-            
-            if(I<Dtn[k-1]) continue;
-            if(I<Dtn[k+0]) continue;
-            if(I<Dtn[k+1]) continue;
-            
-            if(I<Dnn[k-1]) continue;
-            if(I<Dnn[k+0]) continue;
-            if(I<Dnn[k+1]) continue;
-            
-            peak=pkfac.getPixelInstance(i,j,k,0,0);
-            peak.seqnum(peakNum);
-            peak.ipkobs( Math.round(I));
-            //------------User MUST fix row, col to keep so peaks do not run 
-            //-----------    into the side or bad side elements of a detector 
-            peak.nearedge( colList[0],   colList[ colList.length -1 ],
-                           rowList[0],   rowList[ rowList.length -1 ],
-                           minTimeChan, maxTimeChan);
-            //if(peak.nearedge()<3)
-            //  peak.reflag(2);
-            //else
-              peak.reflag(1);
-            peaks.add(peak.clone());
-            peakNum++;
-          }
-          
-          
-        } // end of loop over timeslice
-      }     // end of loop over row
-    }         // end of loop over column
-    log.append("Found "+peaks.size()+" peaks (maximum number "+
+    ScanRegion region=new ScanRegion( null, null, grid );
+    region.i_list=colList;
+    region.j_list=rowList;
+    region.first_i=1+1;
+    region.last_i =grid.num_cols()-2;
+    region.first_j=1+1;
+    region.last_j =grid.num_rows()-2;
+    region.first_k=minTimeChan+1;
+    region.last_k =maxTimeChan-2;
+    region.min_count=min_count;
+    region.max_keep =maxNumPeaks;
+    FindLocalMaxima( new ScanRegion[]{ region }, 1 );
+
+    Candidate cand=null;
+    for( int n=0 ; n<region.found.size() ; n++ ){
+      cand=region.found.elementAt(n);
+      peak=pkfac.getPixelInstance(cand.i,cand.j,cand.k,0,0);
+      peak.seqnum(peakNum);
+      peak.ipkobs(cand.ipkobs);
+      //------------User MUST fix row, col to keep so peaks do not run 
+      //-----------    into the side or bad side elements of a detector 
+      peak.nearedge( colList[0],   colList[ colList.length -1 ],
+                     rowList[0],   rowList[ rowList.length -1 ],
+                     minTimeChan, maxTimeChan);
+      //if(peak.nearedge()<3)
+      //  peak.reflag(2);
+      //else
+        peak.reflag(1);
+      peaks.add(peak.clone());
+      peakNum++;
+    }
+    log.append("Found "+region.num_found+" peaks (maximum number "+
                       maxNumPeaks+")");
     log.append( "\n" );
     log.append("Sorting peaks\n");
-    peaks=sort(peaks,maxNumPeaks, buff);
+    peaks=sort(peaks,maxNumPeaks,region.num_found, buff);
     
     if(peaks.size()>maxNumPeaks){
       for( int i=peaks.size()-1 ; i>=maxNumPeaks ; i-- ){
@@ -771,6 +751,16 @@ public class FindPeaks extends GenericTOF_SCD implements HiddenOperator{
   
   /* ------------------------------- sort --------------------------------- */ 
   private static Vector sort(Vector peaks, int maxNumPeaks, Object buff){
+    return sort( peaks, maxNumPeaks, peaks.size(), buff );
+  }
+
+  /**
+   * Sort the peaks by decreasing ipkobs, keeping at most maxNumPeaks.
+   * The number of peaks found may be larger than the number in the list,
+   * if the list only holds the largest peaks found.
+   */
+  private static Vector sort(Vector peaks, int maxNumPeaks, int numFound,
+                             Object buff){
     Vector sortPeaks=new Vector();
     int origPeaksSize=peaks.size();
     Peak peak=new Peak();
@@ -790,7 +780,7 @@ public class FindPeaks extends GenericTOF_SCD implements HiddenOperator{
       maxPeak=getMaxPeak(peaks);
     }
     
-    if(origPeaksSize>maxNumPeaks){
+    if(numFound>maxNumPeaks){
        if( buff == null || !(buff instanceof StringBuffer))
              SharedData.addmsg("Keeping largest "+sortPeaks.size()
                         +" peaks");
@@ -853,6 +843,264 @@ public class FindPeaks extends GenericTOF_SCD implements HiddenOperator{
     return minT;
   }
   
+  /* ------------------------- FindLocalMaxima ---------------------------- */ 
+  /**
+   * Find the local maxima in each of the specified regions.  A voxel is a
+   * local maximum if its count is more than the region's min_count and is
+   * not less than any of its 26 neighbors.  The time channels of each
+   * region are split into slabs, and all slabs of all regions are scanned
+   * concurrently.  Each slab reads its neighbors directly from the Data
+   * blocks, so the voxels on the boundary of a slab are tested exactly
+   * as in a serial scan, and no copy of the detector data is made.  Each
+   * slab keeps at most max_keep of the largest maxima it finds, so memory
+   * use is bounded.  The maxima kept for a region are then merged, in the
+   * order that a serial scan over column, row and time channel would find
+   * them, and stored in the region's found list.  The total number of 
+   * maxima is stored in num_found.  If only one thread is used, the slabs
+   * are scanned in order on the calling thread.
+   */
+  private static void FindLocalMaxima( ScanRegion[] regions, 
+                                       int          num_threads ){
+    int num_slabs  =1;
+    if( num_threads > 1 )
+      num_slabs=Math.max( 1, (4*num_threads+regions.length-1)/regions.length );
+
+    Vector<Callable<SlabResult>> tasks=new Vector<Callable<SlabResult>>();
+    Vector<ScanRegion>           owner=new Vector<ScanRegion>();
+    for( int r=0 ; r<regions.length ; r++ ){
+      ScanRegion region=regions[r];
+      region.found    =new Vector<Candidate>();
+      region.num_found=0;
+      int n_chan=region.last_k-region.first_k+1;
+      if( n_chan<=0 || region.last_i<region.first_i || 
+                       region.last_j<region.first_j )
+        continue;
+
+      int n_parts=Math.min( num_slabs, n_chan );
+      for( int part=0 ; part<n_parts ; part++ ){
+        int first=region.first_k+TaskUtil.PartStart( part,   n_parts, n_chan );
+        int last =region.first_k+
+                  TaskUtil.PartStart( part+1, n_parts, n_chan )-1;
+        tasks.add( new ScanSlab_Task( region, first, last ) );
+        owner.add( region );
+      }
+    }
+
+    Vector<SlabResult> results=TaskUtil.RunTasks( tasks, num_threads );
+
+    for( int t=0 ; t<results.size() ; t++ ){
+      ScanRegion region=owner.elementAt(t);
+      SlabResult result=results.elementAt(t);
+      region.found.addAll( result.kept );
+      region.num_found+=result.num_found;
+    }
+    for( int r=0 ; r<regions.length ; r++ )
+      Collections.sort( regions[r].found, SCAN_ORDER );
+  }
+
+  /* ----------------------------- ScanRegion ----------------------------- */ 
+  /**
+   * The part of one detector to scan for local maxima, and the maxima
+   * found there.  The counts for column i and row j are taken from the
+   * Data block with index ids[i][j] in the DataSet, or from the data grid,
+   * whichever is not null.
+   */
+  private static class ScanRegion{
+    DataSet   ds;
+    int[][]   ids;
+    IDataGrid grid;
+
+    int[]     i_list;             // only scan columns and rows in these
+    int[]     j_list;             // lists, found with a binary search
+    int       first_i, last_i;    // range of columns, rows and time 
+    int       first_j, last_j;    // channels to scan
+    int       first_k, last_k;
+    int       min_count;
+    int       max_keep;
+
+    int       min_col, max_col;   // bounds of the detector data, used
+    int       min_row, max_row;   // to set nearedge for the peaks
+    int       min_chan, max_chan;
+
+    Vector<Candidate> found;
+    int               num_found;
+
+    ScanRegion( DataSet ds, int[][] ids, IDataGrid grid ){
+      this.ds  =ds;
+      this.ids =ids;
+      this.grid=grid;
+    }
+
+    float[] getY( int i, int j ){
+      if( ids != null )
+        return ds.getData_entry(ids[i][j]).getY_values();
+      else
+        return grid.getData_entry(j,i).getY_values();
+    }
+  }
+
+  /* ----------------------------- Candidate ------------------------------ */ 
+  /**
+   * The column, row, time channel and count of one local maximum.
+   */
+  private static class Candidate{
+    int   i;
+    int   j;
+    int   k;
+    int   ipkobs;
+
+    Candidate( int i, int j, int k, float I ){
+      this.i=i;
+      this.j=j;
+      this.k=k;
+      ipkobs=Math.round(I);
+    }
+  }
+
+  /**
+   * Orders candidates by column, then row, then time channel, which is the
+   * order in which a serial scan finds them.
+   */
+  private static final Comparator<Candidate> SCAN_ORDER =
+    new Comparator<Candidate>(){
+      public int compare( Candidate a, Candidate b ){
+        if( a.i != b.i )
+          return ( a.i < b.i ) ? -1 : 1;
+        if( a.j != b.j )
+          return ( a.j < b.j ) ? -1 : 1;
+        if( a.k != b.k )
+          return ( a.k < b.k ) ? -1 : 1;
+        return 0;
+      }
+    };
+
+  /**
+   * Orders candidates so that the first one is the one that sort() would
+   * choose last: the smallest ipkobs, and for equal ipkobs, the one found
+   * last by a serial scan.
+   */
+  private static final Comparator<Candidate> WORST_FIRST =
+    new Comparator<Candidate>(){
+      public int compare( Candidate a, Candidate b ){
+        if( a.ipkobs != b.ipkobs )
+          return ( a.ipkobs < b.ipkobs ) ? -1 : 1;
+        return SCAN_ORDER.compare( b, a );
+      }
+    };
+
+  /* ----------------------------- SlabResult ----------------------------- */ 
+  /**
+   * The largest local maxima found in one slab, and the total number found.
+   */
+  private static class SlabResult{
+    Vector<Candidate> kept;
+    int               num_found;
+  }
+
+  /* ---------------------------- ScanSlab_Task --------------------------- */ 
+  /**
+   * Scan one slab of time channels, over all columns and rows of a region,
+   * for local maxima.
+   */
+  private static class ScanSlab_Task implements Callable<SlabResult>{
+    private ScanRegion region;
+    private int        first_k;
+    private int        last_k;
+
+    ScanSlab_Task( ScanRegion region, int first_k, int last_k ){
+      this.region =region;
+      this.first_k=first_k;
+      this.last_k =last_k;
+    }
+
+    public SlabResult call(){
+      ScanRegion r        =region;
+      int        min_count=r.min_count;
+      int        max_keep =r.max_keep;
+      int        num_found=0;
+      PriorityQueue<Candidate> kept=
+         new PriorityQueue<Candidate>( Math.max( 1, Math.min( max_keep, 1024 ) ),
+                                       WORST_FIRST );
+      float[] Dpp=null, Dtp=null, Dnp=null,
+              Dpt=null, Dtt=null, Dnt=null,
+              Dpn=null, Dtn=null, Dnn=null;
+
+      for( int i=r.first_i ; i<=r.last_i ; i++ ){  // loop over column
+        for( int j=r.first_j ; j<=r.last_j ; j++ )
+        if( Arrays.binarySearch(r.i_list,i)>=0)
+        if( Arrays.binarySearch(r.j_list,j)>=0)
+        {      // loop over row
+          // set up arrays for adjacent pixels
+          Dpp=r.getY(i-1,j-1);
+          Dpt=r.getY(i+0,j-1);
+          Dpn=r.getY(i+1,j-1);
+          Dtp=r.getY(i-1,j+0);
+          Dtt=r.getY(i+0,j+0);
+          Dtn=r.getY(i+1,j+0);
+          Dnp=r.getY(i-1,j+1);
+          Dnt=r.getY(i+0,j+1);
+          Dnn=r.getY(i+1,j+1);
+          for( int k=first_k ; k<=last_k ; k++ ){ // loop over times
+            float I=Dtt[k];
+            if(I>min_count){
+              if(I<Dpp[k-1]) continue;
+              if(I<Dpp[k+0]) continue;
+              if(I<Dpp[k+1]) continue;
+            
+              if(I<Dtp[k-1]) continue;
+              if(I<Dtp[k+0]) continue;
+              if(I<Dtp[k+1]) continue;
+            
+              if(I<Dnp[k-1]) continue;
+              if(I<Dnp[k+0]) continue;
+              if(I<Dnp[k+1]) continue;
+            
+              if(I<Dpt[k-1]) continue;
+              if(I<Dpt[k+0]) continue;
+              if(I<Dpt[k+1]) continue;
+            
+              if(I<Dtt[k-1]) continue;
+              // this is the current one
+              if(I<Dtt[k+1]) continue;
+            
+              if(I<Dnt[k-1]) continue;
+              if(I<Dnt[k+0]) continue;
+              if(I<Dnt[k+1]) continue;
+            
+              if(I<Dpn[k-1]) continue;
+              if(I<Dpn[k+0]) continue;
+              if(I<Dpn[k+1]) continue;
+            
+              if(I<Dtn[k-1]) continue;
+              if(I<Dtn[k+0]) continue;
+              if(I<Dtn[k+1]) continue;
+            
+              if(I<Dnn[k-1]) continue;
+              if(I<Dnn[k+0]) continue;
+              if(I<Dnn[k+1]) continue;
+
+              num_found++;
+              if( max_keep > 0 ){             // keep only the largest ones
+                Candidate cand=new Candidate(i,j,k,I);
+                if( kept.size() < max_keep )
+                  kept.add( cand );
+                else if( WORST_FIRST.compare( cand, kept.peek() ) > 0 ){
+                  kept.poll();
+                  kept.add( cand );
+                }
+              }
+            }
+          } // end of loop over timeslice
+        }     // end of loop over row
+      }         // end of loop over column
+
+      SlabResult result=new SlabResult();
+      result.kept     =new Vector<Candidate>( kept );
+      result.num_found=num_found;
+      return result;
+    }
+  }
+  
   /* ------------------------------- clone -------------------------------- */ 
   /** 
    *  Creates a clone of this operator.
@@ -162,48 +162,158 @@ public class FindPeaksProcess
     System.out.println( "num_slices         = " + num_slices );
 
 
+    StringBuffer log_buffer = new StringBuffer();
+    Vector peaks = null;
+    try
+    {
+      peaks = FindPeaks( fin_name,
+                         ds_num,
+                         num_peaks,
+                         min_intensity,
+                         min_time_chan,
+                         max_time_chan,
+                         use_calib_file,
+                         calib_file,
+                         calib_file_line,
+                         pixel_row,
+                         pixel_col,
+                         mon_count,
+                         max_Dspacing,
+                         use_new_find_peaks,
+                         do_smoothing,
+                         do_validity_test,
+                         do_centroid,
+                         show_peaks_view,
+                         num_slices,
+                         log_buffer );
+    }
+    catch ( IllegalArgumentException ex )
+    {
+      System.err.println( ex.getMessage() );
+      System.exit(1);
+    }
+
+    if ( peaks != null && peaks.size() > 0 )
+    {
+      String file_name = fout_base + PEAKS_SUFFIX;
+      try                                            // Write temp peaks file
+      {
+        Peak_new_IO.WritePeaks_new( file_name, peaks, false );
+        System.out.println( "+++++++++FINISHED WRITING PEAKS " + file_name +
+                            " for DS ###" + ds_num );
+      }
+      catch ( Exception ex )
+      {
+        System.err.println("Exception writing peaks file " + file_name );
+        System.err.println( ex.getStackTrace() );
+        System.exit(3); 
+      }
+    }
+    else
+      System.err.println("NO PEAKS FOUND FOR " + fin_name +        
+                         " DS number " + ds_num );
+
+
+    String file_name = fout_base + LOG_SUFFIX;
+    try
+    {
+      FileOutputStream fos = new FileOutputStream( file_name );
+      fos.write( log_buffer.toString().getBytes() );
+      fos.close();
+      System.out.println( "+++++++++FINISHED WRITING FIND PEAKS LOG " + 
+                          file_name +
+                          " for DS ###" +
+                          ds_num );
+    }
+    catch ( Exception ex )
+    {
+      System.err.println("Exception writing find peaks log file "+file_name);
+      System.err.println( ex.getStackTrace() );
+      System.exit(4);
+    }
+
+    System.exit(0); 
+  }
+
+
+  /**
+   *  Read the specified detector data from the specified file and find the
+   *  peaks in that detector.  This does the work of the main program, 
+   *  without writing any files, so that it can also be used by several
+   *  threads in one JVM.  The data is read while holding 
+   *  PeaksBatchService.LOAD_LOCK, since the file readers are not
+   *  thread safe.  See main() for a description of the parameters.
+   *
+   *  @param log_buffer  Buffer to which the log information for this
+   *                     detector is appended.
+   *
+   *  @return a Vector of Peak_new objects.
+   *
+   *  @throws IllegalArgumentException if the data can't be read or there
+   *          is no area detector in the DataSet.
+   */
+  public static Vector FindPeaks( String       fin_name,
+                                  int          ds_num,
+                                  int          num_peaks,
+                                  int          min_intensity,
+                                  int          min_time_chan,
+                                  int          max_time_chan,
+                                  boolean      use_calib_file,
+                                  String       calib_file,
+                                  int          calib_file_line,
+                                  String       pixel_row,
+                                  String       pixel_col,
+                                  int          mon_count,
+                                  float        max_Dspacing,
+                                  boolean      use_new_find_peaks,
+                                  boolean      do_smoothing,
+                                  boolean      do_validity_test,
+                                  boolean      do_centroid,
+                                  boolean      show_peaks_view,
+                                  int          num_slices,
+                                  StringBuffer log_buffer )
+  {
     boolean is_IPNS_file = fin_name.toUpperCase().endsWith( "RUN" );
 
     Retriever retriever = null;
     DataSet ds = null;
 
-    try
+    synchronized ( PeaksBatchService.LOAD_LOCK )
     {
-      if ( is_IPNS_file )
+      try
       {
-        retriever = new RunfileRetriever( fin_name );
-        ds = retriever.getDataSet( ds_num );
+        if ( is_IPNS_file )
+        {
+          retriever = new RunfileRetriever( fin_name );
+          ds = retriever.getDataSet( ds_num );
                                              // NOTE THIS WILL NOT WORK FOR
                                              // IPNS DATA WITH SEVERAL GRIDS
                                              // IN ONE DataSet
-      }
-      else
-      {
+        }
+        else
+        {
              // NOTE: We may need some way to control if cache info is used.
              //       The statement retriever.RetrieveSetUpInfo(null);
              //       will use the cache if available, so that's OK.  The big
              //       problem is that the cache will be out of date if the
              //       instrument configuration changes !!!
-        retriever = new NexusRetriever( fin_name );
-        ((NexusRetriever)retriever).RetrieveSetUpInfo(null);
-        ds = retriever.getDataSet( ds_num );
-        ((NexusRetriever)retriever).close();
+          retriever = new NexusRetriever( fin_name );
+          ((NexusRetriever)retriever).RetrieveSetUpInfo(null);
+          ds = retriever.getDataSet( ds_num );
+          ((NexusRetriever)retriever).close();
+        }
+      }
+      catch ( Throwable ex )
+      {
+        throw new IllegalArgumentException( "Could not get DataSet #" + 
+                                             ds_num + " from file " + 
+                                             fin_name + " : " + ex );
       }
-    }
-    catch ( Throwable ex )
-    {
-      System.err.println("Could not get DataSet #" + ds_num +
-                         " from file " + fin_name );
-      System.err.println( ex.getStackTrace() );
-      System.exit(5);
     }
 
     if ( ds == null || ds.getNum_entries() <= 0 )
-    {  
-       System.err.println("Couldn't get DataSet number " + ds_num + 
-                          " from file " + fin_name );
-       System.exit(1);
-    }
+      throw new IllegalArgumentException( "Couldn't get DataSet number " + 
+                                           ds_num + " from file " + fin_name );
 
     System.out.println( "+++++++++FINISHED READING " + fin_name +
                         " closed for DS ###" + ds_num );
@@ -213,14 +323,11 @@ public class FindPeaksProcess
 
     int[] det_ids = Grid_util.getAreaGridIDs( ds ); 
     if ( det_ids == null )
-    {
-       System.err.println("No area detectors in DataSet number " + ds_num + 
-                            " from file " + fin_name );
-       System.exit(2);
-    }
+      throw new IllegalArgumentException( "No area detectors in DataSet " +
+                                          "number " + ds_num + 
+                                          " from file " + fin_name );
     int det_id = det_ids[0];
 
-    StringBuffer log_buffer = new StringBuffer();
     log_buffer.append( "\n FIND PEAKS LOG INFORMATION FOR RUN " + fin_name +
                        " DS " + ds_num + " #########################\n");
     
@@ -247,48 +354,7 @@ public class FindPeaksProcess
                         ", for DS number = " + ds_num + 
                         ", Det ID = " + det_id +
                         ", FOUND " + peaks.size()  );
-
-    if ( peaks != null && peaks.size() > 0 )
-    {
-      String file_name = fout_base + PEAKS_SUFFIX;
-      try                                            // Write temp peaks file
-      {
-        Peak_new_IO.WritePeaks_new( file_name, peaks, false );
-        System.out.println( "+++++++++FINISHED WRITING PEAKS " + file_name +
-                            " for DS ###" + ds_num );
-      }
-      catch ( Exception ex )
-      {
-        System.err.println("Exception writing peaks file " + file_name );
-        System.err.println( ex.getStackTrace() );
-        System.exit(3); 
-      }
-    }
-    else
-      System.err.println("NO PEAKS FOUND FOR " + fin_name +        
-                         " DS number " + ds_num +
-                         " Det ID " + det_id );
-
-
-    String file_name = fout_base + LOG_SUFFIX;
-    try
-    {
-      FileOutputStream fos = new FileOutputStream( file_name );
-      fos.write( log_buffer.toString().getBytes() );
-      fos.close();
-      System.out.println( "+++++++++FINISHED WRITING FIND PEAKS LOG " + 
-                          file_name +
-                          " for DS ###" +
-                          ds_num );
-    }
-    catch ( Exception ex )
-    {
-      System.err.println("Exception writing find peaks log file "+file_name);
-      System.err.println( ex.getStackTrace() );
-      System.exit(4);
-    }
-
-    System.exit(0); 
+    return peaks;
   }
 
 }
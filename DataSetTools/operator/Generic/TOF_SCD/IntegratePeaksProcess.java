@@ -62,6 +62,18 @@ public class IntegratePeaksProcess
 
   public static boolean debug = false;
 
+                                  // Monitor counts for the most recently
+                                  // used files, guarded by LOAD_LOCK
+  private static final int MAX_MONITOR_COUNTS = 16;
+  private static Map<String,Float> monitor_counts =
+                  new LinkedHashMap<String,Float>( 16, 0.75f, true )
+  {
+    protected boolean removeEldestEntry( Map.Entry<String,Float> eldest )
+    {
+      return size() > MAX_MONITOR_COUNTS;
+    }
+  };
+
   /**
    *  Read the specified detector data from the specified file, integrate the
    *  peaks in that detector and write the resulting information to an 
@@ -188,75 +200,180 @@ public class IntegratePeaksProcess
     System.out.println( "max_shoebox   = " + max_shoebox );
 
 
+    StringBuffer log_buffer = new StringBuffer();
+    Vector peaks = null;
+    try
+    {
+      peaks = IntegratePeaks( fin_name,
+                              ds_num,
+                              use_calib_file,
+                              calib_file,
+                              calib_file_line,
+                              orientation_file,
+                              centering,
+                              minus_time_offset,
+                              plus_time_offset,
+                              incr_time_amount,
+                              d_min,
+                              maxUnitCellLength,
+                              PixRows,
+                              PixCols,
+                              log_Nth_peak,
+                              peak_algorithm,
+                              minus_col_offset,
+                              plus_col_offset,
+                              minus_row_offset,
+                              plus_row_offset,
+                              max_shoebox,
+                              Float.NaN,
+                              log_buffer );
+    }
+    catch ( IllegalArgumentException ex )
+    {
+      System.err.println( ex.getMessage() );
+      System.exit(1);
+    }
+
+    if ( peaks != null && peaks.size() > 0 )
+    {
+      String file_name = fout_base + INTEGRATE_SUFFIX;
+      try                                            // Write temp peaks file
+      {
+        Peak_new_IO.WritePeaks_new( file_name, peaks, false );
+        System.out.println( "+++++++++FINISHED WRITING INTEGRATE FILE " +
+                            file_name +
+                            " for DS ###" + 
+                            ds_num );
+      }
+      catch ( Exception ex )
+      {
+        System.err.println("Exception writing integrate file " + file_name );
+        System.err.println( ex.getStackTrace() );
+        System.exit(3); 
+      }
+    }
+    else
+      System.err.println("NO PEAKS INTEGRATED FOR " + fin_name + 
+                         " DS number " + ds_num );
+
+    String file_name = fout_base + LOG_SUFFIX;
+    try
+    {
+      FileOutputStream fos = new FileOutputStream( file_name );
+      fos.write( log_buffer.toString().getBytes() );
+      fos.close();
+      System.out.println( "+++++++++FINISHED WRITING INTEGRATE LOG " + 
+                          file_name +
+                          " for DS ###" +
+                          ds_num );
+    }
+    catch ( Exception ex )
+    {
+      System.err.println("Exception writing integrate log file "+file_name);
+      System.err.println( ex.getStackTrace() );
+      System.exit(4);
+    }
+
+    System.exit(0); 
+  }
+
+
+  /**
+   *  Read the specified detector data from the specified file and integrate
+   *  the peaks in that detector.  This does the work of the main program,
+   *  without writing any files, so that it can also be used by several
+   *  threads in one JVM.  The data is read while holding 
+   *  PeaksBatchService.LOAD_LOCK, since the file readers are not
+   *  thread safe.  See main() for a description of the other parameters.
+   *
+   *  @param monct       The monitor count for the run.  If this is NaN,
+   *                     the monitor count is calculated from the first
+   *                     monitor DataSet in the file.
+   *  @param log_buffer  Buffer to which the log information for this
+   *                     detector is appended.
+   *
+   *  @return a Vector of integrated Peak_new objects, or null if the
+   *          integration failed.
+   *
+   *  @throws IllegalArgumentException if the data or orientation matrix 
+   *          can't be read, or there is no area detector in the DataSet.
+   */
+  public static Vector IntegratePeaks( String       fin_name,
+                                       int          ds_num,
+                                       boolean      use_calib_file,
+                                       String       calib_file,
+                                       int          calib_file_line,
+                                       String       orientation_file,
+                                       int          centering,
+                                       int          minus_time_offset,
+                                       int          plus_time_offset,
+                                       int          incr_time_amount,
+                                       float        d_min,
+                                       float        maxUnitCellLength,
+                                       String       PixRows,
+                                       String       PixCols,
+                                       int          log_Nth_peak,
+                                       String       peak_algorithm,
+                                       int          minus_col_offset,
+                                       int          plus_col_offset,
+                                       int          minus_row_offset,
+                                       int          plus_row_offset,
+                                       float        max_shoebox,
+                                       float        monct,
+                                       StringBuffer log_buffer )
+  {
     boolean is_IPNS_file = fin_name.toUpperCase().endsWith( "RUN" );
     Retriever retriever = null;
     DataSet   ds     = null;
 
-    try
+    synchronized ( PeaksBatchService.LOAD_LOCK )
     {
-      if ( is_IPNS_file )
+      try
       {
-        retriever = new RunfileRetriever( fin_name );
-        ds = retriever.getDataSet( ds_num );
+        try
+        {
+          if ( is_IPNS_file )
+          {
+            retriever = new RunfileRetriever( fin_name );
+            ds = retriever.getDataSet( ds_num );
                                              // NOTE THIS WILL NOT WORK FOR
                                              // IPNS DATA WITH SEVERAL GRIDS
                                              // IN ONE DataSet
-      }
-      else
-      {
+          }
+          else
+          {
              // NOTE: We may need some way to control if cache info is used.
              //       The statement retriever.RetrieveSetUpInfo(null);
              //       will use the cache if available, so that's OK.  The big
              //       problem is that the cache will be out of date if the
              //       instrument configuration changes !!!
-        retriever = new NexusRetriever( fin_name );
-        ((NexusRetriever)retriever).RetrieveSetUpInfo(null);
-        ds = retriever.getDataSet( ds_num );
+            retriever = new NexusRetriever( fin_name );
+            ((NexusRetriever)retriever).RetrieveSetUpInfo(null);
+            ds = retriever.getDataSet( ds_num );
+          }
+        }
+        catch ( Throwable ex )
+        {
+          throw new IllegalArgumentException( "Could not get DataSet #" + 
+                                               ds_num + " from file " + 
+                                               fin_name + " : " + ex );
+        }
+
+        if ( ds == null || ds.getNum_entries() <= 0 )
+          throw new IllegalArgumentException( "NULL DataSet number " + 
+                                               ds_num + " from file " + 
+                                               fin_name );
+
+        if ( Float.isNaN( monct ) )
+          monct = GetMonitorCount( fin_name, retriever );
       }
-    }
-    catch ( Throwable ex )
-    {
-      System.err.println("Could not get DataSet #" + ds_num +
-                         " from file " + fin_name );
-      System.err.println( ex.getStackTrace() );
-      System.exit(5);
-    }
-
-    if ( ds == null || ds.getNum_entries() <= 0 )
-    {
-       System.err.println("NULL DataSet number " + ds_num +
-                          " from file " + fin_name );
-       System.exit(1);
-    }
-
-    float   monct     = DEFAULT_MONITOR_COUNT;
-    int     mon_index = 0;
-    boolean found     = false;
-    int     n_ds      = retriever.numDataSets();
-    while ( mon_index < n_ds && !found )
-    {
-      if ( retriever.getType( mon_index ) == Retriever.MONITOR_DATA_SET )
-        found = true;
-      else
-        mon_index++;
-    }
-
-    if ( found )
-    {
-      DataSet mon_ds = retriever.getDataSet( mon_index );
-      if ( mon_ds != null && mon_ds.getNum_entries() > 0 )
+      finally
       {
-        monct = 0;
-        float[] ys = mon_ds.getData_entry(0).getY_values();
-        if ( ys != null && ys.length > 0 )
-          for ( int i = 0; i < ys.length; i++ )
-            monct += ys[i];
-       }
+        if ( retriever instanceof NexusRetriever ) // must close the NeXus file
+          ((NexusRetriever)retriever).close();
+      }
     }
 
-    if ( retriever instanceof NexusRetriever ) // must close the NeXus file
-      ((NexusRetriever)retriever).close();
-
     System.out.println( "+++++++++FINISHED READING " + fin_name +
                         " closed for DS ###" + ds_num );
 
@@ -267,23 +384,18 @@ public class IntegratePeaksProcess
     Object load_res = ( new LoadOrientation(ds, orientation_file) ).getResult();
     if( load_res != null && 
         load_res instanceof gov.anl.ipns.Util.  SpecialStrings.ErrorString )
-    {
-      System.err.println( "ERROR loading orientation matrix for DataSet " 
-                          + ds_num + " for " + fin_name );
-      System.err.println( load_res );
-      System.exit(4);
-    }
+      throw new IllegalArgumentException( "ERROR loading orientation matrix "
+                                          + "for DataSet " + ds_num + 
+                                          " for " + fin_name + 
+                                          " : " + load_res );
 
     int[] det_ids = Grid_util.getAreaGridIDs( ds ); 
     if ( det_ids == null )
-    {
-       System.err.println("No area detectors in DataSet number " + ds_num + 
-                            " from file " + fin_name );
-       System.exit(2);
-    }
+      throw new IllegalArgumentException( "No area detectors in DataSet " +
+                                          "number " + ds_num + 
+                                          " from file " + fin_name );
     int det_id = det_ids[0];
 
-    StringBuffer log_buffer = new StringBuffer();
     log_buffer.append( "\n INTEGRATE LOG INFORMATION FOR RUN " + fin_name +
                        " DS " + ds_num + " #########################\n");
 
@@ -322,49 +434,73 @@ public class IntegratePeaksProcess
     {
       System.out.println("INTEGRATION FAILD " + result );
     }
+    return peaks;
+  }
 
-    if ( peaks != null && peaks.size() > 0 )
+
+  /**
+   *  Get the monitor count for the specified file, reading it from the
+   *  retriever only the first time it is needed for the current version
+   *  of the file, so that the monitor DataSet is not read again for each
+   *  detector.  This must only be called while holding 
+   *  PeaksBatchService.LOAD_LOCK.
+   *
+   *  @param fin_name   The name of the run file.
+   *  @param retriever  The open retriever for the run file.
+   *
+   *  @return The total monitor count, or DEFAULT_MONITOR_COUNT if there is
+   *          no monitor DataSet.
+   */
+  private static float GetMonitorCount( String fin_name, Retriever retriever )
+  {
+    File   file = new File( fin_name );
+    String key  = file.getAbsolutePath() + "," + file.lastModified();
+    Float  monct = monitor_counts.get( key );
+    if ( monct == null )
     {
-      String file_name = fout_base + INTEGRATE_SUFFIX;
-      try                                            // Write temp peaks file
-      {
-        Peak_new_IO.WritePeaks_new( file_name, peaks, false );
-        System.out.println( "+++++++++FINISHED WRITING INTEGRATE FILE " +
-                            file_name +
-                            " for DS ###" + 
-                            ds_num );
-      }
-      catch ( Exception ex )
-      {
-        System.err.println("Exception writing integrate file " + file_name );
-        System.err.println( ex.getStackTrace() );
-        System.exit(3); 
-      }
+      monct = GetMonitorCount( retriever );
+      monitor_counts.put( key, monct );
     }
-    else
-      System.err.println("NO PEAKS INTEGRATED FOR " + fin_name + 
-                         " DS number " + ds_num +
-                         " Det ID " + det_id );
+    return monct;
+  }
 
-    String file_name = fout_base + LOG_SUFFIX;
-    try
+
+  /**
+   *  Get the monitor count, as the sum of the counts in the first monitor
+   *  DataSet available from the specified retriever.
+   *
+   *  @param retriever  The open retriever for a run file.
+   *
+   *  @return The total monitor count, or DEFAULT_MONITOR_COUNT if there is
+   *          no monitor DataSet.
+   */
+  public static float GetMonitorCount( Retriever retriever )
+  {
+    float   monct     = DEFAULT_MONITOR_COUNT;
+    int     mon_index = 0;
+    boolean found     = false;
+    int     n_ds      = retriever.numDataSets();
+    while ( mon_index < n_ds && !found )
     {
-      FileOutputStream fos = new FileOutputStream( file_name );
-      fos.write( log_buffer.toString().getBytes() );
-      fos.close();
-      System.out.println( "+++++++++FINISHED WRITING INTEGRATE LOG " + 
-                          file_name +
-                          " for DS ###" +
-                          ds_num );
+      if ( retriever.getType( mon_index ) == Retriever.MONITOR_DATA_SET )
+        found = true;
+      else
+        mon_index++;
     }
-    catch ( Exception ex )
+
+    if ( found )
     {
-      System.err.println("Exception writing integrate log file "+file_name);
-      System.err.println( ex.getStackTrace() );
-      System.exit(4);
+      DataSet mon_ds = retriever.getDataSet( mon_index );
+      if ( mon_ds != null && mon_ds.getNum_entries() > 0 )
+      {
+        monct = 0;
+        float[] ys = mon_ds.getData_entry(0).getY_values();
+        if ( ys != null && ys.length > 0 )
+          for ( int i = 0; i < ys.length; i++ )
+            monct += ys[i];
+       }
     }
-
-    System.exit(0); 
+    return monct;
   }
 
 }
@@ -1437,6 +1437,22 @@ public class Integrate_new extends GenericTOF_SCD implements HiddenOperator{
     //System.out.println("Integration Method: " + PeakAlg );
 
     // integrate the peaks
+    if ( PeakAlg.equals(SHOE_BOX) )     // integrate all shoeboxes using one
+    {                                   // pass over the detector's data
+      StringBuffer[] peak_logs = new StringBuffer[ peaks.size() ];
+      for( int i=peaks.size()-1 ; i>=0 ; i-- )
+        if( i%listNthPeak == 0 )
+          peak_logs[i] = new StringBuffer();
+
+      IntegrateUtils.integrateShoeboxes( peaks, ds, ids,
+                                         colXrange, rowYrange, timeZrange,
+                                         peak_logs );
+
+      for( int i=peaks.size()-1 ; i>=0 ; i-- )
+        if( peak_logs[i] != null )
+          logBuffer.append( peak_logs[i] );
+    }
+
     StringBuffer dummy_buffer = new StringBuffer();
     StringBuffer my_buffer = dummy_buffer;
     String       my_method = null;
@@ -1447,13 +1463,9 @@ public class Integrate_new extends GenericTOF_SCD implements HiddenOperator{
       else 
         my_buffer = dummy_buffer;
       
-      if ( PeakAlg.equals(SHOE_BOX) )
+      if ( PeakAlg.equals(SHOE_BOX) )            // already integrated above
       {
         my_method = SHOE_BOX;
-        IntegrateUtils.integrateShoebox( (IPeak)peaks.elementAt(i),
-                                          ds, ids,
-                                          colXrange, rowYrange, timeZrange,
-                                          my_buffer ); 
       }
       else if( PeakAlg.equals( FIT_PEAK))
       {
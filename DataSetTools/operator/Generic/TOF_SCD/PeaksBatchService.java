@@ -0,0 +1,534 @@
+/* 
+ * File: PeaksBatchService.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package DataSetTools.operator.Generic.TOF_SCD;
+
+import java.io.*;
+import java.util.*;
+
+import gov.anl.ipns.Operator.*;
+
+/**
+ *  This class runs a list of find peaks or integrate operators on a fixed
+ *  number of threads in the current JVM, as an alternative to running each
+ *  detector in a separate process.  Each worker thread takes the next
+ *  operator that has not been started from the shared list as soon as it
+ *  finishes its current operator, so detectors that take longer than
+ *  others don't hold up the remaining work.  The results are returned in
+ *  the same order as the operators.
+ *
+ *  The nested FindPeaksOp and IntegratePeaksOp classes do the same work
+ *  as FindPeaksProcessCaller and IntegratePeaksProcessCaller, but return
+ *  the peaks directly, without writing and reading a temporary peaks file.
+ *  Like the separate processes, they write the log information for each
+ *  detector to a file, fout_base + LOG_SUFFIX, so that the existing code
+ *  that combines the log files can be used.
+ */
+public class PeaksBatchService
+{
+  /**
+   *  Lock that must be held while reading a DataSet from a run file.  The
+   *  retrievers, and in particular the native NeXus library, are not
+   *  thread safe, so only one thread reads from a file at a time, though
+   *  the peaks can be found or integrated simultaneously.
+   */
+  public static final Object LOAD_LOCK = new Object();
+
+  private int num_threads;
+  private int num_finished = 0;
+
+
+  /**
+   *  Construct a service that will run operators on the specified number
+   *  of threads.
+   *
+   *  @param num_threads  The number of threads to use.  If this is less
+   *                      than 1, one thread will be used.
+   */
+  public PeaksBatchService( int num_threads )
+  {
+    this.num_threads = Math.max( 1, num_threads );
+  }
+
+
+  /**
+   *  Run the getResult() method of each operator in the list, using the
+   *  number of threads specified in the constructor.  If the time limit is
+   *  reached, no more operators are started and the results that are
+   *  available are returned.  Operators that are still running at that
+   *  point are left to finish on their own, in daemon threads.
+   *
+   *  @param ops       Vector of IOperator objects to run.
+   *  @param max_time  The maximum time to wait, in milliseconds.
+   *
+   *  @return A Vector with one entry for each operator, in the same order
+   *          as the operators.  The entry is the value returned by
+   *          the operator, or null if the operator failed or did not 
+   *          finish in time.
+   */
+  public Vector runOperators( Vector ops, long max_time )
+  {
+    if ( ops == null )
+      throw new IllegalArgumentException( "Vector of operators is null" );
+
+    int n_ops = ops.size();
+    for ( int i = 0; i < n_ops; i++ )
+      if ( !( ops.elementAt(i) instanceof IOperator ) )
+        throw new IllegalArgumentException( "Entry " + i + " in list is a " +
+                                 ops.elementAt(i).getClass().getName() +
+                                 ", not an IOperator" );
+
+    TaskList tasks = new TaskList( ops );
+
+    int n_threads = Math.min( num_threads, n_ops );
+    Thread[] workers = new Thread[ n_threads ];
+    for ( int i = 0; i < n_threads; i++ )
+    {
+      workers[i] = new Thread( new Worker( tasks ), "PeaksBatchWorker_" + i );
+      workers[i].setDaemon( true );
+      workers[i].start();
+    }
+
+    long end_time = System.currentTimeMillis() + max_time;
+    try
+    {
+      for ( int i = 0; i < n_threads; i++ )
+      {
+        long time_left = end_time - System.currentTimeMillis();
+        if ( time_left > 0 )
+          workers[i].join( time_left );
+      }
+    }
+    catch ( InterruptedException ex )
+    {
+      Thread.currentThread().interrupt();
+      System.out.println( "PeaksBatchService interrupted while waiting" );
+    }
+
+    return tasks.stopAndGetResults();
+  }
+
+
+  /**
+   *  Get the number of operators that finished in the most recent call to
+   *  runOperators().  If this is less than the number of operators, the
+   *  results are incomplete.
+   *
+   *  @return the number of operators that returned a result.
+   */
+  public int getNumFinished()
+  {
+    return num_finished;
+  }
+
+
+  /**
+   *  Remove the quotes that Util.Delim may have placed around a file name
+   *  for use on a command line.
+   */
+  private static String StripDelim( String name )
+  {
+    if ( name != null && 
+         name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"") )
+      return name.substring( 1, name.length() - 1 );
+    return name;
+  }
+
+
+  /**
+   *  Write the log information for one detector to the specified file.
+   */
+  private static void WriteLog( String file_name, StringBuffer log_buffer )
+  {
+    try
+    {
+      FileOutputStream fos = new FileOutputStream( file_name );
+      fos.write( log_buffer.toString().getBytes() );
+      fos.close();
+    }
+    catch ( Exception ex )
+    {
+      System.err.println( "Exception writing log file " + file_name );
+    }
+  }
+
+
+  /**
+   *  Shared list of operators and their results.  The next operator to run
+   *  is handed out to whichever worker asks for it first.
+   */
+  private class TaskList
+  {
+    private Vector   ops;
+    private Object[] results;
+    private int      next     = 0;
+    private boolean  stopped  = false;
+    private int      finished = 0;
+
+    TaskList( Vector ops )
+    {
+      this.ops = ops;
+      results  = new Object[ ops.size() ];
+    }
+
+    synchronized int nextIndex()
+    {
+      if ( stopped || next >= results.length )
+        return -1;
+      return next++;
+    }
+
+    synchronized void setResult( int index, Object result )
+    {
+      if ( stopped )
+        return;
+      results[ index ] = result;
+      finished++;
+    }
+
+    synchronized Vector stopAndGetResults()
+    {
+      stopped      = true;
+      num_finished = finished;
+      Vector list = new Vector( results.length );
+      for ( int i = 0; i < results.length; i++ )
+        list.add( results[i] );
+      return list;
+    }
+
+    IOperator getOperator( int index )
+    {
+      return (IOperator)ops.elementAt( index );
+    }
+  }
+
+
+  /**
+   *  Runnable that keeps taking operators from the shared list and running
+   *  them, until there are no more operators or the list is stopped.
+   */
+  private class Worker implements Runnable
+  {
+    private TaskList tasks;
+
+    Worker( TaskList tasks )
+    {
+      this.tasks = tasks;
+    }
+
+    public void run()
+    {
+      int index;
+      while ( ( index = tasks.nextIndex() ) >= 0 )
+      {
+        Object result = null;
+        try
+        {
+          result = tasks.getOperator( index ).getResult();
+        }
+        catch ( Throwable ex )
+        {
+          System.err.println( "Operator " + index + " failed : " + ex );
+          ex.printStackTrace();
+        }
+        tasks.setResult( index, result );
+      }
+    }
+  }
+
+
+  /**
+   *  Operator that finds the peaks in one detector in the current JVM, 
+   *  using FindPeaksProcess.FindPeaks().  The parameters are the same as
+   *  for FindPeaksProcessCaller, except that no command is needed.
+   */
+  public static class FindPeaksOp implements IOperator
+  {
+    String   fin_name;
+    String   fout_base;
+    int      ds_num;
+    int      num_peaks;
+    int      min_intensity;
+    int      min_time_chan;
+    int      max_time_chan;
+
+    boolean  use_calib_file;
+    String   calib_file;
+    int      calib_file_line;
+
+    String   pixel_row;
+    String   pixel_col;
+    int      mon_count;
+    float    max_Dspacing;
+    boolean  use_new_find_peaks;
+    boolean  do_smoothing;
+    boolean  do_validity_test;
+    boolean  do_centroid;
+    boolean  show_peaks_view;
+    int      num_slices;
+
+    public FindPeaksOp( String   fin_name,
+                        String   fout_base,
+                        int      ds_num,
+                        int      num_peaks,
+                        int      min_intensity,
+                        int      min_time_chan,
+                        int      max_time_chan,
+
+                        boolean  use_calib_file,
+                        String   calib_file,
+                        int      calib_file_line,
+
+                        String   pixel_row,
+                        String   pixel_col,
+                        int      mon_count,
+                        float    max_Dspacing,
+                        boolean  use_new_find_peaks,
+                        boolean  do_smoothing,
+                        boolean  do_validity_test,
+                        boolean  do_centroid,
+                        boolean  show_peaks_view,
+                        int      num_slices )
+    {
+      this.fin_name           = StripDelim( fin_name );
+      this.fout_base          = StripDelim( fout_base );
+      this.ds_num             = ds_num;
+      this.num_peaks          = num_peaks;
+      this.min_intensity      = min_intensity;
+      this.min_time_chan      = min_time_chan;
+      this.max_time_chan      = max_time_chan;
+
+      this.use_calib_file     = use_calib_file;
+      this.calib_file         = calib_file;
+      this.calib_file_line    = calib_file_line;
+
+      this.pixel_row          = pixel_row;
+      this.pixel_col          = pixel_col;
+      this.mon_count          = mon_count;
+      this.max_Dspacing       = max_Dspacing;
+      this.use_new_find_peaks = use_new_find_peaks;
+      this.do_smoothing       = do_smoothing;
+      this.do_validity_test   = do_validity_test;
+      this.do_centroid        = do_centroid;
+      this.show_peaks_view    = show_peaks_view;
+      this.num_slices         = num_slices;
+    }
+
+    /**
+     *  Find the peaks in the detector and write the log file.
+     *
+     *  @return a Vector of Peak_new objects, which will be empty if the
+     *          peaks could not be found.
+     */
+    public Object getResult()
+    {
+      StringBuffer log_buffer = new StringBuffer();
+      Vector peaks = null;
+      try
+      {
+        peaks = FindPeaksProcess.FindPeaks( fin_name,
+                                            ds_num,
+                                            num_peaks,
+                                            min_intensity,
+                                            min_time_chan,
+                                            max_time_chan,
+                                            use_calib_file,
+                                            calib_file,
+                                            calib_file_line,
+                                            pixel_row,
+                                            pixel_col,
+                                            mon_count,
+                                            max_Dspacing,
+                                            use_new_find_peaks,
+                                            do_smoothing,
+                                            do_validity_test,
+                                            do_centroid,
+                                            show_peaks_view,
+                                            num_slices,
+                                            log_buffer );
+      }
+      catch ( IllegalArgumentException ex )
+      {
+        System.err.println( ex.getMessage() );
+      }
+
+      WriteLog( fout_base + FindPeaksProcess.LOG_SUFFIX, log_buffer );
+
+      if ( peaks == null )
+        return new Vector();
+      return peaks;
+    }
+  }
+
+
+  /**
+   *  Operator that integrates the peaks in one detector in the current JVM,
+   *  using IntegratePeaksProcess.IntegratePeaks().  The parameters are the
+   *  same as for IntegratePeaksProcessCaller, except that no command is 
+   *  needed.
+   */
+  public static class IntegratePeaksOp implements IOperator
+  {
+    String   fin_name;
+    String   fout_base;
+    int      ds_num;
+
+    boolean  use_calib_file;
+    String   calib_file;
+    int      calib_file_line;
+
+    String   orientation_file;
+
+    int      centering;
+    int      minus_time_offset;
+    int      plus_time_offset;
+    int      incr_time_amount;
+
+    float    d_min;
+    float    maxUnitCellLength;
+
+    String   pixelRows;
+    String   pixelCols;
+    int      log_Nth_peak;
+    String   peak_algorithm;
+
+    int      minus_col_offset;
+    int      plus_col_offset;
+    int      minus_row_offset;
+    int      plus_row_offset;
+    float    max_shoebox;
+
+    public IntegratePeaksOp( String   fin_name,
+                             String   fout_base,
+                             int      ds_num,
+
+                             boolean  use_calib_file,
+                             String   calib_file,
+                             int      calib_file_line,
+
+                             String   orientation_file,
+
+                             int      centering,
+                             int      minus_time_offset,
+                             int      plus_time_offset,
+                             int      incr_time_amount,
+
+                             float    d_min,
+                             float    maxUnitCellLength,
+
+                             String   pixelRows,
+                             String   pixelCols,
+                             int      log_Nth_peak,
+                             String   peak_algorithm,
+
+                             int      minus_col_offset,
+                             int      plus_col_offset,
+
+                             int      minus_row_offset,
+                             int      plus_row_offset,
+                             float    max_shoebox )
+    {
+      this.fin_name          = StripDelim( fin_name );
+      this.fout_base         = StripDelim( fout_base );
+      this.ds_num            = ds_num;
+
+      this.use_calib_file    = use_calib_file;
+      this.calib_file        = calib_file;
+      this.calib_file_line   = calib_file_line;
+
+      this.orientation_file  = orientation_file;
+
+      this.centering         = centering;
+      this.minus_time_offset = minus_time_offset;
+      this.plus_time_offset  = plus_time_offset;
+      this.incr_time_amount  = incr_time_amount;
+
+      this.d_min             = d_min;
+      this.maxUnitCellLength = maxUnitCellLength;
+
+      this.pixelRows         = pixelRows;
+      this.pixelCols         = pixelCols;
+      this.log_Nth_peak      = log_Nth_peak;
+      this.peak_algorithm    = peak_algorithm;
+
+      this.minus_col_offset  = minus_col_offset;
+      this.plus_col_offset   = plus_col_offset;
+      this.minus_row_offset  = minus_row_offset;
+      this.plus_row_offset   = plus_row_offset;
+      this.max_shoebox       = max_shoebox;
+    }
+
+    /**
+     *  Integrate the peaks in the detector and write the log file.
+     *
+     *  @return a Vector of integrated Peak_new objects, which will be
+     *          empty if the peaks could not be integrated.
+     */
+    public Object getResult()
+    {
+      StringBuffer log_buffer = new StringBuffer();
+      Vector peaks = null;
+      try
+      {
+        peaks = IntegratePeaksProcess.IntegratePeaks( fin_name,
+                                                      ds_num,
+                                                      use_calib_file,
+                                                      calib_file,
+                                                      calib_file_line,
+                                                      orientation_file,
+                                                      centering,
+                                                      minus_time_offset,
+                                                      plus_time_offset,
+                                                      incr_time_amount,
+                                                      d_min,
+                                                      maxUnitCellLength,
+                                                      pixelRows,
+                                                      pixelCols,
+                                                      log_Nth_peak,
+                                                      peak_algorithm,
+                                                      minus_col_offset,
+                                                      plus_col_offset,
+                                                      minus_row_offset,
+                                                      plus_row_offset,
+                                                      max_shoebox,
+                                                      Float.NaN,
+                                                      log_buffer );
+      }
+      catch ( IllegalArgumentException ex )
+      {
+        System.err.println( ex.getMessage() );
+      }
+
+      WriteLog( fout_base + IntegratePeaksProcess.LOG_SUFFIX, log_buffer );
+
+      if ( peaks == null )
+        return new Vector();
+      return peaks;
+    }
+  }
+
+}
@@ -120,6 +120,7 @@ abstract public class RemoteDataRetriever extends    Retriever
   protected boolean  server_alive = false;
   protected String   password     = "RemoteDataRetriever";
   protected String   file_name    = "";
+  protected boolean  use_binary_transport = true;
 
   private   String remote_machine = "";
   private   int    port           = DataSetServer.DEFAULT_SERVER_TCP_PORT;
@@ -267,6 +268,21 @@ abstract public class RemoteDataRetriever extends    Retriever
   }
 
 
+/* ------------------------ setBinaryTransport -------------------------- */
+/**
+ *  Specify whether or not complete DataSets should be requested in the
+ *  framed binary form of BinaryDataSet, instead of as serialized
+ *  CompressedDataSets.  The binary form is used by default, if the server
+ *  supports it.
+ *
+ *  @param  use_binary  Flag indicating whether to request the binary form.
+ */
+  public void setBinaryTransport( boolean use_binary )
+  {
+    use_binary_transport = use_binary;
+  }
+
+
 /* ------------------------- getObjectFromServer ------------------------- */
 /**
  *  Send command to server and get it's response as an object.
@@ -494,6 +510,36 @@ abstract public class RemoteDataRetriever extends    Retriever
   }
 
 
+/**
+ *  Get a GetDataCommand object configured to get an entire DataSet, sent
+ *  by the server in the framed binary form of BinaryDataSet, rather than 
+ *  as a serialized CompressedDataSet.  Servers that do not support this
+ *  command will reply with TCPServer.ANSWER_NOT_OK, in which case the 
+ *  command from getDS() should be used instead.
+ *
+ *  @param  file_name  String containing the fully qualified name of the
+ *                     file. 
+ *
+ *  @param  ds_num  the number of the DataSet requested.
+ * 
+ *  @return a GetDataCommand requesting a complete DataSet in binary form
+ *          from a remote data server.
+ */ 
+  static public GetDataCommand getDS_Binary( String file_name, int ds_num )
+  {
+    String user_name = SharedData.getProperty("user.name");
+    String password  = "dummy password";
+    return new GetDataCommand( CommandObject.GET_DS_BINARY, 
+                               user_name, password,
+                               file_name,
+                               ds_num,
+                               CommandObject.ALL_IDS,
+                               0,0, 
+                               1, 
+                               Attribute.FULL_ATTRIBUTES );
+  }
+
+
 /**
  *  Get a GetDataCommand object configured to get a specified portion of the 
  *  specified DataSet.  If the server is a LiveDataServer, the file name is
@@ -175,7 +175,16 @@ public class RemoteFileRetriever extends    RemoteDataRetriever
     if ( !isConnected() )
       MakeConnection();
 
-    Object obj = getObjectFromServer( getDS( file_name, data_set_num ) );
+    Object obj = null;
+    if ( use_binary_transport )
+    {
+      obj = getObjectFromServer( getDS_Binary( file_name, data_set_num ) );
+      if ( obj instanceof String )             // older server, so don't try 
+        use_binary_transport = false;         // the binary form again
+    }
+    if ( !(obj instanceof DataSet) )
+      obj = getObjectFromServer( getDS( file_name, data_set_num ) );
+
     if ( obj != null && obj instanceof DataSet )
     {
       DataSet ds = (DataSet)obj;
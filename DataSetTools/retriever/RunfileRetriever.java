@@ -309,6 +309,12 @@ public class RunfileRetriever extends    Retriever
   private Hashtable        det_cen_angle_attrs = new Hashtable();
   private Hashtable        det_data_grids      = new Hashtable();
 
+  public static final String LAZY_LOADING_PROPERTY = "Lazy_Data_Loading";
+
+  private boolean lazy_loading =         // if true, the spectra are only read 
+    SharedData.getbooleanProperty(       // when first used
+                          LAZY_LOADING_PROPERTY, "false" );
+
 /**
  *  Construct a runfile retriever for a specific file.
  *
@@ -560,6 +566,35 @@ public class RunfileRetriever extends    Retriever
   }
 
 
+/**
+ *  Specify whether or not the spectra should be read from the runfile only 
+ *  when they are first used.  If lazy loading is on, getDataSet() returns 
+ *  a DataSet whose Data blocks are LazyHistogramTables, with the XScales 
+ *  and attributes set but the y values not yet read.  The default value
+ *  is taken from the IsawProps property Lazy_Data_Loading, or is false if
+ *  that property is not set.  Sample DataSets from direct geometry 
+ *  spectrometers are always read completely, since the incident energy
+ *  correction needs all of the y values.
+ *
+ *  @param  lazy  Flag indicating whether to read spectra on demand.
+ */
+  public void setLazyLoading( boolean lazy )
+  {
+    lazy_loading = lazy;
+  }
+
+
+/**
+ *  Check whether spectra are read from the runfile only when first used.
+ *
+ *  @return true if lazy loading is on.
+ */
+  public boolean isLazyLoading()
+  {
+    return lazy_loading;
+  }
+
+
 /**
  *  Get the list of available IDs in the specified DataSet.
  *
@@ -693,6 +728,27 @@ private float CalculateEIn()
   private DataSet getDataSet( int data_set_num, 
                               int instrument_type,
                               int ids[] )
+  {
+    if ( run_file == null )
+      return null;
+                                    // LazyHistogramTables from DataSets that
+                                    // were already returned may read spectra
+                                    // from the run_file at any time, so hold
+                                    // its lock while it is left open. 
+    synchronized( run_file )
+    {
+      return readDataSet( data_set_num, instrument_type, ids );
+    }
+  }
+
+
+/**
+ *  Read the specified DataSet from the runfile.  This must only be called
+ *  while holding the lock on the run_file.
+ */
+  private DataSet readDataSet( int data_set_num, 
+                               int instrument_type,
+                               int ids[] )
   {
     int               num_times = 0;
     XScale            x_scale = new UniformXScale(0,1,2);
@@ -765,6 +821,13 @@ private float CalculateEIn()
 
      run_file.LeaveOpen();
 
+     boolean lazy = lazy_loading &&        // spectrometer sample spectra are
+                    !( instrument_type == InstrumentType.TOF_DG_SPECTROMETER &&
+                       ds_type == Attribute.SAMPLE_DATA );   // all adjusted
+     ISpectrumSource source = null;
+     if ( lazy )
+       source = new RunfileSpectrumSource( run_file );
+
      int last_tf_type = Integer.MAX_VALUE;  // keep track of the previous time
      int tf_type;                           // type so we only create new 
                                             // XScales when needed.  
@@ -818,10 +881,25 @@ private float CalculateEIn()
 
          if ( num_times > 1 )
          {
-          raw_spectrum = run_file.Get1DSpectrum( group_id );
-          if ( raw_spectrum.length >= 1 )
+          int num_values;
+          if ( lazy )                        // just record where to get the
+          {                                  // spectrum, don't read it yet.
+            raw_spectrum = null;             // The header gives one value
+            num_values   = num_times - 1;    // per time channel
+          }
+          else
+          {
+            raw_spectrum = run_file.Get1DSpectrum( group_id );
+            num_values   = raw_spectrum.length;
+          }
+
+          if ( num_values >= 1 )
           {
-            spectrum = Data.getInstance( x_scale, raw_spectrum, group_id );
+            if ( lazy )
+              spectrum = new LazyHistogramTable( x_scale, group_id, source,
+                                                 add_run_attrs );
+            else
+              spectrum = Data.getInstance( x_scale, raw_spectrum, group_id );
             spectrum.setSqrtErrors( true );
 
             // Add the relevant attributes ----------------------------------
@@ -977,21 +1055,24 @@ private float CalculateEIn()
       AddShared_RunNumber( attr_list );                 
       AddShared_InitialPath( attr_list );
       Add_EffectivePosition(attr_list, group_segments, group_id, histogram_num);
-      try{
-        float total = 0;
-        float counts[] = spectrum.getY_values();
-        if ( counts != null )
-          for ( int i = 0; i < counts.length; i++ )
-            total += counts[i];
-        float_attr = new FloatAttribute( Attribute.TOTAL_COUNT, total );
-        attr_list.setAttribute( float_attr );
-      }
-      catch(Exception e)
-      {
-        System.out.println(
+      if ( !(spectrum instanceof LazyHistogramTable) ) // lazy spectra set the
+      {                                                // total when loaded
+        try{
+          float total = 0;
+          float counts[] = spectrum.getY_values();
+          if ( counts != null )
+            for ( int i = 0; i < counts.length; i++ )
+              total += counts[i];
+          float_attr = new FloatAttribute( Attribute.TOTAL_COUNT, total );
+          attr_list.setAttribute( float_attr );
+        }
+        catch(Exception e)
+        {
+          System.out.println(
                         "Exception in RunfileRetriever.AddSpectrumAttributes");
-        System.out.println("Exception is " + e );
-        e.printStackTrace();
+          System.out.println("Exception is " + e );
+          e.printStackTrace();
+        }
       }
     }
 
@@ -2063,6 +2144,46 @@ private float CalculateEIn()
     }
   }
 
+/**
+ *  Private class that reads individual spectra from a runfile for the 
+ *  LazyHistogramTables in a DataSet.  Access to the runfile is 
+ *  synchronized, since spectra may be loaded from several threads.  If
+ *  a spectrum can't be read, an IllegalStateException is thrown, rather
+ *  than returning an empty spectrum.
+ */
+  private static class RunfileSpectrumSource implements ISpectrumSource
+  {
+    private Runfile run_file;
+
+    RunfileSpectrumSource( Runfile run_file )
+    {
+      this.run_file = run_file;
+    }
+
+    public float[] getSpectrum( int group_id )
+    {
+      float[] spectrum;
+      try
+      {
+        synchronized( run_file )
+        {
+          spectrum = run_file.Get1DSpectrum( group_id );
+        }
+      }
+      catch ( Exception e )
+      {
+        throw new IllegalStateException( "Exception reading spectrum " + 
+                           group_id + " in RunfileRetriever: " + e );
+      }
+
+      if ( spectrum == null )
+        throw new IllegalStateException( "No spectrum for group " + 
+                                          group_id + " in RunfileRetriever" );
+      return spectrum;
+    }
+  }
+
+
   public static void main(String[] args)
   {
     String file_names[] = { "/usr/local/ARGONNE_DATA/wrchen03/INS/sand19878.run" };
@@ -133,7 +133,10 @@ import gov.anl.ipns.Util.Numeric.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import DataSetTools.math.*;
+import DataSetTools.util.TaskUtil;
 import DataSetTools.dataset.*;
 import DataSetTools.instruments.*;
 
@@ -145,7 +148,8 @@ import DataSetTools.instruments.*;
  */
 
 public class SCDcal   extends    OneVarParameterizedFunction
-                      implements Serializable
+                      implements Serializable,
+                                 IResidualFunction
 {
   public static final int L1_INDEX    = 0;
   public static final int T0_INDEX    = 1;
@@ -205,6 +209,8 @@ public class SCDcal   extends    OneVarParameterizedFunction
   protected int       used_p_index[];   // index into list of params used, 
                                         // for each possible parameter
 
+  private transient ExecutorService executor = null;  // pool for the fit
+
   protected boolean   do_SCDcal_setParameters; // subclasses should set this
                                                // false, to do their own 
                                                // setParameters() method and
@@ -428,6 +434,63 @@ public class SCDcal   extends    OneVarParameterizedFunction
   }
 
 
+  /**
+   *  Get the number of residuals for the LevenbergMarquardt fitter, which
+   *  is three times the number of peaks.  The residuals are the x, y and
+   *  z components of the differences between the observed and theoretical
+   *  Q vectors, so their sum of squares is the same as the sum of the 
+   *  squares of the values returned by getValue().
+   *
+   *  @return the number of residuals.
+   */
+  public int numResiduals()
+  {
+    return 3 * n_peaks;
+  }
+
+
+  /**
+   *  Get the components of the differences between the observed and
+   *  theoretical Q vectors, using the current parameters.
+   *
+   *  @param  first      Index of the first residual to calculate.
+   *  @param  last       Index of the last residual to calculate.
+   *  @param  residuals  Array of length numResiduals(), into which 
+   *                     residuals first..last are stored.
+   */
+  public void getResiduals( int first, int last, double residuals[] )
+  {
+    for ( int i = first; i <= last; i++ )
+      residuals[i] = qxyz_observed   [i/3][i%3] - 
+                     qxyz_theoretical[i/3][i%3]; 
+  }
+
+
+  /**
+   *  The residuals depend on all parameters through the best fit U matrix,
+   *  so no analytic derivatives are provided.
+   *
+   *  @return false, so the fitter uses finite differences.
+   */
+  public boolean getJacobian( int first, int last, double jac_t[][] )
+  {
+    return false;
+  }
+
+
+  /**
+   *  Set the thread pool used to calculate the observed Q vectors in
+   *  setParameters().
+   *
+   *  @param  executor  The pool to use, or null to calculate the Q 
+   *                    vectors on the calling thread.
+   */
+  public void setExecutor( ExecutorService executor )
+  {
+    this.executor = executor;
+  }
+
+
   /**
    *  Set the new values for the list of parameters for this function.
    *  Set up the new position of the data grid.
@@ -656,8 +719,33 @@ public class SCDcal   extends    OneVarParameterizedFunction
   /**
    *  Calculate the list of observed qxyz values, using the measured tof,
    *  row and col values with the current values of the instrument parameters. 
+   *  If a thread pool was set by the fitter, the peaks are split into 
+   *  blocks that are processed concurrently in that pool.
    */
   protected void find_qxyz_observed()
+  {
+    ExecutorService pool = executor;
+    if ( pool == null )
+    {
+      find_qxyz_observed( 0, n_peaks );
+      return;
+    }
+
+    int num_parts = TaskUtil.NumParts( n_peaks, 
+                                       LevenbergMarquardt.getNumThreads() );
+    Vector<Callable<Object>> tasks = new Vector<Callable<Object>>();
+    for ( int part = 0; part < num_parts; part++ )
+      tasks.add( new QxyzObservedTask( 
+                         TaskUtil.PartStart( part,   num_parts, n_peaks ),
+                         TaskUtil.PartStart( part+1, num_parts, n_peaks ) ) );
+    TaskUtil.RunTasks( pool, tasks );
+  }
+
+
+  /**
+   *  Calculate the observed qxyz values for peaks first..last-1.
+   */
+  private void find_qxyz_observed( int first, int last )
   {
     double l1 = all_parameters[L1_INDEX];
     double t0 = all_parameters[T0_INDEX];
@@ -674,7 +762,7 @@ public class SCDcal   extends    OneVarParameterizedFunction
     double             rotation_inv[][] = null;
     Position3D_d qxyz;
     double       coords[] = new double[3];
-    for ( int peak = 0; peak < n_peaks; peak++ )
+    for ( int peak = first; peak < last; peak++ )
     {
       rotation = (double[][])gon_rotation.get( new Integer( run[peak] ) );
       SCDcal_util.mult_vector( rotation, sample_shift_array, coords );
@@ -692,6 +780,28 @@ public class SCDcal   extends    OneVarParameterizedFunction
       SCDcal_util.mult_vector( rotation_inv, coords, qxyz_observed[peak] );
     }
   }
+
+
+  /**
+   *  Task to calculate the observed qxyz values for one block of peaks.
+   */
+  private class QxyzObservedTask implements Callable<Object>
+  {
+    private int first;
+    private int last;
+
+    public QxyzObservedTask( int first, int last )
+    {
+      this.first = first;
+      this.last  = last;
+    }
+
+    public Object call()
+    {
+      find_qxyz_observed( first, last );
+      return null;
+    }
+  }
   
 
   /**
@@ -0,0 +1,188 @@
+/*
+ * File: TaskUtil.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ *
+ *  $Author$
+ *  $Date$
+ *  $Revision$
+ */
+
+package DataSetTools.util;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ *  Static methods for splitting a list of work into parts and running a
+ *  task for each part, on several threads.  The results are always
+ *  returned in the order of the tasks, so the calling code gets the same
+ *  results no matter how many threads are used.
+ */
+public class TaskUtil
+{
+
+  /**
+   *  Don't allow instantiating this class, it only has static methods.
+   */
+  private TaskUtil()
+  {
+  }
+
+
+  /**
+   *  Get the number of parts to split a list into, so that the threads
+   *  can share the work even if some parts take longer than others.
+   *
+   *  @param  list_size    The number of entries in the list.
+   *  @param  num_threads  The number of threads that will do the work.
+   *
+   *  @return 1 if only one thread is used, otherwise four parts per
+   *          thread, but no more parts than there are entries.
+   */
+  public static int NumParts( int list_size, int num_threads )
+  {
+    if ( num_threads <= 1 )
+      return 1;
+
+    return Math.max( 1, Math.min( list_size, 4 * num_threads ) );
+  }
+
+
+  /**
+   *  Get the index of the first entry in the specified part of a list.
+   *  Part num_parts gives the list size, so part p covers the entries
+   *  from PartStart(p,...) up to, but not including, PartStart(p+1,...).
+   *
+   *  @param  part       The part number, from 0 to num_parts.
+   *  @param  num_parts  The number of parts the list is split into.
+   *  @param  list_size  The number of entries in the list.
+   *
+   *  @return the index of the first entry in the part.
+   */
+  public static int PartStart( int part, int num_parts, int list_size )
+  {
+    return (int)( (long)part * list_size / num_parts );
+  }
+
+
+  /**
+   *  Call each of the specified tasks, using up to the specified number of
+   *  threads, and return the results in the same order as the tasks.  If
+   *  only one thread is to be used, the tasks are just called in order on
+   *  the current thread.  Otherwise a thread pool is made for these tasks
+   *  and shut down when they are done.
+   *
+   *  @param  tasks        The tasks to call.
+   *  @param  num_threads  The maximum number of threads to use.
+   *
+   *  @return a Vector with the result of each task.
+   *
+   *  @throws IllegalStateException if a task throws a checked exception, or
+   *          this thread is interrupted while waiting for the tasks.
+   *          Unchecked exceptions from the tasks are re-thrown.
+   */
+  public static <T> Vector<T> RunTasks( Vector<Callable<T>> tasks,
+                                        int                 num_threads )
+  {
+    if ( num_threads <= 1 || tasks.size() <= 1 )
+      return RunTasks( null, tasks );
+
+    ExecutorService executor =
+       Executors.newFixedThreadPool( Math.min( num_threads, tasks.size() ) );
+    try
+    {
+      return RunTasks( executor, tasks );
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
+
+  /**
+   *  Call each of the specified tasks, using the specified thread pool,
+   *  and return the results in the same order as the tasks.  If there is
+   *  no pool, or only one task, the tasks are just called in order on the
+   *  current thread.  The pool is NOT shut down, so the caller can reuse
+   *  it for later tasks.
+   *
+   *  @param  executor  The thread pool to use, or null.
+   *  @param  tasks     The tasks to call.
+   *
+   *  @return a Vector with the result of each task.
+   *
+   *  @throws IllegalStateException if a task throws a checked exception, or
+   *          this thread is interrupted while waiting for the tasks.
+   *          Unchecked exceptions from the tasks are re-thrown.
+   */
+  public static <T> Vector<T> RunTasks( ExecutorService     executor,
+                                        Vector<Callable<T>> tasks )
+  {
+    Vector<T> results = new Vector<T>( tasks.size() );
+
+    if ( executor == null || tasks.size() <= 1 )
+    {
+      for ( int i = 0; i < tasks.size(); i++ )
+      {
+        try
+        {
+          results.add( tasks.elementAt(i).call() );
+        }
+        catch ( RuntimeException ex )
+        {
+          throw ex;
+        }
+        catch ( Exception ex )
+        {
+          throw new IllegalStateException( "Task failed: " + ex );
+        }
+      }
+      return results;
+    }
+
+    try
+    {
+      List<Future<T>> futures = executor.invokeAll( tasks );
+      for ( int i = 0; i < futures.size(); i++ )
+        results.add( futures.get(i).get() );
+    }
+    catch ( InterruptedException ex )
+    {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException( "Interrupted while waiting for tasks");
+    }
+    catch ( ExecutionException ex )
+    {
+      Throwable cause = ex.getCause();
+      if ( cause instanceof RuntimeException )
+        throw (RuntimeException)cause;
+      throw new IllegalStateException( "Task failed: " + cause );
+    }
+    return results;
+  }
+
+}
@@ -0,0 +1,545 @@
+/* 
+ * File: ImageResampler.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package DataSetTools.viewer.Image;
+
+import java.util.*;
+import java.util.concurrent.*;
+import javax.swing.SwingUtilities;
+
+import DataSetTools.dataset.*;
+import DataSetTools.util.TaskUtil;
+
+/**
+ *  This class resamples the Data blocks of a DataSet to the x scales of an
+ *  image, with one row of the image for each Data block.  Histograms are
+ *  resampled to one XScale and functions to another, as in ImageView.  The
+ *  rows are resampled concurrently, and the images for the most recently
+ *  used x scales and smoothing flag are kept, so that returning to a 
+ *  previous x range does not resample the DataSet again.  For large 
+ *  DataSets, a coarse preview that resamples only some of the Data blocks
+ *  can be shown while the full image is resampled on a background thread.
+ *  The background resampling is cancelled when a different image is 
+ *  requested.  NOTE: clear() must be called if the y values of the DataSet
+ *  change.
+ */
+public class ImageResampler
+{
+  /**
+   *  Images with more values than this should be previewed and resampled
+   *  in the background, rather than resampled on the event thread.
+   */
+  public static final long BACKGROUND_SIZE = 1 << 21;
+
+  /**
+   *  Maximum number of values kept in all cached images.  The most recent 
+   *  image is always kept, even if it is larger.
+   */
+  public static final long MAX_CACHED_VALUES = 1 << 24;
+
+  private static int n_threads = Runtime.getRuntime().availableProcessors();
+
+  private DataSet ds;
+                                          // images keyed by x scales and
+                                          // smooth flag, in access order
+  private LinkedHashMap<ImageKey,float[][]> images = 
+                        new LinkedHashMap<ImageKey,float[][]>( 8, 0.75f, true );
+  private long cached_values = 0;
+                                          // incremented to cancel the 
+                                          // current background resampling
+  private volatile int generation = 0;
+
+
+  /**
+   *  Construct a resampler for the Data blocks of the specified DataSet.
+   *
+   *  @param  ds   The DataSet whose Data blocks form the rows of the image.
+   */
+  public ImageResampler( DataSet ds )
+  {
+    this.ds = ds;
+  }
+
+
+  /**
+   *  Set the number of threads used to resample the rows of an image.
+   *
+   *  @param num_threads  The number of threads to use.  This must be at
+   *                      least 1.
+   */
+  public static void setNumThreads( int num_threads )
+  {
+    if ( num_threads < 1 )
+      throw new IllegalArgumentException("Number of threads must be at least 1 "
+                                         + num_threads );
+    n_threads = num_threads;
+  }
+
+
+  /**
+   *  Get the number of threads used to resample the rows of an image.
+   *
+   *  @return the number of threads that will be used.
+   */
+  public static int getNumThreads()
+  {
+    return n_threads;
+  }
+
+
+  /**
+   *  Get the image for the specified x scales and smooth flag, if it has
+   *  already been resampled.
+   *
+   *  @param  hist_scale   The XScale used for histograms
+   *  @param  func_scale   The XScale used for functions
+   *  @param  smooth_flag  The smooth flag passed to getY_values()
+   *
+   *  @return the cached image, or null if the image is not in the cache.
+   *          The returned array must not be changed.
+   */
+  public synchronized float[][] getCachedImage( XScale hist_scale, 
+                                                XScale func_scale,
+                                                int    smooth_flag )
+  {
+    return images.get( new ImageKey( hist_scale, func_scale, smooth_flag ) );
+  }
+
+
+  /**
+   *  Resample all of the Data blocks to form the image for the specified
+   *  x scales and smooth flag, using multiple threads, and keep the image
+   *  in the cache.  If the image is already in the cache, the cached image
+   *  is returned.
+   *
+   *  @param  hist_scale   The XScale used for histograms
+   *  @param  func_scale   The XScale used for functions
+   *  @param  smooth_flag  The smooth flag passed to getY_values()
+   *
+   *  @return an array with one row of resampled y values for each Data 
+   *          block.  The returned array must not be changed.
+   */
+  public float[][] Resample( XScale hist_scale, 
+                             XScale func_scale,
+                             int    smooth_flag )
+  {
+    float[][] image = getCachedImage( hist_scale, func_scale, smooth_flag );
+    if ( image != null )
+      return image;
+
+    image = ResampleRows( hist_scale, func_scale, smooth_flag, 1, -1 );
+    putImage( new ImageKey( hist_scale, func_scale, smooth_flag ), image );
+    return image;
+  }
+
+
+  /**
+   *  Make a coarse preview of the image for the specified x scales and 
+   *  smooth flag, by resampling only every n-th Data block, so that at
+   *  most max_rows Data blocks are resampled.  Each resampled row is also
+   *  used for the following rows that were skipped.  The preview is not
+   *  cached.
+   *
+   *  @param  hist_scale   The XScale used for histograms
+   *  @param  func_scale   The XScale used for functions
+   *  @param  smooth_flag  The smooth flag passed to getY_values()
+   *  @param  max_rows     The maximum number of Data blocks to resample
+   *
+   *  @return an array with one row for each Data block.  Skipped rows 
+   *          refer to the same array as the preceding resampled row.
+   */
+  public float[][] Preview( XScale hist_scale, 
+                            XScale func_scale,
+                            int    smooth_flag,
+                            int    max_rows )
+  {
+    int num_rows = ds.getNum_entries();
+    int stride   = 1;
+    if ( max_rows > 0 && num_rows > max_rows )
+      stride = (num_rows + max_rows - 1) / max_rows;
+
+    return ResampleRows( hist_scale, func_scale, smooth_flag, stride, -1 );
+  }
+
+
+  /**
+   *  Cancel any background resampling, then start resampling the image 
+   *  for the specified x scales and smooth flag on a background thread.
+   *  If the resampling is not cancelled, the image is put in the cache
+   *  and the specified Runnable is then run on the Swing event thread. 
+   *  It can get the image using getCachedImage().
+   *
+   *  @param  hist_scale   The XScale used for histograms
+   *  @param  func_scale   The XScale used for functions
+   *  @param  smooth_flag  The smooth flag passed to getY_values()
+   *  @param  when_done    Runnable to call on the event thread when the
+   *                       image is ready.  This may be null.
+   */
+  public void ResampleInBackground( XScale   hist_scale,
+                                    XScale   func_scale,
+                                    int      smooth_flag,
+                                    Runnable when_done )
+  {
+    cancel();
+    Thread thread = new Thread( new BackgroundResampler( generation,
+                                                         hist_scale,
+                                                         func_scale,
+                                                         smooth_flag,
+                                                         when_done ),
+                                "ImageResampler" );
+    thread.setDaemon( true );
+    thread.setPriority( Thread.MIN_PRIORITY );
+    thread.start();
+  }
+
+
+  /**
+   *  Cancel any resampling that is being done in the background.  The 
+   *  background threads stop after the rows they are currently resampling.
+   */
+  public void cancel()
+  {
+    generation++;
+  }
+
+
+  /**
+   *  Cancel any background resampling and discard all cached images.  This
+   *  must be called if the y values of the DataSet change.
+   */
+  public synchronized void clear()
+  {
+    cancel();
+    images.clear();
+    cached_values = 0;
+  }
+
+
+  /**
+   *  Resample every stride-th Data block, using the specified x scales,
+   *  and use each resampled row for the following stride-1 rows.  If gen
+   *  is not negative, the resampling stops when the generation no longer
+   *  matches gen.
+   *
+   *  @return the array of rows, or null if the resampling was cancelled.
+   */
+  private float[][] ResampleRows( XScale hist_scale,
+                                  XScale func_scale,
+                                  int    smooth_flag,
+                                  int    stride,
+                                  int    gen )
+  {
+    int num_rows = ds.getNum_entries();
+    float[][] image = new float[ num_rows ][];
+
+    int num_parts = TaskUtil.NumParts( num_rows, n_threads );
+    Vector<Callable<Boolean>> tasks = new Vector<Callable<Boolean>>();
+    for ( int part = 0; part < num_parts; part++ )
+      tasks.add( new ResampleTask( image,
+                             TaskUtil.PartStart( part,   num_parts, num_rows ),
+                             TaskUtil.PartStart( part+1, num_parts, num_rows ),
+                                   stride,
+                                   hist_scale, func_scale, smooth_flag,
+                                   gen ) );
+
+    Vector<Boolean> done;
+    if ( num_parts <= 1 )
+      done = TaskUtil.RunTasks( null, tasks );
+    else
+    {
+      ExecutorService executor = 
+        Executors.newFixedThreadPool( Math.min( n_threads, num_parts ),
+                                      new ResampleThreadFactory() );
+      try
+      {
+        done = TaskUtil.RunTasks( executor, tasks );
+      }
+      finally
+      {
+        executor.shutdownNow();
+      }
+    }
+    for ( int i = 0; i < done.size(); i++ )
+      if ( !done.elementAt(i).booleanValue() )
+        return null;
+
+    for ( int i = 0; i < num_rows; i++ )        // fill in the skipped rows
+      if ( image[i] == null )
+        image[i] = image[ i - i % stride ];
+
+    return image;
+  }
+
+
+  /**
+   *  Put an image in the cache, discarding the least recently used images
+   *  to keep the number of cached values below MAX_CACHED_VALUES.
+   */
+  private synchronized void putImage( ImageKey key, float[][] image )
+  {
+    float[][] old = images.put( key, image );
+    if ( old != null )
+      cached_values -= NumValues( old );
+    cached_values += NumValues( image );
+
+    Iterator<Map.Entry<ImageKey,float[][]>> it = images.entrySet().iterator();
+    while ( cached_values > MAX_CACHED_VALUES && images.size() > 1 )
+    {
+      Map.Entry<ImageKey,float[][]> eldest = it.next();
+      cached_values -= NumValues( eldest.getValue() );
+      it.remove();
+    }
+  }
+
+
+  /**
+   *  Get the number of values in the rows of an image, counting rows that
+   *  are shared only once.
+   */
+  private static long NumValues( float[][] image )
+  {
+    long      count    = 0;
+    float[]   last_row = null;
+    for ( int i = 0; i < image.length; i++ )
+      if ( image[i] != last_row )
+      {
+        last_row = image[i];
+        count   += last_row.length;
+      }
+    return count;
+  }
+
+
+  /**
+   *  Cache key for the specified x scales and smooth flag.  The x scales
+   *  are made by the viewer each time the image is made, so they are 
+   *  identified by their values.
+   */
+  private static class ImageKey
+  {
+    private ScaleKey hist_key;
+    private ScaleKey func_key;
+    private int      smooth_flag;
+
+    ImageKey( XScale hist_scale, XScale func_scale, int smooth_flag )
+    {
+      hist_key         = new ScaleKey( hist_scale );
+      func_key         = new ScaleKey( func_scale );
+      this.smooth_flag = smooth_flag;
+    }
+
+    public boolean equals( Object obj )
+    {
+      if ( !(obj instanceof ImageKey) )
+        return false;
+
+      ImageKey other = (ImageKey)obj;
+      return smooth_flag == other.smooth_flag &&
+             hist_key.equals( other.hist_key ) &&
+             func_key.equals( other.func_key );
+    }
+
+    public int hashCode()
+    {
+      return 31 * ( 31 * hist_key.hashCode() + func_key.hashCode() ) + 
+             smooth_flag;
+    }
+  }
+
+
+  /**
+   *  The values that identify one x scale.  All x values are compared if 
+   *  the scale is not uniform.
+   */
+  private static class ScaleKey
+  {
+    private boolean is_null;
+    private float   start_x;
+    private float   end_x;
+    private int     num_x;
+    private float[] xs;
+
+    ScaleKey( XScale x_scale )
+    {
+      is_null = x_scale == null;
+      if ( is_null )
+        return;
+
+      start_x = x_scale.getStart_x();
+      end_x   = x_scale.getEnd_x();
+      num_x   = x_scale.getNum_x();
+      if ( !(x_scale instanceof UniformXScale) )
+        xs = x_scale.getXs();
+    }
+
+    public boolean equals( Object obj )
+    {
+      if ( !(obj instanceof ScaleKey) )
+        return false;
+
+      ScaleKey other = (ScaleKey)obj;
+      return is_null == other.is_null &&
+             start_x == other.start_x &&
+             end_x   == other.end_x   &&
+             num_x   == other.num_x   &&
+             Arrays.equals( xs, other.xs );
+    }
+
+    public int hashCode()
+    {
+      int hash = Float.floatToIntBits( start_x );
+      hash = 31 * hash + Float.floatToIntBits( end_x );
+      hash = 31 * hash + num_x;
+      return 31 * hash + Arrays.hashCode( xs );
+    }
+  }
+
+
+  /**
+   *  Task that resamples the Data blocks for rows first..last-1 whose 
+   *  index is a multiple of the stride.
+   */
+  private class ResampleTask implements Callable<Boolean>
+  {
+    private float[][] image;
+    private int       first;
+    private int       last;
+    private int       stride;
+    private XScale    hist_scale;
+    private XScale    func_scale;
+    private int       smooth_flag;
+    private int       gen;
+
+    public ResampleTask( float[][] image,
+                         int       first,
+                         int       last,
+                         int       stride,
+                         XScale    hist_scale,
+                         XScale    func_scale,
+                         int       smooth_flag,
+                         int       gen )
+    {
+      this.image       = image;
+      this.first       = first;
+      this.last        = last;
+      this.stride      = stride;
+      this.hist_scale  = hist_scale;
+      this.func_scale  = func_scale;
+      this.smooth_flag = smooth_flag;
+      this.gen         = gen;
+    }
+
+    public Boolean call()
+    {
+      int start = first;
+      if ( start % stride != 0 )
+        start += stride - start % stride;
+
+      for ( int i = start; i < last; i += stride )
+      {
+        if ( gen >= 0 && gen != generation )
+          return Boolean.FALSE;
+
+        Data data_block = ds.getData_entry( i );
+        if ( data_block == null )                    // row of zeros if no Data
+          image[i] = new float[ Math.max( 0, func_scale.getNum_x() ) ];
+        else if ( data_block.isHistogram() )
+          image[i] = data_block.getY_values( hist_scale, smooth_flag );
+        else
+          image[i] = data_block.getY_values( func_scale, smooth_flag );
+      }
+      return Boolean.TRUE;
+    }
+  }
+
+
+  /**
+   *  Runnable that resamples the full image on a background thread, then
+   *  caches it and calls the caller's Runnable on the event thread, unless
+   *  it was cancelled.
+   */
+  private class BackgroundResampler implements Runnable
+  {
+    private int      gen;
+    private XScale   hist_scale;
+    private XScale   func_scale;
+    private int      smooth_flag;
+    private Runnable when_done;
+
+    public BackgroundResampler( int      gen,
+                                XScale   hist_scale,
+                                XScale   func_scale,
+                                int      smooth_flag,
+                                Runnable when_done )
+    {
+      this.gen         = gen;
+      this.hist_scale  = hist_scale;
+      this.func_scale  = func_scale;
+      this.smooth_flag = smooth_flag;
+      this.when_done   = when_done;
+    }
+
+    public void run()
+    {
+      float[][] image;
+      try
+      {
+        image = ResampleRows( hist_scale, func_scale, smooth_flag, 1, gen );
+      }
+      catch ( RuntimeException ex )
+      {
+        System.out.println( "Exception resampling image in background: " + 
+                            ex );
+        return;
+      }
+
+      if ( image == null || gen != generation )          // cancelled
+        return;
+
+      putImage( new ImageKey( hist_scale, func_scale, smooth_flag ), image );
+      if ( when_done != null )
+        SwingUtilities.invokeLater( when_done );
+    }
+  }
+
+
+  /**
+   *  Makes the resampling threads daemon threads with minimum priority, so
+   *  they never keep the application running and don't slow the GUI.
+   */
+  private static class ResampleThreadFactory implements ThreadFactory
+  {
+    public Thread newThread( Runnable runnable )
+    {
+      Thread thread = new Thread( runnable, "ImageResampler" );
+      thread.setDaemon( true );
+      thread.setPriority( Thread.MIN_PRIORITY );
+      return thread;
+    }
+  }
+
+}
@@ -289,6 +289,14 @@ public class ImageView extends    DataSetViewer
 
   private boolean image_sent_pointed_at = false;
 
+                                       // Data blocks resampled to the image
+                                       // x scales, and the histogram scale 
+                                       // of the image currently shown
+  private transient ImageResampler resampler     = null;
+  private transient XScale         image_h_scale = null;
+
+  private static final int PREVIEW_ROWS = 512;
+
   private boolean debug = false;
 
 /* --------------------------------------------------------------------------
@@ -402,6 +410,13 @@ public void redraw( String reason )
   }
   else          
   {
+    if ( !reason.equals( IObserver.GROUPS_CHANGED )    &&
+         !reason.equals( IObserver.ATTRIBUTE_CHANGED )  )
+    {
+      if ( resampler != null )          // y values may have changed
+        resampler.cancel();
+      resampler = null;
+    }
     init();
     MakeImage( true );
     DrawSelectedHGraphs();
@@ -430,6 +445,9 @@ public void setDataSet( DataSet ds )
 
   setVisible(false);
   super.setDataSet( ds );
+  if ( resampler != null )
+    resampler.cancel();
+  resampler = null;
 
   init(); 
   redraw( NEW_DATA_SET );
@@ -708,7 +726,6 @@ private void MakeImage( boolean redraw_flag )
     return;
 
   float   image_data[][];
-  Data    data_block;
 
   int num_rows = getDataSet().getNum_entries();
   max_num_rows_to_show = num_rows;
@@ -747,17 +764,39 @@ private void MakeImage( boolean redraw_flag )
       histogram_scale = new UniformXScale(x_min-step/2,x_max+step/2,num_cols+1);
   }
 
-  image_data = new float[ num_rows ][];
-
-  for ( int i = 0; i < num_rows; i++ )
+                                          // use the cached image if these
+                                          // scales were used before, else
+                                          // resample the Data blocks. Large
+                                          // DataSets are previewed using 
+                                          // some rows, and the full image 
+                                          // is resampled in the background
+  if ( resampler == null )
+    resampler = new ImageResampler( getDataSet() );
+  resampler.cancel();
+
+  image_h_scale = histogram_scale;
+  image_data = resampler.getCachedImage( histogram_scale, 
+                                         function_scale,
+                                         IData.SMOOTH_NONE );
+  if ( image_data == null )
   {
-    data_block = getDataSet().getData_entry(i);
-    if ( data_block == null )
-      image_data[i] = new float[ num_cols ];         // row of zeros if no Data 
-    else if ( data_block.isHistogram() )
-      image_data[i] = data_block.getY_values(histogram_scale,IData.SMOOTH_NONE);
+    if ( (long)num_rows * num_cols <= ImageResampler.BACKGROUND_SIZE )
+      image_data = resampler.Resample( histogram_scale, 
+                                       function_scale,
+                                       IData.SMOOTH_NONE );
     else
-      image_data[i] = data_block.getY_values(function_scale,IData.SMOOTH_NONE);
+    {
+      image_data = resampler.Preview( histogram_scale, 
+                                      function_scale,
+                                      IData.SMOOTH_NONE,
+                                      PREVIEW_ROWS );
+      resampler.ResampleInBackground( histogram_scale, 
+                                      function_scale,
+                                      IData.SMOOTH_NONE,
+                                      new RefineImageHandler( resampler,
+                                                              histogram_scale,
+                                                              function_scale));
+    }
   }
                               // set the log scale and image data, but don't
                               // remake the image yet. It's done when the
@@ -1719,6 +1758,41 @@ private class ConsumeKeyAdapter extends     KeyAdapter
 */
 
 
+/* -------------------------- RefineImageHandler ------------------------- */
+
+  /**
+   *  Replaces the preview image with the full image when it has been 
+   *  resampled in the background, if the same image is still shown.
+   */
+  private class RefineImageHandler implements Runnable
+  {
+    private ImageResampler image_resampler;
+    private XScale         hist_scale;
+    private XScale         func_scale;
+
+    public RefineImageHandler( ImageResampler image_resampler,
+                               XScale         hist_scale,
+                               XScale         func_scale )
+    {
+      this.image_resampler = image_resampler;
+      this.hist_scale      = hist_scale;
+      this.func_scale      = func_scale;
+    }
+
+    public void run()
+    {
+      if ( image_resampler != resampler || hist_scale != image_h_scale )
+        return;                                  // a new image was made
+
+      float[][] image_data = image_resampler.getCachedImage( hist_scale,
+                                                             func_scale,
+                                                        IData.SMOOTH_NONE );
+      if ( image_data != null )
+        image_Jpanel.setData( new VirtualArray2D( image_data ), true );
+    }
+  }
+
+
 /* -------------------------- OptionMenuHandler -------------------------- */
 
   private class OptionMenuHandler implements ActionListener,
@@ -160,7 +160,7 @@ import java.awt.*;
 public class RowColTimeVirtualArray extends 
                           DataSetTools.viewer.Table.Time_Slice_TableModel 
                        implements IArrayMaker_DataSet, IVirtualArray2D,doesColumns,
-                       IhasMarkers{
+                       IhasMarkers, IObserver{
   /**
     * 
     */
@@ -213,6 +213,7 @@ public class RowColTimeVirtualArray extends
      Title = DS.getTitle();
      this.state = state;
      initState();
+     DS.addIObserver( this );
     }
 
   public int getDimension(){
@@ -391,12 +392,7 @@ public class RowColTimeVirtualArray extends
         int r = tMaxrow - row_number; 
         row_number = r - tMinrow;
      }
-     try{
-        return (new Float( getValueAt(row_number, column_number ).toString()))
-                  .floatValue();
-     }catch( Exception ss){
-        return Float.NaN;
-     }
+     return getFloatValueAt( row_number, column_number );
     }
    
 
@@ -452,7 +448,7 @@ public class RowColTimeVirtualArray extends
      float[][]Res = new float[last_row-first_row+1][last_column-first_column+1];
     
      for( int i = first_row; i<=last_row; i++)
-        Res[i] = getRowValues( i, first_column,last_column);
+        Res[i-first_row] = getRowValues( i, first_column,last_column);
      return Res;
 
     }
@@ -614,7 +610,29 @@ public class RowColTimeVirtualArray extends
    
 
    public void kill(){
+     DS.deleteIObserver( this );
+     invalidateSlices();
    }
+
+  /**
+   *  Discards the cached time slices when the y values of the DataSet
+   *  may have changed.  Pointed at, selection and other changes that do
+   *  not affect the y values keep the cached slices.
+   */
+  public void update( Object observed, Object reason )
+    {
+     if( reason instanceof String )
+       if( !reason.equals( IObserver.DATA_CHANGED )    &&
+           !reason.equals( IObserver.DATA_DELETED )    &&
+           !reason.equals( IObserver.DATA_REORDERED )  &&
+           !reason.equals( IObserver.GROUPS_CHANGED )  &&
+           !reason.equals( IObserver.DESTROY ) )
+          return;
+
+     invalidateSlices();
+     if( IObserver.DESTROY.equals( reason ) )
+        DS.deleteIObserver( this );
+    }
   /**
    * To be continued...
    */
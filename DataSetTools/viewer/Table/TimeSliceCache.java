@@ -0,0 +1,367 @@
+/* 
+ * File: TimeSliceCache.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package DataSetTools.viewer.Table;
+
+import java.util.*;
+import DataSetTools.dataset.*;
+
+/**
+ *  This class provides the y-values, or the errors, of all of the Data 
+ *  blocks of one detector at one time slice, as a float[][] indexed by
+ *  row and column.  The values are read directly from the Data blocks and
+ *  are the same values that Time_Slice_TableModel.SumVals() returns for
+ *  each row and column, with Float.NaN where SumVals() returns "".  The 
+ *  most recently used slices are kept, so that moving back and forth 
+ *  through the time slices does not recalculate the values.  The array 
+ *  of the least recently used slice is reused for the next slice when
+ *  the cache is full.  Since the values are not recalculated, clear()
+ *  MUST be called when the y-values of the DataSet change.
+ */
+public class TimeSliceCache
+{
+   /** Default maximum number of slices kept by the cache */
+   public static final int DEFAULT_MAX_SLICES = 16;
+
+   private DataSet    DS;
+   private int        max_slices;
+   private LinkedHashMap<SliceKey,float[][]> slices;
+   private float[][]  spare = null;         // array of the last slice that
+                                            // was removed from the cache 
+
+                                            // the last y and error slices
+                                            // returned, indexed by
+                                            // SliceNum( errors )
+   private int[][][]  last_groups = new int[2][][];
+   private XScale[]   last_scale  = new XScale[2];
+   private float[]    last_time   = new float[2];
+   private float[][][] last_slice = new float[2][][];
+
+
+   /**
+    *  Construct a cache for time slices of the specified DataSet.
+    *
+    *  @param  DS          The DataSet whose y-values are cached
+    *  @param  max_slices  The maximum number of slices to keep.  This must
+    *                      be at least 1.
+    */
+   public TimeSliceCache( DataSet DS, int max_slices )
+   {
+      if( max_slices < 1 )
+         throw new IllegalArgumentException( 
+                       "Number of slices must be at least 1 " + max_slices );
+      this.DS         = DS;
+      this.max_slices = max_slices;
+      slices = new LinkedHashMap<SliceKey,float[][]>( 2 * max_slices, 
+                                                      0.75f, true )
+      {
+         protected boolean removeEldestEntry( 
+                                     Map.Entry<SliceKey,float[][]> eldest )
+         {
+            if( size() <= TimeSliceCache.this.max_slices )
+               return false;
+            spare = eldest.getValue();
+            return true;
+         }
+      };
+   }
+
+
+   /**
+    *  Get the y-values or errors for one detector at the time slice of the
+    *  specified XScale that contains the specified time.  The slice is 
+    *  calculated if it is not in the cache.  The returned array belongs to
+    *  the cache and must not be changed.
+    *
+    *  @param  groups   The DataSet index of the group at each row and column,
+    *                   with rows and columns starting at 1, as in 
+    *                   Time_Slice_TableModel.  Entries less than 0 mean 
+    *                   there is no group at that row and column.
+    *  @param  xscl     The XScale whose bins are the time slices 
+    *  @param  time     A time in the slice
+    *  @param  errors   If true, get the errors instead of the y-values
+    *
+    *  @return an array with entry [row-1][col-1] giving the value at the
+    *          row and column, or Float.NaN if there is no value there.
+    */
+   public float[][] getSlice( int[][] groups, 
+                              XScale  xscl, 
+                              float   time, 
+                              boolean errors )
+   {
+      int n = SliceNum( errors );
+      if( last_slice[n] != null   && last_groups[n] == groups &&
+          last_scale[n] == xscl  && last_time[n] == time  )
+         return last_slice[n];
+
+      float[] xs = null;
+      int index  = -1;
+      if( xscl != null )
+      {
+         xs    = xscl.getXs();
+         index = SliceIndex( xs, time );
+      }
+
+      SliceKey  key   = new SliceKey( groups, xscl, index, errors );
+      float[][] slice = slices.get( key );
+      if( slice == null )
+      {
+         slice = spare;
+         spare = null;
+         slice = MakeSlice( DS, groups, xs, index, errors, slice );
+         slices.put( key, slice );
+      }
+
+      last_groups[n] = groups;
+      last_scale[n]  = xscl;
+      last_time[n]   = time;
+      last_slice[n]  = slice;
+      return slice;
+   }
+
+
+   /**
+    *  Remove all slices from the cache.  This must be called when the
+    *  y-values or errors of the DataSet change.
+    */
+   public void clear()
+   {
+      slices.clear();
+      spare = null;
+      for( int n = 0; n < 2; n++ )
+      {
+         last_groups[n] = null;
+         last_scale[n]  = null;
+         last_slice[n]  = null;
+      }
+   }
+
+
+   /**
+    *  Get the number of slices currently in the cache.
+    */
+   public int numSlices()
+   {
+      return slices.size();
+   }
+
+
+   /**
+    *  Calculate the values at all rows and columns for one time slice, in
+    *  the same way as Time_Slice_TableModel.SumVals.
+    *
+    *  @param  DS      The DataSet with the Data blocks
+    *  @param  groups  The group index at each row and column, starting at 1
+    *  @param  xs      The x values of the XScale for the time slices, or 
+    *                  null if there is no XScale.
+    *  @param  index   The index in xs of the start of the time slice, or 
+    *                  -1 if the time is not in a slice.
+    *  @param  errors  If true use the errors, otherwise use the y-values
+    *  @param  slice   Array to reuse for the values, if it has the right
+    *                  size.  This may be null.
+    *
+    *  @return the slice array, with Float.NaN where there is no value.
+    */
+   private static float[][] MakeSlice( DataSet DS,
+                                       int[][] groups,
+                                       float[] xs,
+                                       int     index,
+                                       boolean errors,
+                                       float[][] slice )
+   {
+      int n_rows = groups.length - 1;
+      int n_cols = 0;
+      if( n_rows > 0 )
+         n_cols = groups[0].length - 1;
+
+      if( slice == null || slice.length != n_rows ||
+          ( n_rows > 0 && slice[0].length != n_cols ) )
+         slice = new float[n_rows][n_cols];
+
+      for( int r = 0; r < n_rows; r++ )
+         Arrays.fill( slice[r], Float.NaN );
+
+      if( xs == null || index < 0 )
+         return slice;
+
+      boolean single = xs.length <= 1;
+      float a = xs[index];
+      float b = Float.NaN;
+      if( index + 1 < xs.length )
+         b = xs[index + 1];
+
+      XScale  last_db_scale = null;         // Data blocks usually share
+      float[] db_xs         = null;         // XScales, so only find the 
+      int     index_y       = 0;            // start again for a new one
+      int     num_groups    = DS.getNum_entries();
+
+      for( int r = 0; r < n_rows; r++ )
+         for( int c = 0; c < n_cols; c++ )
+         {
+            int group = groups[1 + r][1 + c];
+            if( group < 0 || group >= num_groups )
+               continue;
+
+            Data    db    = DS.getData_entry( group );
+            float[] yvals = errors ? db.getErrors() : db.getY_values();
+            if( yvals == null )
+               continue;
+
+            XScale db_scale = db.getX_scale();
+            if( db_scale != last_db_scale )
+            {
+               last_db_scale = db_scale;
+               db_xs   = db_scale.getXs();
+               index_y = Arrays.binarySearch( db_xs, a );
+               if( index_y < 0 )
+                  index_y = -index_y - 2;
+               if( index_y < 0 )
+                  index_y = 0;
+            }
+            if( index_y >= db_xs.length )
+               continue;
+
+            if( single )
+               slice[r][c] = yvals[0];
+            else
+               slice[r][c] = SumInterval( db_xs, yvals, index_y, a, b );
+         }
+
+      return slice;
+   }
+
+
+   /**
+    *  Get the index of the time slice containing the specified time, as
+    *  in Time_Slice_TableModel.SumVals.
+    *
+    *  @return the index in xs of the start of the slice, or -1 if the time
+    *          is not in a slice.
+    */
+   private static int SliceIndex( float[] xs, float time )
+   {
+      int index = Arrays.binarySearch( xs, time );
+      if( index < 0 ) 
+         index = -index - 1 - 1;
+      if( index < 0 ) 
+         return -1;
+      if( index + 1 >= xs.length && xs[xs.length - 1] > xs[0] ) 
+         return -1;
+      return index;
+   }
+
+
+   /**
+    *  Integrate, with interpolation, the y-values of one Data block over 
+    *  the interval [a,b].
+    *
+    *  @param  db_xs    The x values of the Data block
+    *  @param  yvals    The y values (or errors) of the Data block
+    *  @param  index_y  The index of the last x value in db_xs that is at 
+    *                   or below a
+    *  @param  a        The start of the interval
+    *  @param  b        The end of the interval
+    *
+    *  @return the sum of the y values, weighted by the fraction of each
+    *          bin that is in the interval.
+    */
+   public static float SumInterval( float[] db_xs, 
+                                    float[] yvals, 
+                                    int     index_y,
+                                    float   a, 
+                                    float   b )
+   {
+      float V = 0;
+      for( int i = index_y; i < db_xs.length && db_xs[i] <= b; i++ )
+      {
+         float p = 0;
+         if( i + 1 < db_xs.length )
+         {
+            float width = db_xs[i + 1] - db_xs[i];
+            p = 1;
+            if( db_xs[i] < a )
+               p = ( db_xs[i + 1] - a ) / width;
+            if( db_xs[i + 1] > b )
+               p *= ( b - db_xs[i] ) / width;
+         }
+         if( i < yvals.length )
+            V += yvals[i] * p;
+      }
+      return V;
+   }
+
+
+   // index into the arrays of the last y and error slices returned
+   private static int SliceNum( boolean errors )
+   {
+      if( errors )
+         return 1;
+      return 0;
+   }
+
+
+   /**
+    *  Key identifying one cached slice.  The group array and XScale are
+    *  compared by identity, since a new array or XScale is made whenever 
+    *  the detector or the time slices change.
+    */
+   private static class SliceKey
+   {
+      private int[][] groups;
+      private XScale  xscl;
+      private int     index;
+      private boolean errors;
+
+      public SliceKey( int[][] groups, XScale xscl, int index, boolean errors )
+      {
+         this.groups = groups;
+         this.xscl   = xscl;
+         this.index  = index;
+         this.errors = errors;
+      }
+
+      public boolean equals( Object obj )
+      {
+         if( !( obj instanceof SliceKey ) )
+            return false;
+         SliceKey other = (SliceKey)obj;
+         return groups == other.groups && xscl   == other.xscl &&
+                index  == other.index  && errors == other.errors;
+      }
+
+      public int hashCode()
+      {
+         int hash = System.identityHashCode( groups );
+         hash = 31 * hash + System.identityHashCode( xscl );
+         hash = 31 * hash + index;
+         if( errors )
+            hash++;
+         return hash;
+      }
+   }
+
+}
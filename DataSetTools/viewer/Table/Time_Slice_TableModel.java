@@ -182,7 +182,7 @@ public class Time_Slice_TableModel extends TableViewModel implements ActionListe
    int num_rows,num_cols;
    XScale x_scale = null;
    int firstGroup =-1;
-   boolean bugg=false;
+   transient TimeSliceCache slice_cache = null;
    /** Constructor for this table model of the Data Set DS at time time
     *@param  DS  the data set for which the model will present the data
     *@param  time  the time of this time slice
@@ -562,28 +562,71 @@ public class Time_Slice_TableModel extends TableViewModel implements ActionListe
       if( index_y < 0) index_y = 0;
       if( (index_y  >= dbX_scale.getNum_x()) )
           return "";
-      float V = 0;
       if( xscl.getNum_x() <=1)//TODO Define this 
          return new Float(yvals[0]);
       float a = xscl.getX(index);
       float b = xscl.getX(index+1);
-      for( int i= index_y ; (i < dbX_scale.getNum_x())&&(dbX_scale.getX(i) <= b); i++){
-          float p = 1;
-          if( dbX_scale.getX(i) < a)
-            p =(dbX_scale.getX(i+1) - a) /(dbX_scale.getX(i+1) - dbX_scale.getX(i));
-          if( i+1 >= dbX_scale.getNum_x()){
-            p=0;
-          }
-          else if( dbX_scale.getX(i+1) > b)
-             p *=(b - dbX_scale.getX(i))/
-                 (dbX_scale.getX(i+1) - dbX_scale.getX(i));
-          if( i < yvals.length)
-            V += yvals[i]*p;
-          if( bugg) System.out.println("99Val ="+V+","+i+","+yvals[i]);
-      }
-      return new Float(V); 
+      return new Float( TimeSliceCache.SumInterval( dbX_scale.getXs(), yvals,
+                                                    index_y, a, b ) ); 
 
   }
+
+   /** Returns the y value, error or group index at the row and column at 
+    *  the time that has been set, as a float.  This gives the same value 
+    *  as getValueAt(), or Float.NaN where getValueAt() returns "", but the
+    *  values for the whole time slice are read directly from the Data 
+    *  blocks, and the most recently used time slices are kept.  
+    *  invalidateSlices() must be called if the y values of the DataSet
+    *  change.
+    * @param   row the row of the display.  row=0 is tMinrow
+    * @param   column  the column in the display  column=0 is tMincol
+    */
+   public float getFloatValueAt( int row, int column )
+   {
+     if( row <0) return Float.NaN;
+     if( column < 0) return Float.NaN;
+     if( row >=getRowCount())
+       return Float.NaN;
+     if( column >= getColumnCount())
+        return Float.NaN;
+     if (Groups==null) return Float.NaN;
+     if( row+ tMinrow +1 >= Groups.length) return Float.NaN;
+
+      int n = 1;
+      if( err ) n++;
+      if( ind ) n++;
+
+      if( column/n + tMincol+1 >= Groups[0].length) return Float.NaN;
+      int field = column - n * ( column / n );
+
+      int slice_row = tMinrow + row;
+      int slice_col = tMincol + column/n;
+      int index =Groups[1+slice_row][1+slice_col];
+      if( index < 0)
+         return Float.NaN;
+
+      if( slice_cache == null )
+         slice_cache = new TimeSliceCache( DS, 
+                                           TimeSliceCache.DEFAULT_MAX_SLICES );
+      if( field == 0 )
+         return slice_cache.getSlice( Groups, x_scale, Time, false )
+                                                 [slice_row][slice_col];
+      else if( field == 1 && err )
+         return slice_cache.getSlice( Groups, x_scale, Time, true )
+                                                 [slice_row][slice_col];
+      else
+         return index;//returns group index instead of time index
+   }
+
+   /** Discards the time slices kept by getFloatValueAt().  This must be 
+    *  called when the y values or errors of the DataSet change.
+    */
+   public void invalidateSlices()
+   {
+      if( slice_cache != null )
+         slice_cache.clear();
+   }
+
   public void setXScale( XScale xscale)
     { x_scale = xscale;
      }
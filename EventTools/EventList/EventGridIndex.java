@@ -0,0 +1,837 @@
+/* 
+ * File: EventGridIndex.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package EventTools.EventList;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class is a spatial index over the events of a FloatArrayEventList3D,
+ * that allows the events in a sphere or box, or the events nearest to a
+ * point, to be found without scanning the whole list.  Space is divided 
+ * into a uniform grid of cubic cells, and the indices of the events are
+ * sorted by the cell containing the event.  Only an array of event indices
+ * and an array of cell offsets are kept, so the index uses about one int
+ * per event, a quarter of the space used by the event coordinates and
+ * weights.  The events themselves are NOT copied, so the index must be 
+ * rebuilt if the coordinates of the events are changed.
+ */
+public class EventGridIndex
+{
+  /**
+   *  Average number of events per cell used when the cell size is chosen
+   *  automatically.
+   */
+  public static final int EVENTS_PER_CELL = 16;
+
+  /**
+   *  Maximum number of cells in the grid, regardless of the cell size.
+   */
+  public static final int MAX_CELLS = 1 << 24;
+
+  private FloatArrayEventList3D list;
+  private float[] xyz_vals;
+  private int     num_events;
+
+  private float   min_x,
+                  min_y,
+                  min_z;
+  private float   cell_size;
+  private float   inv_cell_size;
+  private int     n_x,
+                  n_y,
+                  n_z;
+
+  private int[]   cell_start;   // events in cell c are order[cell_start[c]]
+  private int[]   order;        // up to order[cell_start[c+1]-1]
+
+
+  /**
+   * Construct an index over the specified list of events, with a cell size
+   * chosen so that there are on average EVENTS_PER_CELL events per cell.
+   *
+   * @param list       The list of events to index.
+   * @param n_threads  The number of threads to use to build the index.
+   */
+  public EventGridIndex( FloatArrayEventList3D list, int n_threads )
+  {
+    this( list, 0, n_threads );
+  }
+
+
+  /**
+   * Construct an index over the specified list of events, using cubic
+   * cells of the specified size.  For sphere queries, a cell size 
+   * close to the query radius is a good choice.
+   *
+   * @param list       The list of events to index.
+   * @param cell_size  The edge length of the cells of the grid.  If this
+   *                   is not positive, a cell size will be chosen 
+   *                   automatically.  The cell size will be increased if
+   *                   needed to keep the number of cells below MAX_CELLS.
+   * @param n_threads  The number of threads to use to build the index.
+   */
+  public EventGridIndex( FloatArrayEventList3D list, 
+                         float                 cell_size, 
+                         int                   n_threads )
+  {
+    if ( list == null )
+      throw new IllegalArgumentException( "event list null" );
+
+    if ( n_threads < 1 )
+      n_threads = 1;
+
+    this.list  = list;
+    xyz_vals   = list.eventVals();
+    num_events = list.numEntries();
+
+    ExecutorService executor = null;
+    if ( n_threads > 1 && num_events > 100000 )
+      executor = Executors.newFixedThreadPool( n_threads );
+    else
+      n_threads = 1;
+
+    try
+    {
+      int[] bounds = new int[ n_threads + 1 ];
+      for ( int t = 0; t <= n_threads; t++ )
+        bounds[t] = (int)( (long)num_events * t / n_threads );
+
+      float[] extent = FindExtent( executor, bounds );
+      SetGrid( extent, cell_size );
+      SortEvents( executor, bounds );
+    }
+    catch ( InterruptedException ex )
+    {
+      throw new IllegalStateException( "Interrupted building event index" );
+    }
+    catch ( ExecutionException ex )
+    {
+      throw new IllegalStateException( "Failed building event index : " +
+                                        ex.getCause() );
+    }
+    finally
+    {
+      if ( executor != null )
+        executor.shutdownNow();
+    }
+  }
+
+
+  /**
+   * Get the number of events covered by this index.
+   */
+  public int numEntries()
+  {
+    return num_events;
+  }
+
+
+  /**
+   * Get the edge length of the cells of the grid.
+   */
+  public float getCellSize()
+  {
+    return cell_size;
+  }
+
+
+  /**
+   * Get the number of cells in the x, y and z directions.
+   */
+  public int[] getGridSize()
+  {
+    return new int[]{ n_x, n_y, n_z };
+  }
+
+
+  /**
+   *  Get the indices of the events that are within the specified radius
+   *  of the specified point.
+   *
+   *  @param point  The xyz coordinates of the center point of the sphere.
+   *  @param radius The radius of the sphere.
+   *
+   *  @return an array with the indices of the events in the list that
+   *          are closer to the point than the radius, in increasing order
+   *          within each cell of the grid.  The array may be empty.
+   */
+  public int[] getSphereIndices( float[] point, float radius )
+  {
+    float x = point[0];
+    float y = point[1];
+    float z = point[2];
+    float radius_squared = radius * radius;
+
+    int x0 = cellX( x - radius );
+    int x1 = cellX( x + radius );
+    int y0 = cellY( y - radius );
+    int y1 = cellY( y + radius );
+    int z0 = cellZ( z - radius );
+    int z1 = cellZ( z + radius );
+
+    IndexBuffer found = new IndexBuffer();
+    float d_x,
+          d_y,
+          d_z;
+    for ( int k = z0; k <= z1; k++ )
+      for ( int j = y0; j <= y1; j++ )
+      {
+        int row = ( k * n_y + j ) * n_x;
+        for ( int n = cell_start[ row + x0 ]; 
+                  n < cell_start[ row + x1 + 1 ]; n++ )
+        {
+          int i     = order[n];
+          int index = 3 * i;
+          d_x = x - xyz_vals[ index     ];
+          d_y = y - xyz_vals[ index + 1 ];
+          d_z = z - xyz_vals[ index + 2 ];
+          if ( d_x * d_x + d_y * d_y + d_z * d_z < radius_squared )
+            found.add( i );
+        }
+      }
+
+    return found.toArray();
+  }
+
+
+  /**
+   *  Get the indices of the events that are in the specified box, 
+   *  including events on the box boundary.
+   *
+   *  @param min  The xyz coordinates of the corner of the box with the 
+   *              smallest coordinates.
+   *  @param max  The xyz coordinates of the corner of the box with the
+   *              largest coordinates.
+   *
+   *  @return an array with the indices of the events in the box.  The 
+   *          array may be empty.
+   */
+  public int[] getBoxIndices( float[] min, float[] max )
+  {
+    IndexBuffer found = new IndexBuffer();
+    if ( max[0] < min[0] || max[1] < min[1] || max[2] < min[2] )
+      return found.toArray();
+
+    int x0 = cellX( min[0] );
+    int x1 = cellX( max[0] );
+    int y0 = cellY( min[1] );
+    int y1 = cellY( max[1] );
+    int z0 = cellZ( min[2] );
+    int z1 = cellZ( max[2] );
+
+    float x,
+          y,
+          z;
+    for ( int k = z0; k <= z1; k++ )
+      for ( int j = y0; j <= y1; j++ )
+      {
+        int row = ( k * n_y + j ) * n_x;
+        for ( int n = cell_start[ row + x0 ];
+                  n < cell_start[ row + x1 + 1 ]; n++ )
+        {
+          int i     = order[n];
+          int index = 3 * i;
+          x = xyz_vals[ index     ];
+          y = xyz_vals[ index + 1 ];
+          z = xyz_vals[ index + 2 ];
+          if ( x >= min[0] && x <= max[0] &&
+               y >= min[1] && y <= max[1] &&
+               z >= min[2] && z <= max[2] )
+            found.add( i );
+        }
+      }
+
+    return found.toArray();
+  }
+
+
+  /**
+   *  Get the indices of the k events that are closest to the specified
+   *  point.  The cells are searched in shells of increasing size around
+   *  the cell containing the point, stopping as soon as no unsearched 
+   *  cell can hold an event closer than the k-th closest event found.
+   *
+   *  @param point  The xyz coordinates of the point.
+   *  @param k      The number of events to find.
+   *
+   *  @return an array with the indices of the k events closest to the 
+   *          point, ordered by increasing distance from the point.  If 
+   *          there are fewer than k events in the list, the indices of 
+   *          all events are returned.
+   */
+  public int[] getNearestIndices( float[] point, int k )
+  {
+    if ( k <= 0 )
+      return new int[0];
+
+    k = Math.min( k, num_events );
+    float   x = point[0];
+    float   y = point[1];
+    float   z = point[2];
+    float[] heap_dist = new float[ k ];   // max heap of the closest events
+    int[]   heap_ev   = new int[ k ];
+    int     heap_size = 0;
+
+    int c_x = cellX( x );
+    int c_y = cellY( y );
+    int c_z = cellZ( z );
+    int max_shell = Math.max( Math.max( c_x, n_x - 1 - c_x ),
+                    Math.max( Math.max( c_y, n_y - 1 - c_y ),
+                              Math.max( c_z, n_z - 1 - c_z ) ) );
+
+    float d_x,
+          d_y,
+          d_z,
+          d_squared;
+    for ( int shell = 0; shell <= max_shell; shell++ )
+    {
+      if ( heap_size == k )
+      {
+        float reach = ( shell - 1 ) * cell_size;     // no event in this or
+        if ( reach > 0 && heap_dist[0] <= reach * reach )  // later shells
+          break;                                     // can be closer
+      }
+
+      int z0 = Math.max( c_z - shell, 0 );
+      int z1 = Math.min( c_z + shell, n_z - 1 );
+      int y0 = Math.max( c_y - shell, 0 );
+      int y1 = Math.min( c_y + shell, n_y - 1 );
+      for ( int kz = z0; kz <= z1; kz++ )
+        for ( int jy = y0; jy <= y1; jy++ )
+        {
+          boolean on_face = Math.abs( kz - c_z ) == shell ||
+                            Math.abs( jy - c_y ) == shell;
+          int step = on_face ? 1 : 2 * shell;
+          for ( int ix = c_x - shell; ix <= c_x + shell; ix += step )
+          {
+            if ( ix < 0 || ix >= n_x )
+              continue;
+
+            int cell = ( kz * n_y + jy ) * n_x + ix;
+            for ( int n = cell_start[cell]; n < cell_start[cell+1]; n++ )
+            {
+              int i     = order[n];
+              int index = 3 * i;
+              d_x = x - xyz_vals[ index     ];
+              d_y = y - xyz_vals[ index + 1 ];
+              d_z = z - xyz_vals[ index + 2 ];
+              d_squared = d_x * d_x + d_y * d_y + d_z * d_z;
+              if ( heap_size < k )
+              {
+                heap_dist[ heap_size ] = d_squared;
+                heap_ev  [ heap_size ] = i;
+                SiftUp( heap_dist, heap_ev, heap_size++ );
+              }
+              else if ( d_squared < heap_dist[0] )
+              {
+                heap_dist[0] = d_squared;
+                heap_ev  [0] = i;
+                SiftDown( heap_dist, heap_ev, heap_size );
+              }
+            }
+          }
+        }
+    }
+
+    int[] nearest = new int[ heap_size ];
+    for ( int n = heap_size - 1; n >= 0; n-- )
+    {
+      nearest[n] = heap_ev[0];
+      heap_dist[0] = heap_dist[n];
+      heap_ev  [0] = heap_ev  [n];
+      SiftDown( heap_dist, heap_ev, n );
+    }
+    return nearest;
+  }
+
+
+  /**
+   *  Get a new event list, consisting of only those events that are 
+   *  within the specified radius of the specified point.  This gives
+   *  the same result as FloatArrayEventList3D.getLocalEvents(), without
+   *  scanning the full list of events.
+   *
+   *  @param point  The xyz coordinates of the center point of the sphere
+   *                that should be kept.
+   *  @param radius The radius of the sphere of events that should be kept.
+   *
+   *  @return a new FloatArrayEventList3D object that only contains the
+   *          events that are close to the specified point OR null if 
+   *          there are no events close to the point.
+   */
+  public FloatArrayEventList3D getLocalEvents( float[] point, float radius )
+  {
+    return getEvents( getSphereIndices( point, radius ) );
+  }
+
+
+  /**
+   *  Get a new event list, consisting of only those events that are 
+   *  in the specified box.
+   *
+   *  @param min  The xyz coordinates of the corner of the box with the 
+   *              smallest coordinates.
+   *  @param max  The xyz coordinates of the corner of the box with the
+   *              largest coordinates.
+   *
+   *  @return a new FloatArrayEventList3D object that only contains the
+   *          events in the box, OR null if there are no events in the box.
+   */
+  public FloatArrayEventList3D getBoxEvents( float[] min, float[] max )
+  {
+    return getEvents( getBoxIndices( min, max ) );
+  }
+
+
+  /**
+   *  Get a new event list containing copies of the specified events.
+   *
+   *  @param indices  The indices of the events to copy.
+   *
+   *  @return a new FloatArrayEventList3D with the specified events, in
+   *          the specified order, or null if the list of indices is empty.
+   */
+  public FloatArrayEventList3D getEvents( int[] indices )
+  {
+    int count = indices.length;
+    if ( count == 0 )
+      return null;
+
+    float[] weights     = list.eventWeights();
+    float[] sub_weights = null;
+    if ( weights != null )
+      sub_weights = new float[ count ];
+
+    float[] sub_xyz = new float[ 3 * count ];
+    for ( int n = 0; n < count; n++ )
+    {
+      int i = indices[n];
+      if ( weights != null )
+        sub_weights[n] = weights[i];
+      System.arraycopy( xyz_vals, 3 * i, sub_xyz, 3 * n, 3 );
+    }
+
+    return new FloatArrayEventList3D( sub_weights, sub_xyz );
+  }
+
+
+  /**
+   *  Find the minimum and maximum x, y and z values of the events, 
+   *  working on separate ranges of events in parallel if an executor
+   *  is given.
+   *
+   *  @return an array with the min x, y, z followed by max x, y, z.
+   */
+  private float[] FindExtent( ExecutorService executor, final int[] bounds )
+          throws InterruptedException, ExecutionException
+  {
+    List<Callable<float[]>> tasks = new ArrayList<Callable<float[]>>();
+    for ( int t = 0; t < bounds.length - 1; t++ )
+    {
+      final int first = bounds[t];
+      final int last  = bounds[t+1];
+      tasks.add( new Callable<float[]>()
+      {
+        public float[] call()
+        {
+          float[] extent = { Float.POSITIVE_INFINITY, 
+                             Float.POSITIVE_INFINITY, 
+                             Float.POSITIVE_INFINITY, 
+                             Float.NEGATIVE_INFINITY, 
+                             Float.NEGATIVE_INFINITY, 
+                             Float.NEGATIVE_INFINITY };
+          int index = 3 * first;
+          for ( int i = first; i < last; i++ )
+            for ( int dim = 0; dim < 3; dim++ )
+            {
+              float val = xyz_vals[ index++ ];
+              if ( val < extent[dim] )
+                extent[dim] = val;
+              if ( val > extent[dim + 3] )
+                extent[dim + 3] = val;
+            }
+          return extent;
+        }
+      } );
+    }
+
+    float[] extent = null;
+    for ( Future<float[]> result : invoke( executor, tasks ) )
+    {
+      float[] part = result.get();
+      if ( extent == null )
+        extent = part;
+      else
+        for ( int dim = 0; dim < 3; dim++ )
+        {
+          extent[dim]     = Math.min( extent[dim],     part[dim]     );
+          extent[dim + 3] = Math.max( extent[dim + 3], part[dim + 3] );
+        }
+    }
+    return extent;
+  }
+
+
+  /**
+   *  Set the origin, cell size and number of cells in each direction, 
+   *  so that the grid covers the specified extent.
+   */
+  private void SetGrid( float[] extent, float size )
+  {
+    min_x = extent[0];
+    min_y = extent[1];
+    min_z = extent[2];
+    float ext_x = extent[3] - extent[0];
+    float ext_y = extent[4] - extent[1];
+    float ext_z = extent[5] - extent[2];
+
+    if ( !( size > 0 ) || Float.isInfinite( size ) )
+    {
+      float max_ext = Math.max( ext_x, Math.max( ext_y, ext_z ) );
+      if ( !( max_ext > 0 ) || Float.isInfinite( max_ext ) )
+        max_ext = 1;
+                                       // don't let flat lists give cells
+      float min_ext = max_ext / 1000;  // of size zero
+      double volume = (double)Math.max( ext_x, min_ext ) *
+                              Math.max( ext_y, min_ext ) *
+                              Math.max( ext_z, min_ext );
+      double n_cells = Math.max( 1.0, num_events / (double)EVENTS_PER_CELL );
+      size = (float)Math.cbrt( volume / n_cells );
+    }
+
+    while ( true )
+    {
+      long nx = 1 + (long)( ext_x / size );
+      long ny = 1 + (long)( ext_y / size );
+      long nz = 1 + (long)( ext_z / size );
+      if ( nx * ny * nz <= MAX_CELLS )
+      {
+        n_x = (int)nx;
+        n_y = (int)ny;
+        n_z = (int)nz;
+        break;
+      }
+      size *= 1.25f;
+    }
+
+    cell_size     = size;
+    inv_cell_size = 1 / size;
+  }
+
+
+  /**
+   *  Sort the event indices by cell, using a counting sort.  Separate 
+   *  ranges of events are counted and placed in parallel, if an executor
+   *  is given.  Within each cell, the events stay in increasing order.
+   */
+  private void SortEvents( ExecutorService executor, final int[] bounds )
+          throws InterruptedException, ExecutionException
+  {
+    final int     n_cells  = n_x * n_y * n_z;
+    final int     n_parts  = bounds.length - 1;
+    final int[]   cell_of  = new int[ num_events ];
+    final int[][] counts   = new int[ n_parts ][];
+
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+    for ( int t = 0; t < n_parts; t++ )
+    {
+      final int part = t;
+      tasks.add( new Callable<Object>()
+      {
+        public Object call()
+        {
+          int[] count = new int[ n_cells ];
+          int   index = 3 * bounds[part];
+          for ( int i = bounds[part]; i < bounds[part+1]; i++ )
+          {
+            int cell = ( cellZ( xyz_vals[ index + 2 ] ) * n_y +
+                         cellY( xyz_vals[ index + 1 ] ) ) * n_x +
+                         cellX( xyz_vals[ index     ] );
+            cell_of[i] = cell;
+            count[cell]++;
+            index += 3;
+          }
+          counts[part] = count;
+          return null;
+        }
+      } );
+    }
+    for ( Future<Object> result : invoke( executor, tasks ) )
+      result.get();
+                                              // turn the counts into the 
+    cell_start = new int[ n_cells + 1 ];      // position where each part
+    int position = 0;                         // places events in each cell
+    for ( int cell = 0; cell < n_cells; cell++ )
+    {
+      cell_start[cell] = position;
+      for ( int t = 0; t < n_parts; t++ )
+      {
+        int count = counts[t][cell];
+        counts[t][cell] = position;
+        position += count;
+      }
+    }
+    cell_start[ n_cells ] = position;
+
+    order = new int[ num_events ];
+    tasks.clear();
+    for ( int t = 0; t < n_parts; t++ )
+    {
+      final int part = t;
+      tasks.add( new Callable<Object>()
+      {
+        public Object call()
+        {
+          int[] next = counts[part];
+          for ( int i = bounds[part]; i < bounds[part+1]; i++ )
+            order[ next[ cell_of[i] ]++ ] = i;
+          return null;
+        }
+      } );
+    }
+    for ( Future<Object> result : invoke( executor, tasks ) )
+      result.get();
+  }
+
+
+  /**
+   *  Run the tasks using the executor, or in the calling thread if the
+   *  executor is null.
+   */
+  private static <T> List<Future<T>> invoke( ExecutorService         executor,
+                                             List<Callable<T>> tasks )
+          throws InterruptedException
+  {
+    if ( executor != null )
+      return executor.invokeAll( tasks );
+
+    List<Future<T>> results = new ArrayList<Future<T>>();
+    for ( Callable<T> task : tasks )
+    {
+      FutureTask<T> future = new FutureTask<T>( task );
+      future.run();
+      results.add( future );
+    }
+    return results;
+  }
+
+
+  private int cellX( float x )
+  {
+    return clamp( (int)( ( x - min_x ) * inv_cell_size ), n_x );
+  }
+
+
+  private int cellY( float y )
+  {
+    return clamp( (int)( ( y - min_y ) * inv_cell_size ), n_y );
+  }
+
+
+  private int cellZ( float z )
+  {
+    return clamp( (int)( ( z - min_z ) * inv_cell_size ), n_z );
+  }
+
+
+  private static int clamp( int cell, int n_cells )
+  {
+    if ( cell < 0 )
+      return 0;
+    if ( cell >= n_cells )
+      return n_cells - 1;
+    return cell;
+  }
+
+
+  /**
+   *  Move the last entry of the max heap up to its proper position.
+   */
+  private static void SiftUp( float[] dist, int[] ev, int n )
+  {
+    while ( n > 0 )
+    {
+      int parent = ( n - 1 ) / 2;
+      if ( dist[parent] >= dist[n] )
+        return;
+      swap( dist, ev, parent, n );
+      n = parent;
+    }
+  }
+
+
+  /**
+   *  Move the first entry of the max heap down to its proper position.
+   */
+  private static void SiftDown( float[] dist, int[] ev, int size )
+  {
+    int n = 0;
+    while ( true )
+    {
+      int largest = n;
+      int left    = 2 * n + 1;
+      int right   = left + 1;
+      if ( left < size && dist[left] > dist[largest] )
+        largest = left;
+      if ( right < size && dist[right] > dist[largest] )
+        largest = right;
+      if ( largest == n )
+        return;
+      swap( dist, ev, largest, n );
+      n = largest;
+    }
+  }
+
+
+  private static void swap( float[] dist, int[] ev, int i, int j )
+  {
+    float temp_dist = dist[i];
+    dist[i] = dist[j];
+    dist[j] = temp_dist;
+
+    int temp_ev = ev[i];
+    ev[i] = ev[j];
+    ev[j] = temp_ev;
+  }
+
+
+  /**
+   *  Growable array of event indices, used to collect query results.
+   */
+  private static class IndexBuffer
+  {
+    private int[] values = new int[ 64 ];
+    private int   size   = 0;
+
+    void add( int value )
+    {
+      if ( size == values.length )
+      {
+        int[] temp = new int[ 2 * size ];
+        System.arraycopy( values, 0, temp, 0, size );
+        values = temp;
+      }
+      values[ size++ ] = value;
+    }
+
+    int[] toArray()
+    {
+      int[] result = new int[ size ];
+      System.arraycopy( values, 0, result, 0, size );
+      return result;
+    }
+  }
+
+
+  /**
+   *  main program providing basic test for this class, comparing the 
+   *  results of queries on a list of random events with the results 
+   *  of a full scan of the list.
+   */
+  public static void main( String[] args )
+  {
+    int num_events = 2000000;
+    if ( args.length > 0 )
+      num_events = Integer.parseInt( args[0] );
+
+    Random  random  = new Random( 1 );
+    float[] xyz     = new float[ 3 * num_events ];
+    float[] weights = new float[ num_events ];
+    for ( int i = 0; i < num_events; i++ )
+    {
+      xyz[3*i]     = (float)( 10 * random.nextGaussian() );
+      xyz[3*i + 1] = (float)(  5 * random.nextGaussian() );
+      xyz[3*i + 2] = (float)( 10 * random.nextDouble() );
+      weights[i]   = i;
+    }
+    FloatArrayEventList3D list = new FloatArrayEventList3D( weights, xyz );
+
+    long start = System.nanoTime();
+    EventGridIndex grid = new EventGridIndex( list, 4 );
+    long end = System.nanoTime();
+    int[] size = grid.getGridSize();
+    System.out.printf( "Index built in %5.1f ms, cell size %6.4f, " +
+                       "grid %d x %d x %d\n", (end - start)/1.0e6,
+                       grid.getCellSize(), size[0], size[1], size[2] );
+
+    int n_bad = 0;
+    long scan_time = 0;
+    long grid_time = 0;
+    for ( int q = 0; q < 100; q++ )
+    {
+      float[] point  = { xyz[3*q], xyz[3*q+1], xyz[3*q+2] };
+      float   radius = 0.5f;
+
+      start = System.nanoTime();
+      FloatArrayEventList3D scan = list.getLocalEvents( point, radius );
+      scan_time += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      int[] found = grid.getSphereIndices( point, radius );
+      grid_time += System.nanoTime() - start;
+
+      Arrays.sort( found );
+      if ( found.length != scan.numEntries() )
+        n_bad++;
+      else
+        for ( int i = 0; i < found.length; i++ )
+          if ( found[i] != (int)scan.eventWeight(i) )
+            n_bad++;
+
+      int[] nearest = grid.getNearestIndices( point, 10 );
+      float last_d = -1;
+      for ( int i = 0; i < nearest.length; i++ )
+      {
+        float d = dist2( xyz, nearest[i], point );
+        if ( d < last_d )
+          n_bad++;
+        last_d = d;
+      }
+      int n_closer = 0;
+      for ( int i = 0; i < num_events; i++ )
+        if ( dist2( xyz, i, point ) < last_d )
+          n_closer++;
+      if ( n_closer > 9 )
+        n_bad++;
+    }
+    System.out.printf( "100 sphere queries, scan %7.1f ms, index %5.1f ms\n",
+                       scan_time/1.0e6, grid_time/1.0e6 );
+    System.out.println( "Number of mismatched queries = " + n_bad );
+  }
+
+
+  private static float dist2( float[] xyz, int i, float[] point )
+  {
+    float d_x = xyz[3*i]     - point[0];
+    float d_y = xyz[3*i + 1] - point[1];
+    float d_z = xyz[3*i + 2] - point[2];
+    return d_x * d_x + d_y * d_y + d_z * d_z;
+  }
+
+}
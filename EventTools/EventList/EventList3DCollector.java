@@ -0,0 +1,103 @@
+/* 
+ * File: EventList3DCollector.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package EventTools.EventList;
+
+import java.util.*;
+
+/**
+ * This class keeps a right-size copy of each block of events passed to it
+ * by the streaming form of SNS_Tof_to_Q_map.MapEventsToQ().  It is used
+ * where the mapped events must be kept after mapping, but where only
+ * block-size buffers of raw events should be needed while mapping, 
+ * instead of a copy of all of the raw events.
+ */
+public class EventList3DCollector implements IEventList3DConsumer
+{
+  private Vector<FloatArrayEventList3D> lists =
+                                       new Vector<FloatArrayEventList3D>();
+  private long num_events = 0;
+
+
+  /**
+   * Copy the valid events from the specified block into a new event list
+   * and keep it.
+   *
+   * @param events  The next block of events.
+   */
+  public void consume( IEventList3D events )
+  {
+    int n_events = events.numEntries();
+    if ( n_events <= 0 )
+      return;
+
+    float[] xyz_vals = CopyOf( events.eventVals(), 3 * n_events );
+    float[] weights  = events.eventWeights();
+    if ( weights != null )
+      weights = CopyOf( weights, n_events );
+
+    lists.add( new FloatArrayEventList3D( weights, xyz_vals ) );
+    num_events += n_events;
+  }
+
+
+  /**
+   * Get the event lists collected so far, one per non-empty block, in
+   * the order the blocks were received.
+   *
+   * @return an array of event lists, which will have length zero if no
+   *         events were received.
+   */
+  public FloatArrayEventList3D[] getEventLists()
+  {
+    return lists.toArray( new FloatArrayEventList3D[ lists.size() ] );
+  }
+
+
+  /**
+   * Get the total number of events collected so far.
+   *
+   * @return the number of events in all of the collected lists.
+   */
+  public long numEvents()
+  {
+    return num_events;
+  }
+
+
+  /**
+   *  Copy the specified array into a new array of the specified length,
+   *  padding with zeros if the new array is longer.
+   */
+  private static float[] CopyOf( float[] array, int length )
+  {
+    float[] result = new float[ length ];
+    System.arraycopy( array, 0, result, 0, Math.min( array.length, length ));
+    return result;
+  }
+
+}
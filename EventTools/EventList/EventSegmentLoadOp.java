@@ -72,14 +72,14 @@ public class EventSegmentLoadOp implements IOperator
 
 
  /**
-  * Get the requested portion of the event file, in an SNS_TofEventList
-  * object.
+  * Get the requested portion of the event file, in a TofEventList
+  * object.  The events are copied from a memory mapped view of the file.
   *
-  * @return a new SNS_TofEventList object containing the requested events.
+  * @return a new TofEventList object containing the requested events.
   */
   public Object getResult()
   {
-     SNS_TofEventList eventlist = new SNS_TofEventList( filename );
+     SNS_MappedTofEventList eventlist = new SNS_MappedTofEventList( filename );
 
      int[] events = eventlist.rawEvents( first, num );
 
@@ -47,11 +47,16 @@ public class FloatArrayEventList3D implements IEventList3D
 {
   private float[] weights = null;
   private float[] xyz_vals;
+  private int     num_events;     // may be less than xyz_vals.length/3 if
+                                  // the arrays are reused, partly filled
+                                  // buffers
 
   private IEventBinner x_extent = null;
   private IEventBinner y_extent = null;
   private IEventBinner z_extent = null;
 
+  private volatile EventGridIndex spatial_index = null;
+
 
   /**
    * Construct an event list using the specified arrays of weights and
@@ -76,8 +81,45 @@ public class FloatArrayEventList3D implements IEventList3D
     if ( num_events <= 0 )
       throw new IllegalArgumentException( "zero length weight array" );
 
-    this.weights  = weights;
-    this.xyz_vals = xyz_vals;
+    this.weights    = weights;
+    this.xyz_vals   = xyz_vals;
+    this.num_events = num_events;
+  }
+
+
+  /**
+   * Construct an event list using only the first num_events entries of
+   * the specified arrays of weights and x,y,z coordinates.  This allows
+   * buffers to be reused for successive blocks of events, without
+   * allocating arrays of exactly the right size for each block.
+   *
+   * NOTE: This constructor just records references to the arrays passed
+   *       in as parameters.  Code that uses eventVals() or eventWeights()
+   *       on such a list MUST use numEntries() to find how many entries
+   *       of the arrays are valid, rather than the array lengths.
+   *
+   * @param weights     Array of weights for the events. May be null.
+   * @param xyz_vals    Array of interleaved xyz-coordinates for the events.
+   * @param num_events  The number of events stored at the start of the 
+   *                    arrays.
+   */
+  public FloatArrayEventList3D( float[] weights,
+                                float[] xyz_vals,
+                                int     num_events )
+  {
+    if ( xyz_vals == null )
+      throw new IllegalArgumentException( "array null" );
+
+    if ( num_events <= 0 || num_events > xyz_vals.length / 3 )
+      throw new IllegalArgumentException( "invalid number of events " +
+                                           num_events );
+
+    if ( weights != null && weights.length < num_events )
+      throw new IllegalArgumentException( "weight array too short " +
+                                           weights.length );
+    this.weights    = weights;
+    this.xyz_vals   = xyz_vals;
+    this.num_events = num_events;
   }
 
 
@@ -118,7 +160,8 @@ public class FloatArrayEventList3D implements IEventList3D
     if ( num_events <= 0 )
       throw new IllegalArgumentException( "zero length weight array" );
 
-    this.weights = weights;
+    this.weights    = weights;
+    this.num_events = num_events;
     xyz_vals = new float[ num_events * 3 ];
     
     int index = 0;
@@ -134,7 +177,7 @@ public class FloatArrayEventList3D implements IEventList3D
   @Override
   public int numEntries()
   {
-    return xyz_vals.length / 3;
+    return num_events;
   }
 
 
@@ -233,6 +276,9 @@ public class FloatArrayEventList3D implements IEventList3D
    *  Get a new event list, consisting of only those events in the current
    *  list that are within the specified radius of the specified point.
    *
+   *  If a spatial index has been built for this list, the index is used
+   *  to find the events, rather than scanning the whole list.
+   *
    *  @param point  The xyz coordinates of the center point of the sphere
    *                that should be kept.
    *  @param radius The radius of the sphere of events that should be kept.
@@ -243,12 +289,15 @@ public class FloatArrayEventList3D implements IEventList3D
    */
   public FloatArrayEventList3D getLocalEvents( float[] point, float radius )
   {
+    EventGridIndex index_ref = spatial_index;
+    if ( index_ref != null )
+      return index_ref.getLocalEvents( point, radius );
+
     int   count = 0;
     float x     = point[0];
     float y     = point[1];
     float z     = point[2];
     float radius_squared = radius * radius;
-    float num_events = xyz_vals.length/3;
     float d_squared;
     float ev_x,
           ev_y,
@@ -293,6 +342,44 @@ public class FloatArrayEventList3D implements IEventList3D
   }
 
   
+  /**
+   *  Build a spatial index over the events in this list, so that 
+   *  getLocalEvents() and the sphere, box and nearest neighbor queries
+   *  of the index do not need to scan the whole list.  The index is
+   *  kept with the list until clearSpatialIndex() is called.
+   *
+   *  @param n_threads  The number of threads to use to build the index.
+   *
+   *  @return the new index.
+   */
+  public EventGridIndex buildSpatialIndex( int n_threads )
+  {
+    spatial_index = new EventGridIndex( this, n_threads );
+    return spatial_index;
+  }
+
+
+  /**
+   *  Get the spatial index for this list, if one has been built.
+   *
+   *  @return the index, or null if buildSpatialIndex() has not been called.
+   */
+  public EventGridIndex getSpatialIndex()
+  {
+    return spatial_index;
+  }
+
+
+  /**
+   *  Discard the spatial index for this list.  This must be called if the
+   *  xyz values of the events are changed after the index is built.
+   */
+  public void clearSpatialIndex()
+  {
+    spatial_index = null;
+  }
+
+
   /**
    *  Return a string giving the number of entries, and the
    *  x,y,z extents of the events.
@@ -323,7 +410,7 @@ public class FloatArrayEventList3D implements IEventList3D
     float max = xyz_vals[offset];
     float val;
 
-    for ( int i = 3+offset; i < xyz_vals.length/3; i += 3 )
+    for ( int i = 3+offset; i < 3*num_events; i += 3 )
     {
       val = xyz_vals[i];
       if ( val < min )
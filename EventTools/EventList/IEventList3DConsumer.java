@@ -0,0 +1,49 @@
+/* 
+ * File: IEventList3DConsumer.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+package EventTools.EventList;
+
+/**
+ * This interface specifies the method that must be implemented by objects
+ * that accept a stream of blocks of events in 3D, such as blocks of events
+ * mapped to Q by the streaming form of SNS_Tof_to_Q_map.MapEventsToQ(). 
+ * Blocks are passed to the consumer one at a time, in order, from a single
+ * thread.
+ */
+public interface IEventList3DConsumer
+{
+  /**
+   * Process the next block of events.  NOTE: The arrays in the event list
+   * MAY be reused for later blocks after this method returns, so the 
+   * implementing class must finish with, or copy, the events before 
+   * returning.  Also, the arrays MAY be longer than needed, so only the
+   * first numEntries() events should be used.
+   *
+   * @param events  The next block of events.
+   */
+  public void consume( IEventList3D events );
+
+}
@@ -0,0 +1,542 @@
+/* 
+ * File: QEventCacheReader.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package EventTools.EventList;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ *   This class reads a cache file of events mapped to Q, as written by
+ * QEventCacheWriter.  The header and trailer are checked when the file
+ * is opened, and the file is rejected if it is incomplete, has the wrong
+ * version, or was made from different data or mapping parameters than 
+ * specified by the key.  Blocks are read with positional reads, so 
+ * different blocks can be read and decompressed by different threads at
+ * the same time.  The readAll() method decompresses blocks in parallel and
+ * passes them, in order, to a consumer such as a histogram.
+ */
+public class QEventCacheReader
+{
+  private static final int Q_SECTION      = 0;
+  private static final int WEIGHT_SECTION = 1;
+
+  private String      filename;
+  private FileChannel channel;
+  private int         flags;
+  private String      key;
+  private long[]      block_offsets;
+  private long        total_events;
+
+
+  /**
+   * Open the specified event cache file and read its header and index.
+   *
+   * @param filename  The name of the cache file.
+   * @param key       The key that the cache must have been written with,
+   *                  as returned by QEventCacheWriter.makeKey(), or null
+   *                  to accept any key.
+   *
+   * @throws IllegalArgumentException if the file doesn't exist, is not a
+   *         complete event cache file of the current version, or has a
+   *         different key.
+   */
+  public QEventCacheReader( String filename, String key )
+  {
+    this.filename = filename;
+    if ( !new File( filename ).exists() )
+      throw new IllegalArgumentException( filename + " does not exist." );
+
+    try
+    {
+      channel = new RandomAccessFile( filename, "r" ).getChannel();
+
+      long       size    = channel.size();
+      ByteBuffer trailer = read( size - 24, 24 );
+      long index_offset  = trailer.getLong();
+      int  num_blocks    = trailer.getInt();
+      total_events       = trailer.getLong();
+      if ( trailer.getInt() != QEventCacheWriter.END_MAGIC )
+        throw new IllegalArgumentException( filename + 
+                                            " is not a complete event cache");
+
+      ByteBuffer index = read( index_offset, 8 * num_blocks );
+      block_offsets = new long[ num_blocks ];
+      for ( int i = 0; i < num_blocks; i++ )
+        block_offsets[i] = index.getLong();
+
+      DataInputStream header = new DataInputStream( 
+                                      Channels.newInputStream( 
+                                                     channel.position(0) ) );
+      if ( header.readInt() != QEventCacheWriter.MAGIC )
+        throw new IllegalArgumentException( filename + 
+                                            " is not an event cache file" );
+
+      int version = header.readInt();
+      if ( version != QEventCacheWriter.VERSION )
+        throw new IllegalArgumentException( filename + " has version " +
+                                            version + ", need version " +
+                                            QEventCacheWriter.VERSION );
+      flags = header.readInt();
+
+      int key_length = header.readInt();
+      if ( key_length < 0 || key_length > size )
+        throw new IllegalArgumentException( filename + 
+                                            " has invalid key length " +
+                                            key_length );
+      byte[] key_bytes = new byte[ key_length ];
+      header.readFully( key_bytes );
+      this.key = new String( key_bytes, "UTF-8" );
+    }
+    catch ( IOException ex )
+    {
+      close();
+      throw new IllegalArgumentException( "Failed to read event cache " +
+                                           filename + " : " + ex );
+    }
+    catch ( RuntimeException ex )
+    {
+      close();
+      throw ex;
+    }
+
+    if ( key != null && !key.equals( this.key ) )
+    {
+      close();
+      throw new IllegalArgumentException( filename + 
+                                  " was made from different data or mapping" );
+    }
+  }
+
+
+  /**
+   * Check whether or not the specified file is a complete, current version
+   * event cache with the specified key.
+   *
+   * @param filename  The name of the cache file.
+   * @param key       The required key.
+   *
+   * @return true if the cache file can be used.
+   */
+  public static boolean isValid( String filename, String key )
+  {
+    try
+    {
+      QEventCacheReader reader = new QEventCacheReader( filename, key );
+      reader.close();
+      return true;
+    }
+    catch ( Exception ex )
+    {
+      return false;
+    }
+  }
+
+
+  /**
+   * Get the key string stored in the cache file.
+   */
+  public String getKey()
+  {
+    return key;
+  }
+
+
+  /**
+   * Get the number of blocks of events in the cache file.
+   */
+  public int numBlocks()
+  {
+    return block_offsets.length;
+  }
+
+
+  /**
+   * Get the total number of events in the cache file.
+   */
+  public long numEvents()
+  {
+    return total_events;
+  }
+
+
+  /**
+   * Check whether the pixel IDs were saved with the events.
+   */
+  public boolean hasPixelIDs()
+  {
+    return (flags & QEventCacheWriter.HAS_PIXEL_IDS) != 0;
+  }
+
+
+  /**
+   * Check whether the times-of-flight were saved with the events.
+   */
+  public boolean hasTofs()
+  {
+    return (flags & QEventCacheWriter.HAS_TOFS) != 0;
+  }
+
+
+  /**
+   * Read the Q values and weights for one block of events.  This may be
+   * called by several threads at once.
+   *
+   * @param block  The index of the block, from 0 to numBlocks()-1.
+   *
+   * @return a new event list holding the events in the block, or null
+   *         if the block holds no events, since an event list must have
+   *         at least one event.
+   */
+  public FloatArrayEventList3D readBlock( int block )
+  {
+    byte[][] sections = readSections( block, WEIGHT_SECTION );
+    int num_events = sections[ WEIGHT_SECTION ].length / 4;
+    if ( num_events <= 0 )
+      return null;
+
+    float[] xyz_vals = new float[ 3 * num_events ];
+    float[] weights  = new float[ num_events ];
+    ByteBuffer.wrap( sections[ Q_SECTION ] ).asFloatBuffer().get( xyz_vals );
+    ByteBuffer.wrap( sections[ WEIGHT_SECTION ] ).asFloatBuffer()
+                                                 .get( weights );
+    return new FloatArrayEventList3D( weights, xyz_vals );
+  }
+
+
+  /**
+   * Read the pixel IDs for one block of events.
+   *
+   * @param block  The index of the block, from 0 to numBlocks()-1.
+   *
+   * @return a new array holding the pixel IDs for the block.
+   *
+   * @throws IllegalArgumentException if the pixel IDs were not saved.
+   */
+  public int[] readPixelIDs( int block )
+  {
+    if ( !hasPixelIDs() )
+      throw new IllegalArgumentException( filename + " has no pixel IDs" );
+
+    return readInts( block, 2 );
+  }
+
+
+  /**
+   * Read the times-of-flight for one block of events.
+   *
+   * @param block  The index of the block, from 0 to numBlocks()-1.
+   *
+   * @return a new array holding the times-of-flight for the block.
+   *
+   * @throws IllegalArgumentException if the times-of-flight were not saved.
+   */
+  public int[] readTofs( int block )
+  {
+    if ( !hasTofs() )
+      throw new IllegalArgumentException( filename + " has no TOFs" );
+
+    return readInts( block, hasPixelIDs() ? 3 : 2 );
+  }
+
+
+  /**
+   * Read all blocks of events, decompressing up to n_threads blocks at
+   * once, and pass each block to the consumer in the order in which the
+   * blocks were written.  Blocks with no events are skipped.  The consumer
+   * is only called from the calling thread.  If the calling thread is
+   * interrupted, its interrupt status is restored and an 
+   * IllegalStateException is thrown.
+   *
+   * @param consumer   The object that will receive the blocks of events.
+   * @param n_threads  The number of threads to use for reading.
+   *
+   * @return the number of events passed to the consumer.
+   */
+  public long readAll( IEventList3DConsumer consumer, int n_threads )
+  {
+    if ( n_threads < 1 )
+      n_threads = 1;
+
+    ExecutorService executor = Executors.newFixedThreadPool( n_threads );
+    LinkedList<Future<FloatArrayEventList3D>> pending =
+                              new LinkedList<Future<FloatArrayEventList3D>>();
+    long num_read   = 0;
+    int  next_block = 0;
+    try
+    {
+      while ( next_block < numBlocks() || !pending.isEmpty() )
+      {
+        while ( next_block < numBlocks() && pending.size() < 2 * n_threads )
+        {
+          final int block = next_block++;
+          pending.add( executor.submit( new Callable<FloatArrayEventList3D>()
+          {
+            public FloatArrayEventList3D call()
+            {
+              return readBlock( block );
+            }
+          } ) );
+        }
+
+        FloatArrayEventList3D events = pending.removeFirst().get();
+        if ( events != null )
+        {
+          consumer.consume( events );
+          num_read += events.numEntries();
+        }
+      }
+    }
+    catch ( InterruptedException ex )
+    {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException( "Interrupted reading " + filename );
+    }
+    catch ( ExecutionException ex )
+    {
+      throw new IllegalStateException( "Failed reading " + filename + 
+                                       " : " + ex.getCause() );
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+    return num_read;
+  }
+
+
+  /**
+   * Close the cache file.
+   */
+  public void close()
+  {
+    if ( channel == null )
+      return;
+
+    try
+    {
+      channel.close();
+    }
+    catch ( IOException ex )
+    {
+      System.out.println("Failed to close " + filename );
+    }
+    channel = null;
+  }
+
+
+  /**
+   *  Read and decompress one section of a block holding ints.
+   */
+  private int[] readInts( int block, int section )
+  {
+    byte[] bytes = readSections( block, section )[ section ];
+    int[] values = new int[ bytes.length / 4 ];
+    ByteBuffer.wrap( bytes ).asIntBuffer().get( values );
+    return values;
+  }
+
+
+  /**
+   *  Read and decompress the sections of a block up to and including
+   *  the specified last section.  The Q values and weights are always
+   *  decompressed, other sections before the last one are skipped.
+   */
+  private byte[][] readSections( int block, int last_section )
+  {
+    if ( block < 0 || block >= numBlocks() )
+      throw new IllegalArgumentException( "Block " + block + 
+                                          " invalid, not between 0 and " +
+                                          (numBlocks() - 1) );
+    try
+    {
+      long       pos          = block_offsets[ block ];
+      ByteBuffer block_header = read( pos, 8 );
+      block_header.getInt();
+      int num_sections = block_header.getInt();
+      pos += 8;
+
+      byte[][] sections = new byte[ num_sections ][];
+      for ( int i = 0; i <= last_section; i++ )
+      {
+        ByteBuffer section_header = read( pos, 8 );
+        int raw_length  = section_header.getInt();
+        int comp_length = section_header.getInt();
+        pos += 8;
+        if ( i <= WEIGHT_SECTION || i == last_section )
+          sections[i] = inflate( read( pos, comp_length ), raw_length );
+        pos += comp_length;
+      }
+      return sections;
+    }
+    catch ( IOException ex )
+    {
+      throw new IllegalArgumentException( "Failed to read block " + block +
+                                          " from " + filename + " : " + ex );
+    }
+    catch ( DataFormatException ex )
+    {
+      throw new IllegalArgumentException( "Corrupt block " + block +
+                                          " in " + filename + " : " + ex );
+    }
+  }
+
+
+  /**
+   *  Decompress the bytes in the buffer, which must expand to exactly
+   *  raw_length bytes.
+   */
+  private static byte[] inflate( ByteBuffer compressed, int raw_length )
+          throws DataFormatException
+  {
+    Inflater inflater = new Inflater();
+    inflater.setInput( compressed.array(), 0, compressed.limit() );
+    byte[] raw = new byte[ raw_length ];
+    int n_done = 0;
+    try
+    {
+      while ( n_done < raw_length && !inflater.finished() )
+      {
+        int n = inflater.inflate( raw, n_done, raw_length - n_done );
+        if ( n == 0 && ( inflater.needsInput() || inflater.needsDictionary()))
+          break;
+        n_done += n;
+      }
+    }
+    finally
+    {
+      inflater.end();
+    }
+    if ( n_done != raw_length )
+      throw new DataFormatException( "Expected " + raw_length + 
+                                     " bytes, got " + n_done );
+    return raw;
+  }
+
+
+  /**
+   *  Read the specified number of bytes starting at the specified 
+   *  position in the file, into a new buffer, ready to be read.  This
+   *  does not change the channel's position, so it is safe to use from
+   *  multiple threads.
+   */
+  private ByteBuffer read( long position, int length ) throws IOException
+  {
+    if ( position < 0 || length < 0 )
+      throw new IOException( "Invalid position " + position + 
+                             " or length " + length );
+
+    ByteBuffer buffer = ByteBuffer.allocate( length );
+    while ( buffer.hasRemaining() )
+    {
+      int n = channel.read( buffer, position + buffer.position() );
+      if ( n < 0 )
+        throw new EOFException( "Unexpected end of " + filename );
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+
+  /**
+   *  main program providing basic test for this class.  A set of 
+   *  random events is written to a cache file, read back and compared.
+   */
+  public static void main( String[] args ) throws IOException
+  {
+    String file_name = "/tmp/QEventCacheTest" + QEventCacheWriter.CACHE_SUFFIX;
+    if ( args.length > 0 )
+      file_name = args[0];
+
+    int NUM_BLOCKS = 10;
+    int BLOCK_SIZE = 100000;
+    String key = QEventCacheWriter.makeKey( "run.dat", null, "test" );
+
+    Random random = new Random( 1 );
+    QEventCacheWriter writer = new QEventCacheWriter( file_name, key, 
+                                        QEventCacheWriter.HAS_PIXEL_IDS |
+                                        QEventCacheWriter.HAS_TOFS );
+    float[][] all_xyz = new float[ NUM_BLOCKS ][];
+    int[][]   all_ids = new int[ NUM_BLOCKS ][];
+    for ( int i = 0; i < NUM_BLOCKS; i++ )
+    {
+      float[] xyz     = new float[ 3 * BLOCK_SIZE ];
+      float[] weights = new float[ BLOCK_SIZE ];
+      int[]   ids     = new int[ BLOCK_SIZE ];
+      int[]   tofs    = new int[ BLOCK_SIZE ];
+      for ( int k = 0; k < BLOCK_SIZE; k++ )
+      {
+        xyz[3*k]   = (float)random.nextGaussian();
+        xyz[3*k+1] = (float)random.nextGaussian();
+        xyz[3*k+2] = (float)random.nextGaussian();
+        weights[k] = 1;
+        ids[k]     = random.nextInt( 100000 );
+        tofs[k]    = random.nextInt( 160000 );
+      }
+      all_xyz[i] = xyz;
+      all_ids[i] = ids;
+      writer.writeBlock( new FloatArrayEventList3D( weights, xyz ), ids, tofs );
+    }
+    writer.close();
+
+    System.out.println("Cache file size = " + new File(file_name).length() );
+    System.out.println("Valid with key    : " + isValid( file_name, key ) );
+    System.out.println("Valid, wrong key  : " + isValid( file_name, "x" ) );
+
+    QEventCacheReader reader = new QEventCacheReader( file_name, key );
+    int n_bad = 0;
+    for ( int i = 0; i < reader.numBlocks(); i++ )
+    {
+      float[] xyz = reader.readBlock( i ).eventVals();
+      int[]   ids = reader.readPixelIDs( i );
+      if ( !Arrays.equals( xyz, all_xyz[i] ) || 
+           !Arrays.equals( ids, all_ids[i] ) )
+        n_bad++;
+    }
+    System.out.println("Number of mismatched blocks = " + n_bad );
+
+    final long[] count = new long[1];
+    long start = System.nanoTime();
+    long n_read = reader.readAll( new IEventList3DConsumer()
+    {
+      public void consume( IEventList3D events )
+      {
+        count[0] += events.numEntries();
+      }
+    }, 4 );
+    long end = System.nanoTime();
+    System.out.println("Read " + n_read + " of " + reader.numEvents() + 
+                       " events, consumed " + count[0] );
+    System.out.printf("Time to read all = %5.1f ms\n", (end - start)/1.0e6);
+    reader.close();
+  }
+
+}
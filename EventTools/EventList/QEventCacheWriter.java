@@ -0,0 +1,418 @@
+/* 
+ * File: QEventCacheWriter.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package EventTools.EventList;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.security.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ *   This class writes a cache file holding events that have already been
+ * mapped to Q, so that a run can be reloaded later without re-reading the
+ * raw event file and redoing the mapping.  The events are written in blocks.
+ * Each block holds the Qx,Qy,Qz values and weights for its events and,
+ * optionally, the pixel IDs and times-of-flight.  Each of these is a 
+ * separately Deflate compressed section, so a reader only needs to
+ * decompress the sections it uses.  
+ *   The file starts with a header giving a magic number, format version,
+ * flags and a key string.  The key records the event file, DetCal file and
+ * mapping parameters used, as returned by makeKey().  An index of block
+ * positions is written at the end of the file by close(), so that the
+ * blocks can be read independently, in parallel.  The file is written under
+ * a unique temporary name and only renamed to the requested name by 
+ * close(), so an incomplete cache file is never used.
+ *   Since this class implements IEventList3DConsumer, it can be passed 
+ * directly to the streaming form of SNS_Tof_to_Q_map.MapEventsToQ().
+ *
+ * File layout (big-endian):
+ * <pre>
+ *   int    MAGIC
+ *   int    VERSION
+ *   int    flags            (HAS_PIXEL_IDS | HAS_TOFS)
+ *   int    key length, in bytes
+ *   byte[] key             (UTF-8)
+ *   blocks: int num_events, int num_sections, then for each section
+ *           int raw_length, int compressed_length, compressed bytes
+ *   index:  long offset of each block
+ *   long   index offset
+ *   int    number of blocks
+ *   long   total number of events
+ *   int    END_MAGIC
+ * </pre>
+ */
+public class QEventCacheWriter implements IEventList3DConsumer
+{
+  public static final int MAGIC     = 0x49514556;    // "IQEV"
+  public static final int END_MAGIC = 0x56455149;    // "VEQI"
+  public static final int VERSION   = 2;
+
+  public static final int HAS_PIXEL_IDS = 1;
+  public static final int HAS_TOFS      = 2;
+
+  public static final String CACHE_SUFFIX = ".qev";
+
+  private File             file;
+  private File             temp_file;
+  private int              flags;
+  private FileOutputStream out;
+  private FileChannel      channel;
+  private Deflater         deflater;
+  private Vector<Long>     block_offsets = new Vector<Long>();
+  private long             total_events  = 0;
+
+
+  /**
+   * Create a new cache file with the specified name and key.
+   *
+   * @param file_name  The name of the cache file to write.
+   * @param key        The key identifying the raw data and mapping
+   *                   parameters, as returned by makeKey().
+   * @param flags      HAS_PIXEL_IDS and/or HAS_TOFS if the pixel IDs and
+   *                   times-of-flight will be written with each block,
+   *                   or 0 if only Q and weights are written.
+   *
+   * @throws IOException if the file can't be created.
+   */
+  public QEventCacheWriter( String file_name, String key, int flags )
+         throws IOException
+  {
+    this.file  = new File( file_name );
+    this.flags = flags;
+                                          // use a unique temporary file in
+                                          // the same directory, so processes
+                                          // writing the same cache at once
+                                          // don't share a file, and the 
+                                          // final rename is not across 
+                                          // file systems
+    File dir = file.getAbsoluteFile().getParentFile();
+    temp_file = File.createTempFile( file.getName() + ".", ".tmp", dir );
+
+    out     = new FileOutputStream( temp_file );
+    channel = out.getChannel();
+
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    DataOutputStream      data   = new DataOutputStream( header );
+    data.writeInt( MAGIC );
+    data.writeInt( VERSION );
+    data.writeInt( flags );
+    byte[] key_bytes = key.getBytes( "UTF-8" );  // writeUTF() is limited
+    data.writeInt( key_bytes.length );           // to 64KB, too small for
+    data.write( key_bytes );                     // long lists of parameters
+    data.close();
+    write( ByteBuffer.wrap( header.toByteArray() ) );
+
+    deflater = new Deflater( Deflater.BEST_SPEED );
+  }
+
+
+  /**
+   * Write one block of events holding only Q values and weights.  If
+   * the events can't be written, an IllegalStateException is thrown.
+   *
+   * @param events  The events to write.
+   */
+  public void consume( IEventList3D events )
+  {
+    try
+    {
+      writeBlock( events, null, null );
+    }
+    catch ( IOException ex )
+    {
+      throw new IllegalStateException( "Failed to write event cache " + 
+                                        file + " : " + ex );
+    }
+  }
+
+
+  /**
+   * Write one block of events.  
+   *
+   * @param events     The events to write.  Only the first numEntries()
+   *                   events are written.
+   * @param pixel_ids  The pixel IDs for the events.  This must be non-null
+   *                   if and only if the HAS_PIXEL_IDS flag was set.
+   * @param tofs       The times-of-flight for the events.  This must be 
+   *                   non-null if and only if the HAS_TOFS flag was set.
+   *
+   * @throws IOException if the block can't be written.
+   */
+  synchronized public void writeBlock( IEventList3D events, 
+                                       int[]        pixel_ids, 
+                                       int[]        tofs      )
+         throws IOException
+  {
+    if ( out == null )
+      throw new IOException( "Event cache " + file + " already closed" );
+
+    if ( ((flags & HAS_PIXEL_IDS) != 0) != (pixel_ids != null) ||
+         ((flags & HAS_TOFS)      != 0) != (tofs      != null) )
+      throw new IllegalArgumentException( "Pixel IDs and TOFs must match " +
+                                          "the flags used to create cache" );
+
+    int num_events = events.numEntries();
+    float[] weights = events.eventWeights();
+    if ( weights == null )
+      weights = new float[ num_events ];
+
+    Vector<byte[]> sections = new Vector<byte[]>();
+
+    ByteBuffer buffer = ByteBuffer.allocate( 12 * num_events );
+    buffer.asFloatBuffer().put( events.eventVals(), 0, 3 * num_events );
+    sections.add( buffer.array() );
+
+    buffer = ByteBuffer.allocate( 4 * num_events );
+    buffer.asFloatBuffer().put( weights, 0, num_events );
+    sections.add( buffer.array() );
+
+    if ( pixel_ids != null )
+    {
+      buffer = ByteBuffer.allocate( 4 * num_events );
+      buffer.asIntBuffer().put( pixel_ids, 0, num_events );
+      sections.add( buffer.array() );
+    }
+
+    if ( tofs != null )
+    {
+      buffer = ByteBuffer.allocate( 4 * num_events );
+      buffer.asIntBuffer().put( tofs, 0, num_events );
+      sections.add( buffer.array() );
+    }
+
+    block_offsets.add( channel.position() );
+
+    ByteBuffer block_header = ByteBuffer.allocate( 8 );
+    block_header.putInt( num_events );
+    block_header.putInt( sections.size() );
+    block_header.flip();
+    write( block_header );
+
+    for ( int i = 0; i < sections.size(); i++ )
+      writeSection( sections.elementAt(i) );
+
+    total_events += num_events;
+  }
+
+
+  /**
+   * Write the block index and trailer, close the file and rename it to 
+   * the requested file name.
+   *
+   * @throws IOException if the file can't be completed.
+   */
+  synchronized public void close() throws IOException
+  {
+    if ( out == null )
+      return;
+
+    long index_offset = channel.position();
+    ByteBuffer index = ByteBuffer.allocate( 8 * block_offsets.size() + 24 );
+    for ( int i = 0; i < block_offsets.size(); i++ )
+      index.putLong( block_offsets.elementAt(i) );
+    index.putLong( index_offset );
+    index.putInt( block_offsets.size() );
+    index.putLong( total_events );
+    index.putInt( END_MAGIC );
+    index.flip();
+    write( index );
+
+    out.close();
+    out = null;
+    deflater.end();
+
+    if ( file.exists() && !file.delete() )
+      throw new IOException( "Could not replace " + file );
+
+    if ( !temp_file.renameTo( file ) )
+      throw new IOException( "Could not rename " + temp_file + " to " + file );
+  }
+
+
+  /**
+   * Close and delete the partially written cache file, without 
+   * producing a cache file.  This should be called if mapping fails.
+   */
+  synchronized public void abort()
+  {
+    try
+    {
+      if ( out != null )
+        out.close();
+    }
+    catch ( IOException ex )
+    {
+      System.out.println("Failed to close " + temp_file );
+    }
+    out = null;
+    deflater.end();
+    temp_file.delete();
+  }
+
+
+  /**
+   * Get the total number of events written so far.
+   *
+   * @return the number of events written.
+   */
+  synchronized public long numWritten()
+  {
+    return total_events;
+  }
+
+
+  /**
+   * Make a key string identifying a mapped event cache, from the event file,
+   * the DetCal file, and a string listing all other mapping parameters, such
+   * as the spectrum file, Q range, pixel filters and absorption parameters.
+   * The key records the name, length and modification time of the files,
+   * so a changed file gives a different key.
+   *
+   * @param event_file    The name of the raw event file.
+   * @param det_cal_file  The name of the DetCal file, may be null.
+   * @param map_params    A string listing any other parameters that affect
+   *                      the mapping, may be null.
+   *
+   * @return a key string for the cache.
+   */
+  public static String makeKey( String event_file, 
+                                String det_cal_file,
+                                String map_params   )
+  {
+    StringBuffer key = new StringBuffer();
+    key.append( fileInfo( event_file ) );
+    key.append( ';' );
+    key.append( fileInfo( det_cal_file ) );
+    key.append( ';' );
+    key.append( map_params );
+    return key.toString();
+  }
+
+
+  /**
+   * Get the name of the file in the specified directory that is used to
+   * cache the events with the specified key.  The name is based on a hash
+   * of the key, so different mapping parameters use different files.
+   *
+   * @param cache_dir  The directory holding cache files.
+   * @param key        The key returned by makeKey().
+   *
+   * @return The fully qualified cache file name.
+   */
+  public static String cacheFileName( String cache_dir, String key )
+  {
+    return new File( cache_dir, "QEvents_" + digest( key ) + CACHE_SUFFIX )
+                                                                  .getPath();
+  }
+
+
+  /**
+   * Get a hex string with the MD5 digest of the specified text, so that 
+   * long lists of parameters, such as omitted peak regions, can be 
+   * included in a key of bounded length.
+   *
+   * @param text  The text to digest.
+   *
+   * @return a string of hex digits identifying the text.
+   */
+  public static String digest( String text )
+  {
+    try
+    {
+      MessageDigest digest = MessageDigest.getInstance( "MD5" );
+      byte[] bytes = digest.digest( text.getBytes( "UTF-8" ) );
+      StringBuffer hex = new StringBuffer();
+      for ( int i = 0; i < bytes.length; i++ )
+        hex.append( String.format( "%02x", bytes[i] & 0xFF ) );
+      return hex.toString();
+    }
+    catch ( Exception ex )
+    {
+      return Integer.toHexString( text.hashCode() );
+    }
+  }
+
+
+  /**
+   *  Get a string with the absolute name, length and modification time of
+   *  the specified file, or "none" if the file name is null.
+   *
+   *  @param file_name  The name of the file, may be null.
+   *
+   *  @return a string that changes if the file is replaced or modified.
+   */
+  public static String fileInfo( String file_name )
+  {
+    if ( file_name == null )
+      return "none";
+
+    File file = new File( file_name );
+    return file.getAbsolutePath() + "," + file.length() + "," +
+           file.lastModified();
+  }
+
+
+  /**
+   *  Compress and write one section of a block.
+   */
+  private void writeSection( byte[] raw ) throws IOException
+  {
+    deflater.reset();
+    deflater.setInput( raw );
+    deflater.finish();
+
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream( 
+                                                      raw.length / 2 + 64 );
+    byte[] chunk = new byte[ 65536 ];
+    while ( !deflater.finished() )
+    {
+      int n = deflater.deflate( chunk );
+      compressed.write( chunk, 0, n );
+    }
+
+    ByteBuffer section_header = ByteBuffer.allocate( 8 );
+    section_header.putInt( raw.length );
+    section_header.putInt( compressed.size() );
+    section_header.flip();
+    write( section_header );
+    write( ByteBuffer.wrap( compressed.toByteArray() ) );
+  }
+
+
+  /**
+   *  Write all of the bytes remaining in the buffer to the file.
+   */
+  private void write( ByteBuffer buffer ) throws IOException
+  {
+    while ( buffer.hasRemaining() )
+      channel.write( buffer );
+  }
+
+}
@@ -0,0 +1,318 @@
+/*
+ * File: SNS_MappedTofEventList.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ *
+ *  $Author$
+ *  $Date$
+ *  $Revision$
+ */
+
+package EventTools.EventList;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * This class represents a list of events at specific times-of-flight in
+ * particular detectors, read directly from a memory mapped SNS raw event
+ * file.  Unlike SNS_TofEventList, no packed copy of the events is kept.
+ * The file is mapped as a sequence of read-only segments, each viewed as
+ * a little-endian IntBuffer, so files with more than 2GB of events can be
+ * addressed.  The eventTof() and eventPixelID() methods, as well as the
+ * single event methods getTof() and getPixelID(), decode values straight
+ * from the mapped segments.  The rawEvents() method is provided for
+ * compatibility with code that expects a packed array of events.
+ */
+public class SNS_MappedTofEventList implements ITofEventList
+{
+  /**
+   *  Maximum number of events mapped in one segment of the file.  Each
+   *  event occupies 8 bytes, so one segment covers at most 1GB of the file.
+   *  NOTE: This must be less than Integer.MAX_VALUE/8 so that the byte
+   *  position of each event in a segment can be addressed with an int.
+   */
+  public static final int SEGMENT_SIZE = 1 << 27;
+
+  private String      filename;   // name of the SNS raw event data file
+  private long        num_entries;
+  private IntBuffer[] segments;   // little-endian views of the mapped file
+
+
+  /**
+   * Construct an SNS_MappedTofEventList wrapper around the specified file,
+   * if possible, and map the file into memory.
+   *
+   * @param filename  The fully qualified name of the underlying SNS event
+   *                  file.
+   * @throws IllegalArgumentException if the file doesn't exist, the
+   *         file length is not evenly divisible by 8, or the file can't
+   *         be mapped.
+   */
+  public SNS_MappedTofEventList( String filename )
+  {
+    File ev_file = new File( filename );
+    if ( !ev_file.exists() )
+      throw new IllegalArgumentException( filename + " does not exist.");
+
+    long file_size = ev_file.length();
+    if ( file_size % 8 != 0 )
+      throw new IllegalArgumentException( filename + " is not an event file.");
+
+    this.filename = filename;
+    num_entries   = file_size / 8;
+
+    int num_segs = (int)((num_entries + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+    segments = new IntBuffer[ num_segs ];
+
+    RandomAccessFile r_file = null;
+    try
+    {
+      r_file = new RandomAccessFile( filename, "r" );
+      FileChannel channel = r_file.getChannel();
+      for ( int i = 0; i < num_segs; i++ )
+      {
+        long first_ev = (long)i * SEGMENT_SIZE;
+        long seg_evs  = Math.min( SEGMENT_SIZE, num_entries - first_ev );
+        MappedByteBuffer map = channel.map( FileChannel.MapMode.READ_ONLY,
+                                            8 * first_ev,
+                                            8 * seg_evs );
+        map.order( ByteOrder.LITTLE_ENDIAN );
+        segments[i] = map.asIntBuffer();
+      }
+    }
+    catch ( IOException ex )
+    {
+      throw new IllegalArgumentException( "Failed to map event file " +
+                                           filename + " : " + ex );
+    }
+    finally                        // mapping remains valid after the
+    {                              // channel is closed
+      if ( r_file != null )
+        try
+        {
+          r_file.close();
+        }
+        catch ( IOException ex )
+        {
+          System.out.println("Failed to close " + filename );
+        }
+    }
+  }
+
+
+  @Override
+  public long numEntries()
+  {
+    return num_entries;
+  }
+
+
+  /**
+   * Get the time-of-flight of one event directly from the mapped file.
+   *
+   * @param index  The index of the event, from 0 to numEntries()-1.
+   *
+   * @return the time-of-flight of the specified event.
+   */
+  public int getTof( long index )
+  {
+    return segments[ (int)(index / SEGMENT_SIZE) ]
+                   .get( 2 * (int)(index % SEGMENT_SIZE) );
+  }
+
+
+  /**
+   * Get the pixel ID of one event directly from the mapped file.
+   *
+   * @param index  The index of the event, from 0 to numEntries()-1.
+   *
+   * @return the pixel ID of the specified event.
+   */
+  public int getPixelID( long index )
+  {
+    return segments[ (int)(index / SEGMENT_SIZE) ]
+                   .get( 2 * (int)(index % SEGMENT_SIZE) + 1 );
+  }
+
+
+  /**
+   * Get a new packed array of interleaved times-of-flight and pixel IDs
+   * for the requested events.  Since the events are not stored in an
+   * internal array, a new array is returned on each call.  Where possible,
+   * use eventTof(), eventPixelID(), getTof() or getPixelID() instead.
+   */
+  @Override
+  public int[] rawEvents( long first_event, long num_events )
+  {
+    num_events = CheckEventRange( first_event, num_events );
+
+    int[] events = new int[ 2 * (int)num_events ];
+    int   index  = 0;
+    long  event  = first_event;
+    long  last   = first_event + num_events;
+    while ( event < last )
+    {
+      int seg_num   = (int)(event / SEGMENT_SIZE);
+      int seg_first = (int)(event % SEGMENT_SIZE);
+      int n_in_seg  = (int)Math.min( SEGMENT_SIZE - seg_first, last - event );
+
+      IntBuffer buffer = segments[ seg_num ].duplicate();
+      buffer.position( 2 * seg_first );
+      buffer.get( events, index, 2 * n_in_seg );
+
+      index += 2 * n_in_seg;
+      event += n_in_seg;
+    }
+    return events;
+  }
+
+
+  @Override
+  public int[] eventTof( long first_event, long num_events )
+  {
+    return extract( first_event, num_events, 0 );
+  }
+
+
+  @Override
+  public int[] eventPixelID( long first_event, long num_events )
+  {
+    return extract( first_event, num_events, 1 );
+  }
+
+
+  /**
+   *  Copy either the times-of-flight or the pixel IDs for the specified
+   *  range of events from the mapped segments into a new array.
+   *
+   *  @param first_event  The index of the first event to get.
+   *  @param num_events   The number of events to get.
+   *  @param offset       0 to get the times-of-flight, 1 to get the
+   *                      pixel IDs.
+   *
+   *  @return a new array with the requested values.
+   */
+  private int[] extract( long first_event, long num_events, int offset )
+  {
+    num_events = CheckEventRange( first_event, num_events );
+
+    int[] values = new int[ (int)num_events ];
+    int   index  = 0;
+    long  event  = first_event;
+    long  last   = first_event + num_events;
+    while ( event < last )
+    {
+      int seg_num   = (int)(event / SEGMENT_SIZE);
+      int seg_first = (int)(event % SEGMENT_SIZE);
+      int n_in_seg  = (int)Math.min( SEGMENT_SIZE - seg_first, last - event );
+
+      IntBuffer buffer = segments[ seg_num ];
+      int       pos    = 2 * seg_first + offset;
+      for ( int i = 0; i < n_in_seg; i++ )
+      {
+        values[ index++ ] = buffer.get( pos );
+        pos += 2;
+      }
+      event += n_in_seg;
+    }
+    return values;
+  }
+
+
+  /**
+   *  Check that the requested event range is valid and get the number
+   *  of events that can actually be returned.
+   *
+   *  @param   first_event  The index of the first requested event.
+   *  @param   num_events   The number of requested events.
+   *
+   *  @return the number of events starting at first_event that can be
+   *          returned, which may be less than num_events.
+   */
+  private long CheckEventRange( long first_event, long num_events )
+               throws IllegalArgumentException
+  {
+    if ( first_event < 0  ||
+         first_event >= numEntries() )
+      throw new IllegalArgumentException( "First event " + first_event +
+                                          " invalid, not between 0 and " +
+                                          (numEntries() - 1) );
+
+    if ( num_events < 0  )
+      throw new IllegalArgumentException( "Num events " + num_events +
+                                          " invalid, must be at least 0" +
+                                          " and no more than " +
+                                          Integer.MAX_VALUE  );
+
+    long requested_num = Math.min( num_events, numEntries() - first_event );
+    if ( requested_num > MAX_LIST_SIZE )
+      throw new IllegalArgumentException("Num events " + num_events +
+                                         " invalid, limited to the maximum " +
+                                         " array size " + MAX_LIST_SIZE );
+    return requested_num;
+  }
+
+
+  /**
+   *  main program providing basic test for this class, comparing the
+   *  events from the mapped file with those from SNS_TofEventList.
+   */
+  public static void main(String[] args)
+  {
+    if ( args.length < 1 )
+    {
+      System.out.println("USAGE: SNS_MappedTofEventList <event_file>");
+      System.exit(1);
+    }
+    String file_name = args[0];
+
+    long start = System.nanoTime();
+    SNS_MappedTofEventList mapped_list =
+                                 new SNS_MappedTofEventList( file_name );
+    long num_entries = mapped_list.numEntries();
+    long NUM_TO_LOAD = Math.min( num_entries, MAX_LIST_SIZE );
+    int[] tof_list = mapped_list.eventTof( 0, NUM_TO_LOAD );
+    int[] id_list  = mapped_list.eventPixelID( 0, NUM_TO_LOAD );
+    long end = System.nanoTime();
+
+    System.out.println("Number of events = " + num_entries );
+    System.out.printf("Time to map and get = %5.1f ms\n", (end - start)/1.0e6);
+
+    start = System.nanoTime();
+    SNS_TofEventList event_list = new SNS_TofEventList( file_name );
+    int[] raw_events = event_list.rawEvents( 0, NUM_TO_LOAD );
+    end = System.nanoTime();
+    System.out.printf("Time to load packed = %5.1f ms\n", (end - start)/1.0e6);
+
+    int n_bad = 0;
+    for ( int i = 0; i < tof_list.length; i++ )
+      if ( tof_list[i] != raw_events[2*i]   ||
+           id_list[i]  != raw_events[2*i+1] ||
+           tof_list[i] != mapped_list.getTof( i ) ||
+           id_list[i]  != mapped_list.getPixelID( i ) )
+        n_bad++;
+
+    System.out.println("Number of mismatched events = " + n_bad );
+    for ( int i = 0; i < Math.min( 3, tof_list.length ); i++ )
+      System.out.printf( "%6d    %8d   %8d\n", i, tof_list[i], id_list[i] );
+  }
+
+}
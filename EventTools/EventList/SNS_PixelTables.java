@@ -0,0 +1,582 @@
+/* 
+ * File: SNS_PixelTables.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+package EventTools.EventList;
+
+import java.io.*;
+import java.lang.ref.SoftReference;
+import java.nio.*;
+import java.nio.channels.*;
+import java.security.*;
+import java.util.*;
+
+import DataSetTools.util.SharedData;
+
+/**
+ *   This class holds the per-pixel tables used by SNS_Tof_to_Q_map, which
+ * depend only on the instrument geometry given by the .DetCal, bank and
+ * mapping files.  Building these tables requires calculating the position
+ * of every pixel, which is slow for instruments with millions of pixels,
+ * so the tables are cached in two ways.  Tables that have been built or
+ * loaded are kept in memory, so several mappers in the same JVM share one
+ * copy of the tables.  The tables are also written to a cache file in the
+ * directory given by the Pixel_Table_Cache_Directory property, (default
+ * user.home/ISAW_PixelTables), which is memory mapped and copied back into
+ * the tables the next time the same geometry is used.  The total size of
+ * the cache files is limited by the Pixel_Table_Cache_Max_MB property,
+ * (default 256), by deleting the least recently used files.  The key for 
+ * the tables is an MD5 hash of the contents of the .DetCal, bank and 
+ * mapping files, so any change to the geometry gives a new set of tables.
+ * The hash is only recalculated if the name, length or modification time
+ * of one of the files changes.
+ *   NOTE: The arrays in this object are shared between all mappers using
+ * the same geometry, possibly in several threads, and MUST NOT be altered.
+ *
+ * File layout (big-endian):
+ * <pre>
+ *   int    MAGIC
+ *   int    VERSION
+ *   int    key length, followed by the key as ASCII bytes
+ *   int    number of DAS IDs, n
+ *   int    number of entries in nex_to_das_id, m
+ *   int    das_to_nex_id[n], nex_to_das_id[m], bank_num[n]
+ *   float  das_to_row[n], das_to_col[n], two_theta_map[n], tof_to_MagQ[n],
+ *          tof_to_lamda[n], recipLaSinTa[n], pix_weight[n], QUxyz[3n]
+ *   int    END_MAGIC
+ * </pre>
+ */
+public class SNS_PixelTables
+{
+  public static final int MAGIC     = 0x49505854;    // "IPXT"
+  public static final int END_MAGIC = 0x54585049;    // "TXPI"
+  public static final int VERSION   = 1;
+
+  public static final String CACHE_SUFFIX       = ".pxt";
+  public static final String CACHE_DIR_PROPERTY = 
+                                             "Pixel_Table_Cache_Directory";
+  public static final String CACHE_MAX_MB_PROPERTY = 
+                                             "Pixel_Table_Cache_Max_MB";
+  public static final long   DEFAULT_CACHE_MAX_MB  = 256;
+
+                                         // Tables already used in this JVM.
+                                         // Soft references let unused
+                                         // tables be reclaimed if memory
+                                         // is needed.
+  private static HashMap<String,SoftReference<SNS_PixelTables>> loaded =
+                      new HashMap<String,SoftReference<SNS_PixelTables>>();
+
+                                         // Keys already calculated in this
+                                         // JVM, indexed by the names, 
+                                         // lengths and modification times
+                                         // of the files
+  private static HashMap<String,String> known_keys = 
+                                             new HashMap<String,String>();
+
+  final String  key;
+  final int[]   das_to_nex_id;
+  final int[]   nex_to_das_id;
+  final int[]   bank_num;
+  final float[] das_to_row;        // row 0 marks a pixel not on any grid
+  final float[] das_to_col;
+  final float[] two_theta_map;
+  final float[] tof_to_MagQ;
+  final float[] tof_to_lamda;
+  final float[] recipLaSinTa;
+  final float[] pix_weight;
+  final float[] QUxyz;
+
+
+  /**
+   *  Construct an SNS_PixelTables object holding references to the 
+   *  specified tables, as built by SNS_Tof_to_Q_map.  
+   */
+  SNS_PixelTables( String  key,
+                   int[]   das_to_nex_id,
+                   int[]   nex_to_das_id,
+                   int[]   bank_num,
+                   float[] das_to_row,
+                   float[] das_to_col,
+                   float[] two_theta_map,
+                   float[] tof_to_MagQ,
+                   float[] tof_to_lamda,
+                   float[] recipLaSinTa,
+                   float[] pix_weight,
+                   float[] QUxyz )
+  {
+    this.key           = key;
+    this.das_to_nex_id = das_to_nex_id;
+    this.nex_to_das_id = nex_to_das_id;
+    this.bank_num      = bank_num;
+    this.das_to_row    = das_to_row;
+    this.das_to_col    = das_to_col;
+    this.two_theta_map = two_theta_map;
+    this.tof_to_MagQ   = tof_to_MagQ;
+    this.tof_to_lamda  = tof_to_lamda;
+    this.recipLaSinTa  = recipLaSinTa;
+    this.pix_weight    = pix_weight;
+    this.QUxyz         = QUxyz;
+  }
+
+
+  /**
+   * Get the key identifying these tables.
+   */
+  public String getKey()
+  {
+    return key;
+  }
+
+
+  /**
+   * Get the number of DAS pixel IDs covered by these tables.
+   */
+  public int numIDs()
+  {
+    return das_to_nex_id.length;
+  }
+
+
+  /**
+   * Make the key for the tables built from the specified files.  The key
+   * is a hex string giving the MD5 hash of the contents of all three files,
+   * so it does not depend on the names or locations of the files.  The 
+   * files are only read if they have not been hashed before in this JVM
+   * with the same name, length and modification time.
+   *
+   * @param det_cal_file  The name of the .DetCal file.
+   * @param bank_file     The name of the bank file.
+   * @param map_file      The name of the mapping file.
+   *
+   * @return the key for the tables.
+   *
+   * @throws IOException if one of the files can't be read.
+   */
+  public static String makeKey( String det_cal_file,
+                                String bank_file,
+                                String map_file )
+         throws IOException
+  {
+    MessageDigest digest;
+    try
+    {
+      digest = MessageDigest.getInstance( "MD5" );
+    }
+    catch ( NoSuchAlgorithmException ex )
+    {
+      throw new IllegalStateException( "MD5 not available : " + ex );
+    }
+
+    String[] files  = { det_cal_file, bank_file, map_file };
+    StringBuffer file_info = new StringBuffer();
+    for ( int i = 0; i < files.length; i++ )
+    {
+      File file = new File( files[i] );
+      file_info.append( file.getAbsolutePath() ).append( ',' )
+               .append( file.length() ).append( ',' )
+               .append( file.lastModified() ).append( ';' );
+    }
+
+    synchronized( known_keys )
+    {
+      String key = known_keys.get( file_info.toString() );
+      if ( key != null )
+        return key;
+    }
+
+    byte[]   buffer = new byte[ 65536 ];
+    for ( int i = 0; i < files.length; i++ )
+    {
+      InputStream in = new FileInputStream( files[i] );
+      try
+      {
+        int n;
+        while ( (n = in.read( buffer )) > 0 )
+          digest.update( buffer, 0, n );
+      }
+      finally
+      {
+        in.close();
+      }
+      digest.update( (byte)0 );                  // separate the files
+    }
+
+    byte[] bytes = digest.digest();
+    StringBuffer hex = new StringBuffer();
+    for ( int i = 0; i < bytes.length; i++ )
+      hex.append( String.format( "%02x", bytes[i] & 0xFF ) );
+
+    synchronized( known_keys )
+    {
+      known_keys.put( file_info.toString(), hex.toString() );
+    }
+    return hex.toString();
+  }
+
+
+  /**
+   * Get the tables with the specified key, if they are already in memory
+   * or can be loaded from a cache file.
+   *
+   * @param key  The key returned by makeKey().
+   *
+   * @return the tables, or null if tables with this key have not been
+   *         saved.
+   */
+  public static SNS_PixelTables get( String key )
+  {
+    synchronized( loaded )
+    {
+      SoftReference<SNS_PixelTables> ref = loaded.get( key );
+      if ( ref != null && ref.get() != null )
+        return ref.get();
+    }
+
+    File file = cacheFile( key );
+    if ( file == null || !file.exists() )
+      return null;
+
+    SNS_PixelTables tables;
+    try
+    {
+      tables = read( file, key );
+      file.setLastModified( System.currentTimeMillis() );  // recently used
+    }
+    catch ( Exception ex )
+    {
+      System.out.println( "Ignoring pixel table cache " + file + " : " + ex );
+      return null;
+    }
+
+    synchronized( loaded )                 // keep the first tables loaded
+    {                                      // if another thread beat us here
+      SoftReference<SNS_PixelTables> ref = loaded.get( key );
+      if ( ref != null && ref.get() != null )
+        return ref.get();
+
+      loaded.put( key, new SoftReference<SNS_PixelTables>( tables ) );
+    }
+    return tables;
+  }
+
+
+  /**
+   * Keep the specified tables in memory and, if possible, write them to
+   * a cache file so they can be used by later runs.  Failure to write the
+   * cache file is reported but is not an error.
+   *
+   * @param tables  The tables to save.
+   */
+  public static void put( SNS_PixelTables tables )
+  {
+    synchronized( loaded )
+    {
+      loaded.put( tables.key, new SoftReference<SNS_PixelTables>( tables ) );
+    }
+
+    File file = cacheFile( tables.key );
+    if ( file == null || file.exists() )
+      return;
+
+    try
+    {
+      write( file, tables );
+      trimCache( file );
+    }
+    catch ( IOException ex )
+    {
+      System.out.println( "Failed to write pixel table cache " + file + 
+                          " : " + ex );
+    }
+  }
+
+
+  /**
+   * Delete the least recently used cache files from the directory holding
+   * the specified file, until the total size of the cache files is no 
+   * more than the size given by the CACHE_MAX_MB_PROPERTY.  The specified
+   * file is kept, even if it alone is larger than the limit.
+   *
+   * @param keep  The cache file that was just written.
+   */
+  private static void trimCache( File keep )
+  {
+    long max_bytes = DEFAULT_CACHE_MAX_MB * 1024 * 1024;
+    String max_mb  = SharedData.getProperty( CACHE_MAX_MB_PROPERTY );
+    if ( max_mb != null && max_mb.trim().length() > 0 )
+      try
+      {
+        max_bytes = Long.parseLong( max_mb.trim() ) * 1024 * 1024;
+      }
+      catch ( NumberFormatException ex )
+      {
+        System.out.println( "Invalid " + CACHE_MAX_MB_PROPERTY + " " + 
+                             max_mb );
+      }
+
+    File[] files = keep.getParentFile().listFiles( new FileFilter()
+    {
+      public boolean accept( File file )
+      {
+        return file.getName().endsWith( CACHE_SUFFIX );
+      }
+    } );
+    if ( files == null )
+      return;
+
+    long total = 0;
+    for ( int i = 0; i < files.length; i++ )
+      total += files[i].length();
+                                                   // oldest first
+    Arrays.sort( files, new Comparator<File>()
+    {
+      public int compare( File f1, File f2 )
+      {
+        long t1 = f1.lastModified();
+        long t2 = f2.lastModified();
+        return t1 < t2 ? -1 : ( t1 == t2 ? 0 : 1 );
+      }
+    } );
+
+    for ( int i = 0; i < files.length && total > max_bytes; i++ )
+      if ( !files[i].equals( keep ) )
+      {
+        long size = files[i].length();
+        if ( files[i].delete() )
+          total -= size;
+      }
+  }
+
+
+  /**
+   * Get the cache file for the tables with the specified key, making the 
+   * cache directory if needed.
+   *
+   * @return the cache file, or null if the cache directory can't be made.
+   */
+  private static File cacheFile( String key )
+  {
+    String dir_name = SharedData.getProperty( CACHE_DIR_PROPERTY );
+    if ( dir_name == null || dir_name.trim().length() == 0 )
+      dir_name = System.getProperty( "user.home" ) + 
+                 File.separator + "ISAW_PixelTables";
+
+    File dir = new File( dir_name.trim() );
+    if ( !dir.isDirectory() && !dir.mkdirs() )
+      return null;
+
+    return new File( dir, "PixelTables_" + key + CACHE_SUFFIX );
+  }
+
+
+  /**
+   * Read the tables from a cache file by memory mapping the file and
+   * copying the sections into new arrays.
+   *
+   * @param file  The cache file.
+   * @param key   The key the tables must have.
+   *
+   * @return the tables read from the file.
+   *
+   * @throws IOException if the file can't be read.
+   * @throws IllegalArgumentException if the file is not a complete, 
+   *         current version cache file with the specified key.
+   */
+  private static SNS_PixelTables read( File file, String key )
+          throws IOException
+  {
+    RandomAccessFile r_file = new RandomAccessFile( file, "r" );
+    try
+    {
+      FileChannel channel = r_file.getChannel();
+      ByteBuffer  buffer  = channel.map( FileChannel.MapMode.READ_ONLY,
+                                         0, channel.size() );
+
+      if ( buffer.getInt() != MAGIC )
+        throw new IllegalArgumentException( file + 
+                                            " is not a pixel table cache" );
+      int version = buffer.getInt();
+      if ( version != VERSION )
+        throw new IllegalArgumentException( file + " has version " + 
+                           version + ", need version " + VERSION );
+
+      byte[] key_bytes = new byte[ buffer.getInt() ];
+      buffer.get( key_bytes );
+      if ( !key.equals( new String( key_bytes, "US-ASCII" ) ) )
+        throw new IllegalArgumentException( file + 
+                                            " was made from other files" );
+
+      int num_ids = buffer.getInt();
+      int num_nex = buffer.getInt();
+      if ( num_ids < 0 || num_nex < 0 ||
+           buffer.remaining() != 4L * (12L * num_ids + num_nex + 1) )
+        throw new IllegalArgumentException( file + 
+                                            " is not a complete cache" );
+
+      int[]   das_to_nex_id = getInts  ( buffer, num_ids );
+      int[]   nex_to_das_id = getInts  ( buffer, num_nex );
+      int[]   bank_num      = getInts  ( buffer, num_ids );
+      float[] das_to_row    = getFloats( buffer, num_ids );
+      float[] das_to_col    = getFloats( buffer, num_ids );
+      float[] two_theta_map = getFloats( buffer, num_ids );
+      float[] tof_to_MagQ   = getFloats( buffer, num_ids );
+      float[] tof_to_lamda  = getFloats( buffer, num_ids );
+      float[] recipLaSinTa  = getFloats( buffer, num_ids );
+      float[] pix_weight    = getFloats( buffer, num_ids );
+      float[] QUxyz         = getFloats( buffer, 3 * num_ids );
+
+      if ( buffer.getInt() != END_MAGIC )
+        throw new IllegalArgumentException( file + 
+                                            " is not a complete cache" );
+
+      return new SNS_PixelTables( key, das_to_nex_id, nex_to_das_id,
+                                  bank_num, das_to_row, das_to_col,
+                                  two_theta_map, tof_to_MagQ, tof_to_lamda,
+                                  recipLaSinTa, pix_weight, QUxyz );
+    }
+    finally                            // the tables are copies, so the
+    {                                  // mapping is not needed after this
+      r_file.close();
+    }
+  }
+
+
+  /**
+   * Write the tables to the specified cache file.  The file is written
+   * under a unique temporary name in the same directory and only renamed
+   * when it is complete, so an incomplete cache file is never used, and 
+   * several processes can write the same tables at once.
+   */
+  private static void write( File file, SNS_PixelTables tables )
+          throws IOException
+  {
+    int num_ids = tables.das_to_nex_id.length;
+    int num_nex = tables.nex_to_das_id.length;
+
+    byte[] key_bytes = tables.key.getBytes( "US-ASCII" );
+    ByteBuffer header = ByteBuffer.allocate( 20 + key_bytes.length );
+    header.putInt( MAGIC );
+    header.putInt( VERSION );
+    header.putInt( key_bytes.length );
+    header.put( key_bytes );
+    header.putInt( num_ids );
+    header.putInt( num_nex );
+    header.flip();
+
+    File temp_file = File.createTempFile( file.getName() + ".", ".tmp",
+                                          file.getParentFile() );
+    FileOutputStream out = new FileOutputStream( temp_file );
+    try
+    {
+      FileChannel channel = out.getChannel();
+      write( channel, header );
+      write( channel, putInts  ( tables.das_to_nex_id ) );
+      write( channel, putInts  ( tables.nex_to_das_id ) );
+      write( channel, putInts  ( tables.bank_num ) );
+      write( channel, putFloats( tables.das_to_row ) );
+      write( channel, putFloats( tables.das_to_col ) );
+      write( channel, putFloats( tables.two_theta_map ) );
+      write( channel, putFloats( tables.tof_to_MagQ ) );
+      write( channel, putFloats( tables.tof_to_lamda ) );
+      write( channel, putFloats( tables.recipLaSinTa ) );
+      write( channel, putFloats( tables.pix_weight ) );
+      write( channel, putFloats( tables.QUxyz ) );
+      write( channel, putInts  ( new int[] { END_MAGIC } ) );
+    }
+    catch ( IOException ex )
+    {
+      out.close();
+      temp_file.delete();
+      throw ex;
+    }
+    out.close();
+
+    if ( !temp_file.renameTo( file ) )         // another process may have
+    {                                          // written the same tables
+      temp_file.delete();
+      if ( !file.exists() )
+        throw new IOException( "Could not rename " + temp_file + 
+                               " to " + file );
+    }
+  }
+
+
+  /**
+   *  Copy the next num ints from the buffer into a new array.
+   */
+  private static int[] getInts( ByteBuffer buffer, int num )
+  {
+    int[] values = new int[ num ];
+    buffer.asIntBuffer().get( values );
+    buffer.position( buffer.position() + 4 * num );
+    return values;
+  }
+
+
+  /**
+   *  Copy the next num floats from the buffer into a new array.
+   */
+  private static float[] getFloats( ByteBuffer buffer, int num )
+  {
+    float[] values = new float[ num ];
+    buffer.asFloatBuffer().get( values );
+    buffer.position( buffer.position() + 4 * num );
+    return values;
+  }
+
+
+  /**
+   *  Get a buffer, ready to write, holding the specified ints.
+   */
+  private static ByteBuffer putInts( int[] values )
+  {
+    ByteBuffer buffer = ByteBuffer.allocate( 4 * values.length );
+    buffer.asIntBuffer().put( values );
+    return buffer;
+  }
+
+
+  /**
+   *  Get a buffer, ready to write, holding the specified floats.
+   */
+  private static ByteBuffer putFloats( float[] values )
+  {
+    ByteBuffer buffer = ByteBuffer.allocate( 4 * values.length );
+    buffer.asFloatBuffer().put( values );
+    return buffer;
+  }
+
+
+  /**
+   *  Write all of the bytes remaining in the buffer to the channel.
+   */
+  private static void write( FileChannel channel, ByteBuffer buffer )
+          throws IOException
+  {
+    while ( buffer.hasRemaining() )
+      channel.write( buffer );
+  }
+
+}
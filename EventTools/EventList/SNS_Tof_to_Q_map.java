@@ -35,6 +35,8 @@
 package EventTools.EventList;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.*;
 
 import gov.anl.ipns.MathTools.Geometry.*;
@@ -116,6 +118,27 @@ public class SNS_Tof_to_Q_map
 
   public static final float radtodeg_half = 180.f/(float)Math.PI/2.f;
 
+                                         // These codes specify the kinds of
+                                         // histograms that can be formed in
+                                         // one pass over the events by the
+                                         // Make_Histograms() method
+  public static final int D_SPACING_HIST    = 0;
+  public static final int MAG_Q_HIST        = 1;
+  public static final int WAVELENGTH_HIST   = 2;
+  public static final int FOCUSED_HIST      = 3;
+  public static final int BANK_FOCUSED_HIST = 4;
+  public static final int RAW_TOF_HIST      = 5;
+
+                                         // Number of events read and binned
+                                         // at one time by one thread in
+                                         // Make_Histograms()
+  public static final int HISTOGRAM_BLOCK_SIZE = 1 << 22;
+
+                                         // Number of per-pixel tables kept
+                                         // for Make_Histograms().  A call
+                                         // rarely needs more than two kinds
+  private static final int MAX_CACHED_FACTORS = 2;
+
   public static final float[][] pc = new float[][] {
        {0.9369f, 0.9490f, 0.9778f, 1.0083f, 1.0295f, 1.0389f, 1.0392f, 1.0338f,
         1.0261f, 1.0180f, 1.0107f, 1.0046f, 0.9997f, 0.9957f, 0.9929f, 0.9909f,
@@ -258,6 +281,9 @@ public class SNS_Tof_to_Q_map
   private float smu;
   private float amu;
 
+  private LinkedList<HistogramFactors> factor_cache =
+                                         new LinkedList<HistogramFactors>();
+
 
   /**
    *  Construct the mapping from (tof,id) to Qxyz, d and time-focused 
@@ -468,8 +494,6 @@ public class SNS_Tof_to_Q_map
 
     this.instrument_name = instrument_name;
 
-    das_to_nex_id = FileUtil.LoadIntFile( map_filename );
-
     Vector file_info = FileUtil.LoadDetCal( det_cal_filename );
     grid_arr = (IDataGrid[])(file_info.elementAt(0));
 
@@ -484,6 +508,34 @@ public class SNS_Tof_to_Q_map
     System.out.println("Bank File    : " + bank_filename );
     System.out.println("Mapping File : " + map_filename );
     System.out.println("--------------------------------------------");
+                                             // use the saved per-pixel tables
+                                             // if this geometry was used before
+    String tables_key = SNS_PixelTables.makeKey( det_cal_filename,
+                                                 bank_filename,
+                                                 map_filename );
+    SNS_PixelTables tables = SNS_PixelTables.get( tables_key );
+    if ( tables != null )
+    {
+      BuildGridMaps( grid_arr, bank_info );
+      UsePixelTables( tables );
+    }
+    else
+    {
+      das_to_nex_id = FileUtil.LoadIntFile( map_filename );
+      BuildMaps( das_to_nex_id, grid_arr, bank_info );
+      SNS_PixelTables.put( new SNS_PixelTables( tables_key,
+                                                das_to_nex_id,
+                                                nex_to_das_id,
+                                                bank_num,
+                                                das_to_row,
+                                                das_to_col,
+                                                two_theta_map,
+                                                tof_to_MagQ,
+                                                tof_to_lamda,
+                                                recipLaSinTa,
+                                                pix_weight,
+                                                QUxyz ) );
+    }
 
     if ( debug )
     {
@@ -494,8 +546,6 @@ public class SNS_Tof_to_Q_map
       System.out.println("Bank    File has " + bank_info.length+ " Banks");
     }
 
-    BuildMaps( das_to_nex_id, grid_arr, bank_info );
-
     SampleOrientation orient = new SNS_SampleOrientation( 0, 0, 0 );
     inverse_mapper = new VecQMapper[ grid_arr.length ];
     for ( int i = 0; i < grid_arr.length; i++ )
@@ -1079,17 +1129,8 @@ public class SNS_Tof_to_Q_map
      int num_mapped = CheckAndGetNumToMap( event_list, first, num_to_map );
 
      int     id;
-     int     id_offset;
-     int     index;
-     int     mapped_index;
      float   tof_chan;
      float   magQ;
-     float   qx,qy,qz;
-     int     minus_id_count = 0;
-     int     large_id_count = 0;
-     float   lamda;
-     int     lamda_index;
-     float   transinv = 1.0f;
                                                  // get the sublist of all of
                                                  // the events we need to map
      int[] my_events = event_list.rawEvents( first, num_mapped );
@@ -1098,7 +1139,6 @@ public class SNS_Tof_to_Q_map
                                                  // than should be needed.
 */
      int ev_index = 0;
-     mapped_index = 0;
                                                  // First scan for how many
                                                  // events pass the filters
                                                  // so we only need to  
@@ -1140,23 +1180,193 @@ public class SNS_Tof_to_Q_map
      float[] Qxyz    = new float[ 3 * ok_counter ];
      float[] weights = new float[ ok_counter ];
 
-     ev_index = 0;                                // start over at start of
-                                                  // the part we're mapping
-     for ( int i = 0; i < num_mapped; i++ )
-     {
-       tof_chan = my_events[ ev_index++ ] + t0; 
-       id       = my_events[ ev_index++ ]; 
+     MapBlock( my_events, num_mapped, Qxyz, weights );
+
 /*
-       if ( id > 0 && id < used_ids.length )
-         used_ids[id]++;
+     int[] bank_nums_used = new int[500];
+     for ( int i = 0; i < used_ids.length; i++ )
+     {
+      if ( used_ids[i] > 100 )
+        bank_nums_used[ i/1250 ]++;          // Test for PG3, to check which
+     }                                       // banks were used
+
+     for ( int i = 0; i < bank_nums_used.length; i++ )
+     {
+      if ( bank_nums_used[i] > 0 )
+        System.out.println( "" + i + "      " + bank_nums_used[i] );
+     }
 */
-       if ( id < 0 )
-         minus_id_count++;
+     return new FloatArrayEventList3D( weights, Qxyz );
+  }
 
-       else if ( id >= tof_to_MagQ.length )
-         large_id_count++;
 
-       else if ( use_id[ id ] && tof_chan > 0 )
+  /**
+   *  Map a block of time-of-flight events to Q, and process the mapped 
+   *  events in blocks, using an IEventList3DConsumer, such as a wrapper
+   *  around Histogram3D.addEvents().  The events are read from the
+   *  event_list in blocks of at most block_size events.  The blocks are
+   *  mapped to Q by n_threads threads, in a bounded set of reusable buffers,
+   *  so the memory used does not depend on the number of events processed.
+   *  The mapped blocks are passed to the consumer in order, from the calling
+   *  thread, so the events are presented to the consumer in the same order
+   *  as they would be presented by the non-streaming form of MapEventsToQ().
+   *  Since the mapping calculations are the same, adding all blocks to 
+   *  a histogram gives the same result as adding the list returned by 
+   *  MapEventsToQ( event_list, first, num_to_map ).  Unlike that method,
+   *  the number of events processed is not limited by the maximum array
+   *  size.
+   *
+   *  @param event_list  List of (tof,id) specifying detected neutrons.
+   *
+   *  @param first       The index of the first event to map to Q
+   *
+   *  @param num_to_map  The number of events to map to Q
+   *
+   *  @param block_size  The maximum number of events read and mapped at
+   *                     one time.
+   *
+   *  @param n_threads   The number of threads to use for mapping blocks.
+   *
+   *  @param consumer    The object that will process the mapped blocks.
+   *                     NOTE: The arrays in the blocks are reused, so the
+   *                     consumer must finish with, or copy, the events before
+   *                     returning.
+   *
+   *  @return the total number of events that were mapped to Q and passed
+   *          to the consumer.
+   */
+  public long MapEventsToQ( ITofEventList        event_list,
+                            long                 first,
+                            long                 num_to_map,
+                            int                  block_size,
+                            int                  n_threads,
+                            IEventList3DConsumer consumer )
+  {
+     if ( event_list == null )
+       throw new IllegalArgumentException( "event_list is null" );
+
+     if ( consumer == null )
+       throw new IllegalArgumentException( "consumer is null" );
+
+     long num_events = event_list.numEntries();
+     if ( first < 0 || first >= num_events )
+       throw new IllegalArgumentException("First index: " + first +
+                 " < 0 or >= number of events in list: " + num_events );
+
+     long last = Math.min( first + num_to_map, num_events );
+
+     if ( block_size <= 0 || block_size > ITofEventList.MAX_LIST_SIZE )
+       throw new IllegalArgumentException( "Invalid block size: " + 
+             block_size + ", must be between 1 and " +
+             ITofEventList.MAX_LIST_SIZE );
+
+     if ( n_threads < 1 )
+       n_threads = 1;
+                                          // use two buffers per thread, so
+                                          // mapping can continue while the
+                                          // consumer handles a block
+     int n_buffers = 2 * n_threads;
+     LinkedList<MapBlockBuffer> free_buffers = new LinkedList<MapBlockBuffer>();
+     LinkedList<Future<MapBlockBuffer>> pending = 
+                                     new LinkedList<Future<MapBlockBuffer>>();
+
+     ExecutorService executor = Executors.newFixedThreadPool( n_threads );
+     long total_mapped = 0;
+     long next_first   = first;
+     try
+     {
+       while ( next_first < last || pending.size() > 0 )
+       {
+         while ( next_first < last && pending.size() < n_buffers )
+         {
+           MapBlockBuffer buffer;
+           if ( free_buffers.size() > 0 )
+             buffer = free_buffers.removeFirst();
+           else
+             buffer = new MapBlockBuffer( block_size );
+
+           int n_in_block = (int)Math.min( block_size, last - next_first );
+           buffer.setBlock( event_list, next_first, n_in_block );
+           pending.addLast( executor.submit( buffer ) );
+           next_first += n_in_block;
+         }
+
+         MapBlockBuffer buffer = pending.removeFirst().get();
+         if ( buffer.num_mapped > 0 )
+         {
+           consumer.consume( new FloatArrayEventList3D( buffer.weights, 
+                                                        buffer.Qxyz,
+                                                        buffer.num_mapped ) );
+           total_mapped += buffer.num_mapped;
+         }
+         free_buffers.addLast( buffer );
+       }
+     }
+     catch ( InterruptedException ex )
+     {
+       Thread.currentThread().interrupt();
+       throw new IllegalStateException( "Interrupted while mapping events " +
+                                        "to Q" );
+     }
+     catch ( ExecutionException ex )
+     {
+       Throwable cause = ex.getCause();
+       if ( cause instanceof RuntimeException )
+         throw (RuntimeException)cause;
+       throw new IllegalStateException( "Failed to map events to Q: " + 
+                                         cause );
+     }
+     finally
+     {
+       executor.shutdownNow();
+     }
+
+     return total_mapped;
+  }
+
+
+  /**
+   *  Map the events in the packed array of (tof,id) values to Q, placing
+   *  the Qx,Qy,Qz values for events that pass the filters in successive
+   *  positions of the Qxyz array and their weights in successive positions
+   *  of the weights array.  This is the common calculation used by both
+   *  the batch and streaming forms of MapEventsToQ().
+   *
+   *  @param my_events   Interleaved array of times-of-flight and pixel IDs.
+   *  @param num_events  The number of events in my_events to map.
+   *  @param Qxyz        Array to hold at least 3 * (the number of events 
+   *                     that pass the filters) values.
+   *  @param weights     Array to hold at least (the number of events that
+   *                     pass the filters) values.
+   *
+   *  @return the number of events that passed the filters and were
+   *          stored in the Qxyz and weights arrays.
+   */
+  private int MapBlock( int[]   my_events,
+                        int     num_events,
+                        float[] Qxyz,
+                        float[] weights )
+  {
+     int     id;
+     int     id_offset;
+     int     index;
+     int     mapped_index = 0;
+     int     use_q_index;
+     float   tof_chan;
+     float   magQ;
+     float   qx,qy,qz;
+     float   lamda;
+     int     lamda_index;
+     float   transinv = 1.0f;
+
+     int ev_index = 0;
+     for ( int i = 0; i < num_events; i++ )
+     {
+       tof_chan = my_events[ ev_index++ ] + t0; 
+       id       = my_events[ ev_index++ ]; 
+
+       if ( id >= 0 && id < tof_to_MagQ.length && 
+            use_id[ id ] && tof_chan > 0 )
        {
          magQ = tof_to_MagQ[id]/tof_chan;
          use_q_index = use_q_binner.index( magQ );
@@ -1204,23 +1414,45 @@ public class SNS_Tof_to_Q_map
            }
          }
        }
-
      }
-/*
-     int[] bank_nums_used = new int[500];
-     for ( int i = 0; i < used_ids.length; i++ )
-     {
-      if ( used_ids[i] > 100 )
-        bank_nums_used[ i/1250 ]++;          // Test for PG3, to check which
-     }                                       // banks were used
+     return mapped_index;
+  }
 
-     for ( int i = 0; i < bank_nums_used.length; i++ )
-     {
-      if ( bank_nums_used[i] > 0 )
-        System.out.println( "" + i + "      " + bank_nums_used[i] );
-     }
-*/
-     return new FloatArrayEventList3D( weights, Qxyz );
+
+  /**
+   *  Reusable buffers and task for mapping one block of events to Q, used
+   *  by the streaming form of MapEventsToQ().
+   */
+  private class MapBlockBuffer implements Callable<MapBlockBuffer>
+  {
+    float[]       Qxyz;
+    float[]       weights;
+    int           num_mapped;
+
+    ITofEventList event_list;
+    long          first;
+    int           num_events;
+
+    MapBlockBuffer( int block_size )
+    {
+      Qxyz    = new float[ 3 * block_size ];
+      weights = new float[ block_size ];
+    }
+
+    void setBlock( ITofEventList event_list, long first, int num_events )
+    {
+      this.event_list = event_list;
+      this.first      = first;
+      this.num_events = num_events;
+      num_mapped      = 0;
+    }
+
+    public MapBlockBuffer call()
+    {
+      int[] raw_events = event_list.rawEvents( first, num_events );
+      num_mapped = MapBlock( raw_events, num_events, Qxyz, weights );
+      return this;
+    }
   }
 
 
@@ -1523,47 +1755,10 @@ public class SNS_Tof_to_Q_map
   {
     int num_mapped = CheckAndGetNumToMap( event_list, first, num_to_map );
 
-    boolean  use_d_map = true;
-    if (d_map == null || d_map.length < tof_to_MagQ.length )
-      use_d_map = false;
-
-    float  tof_chan;
-    int    id;
-    double two_pi = Math.PI * 2;
-    double d_value;
-
-    int    ev_index = 0;                      // index into event array
-    int    index;                             // index into histogram bin
-    int    num_bins = binner.numBins();
-    int    grid_id;
-
-    int[]   my_events = event_list.rawEvents( first, num_mapped );
-    int[][] histogram = getEmptyIntHistogram( binner );
-
-    for ( int i = 0; i < num_mapped; i++ )
-    {
-      tof_chan = my_events[ ev_index++ ] + t0;
-      id       = my_events[ ev_index++ ];
-
-      if ( id >= 0 && id < tof_to_MagQ.length )
-      {
-        if ( use_d_map )
-          d_value = tof_chan * d_map[ id ];
-        else
-          d_value = two_pi * tof_chan / tof_to_MagQ[id];
-
-        index   = binner.index( d_value );
-
-        if ( index >= 0 && index < num_bins )
-        {
-          grid_id = bank_num[ id ];
-          if ( histogram[ grid_id ] != null )
-            histogram[ grid_id ][ index ]++;
-        }
-      }
-    }
-
-    return histogram;
+    return Make_Histograms( event_list, first, num_mapped,
+                            new int[] { D_SPACING_HIST },
+                            new IEventBinner[] { binner },
+                            d_map, 0, 0, 1 )[0];
   }
 
 
@@ -1916,45 +2111,10 @@ public class SNS_Tof_to_Q_map
   {
     int num_mapped = CheckAndGetNumToMap( event_list, first, num_to_map );
 
-    if ( final_L_m <= 0 )
-      throw new IllegalArgumentException( "Final flight path must be > 0 " +
-                                           final_L_m );
-    float  tof_chan;
-    int    id;
-    float  focused_tof;
-    float  scale = (float)
-                   ((L1+final_L_m) * Math.sin(angle_deg * Math.PI/360) / 10);
-                                              // since SNS event TOF values are
-                                              // in 100 ns units, we need to
-                                              // divide by 10 to get micro-secs
-
-    int    ev_index = 0;                      // index into event array
-    int    index;                             // index into histogram bin
-    int    num_bins = binner.numBins();
-    int    grid_id;
-
-    int[]   my_events = event_list.rawEvents( first, num_mapped );
-    int[][] histogram = getEmptyIntHistogram( binner );
-
-    for ( int i = 0; i < num_mapped; i++ )
-    {
-      tof_chan = my_events[ ev_index++ ] + t0;
-      id       = my_events[ ev_index++ ];
-
-      if ( id >= 0 && id < recipLaSinTa.length )
-      {
-        focused_tof = tof_chan * scale * recipLaSinTa[id];
-        index       = binner.index( focused_tof );
-        if ( index >= 0 && index < num_bins )
-        {
-          grid_id = bank_num[ id ];
-          if ( histogram[ grid_id ] != null )
-            histogram[ grid_id ][ index ]++;
-        }
-      }
-    }
-
-    return histogram;
+    return Make_Histograms( event_list, first, num_mapped,
+                            new int[] { FOCUSED_HIST },
+                            new IEventBinner[] { binner },
+                            null, angle_deg, final_L_m, 1 )[0];
   }
 
 
@@ -2086,37 +2246,10 @@ public class SNS_Tof_to_Q_map
   {
     int num_mapped = CheckAndGetNumToMap( event_list, first, num_to_map );
 
-    float  tof_chan;
-    int    id;
-    double q_value;
-
-    int ev_index = 0;                         // index into event array
-    int    index;                             // index into histogram bin
-    int    num_bins = binner.numBins();
-    int    grid_id;
-
-    int[]   my_events = event_list.rawEvents( first, num_mapped );
-    int[][] histogram = getEmptyIntHistogram( binner );
-
-    for ( int i = 0; i < num_mapped; i++ )
-    {
-      tof_chan = my_events[ ev_index++ ] + t0;
-      id       = my_events[ ev_index++ ];
-
-      if ( id >= 0 && id < tof_to_MagQ.length && tof_chan > 0 )
-      {
-        q_value = tof_to_MagQ[id] / tof_chan;
-        index   = binner.index( q_value );
-        if ( index >= 0 && index < num_bins )
-        {
-          grid_id = bank_num[ id ];
-          if ( histogram[ grid_id ] != null )
-            histogram[ grid_id ][ index ]++;
-        }
-      }
-    }
-
-    return histogram;
+    return Make_Histograms( event_list, first, num_mapped,
+                            new int[] { MAG_Q_HIST },
+                            new IEventBinner[] { binner },
+                            null, 0, 0, 1 )[0];
   }
 
 
@@ -2144,37 +2277,10 @@ public class SNS_Tof_to_Q_map
   {
     int num_mapped = CheckAndGetNumToMap( event_list, first, num_to_map );
 
-    float  tof_chan;
-    int    id;
-    double wl_value;
-
-    int    ev_index = 0;                      // index into event array
-    int    index;                             // index into histogram bin
-    int    num_bins = binner.numBins();
-    int    grid_id;
-
-    int[]   my_events = event_list.rawEvents( first, num_mapped );
-    int[][] histogram = getEmptyIntHistogram( binner );
-
-    for ( int i = 0; i < num_mapped; i++ )
-    {
-      tof_chan = my_events[ ev_index++ ] + t0;
-      id       = my_events[ ev_index++ ];
-
-      if ( id >= 0 && id < tof_to_lamda.length )
-      {
-        wl_value = tof_to_lamda[id] * tof_chan / 10.0f;
-        index    = binner.index( wl_value );
-        if ( index >= 0 && index < num_bins )
-        {
-          grid_id = bank_num[ id ];
-          if ( histogram[ grid_id ] != null )
-            histogram[ grid_id ][ index ]++;
-        }
-      }
-    }
-
-    return histogram;
+    return Make_Histograms( event_list, first, num_mapped,
+                            new int[] { WAVELENGTH_HIST },
+                            new IEventBinner[] { binner },
+                            null, 0, 0, 1 )[0];
   }
 
 
@@ -2208,37 +2314,10 @@ public class SNS_Tof_to_Q_map
   {
     int num_mapped = CheckAndGetNumToMap( event_list, first, num_to_map );
 
-    float  tof_chan;
-    float  tof_value;
-    int    id;
-
-    int    ev_index = 0;                      // index into event array
-    int    index;                             // index into histogram bin
-    int    num_bins = binner.numBins();
-    int    grid_id;
-
-    int[]   my_events = event_list.rawEvents( first, num_mapped );
-    int[][] histogram = getEmptyIntHistogram( binner );
-
-    for ( int i = 0; i < num_mapped; i++ )
-    {
-      tof_chan = my_events[ ev_index++ ] + t0;
-      id       = my_events[ ev_index++ ];
-
-      if ( id >= 0 )
-      {
-        tof_value = tof_chan / 10.0f;
-        index     = binner.index( tof_value );
-        if ( index >= 0 && index < num_bins )
-        {
-          grid_id = bank_num[ id ];
-          if ( histogram[ grid_id ] != null )
-            histogram[ grid_id ][ index ]++;
-        }
-      }
-    }
-
-    return histogram;
+    return Make_Histograms( event_list, first, num_mapped,
+                            new int[] { RAW_TOF_HIST },
+                            new IEventBinner[] { binner },
+                            null, 0, 0, 1 )[0];
   }
 
 
@@ -2267,60 +2346,464 @@ public class SNS_Tof_to_Q_map
   {
     int num_mapped = CheckAndGetNumToMap( event_list, first, num_to_map );
 
-    float   tof_chan;
-    int     id;
-    float   focused_tof;
-    float   scale;
-    float[] scale_factors = new float[ all_grids.length ];
-
-    for ( int gid = 0; gid < all_grids.length; gid++ )
-    {
-      if ( all_grids[gid] == null )
-        scale_factors[gid] = 0;
-      else
-      {
-        Vector3D pos = all_grids[gid].position();
-        float final_L_m = pos.length();
-        float two_theta_rad = (float)( Math.acos( pos.getX() / final_L_m ) );
-        float theta_rad = two_theta_rad / 2;
-        scale_factors[gid] = (float)((L1+final_L_m) * Math.sin(theta_rad) / 10);
-                                              // since SNS event TOF values are
-                                              // in 100 ns units, we need to
-                                              // divide by 10 to get micro-secs
-      } 
-    }
-
-    int    ev_index = 0;                      // index into event array
-    int    index;                             // index into histogram bin
-    int    num_bins = binner.numBins();
-    int    grid_id;
-
-    int[]   my_events = event_list.rawEvents( first, num_mapped );
-    int[][] histogram = getEmptyIntHistogram( binner );
+    return Make_Histograms( event_list, first, num_mapped,
+                            new int[] { BANK_FOCUSED_HIST },
+                            new IEventBinner[] { binner },
+                            null, 0, 0, 1 )[0];
+  }
 
-    for ( int i = 0; i < num_mapped; i++ )
-    {
-      tof_chan = my_events[ ev_index++ ] + t0;
-      id       = my_events[ ev_index++ ];
 
-      if ( id >= 0 && id < recipLaSinTa.length )
-      {
-        grid_id = bank_num[ id ];
-        if ( histogram[ grid_id ] != null )
-        {
-          scale   = scale_factors[ grid_id ];
-          if ( scale > 0 )
-          {
-            focused_tof = tof_chan * scale * recipLaSinTa[id];
-            index       = binner.index( focused_tof );
-            if ( index >= 0 && index < num_bins )
-              histogram[ grid_id ][ index ]++;
-          }
-        }
+  /**
+   *  Map the specified sub-list of time-of-flight events to several kinds
+   *  of histograms at once, with one histogram of each kind for each bank.
+   *  The events are read in blocks of HISTOGRAM_BLOCK_SIZE events and each
+   *  block is read only once, no matter how many kinds of histograms are
+   *  requested.  The blocks are shared out between the specified number of
+   *  threads.  Each thread adds the events from its blocks to its own
+   *  partial histograms, which are summed when all blocks are done.  The
+   *  conversion from time-of-flight to the requested x-axis is done using
+   *  tables of per-pixel factors, that are saved and reused by later calls
+   *  with the same parameters.
+   *
+   *  @param event_list  List of (tof,id) specifying detected neutrons.
+   *
+   *  @param first       The index of the first event to be histogrammed
+   *
+   *  @param num_to_map  The number of events to be histogrammed.  This is
+   *                     NOT limited to ITofEventList.MAX_LIST_SIZE.
+   *
+   *  @param hist_types  List of the kinds of histograms to form, using the
+   *                     codes D_SPACING_HIST, MAG_Q_HIST, WAVELENGTH_HIST,
+   *                     FOCUSED_HIST, BANK_FOCUSED_HIST and RAW_TOF_HIST.
+   *
+   *  @param binners     List of IEventBinner objects that define the bin
+   *                     boundaries for the corresponding kind of histogram.
+   *
+   *  @param d_map       List of diffractometer constants used for
+   *                     D_SPACING_HIST.  If this is null, the instrument
+   *                     geometry will determine the mapping from 
+   *                     time-of-flight to d.
+   *
+   *  @param angle_deg   The "virtual" scattering angle, two theta, 
+   *                     (in degrees) to which FOCUSED_HIST data should be
+   *                     focused
+   *
+   *  @param final_L_m   The final flight path length (in meters) to which
+   *                     FOCUSED_HIST data should be focused
+   *
+   *  @param n_threads   The number of threads to use.
+   *
+   *  @return A three dimensional array of integers.  Position k of this
+   *          array holds the histograms for hist_types[k].  The jth row
+   *          of histograms for one kind contains the histogram values for
+   *          detector bank j.  If detector bank j does not exist, that row
+   *          will be null.
+   */
+  public int[][][] Make_Histograms( ITofEventList  event_list,
+                                    long           first,
+                                    long           num_to_map,
+                                    int[]          hist_types,
+                                    IEventBinner[] binners,
+                                    double[]       d_map,
+                                    float          angle_deg,
+                                    float          final_L_m,
+                                    int            n_threads )
+  {
+     if ( event_list == null )
+       throw new IllegalArgumentException( "event_list is null" );
+
+     long num_events = event_list.numEntries();
+     if ( first < 0 || first >= num_events )
+       throw new IllegalArgumentException("First index: " + first +
+                 " < 0 or >= number of events in list: " + num_events );
+
+     if ( hist_types == null || binners == null || 
+          hist_types.length == 0 || hist_types.length != binners.length )
+       throw new IllegalArgumentException( "Need one binner for each " +
+                                           "requested histogram type" );
+
+     boolean use_d_map = d_map != null && 
+                         d_map.length >= tof_to_MagQ.length;
+
+     double[][] factors = new double[ hist_types.length ][];
+     for ( int k = 0; k < hist_types.length; k++ )
+     {
+       if ( binners[k] == null )
+         throw new IllegalArgumentException( "binner " + k + " is null" );
+
+       factors[k] = getHistogramFactors( hist_types[k], 
+                                         d_map, angle_deg, final_L_m );
+     }
+
+     long last     = Math.min( first + num_to_map, num_events );
+     long n_blocks = ( last - first + HISTOGRAM_BLOCK_SIZE - 1 ) / 
+                       HISTOGRAM_BLOCK_SIZE;
+     if ( n_threads > n_blocks )
+       n_threads = (int)n_blocks;
+     if ( n_threads < 1 )
+       n_threads = 1;
+
+     AtomicLong next_block = new AtomicLong( 0 );
+     HistogramTask[] tasks = new HistogramTask[ n_threads ];
+     for ( int i = 0; i < n_threads; i++ )
+       tasks[i] = new HistogramTask( event_list, first, last, next_block,
+                                     hist_types, factors, use_d_map, 
+                                     binners );
+
+     if ( n_threads == 1 )                  // no need for another thread
+       return tasks[0].call();
+
+     int[][][] histograms = null;
+     ExecutorService executor = Executors.newFixedThreadPool( n_threads );
+     try
+     {
+       List<Future<int[][][]>> results = 
+                                  executor.invokeAll( Arrays.asList( tasks ) );
+
+       for ( int i = 0; i < results.size(); i++ )
+       {
+         int[][][] partial = results.get(i).get();
+         if ( histograms == null )
+           histograms = partial;
+         else
+           for ( int k = 0; k < histograms.length; k++ )
+             for ( int row = 0; row < histograms[k].length; row++ )
+               if ( histograms[k][row] != null )
+                 for ( int col = 0; col < histograms[k][row].length; col++ )
+                   histograms[k][row][col] += partial[k][row][col];
+       }
+     }
+     catch ( InterruptedException ex )
+     {
+       Thread.currentThread().interrupt();
+       throw new IllegalStateException( "Interrupted while histogramming " +
+                                        "events" );
+     }
+     catch ( ExecutionException ex )
+     {
+       Throwable cause = ex.getCause();
+       if ( cause instanceof RuntimeException )
+         throw (RuntimeException)cause;
+       throw new IllegalStateException( "Failed to histogram events: " + 
+                                         cause );
+     }
+     finally
+     {
+       executor.shutdownNow();
+     }
+
+     return histograms;
+  }
+
+
+  /**
+   *  Get the table of per-pixel factors used by HistogramBlock() to 
+   *  convert a time-of-flight channel, (raw tof + t0), to the x-axis value
+   *  of the specified kind of histogram.  The factor is the d_map entry
+   *  or tof_to_MagQ entry for D_SPACING_HIST, the tof_to_MagQ entry for
+   *  MAG_Q_HIST, the tof_to_lamda entry for WAVELENGTH_HIST and the 
+   *  focusing scale for FOCUSED_HIST and BANK_FOCUSED_HIST.  The most 
+   *  recently used tables are kept, so repeated calls for separate 
+   *  segments of an event list do not rebuild the tables.  A kept table 
+   *  is reused if the d_map has the same values, even if it is a 
+   *  different array.
+   *
+   *  @param hist_type   The kind of histogram, D_SPACING_HIST, MAG_Q_HIST,
+   *                     WAVELENGTH_HIST, FOCUSED_HIST, BANK_FOCUSED_HIST or
+   *                     RAW_TOF_HIST.
+   *  @param d_map       List of diffractometer constants, only used for 
+   *                     D_SPACING_HIST.  May be null.
+   *  @param angle_deg   The focusing angle, only used for FOCUSED_HIST. 
+   *  @param final_L_m   The focusing path length, only used for 
+   *                     FOCUSED_HIST. 
+   *
+   *  @return an array with one factor for each DAS pixel ID.
+   */
+  private synchronized double[] getHistogramFactors( int      hist_type,
+                                                    double[] d_map,
+                                                    float    angle_deg,
+                                                    float    final_L_m )
+  {
+    if ( hist_type != D_SPACING_HIST || 
+         d_map == null                || 
+         d_map.length < tof_to_MagQ.length )
+      d_map = null;
+
+    if ( hist_type != FOCUSED_HIST )
+    {
+      angle_deg = 0;
+      final_L_m = 0;
+    }
+    else if ( final_L_m <= 0 )
+      throw new IllegalArgumentException( "Final flight path must be > 0 " +
+                                           final_L_m );
+
+    Iterator<HistogramFactors> it = factor_cache.iterator();
+    while ( it.hasNext() )
+    {
+      HistogramFactors entry = it.next();
+      if ( entry.matches( hist_type, d_map, angle_deg, final_L_m ) )
+      {
+        it.remove();                               // move to front of list
+        factor_cache.addFirst( entry );
+        return entry.factors;
+      }
+    }
+
+    int      num_ids = bank_num.length;
+    double[] factors = new double[ num_ids ];
+
+    if ( hist_type == D_SPACING_HIST )
+    {
+      for ( int id = 0; id < num_ids; id++ )
+        if ( d_map != null )
+          factors[id] = d_map[id];
+        else
+          factors[id] = tof_to_MagQ[id];
+    }
+    else if ( hist_type == MAG_Q_HIST )
+    {
+      for ( int id = 0; id < num_ids; id++ )
+        factors[id] = tof_to_MagQ[id];
+    }
+    else if ( hist_type == WAVELENGTH_HIST )
+    {
+      for ( int id = 0; id < num_ids; id++ )
+        factors[id] = tof_to_lamda[id];
+    }
+    else if ( hist_type == FOCUSED_HIST )
+    {
+      float scale = (float)
+                   ((L1+final_L_m) * Math.sin(angle_deg * Math.PI/360) / 10);
+                                              // since SNS event TOF values are
+                                              // in 100 ns units, we need to
+                                              // divide by 10 to get micro-secs
+      Arrays.fill( factors, scale );
+    }
+    else if ( hist_type == BANK_FOCUSED_HIST )
+    {
+      float[] scale_factors = new float[ all_grids.length ];
+      for ( int gid = 0; gid < all_grids.length; gid++ )
+        if ( all_grids[gid] != null )
+        {
+          Vector3D pos = all_grids[gid].position();
+          float L2 = pos.length();
+          float theta_rad = (float)( Math.acos( pos.getX() / L2 ) ) / 2;
+          scale_factors[gid] = (float)((L1 + L2) * Math.sin(theta_rad) / 10);
+        }
+
+      for ( int id = 0; id < num_ids; id++ )
+        if ( bank_num[id] < scale_factors.length )
+          factors[id] = scale_factors[ bank_num[id] ];
+    }
+    else if ( hist_type != RAW_TOF_HIST )
+      throw new IllegalArgumentException( "Invalid histogram type: " +
+                                           hist_type );
+
+    if ( d_map != null )                       // keep our own copy, since 
+      d_map = d_map.clone();                   // caller may change its array
+    factor_cache.addFirst( 
+      new HistogramFactors( hist_type, d_map, angle_deg, final_L_m, factors));
+    if ( factor_cache.size() > MAX_CACHED_FACTORS )
+      factor_cache.removeLast();
+
+    return factors;
+  }
+
+
+  /**
+   *  Add the events in the packed array of (tof,id) values to the 
+   *  histograms of each requested kind.  This is the common calculation
+   *  used by all of the int valued Make_*_Histograms() methods.  Each kind
+   *  of histogram uses the same float or double arithmetic as the separate
+   *  methods that formerly did this, so events fall in the same bins.
+   *
+   *  @param my_events   Interleaved array of times-of-flight and pixel IDs.
+   *  @param num_events  The number of events in my_events to histogram.
+   *  @param hist_types  The kinds of histograms to fill.
+   *  @param factors     The per-pixel factors for each kind of histogram.
+   *  @param use_d_map   Flag indicating whether the D_SPACING_HIST factors
+   *                     are diffractometer constants.
+   *  @param binners     The binners for each kind of histogram.
+   *  @param histograms  The histograms for each kind, with one row per bank,
+   *                     to which the events are added.
+   */
+  private void HistogramBlock( int[]          my_events,
+                               int            num_events,
+                               int[]          hist_types,
+                               double[][]     factors,
+                               boolean        use_d_map,
+                               IEventBinner[] binners,
+                               int[][][]      histograms )
+  {
+    int      num_kinds = hist_types.length;
+    int      num_ids   = bank_num.length;
+    int[]    num_bins  = new int[ num_kinds ];
+    for ( int k = 0; k < num_kinds; k++ )
+      num_bins[k] = binners[k].numBins();
+
+    double   two_pi = Math.PI * 2;
+    float    tof_chan;
+    int      id;
+    int      grid_id;
+    int      index;
+    double   factor;
+    double   value;
+    int[]    row;
+
+    int ev_index = 0;
+    for ( int i = 0; i < num_events; i++ )
+    {
+      tof_chan = my_events[ ev_index++ ] + t0;
+      id       = my_events[ ev_index++ ];
+
+      if ( id >= 0 && id < num_ids )
+      {
+        grid_id = bank_num[ id ];
+        for ( int k = 0; k < num_kinds; k++ )
+        {
+          row = histograms[k][ grid_id ];
+          if ( row == null )
+            continue;
+
+          factor = factors[k][ id ];
+          switch ( hist_types[k] )
+          {
+            case D_SPACING_HIST:
+              if ( use_d_map )
+                value = tof_chan * factor;
+              else
+                value = two_pi * tof_chan / factor;
+              break;
+
+            case MAG_Q_HIST:
+              if ( tof_chan <= 0 )
+                continue;
+              value = (float)factor / tof_chan;
+              break;
+
+            case WAVELENGTH_HIST:
+              value = (float)factor * tof_chan / 10.0f;
+              break;
+
+            case FOCUSED_HIST:
+              value = tof_chan * (float)factor * recipLaSinTa[id];
+              break;
+
+            case BANK_FOCUSED_HIST:
+              if ( factor <= 0 )
+                continue;
+              value = tof_chan * (float)factor * recipLaSinTa[id];
+              break;
+
+            default:
+              value = tof_chan / 10.0f;
+          }
+
+          index = binners[k].index( value );
+          if ( index >= 0 && index < num_bins[k] )
+            row[ index ]++;
+        }
+      }
+    }
+  }
+
+
+  /**
+   *  Task used by Make_Histograms() to take blocks of events from a shared
+   *  counter, until all blocks are done, adding them to its own partial
+   *  histograms.
+   */
+  private class HistogramTask implements Callable<int[][][]>
+  {
+    ITofEventList  event_list;
+    long           first;
+    long           last;
+    AtomicLong     next_block;
+    int[]          hist_types;
+    double[][]     factors;
+    boolean        use_d_map;
+    IEventBinner[] binners;
+
+    HistogramTask( ITofEventList  event_list,
+                   long           first,
+                   long           last,
+                   AtomicLong     next_block,
+                   int[]          hist_types,
+                   double[][]     factors,
+                   boolean        use_d_map,
+                   IEventBinner[] binners )
+    {
+      this.event_list = event_list;
+      this.first      = first;
+      this.last       = last;
+      this.next_block = next_block;
+      this.hist_types = hist_types;
+      this.factors    = factors;
+      this.use_d_map  = use_d_map;
+      this.binners    = binners;
+    }
+
+    public int[][][] call()
+    {
+      int[][][] histograms = new int[ hist_types.length ][][];
+      for ( int k = 0; k < hist_types.length; k++ )
+        histograms[k] = getEmptyIntHistogram( binners[k] );
+
+      long block_first = first + 
+                         next_block.getAndIncrement() * HISTOGRAM_BLOCK_SIZE;
+      while ( block_first < last )
+      {
+        int n_in_block = (int)Math.min( HISTOGRAM_BLOCK_SIZE, 
+                                        last - block_first );
+        int[] raw_events = event_list.rawEvents( block_first, n_in_block );
+        HistogramBlock( raw_events, n_in_block, 
+                        hist_types, factors, use_d_map, binners, 
+                        histograms );
+
+        block_first = first + 
+                      next_block.getAndIncrement() * HISTOGRAM_BLOCK_SIZE;
       }
+      return histograms;
     }
+  }
+
 
-    return histogram;
+  /**
+   *  Per-pixel factor table for one kind of histogram, together with
+   *  the parameters used to build it.
+   */
+  private static class HistogramFactors
+  {
+    int      hist_type;
+    double[] d_map;
+    float    angle_deg;
+    float    final_L_m;
+    double[] factors;
+
+    HistogramFactors( int      hist_type,
+                      double[] d_map,
+                      float    angle_deg,
+                      float    final_L_m,
+                      double[] factors )
+    {
+      this.hist_type = hist_type;
+      this.d_map     = d_map;
+      this.angle_deg = angle_deg;
+      this.final_L_m = final_L_m;
+      this.factors   = factors;
+    }
+
+    boolean matches( int      hist_type,
+                     double[] d_map,
+                     float    angle_deg,
+                     float    final_L_m )
+    {
+      return this.hist_type == hist_type &&
+             this.angle_deg == angle_deg &&
+             this.final_L_m == final_L_m &&
+             Arrays.equals( this.d_map, d_map );
+    }
   }
 
 
@@ -2804,81 +3287,10 @@ public class SNS_Tof_to_Q_map
                           IDataGrid[] datagrid_arr,
                           BankInfo[]  bank_info ) 
   {
-                            // make table of IDataGrids indexed by the grid ID 
-                            // missing grids are marked with a null
+    BuildGridMaps( datagrid_arr, bank_info );
 
-                            // First find the largest possible ID by scanning
-                            // through the information from the .DetCal and
-                            // the Bank.xml files
     int val;
-    int max_grid_id = 0;     
-    for ( int i = 0; i < datagrid_arr.length; i++ )
-    {
-      val = datagrid_arr[i].ID();
-      if ( val > max_grid_id )
-        max_grid_id = val;
-    }
-
-    for ( int i = 0; i < bank_info.length; i++ )
-    {
-      val = bank_info[i].ID();
-      if ( val > max_grid_id )
-        max_grid_id = val;
-    }
-
-    max_grid_ID = max_grid_id;                // TODO: replace max_grid_id
-                                              //       by max_grid_ID and
-                                              //       add method to find it.
-
-    System.out.println("**** max_grid_id = " + max_grid_ID );
-    all_grids      = new IDataGrid[ max_grid_id + 1 ];
-    all_bank_infos = new BankInfo [ max_grid_id + 1 ]; 
-    for ( int i = 0; i < all_grids.length; i++ )
-    {
-      all_grids[i]      = null;
-      all_bank_infos[i] = null;
-    }
-                                             // Get complete arrays of possible
-                                             // grids and bank_infos, leaving
-                                             // null for missing items
     IDataGrid grid;
-    for ( int i = 0; i < datagrid_arr.length; i++ )
-    {
-      grid = datagrid_arr[i];
-      if ( grid != null )
-      {
-        int id = grid.ID();
-        if ( id >= 0 && id < all_grids.length )
-          all_grids[ id ] = grid;
-      }
-    }
-
-    for ( int k = 0; k < bank_info.length; k++ )
-    {
-      BankInfo info = bank_info[k];
-      if ( info != null )
-      {
-        int id = info.ID();
-        if ( id >= 0 && id < all_bank_infos.length )
-          all_bank_infos[ id ] = info;
-      }
-    }
-                                               // Now discard any grids that
-                                               // aren't listed in both the
-                                               // banking file and .DetCal
-    for ( int i = 0; i <= max_grid_id; i++ )
-    {
-      if ( all_grids[i] != null && all_bank_infos[i] == null )
-      {
-        all_grids[i] = null;
-        System.out.println("WARNING: Missing ID " + i + " from bank.xml file");
-      }
-      else if ( all_bank_infos[i] != null && all_grids[i] == null )
-      {
-        all_bank_infos[i] = null;
-        System.out.println("WARNING: Missing ID " + i + " from .DetCal file");
-      }
-    }
                                                // make tables to map NeXus ID
                                                // to gridID, row and column
                                                // missing entries marked by -1
@@ -3029,6 +3441,121 @@ public class SNS_Tof_to_Q_map
   }
 
 
+  /**
+   *  Use the per-pixel tables saved from an earlier mapper with the same
+   *  .DetCal, bank and mapping files, instead of building them.  The 
+   *  tables are shared, NOT copied, since they are never altered after
+   *  they are built.  Only the use_id[] table, which can be changed by
+   *  the ID filter methods, is made for this mapper.
+   *
+   *  @param  tables  The per-pixel tables for this instrument geometry.
+   */
+  private void UsePixelTables( SNS_PixelTables tables )
+  {
+    das_to_nex_id = tables.das_to_nex_id;
+    nex_to_das_id = tables.nex_to_das_id;
+    bank_num      = tables.bank_num;
+    das_to_row    = tables.das_to_row;
+    das_to_col    = tables.das_to_col;
+    two_theta_map = tables.two_theta_map;
+    tof_to_MagQ   = tables.tof_to_MagQ;
+    tof_to_lamda  = tables.tof_to_lamda;
+    recipLaSinTa  = tables.recipLaSinTa;
+    pix_weight    = tables.pix_weight;
+    QUxyz         = tables.QUxyz;
+
+    use_id = new boolean[ das_to_row.length ];
+    for ( int i = 0; i < use_id.length; i++ )   // rows start at 1, so only
+      use_id[i] = das_to_row[i] > 0;            // pixels on a grid are used
+  }
+
+
+  /**
+   *  Build the tables of grids and bank infos indexed by the grid ID,
+   *  all_grids[] and all_bank_infos[], and find max_grid_ID.  Grids that
+   *  are not listed in both the .DetCal and bank files are omitted.
+   */
+  private void BuildGridMaps( IDataGrid[] datagrid_arr,
+                              BankInfo[]  bank_info )
+  {
+                            // make table of IDataGrids indexed by the grid ID 
+                            // missing grids are marked with a null
+
+                            // First find the largest possible ID by scanning
+                            // through the information from the .DetCal and
+                            // the Bank.xml files
+    int val;
+    int max_grid_id = 0;     
+    for ( int i = 0; i < datagrid_arr.length; i++ )
+    {
+      val = datagrid_arr[i].ID();
+      if ( val > max_grid_id )
+        max_grid_id = val;
+    }
+
+    for ( int i = 0; i < bank_info.length; i++ )
+    {
+      val = bank_info[i].ID();
+      if ( val > max_grid_id )
+        max_grid_id = val;
+    }
+
+    max_grid_ID = max_grid_id;                // TODO: replace max_grid_id
+                                              //       by max_grid_ID and
+                                              //       add method to find it.
+
+    System.out.println("**** max_grid_id = " + max_grid_ID );
+    all_grids      = new IDataGrid[ max_grid_id + 1 ];
+    all_bank_infos = new BankInfo [ max_grid_id + 1 ]; 
+    for ( int i = 0; i < all_grids.length; i++ )
+    {
+      all_grids[i]      = null;
+      all_bank_infos[i] = null;
+    }
+                                             // Get complete arrays of possible
+                                             // grids and bank_infos, leaving
+                                             // null for missing items
+    IDataGrid grid;
+    for ( int i = 0; i < datagrid_arr.length; i++ )
+    {
+      grid = datagrid_arr[i];
+      if ( grid != null )
+      {
+        int id = grid.ID();
+        if ( id >= 0 && id < all_grids.length )
+          all_grids[ id ] = grid;
+      }
+    }
+
+    for ( int k = 0; k < bank_info.length; k++ )
+    {
+      BankInfo info = bank_info[k];
+      if ( info != null )
+      {
+        int id = info.ID();
+        if ( id >= 0 && id < all_bank_infos.length )
+          all_bank_infos[ id ] = info;
+      }
+    }
+                                               // Now discard any grids that
+                                               // aren't listed in both the
+                                               // banking file and .DetCal
+    for ( int i = 0; i <= max_grid_id; i++ )
+    {
+      if ( all_grids[i] != null && all_bank_infos[i] == null )
+      {
+        all_grids[i] = null;
+        System.out.println("WARNING: Missing ID " + i + " from bank.xml file");
+      }
+      else if ( all_bank_infos[i] != null && all_grids[i] == null )
+      {
+        all_bank_infos[i] = null;
+        System.out.println("WARNING: Missing ID " + i + " from .DetCal file");
+      }
+    }
+  }
+
+
   /**
    *  Basic tests during develepment.
    */
@@ -3106,6 +3633,40 @@ public class SNS_Tof_to_Q_map
                                          (float)histogram[14][i]);
 */
 
+    long num_to_map = Math.min( loader.numEntries(), 
+                                ITofEventList.MAX_LIST_SIZE );
+    start = System.nanoTime();
+    FloatArrayEventList3D q_events = mapper.MapEventsToQ( loader, 
+                                                          0, 
+                                                          num_to_map );
+    time = (System.nanoTime()-start)/1e6;
+    System.out.printf("Time to map %d events to Q in one batch = %5.2f ms\n",
+                       q_events.numEntries(), time );
+
+    final double[] stream_sum = new double[1];
+    IEventList3DConsumer summer = new IEventList3DConsumer()
+    {
+      public void consume( IEventList3D events )
+      {
+        float[] weights = events.eventWeights();
+        for ( int i = 0; i < events.numEntries(); i++ )
+          stream_sum[0] += weights[i];
+      }
+    };
+    start = System.nanoTime();
+    long num_streamed = mapper.MapEventsToQ( loader, 0, num_to_map,
+                                             1000000, 4, summer );
+    time = (System.nanoTime()-start)/1e6;
+    System.out.printf("Time to stream %d events to Q = %5.2f ms\n",
+                       num_streamed, time );
+
+    double batch_sum = 0;
+    float[] batch_weights = q_events.eventWeights();
+    for ( int i = 0; i < q_events.numEntries(); i++ )
+      batch_sum += batch_weights[i];
+    System.out.println("Batch sum = " + batch_sum + 
+                       ", streamed sum = " + stream_sum[0] );
+
    start = System.nanoTime();
    mapper = new SNS_Tof_to_Q_map( "SNAP", null, null, null, null );
    time = (System.nanoTime()-start)/1e6;
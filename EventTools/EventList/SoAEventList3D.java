@@ -0,0 +1,415 @@
+/* 
+ * File: SoAEventList3D.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package EventTools.EventList;
+
+import java.util.Random;
+
+import EventTools.Histogram.IEventBinner;
+import EventTools.Histogram.IProjectionBinner3D;
+import EventTools.Histogram.ProjectionBinner3D;
+import EventTools.Histogram.UniformEventBinner;
+import gov.anl.ipns.MathTools.Geometry.Vector3D;
+
+/**
+ * This class records the x, y and z coordinates of a list of events in 
+ * three separate arrays of floats, rather than one array of interleaved
+ * coordinates.  Loops that work on one coordinate, or on the coordinates
+ * of a whole block of events, such as the bulk index() methods of 
+ * IProjectionBinner3D, then step through each array with unit stride,
+ * which the JIT compiler can optimize much better than the interleaved
+ * form.  The interleaved array required by the IEventList3D interface 
+ * is only built if eventVals() is called.
+ */
+public class SoAEventList3D implements IEventList3D
+{
+  private float[] weights;
+  private float[] x_vals;
+  private float[] y_vals;
+  private float[] z_vals;
+  private int     num_events;
+
+  private float[] xyz_vals = null;     // only built if requested
+
+  private IEventBinner x_extent = null;
+  private IEventBinner y_extent = null;
+  private IEventBinner z_extent = null;
+
+
+  /**
+   * Construct an event list using the first num_events entries of the 
+   * specified arrays of weights and x, y and z coordinates.
+   *
+   * NOTE: This constructor just records references to the arrays passed
+   *       in as parameters.  Calling code MUST copy the arrays if the
+   *       arrays will be reused in the calling code.
+   *
+   * @param weights     Array of weights for the events. May be null.
+   * @param x_vals      Array of x-coordinates for the events.
+   * @param y_vals      Array of y-coordinates for the events.
+   * @param z_vals      Array of z-coordinates for the events.
+   * @param num_events  The number of events stored at the start of the
+   *                    arrays.
+   */
+  public SoAEventList3D( float[] weights,
+                         float[] x_vals,
+                         float[] y_vals,
+                         float[] z_vals,
+                         int     num_events )
+  {
+    if ( x_vals == null || y_vals == null || z_vals == null )
+      throw new IllegalArgumentException( "coordinate array null" );
+
+    if ( num_events <= 0         || 
+         num_events > x_vals.length || 
+         num_events > y_vals.length || 
+         num_events > z_vals.length )
+      throw new IllegalArgumentException( "invalid number of events " +
+                                           num_events );
+
+    if ( weights != null && weights.length < num_events )
+      throw new IllegalArgumentException( "weight array too short " +
+                                           weights.length );
+    this.weights    = weights;
+    this.x_vals     = x_vals;
+    this.y_vals     = y_vals;
+    this.z_vals     = z_vals;
+    this.num_events = num_events;
+  }
+
+
+  /**
+   * Construct an event list with a copy of the events in the specified 
+   * event list, with the coordinates split into separate arrays.
+   *
+   * @param events  The list of events to copy.
+   */
+  public SoAEventList3D( IEventList3D events )
+  {
+    if ( events == null || events.numEntries() <= 0 )
+      throw new IllegalArgumentException( "empty event list" );
+
+    num_events = events.numEntries();
+    x_vals     = new float[ num_events ];
+    y_vals     = new float[ num_events ];
+    z_vals     = new float[ num_events ];
+
+    float[] xyz = events.eventVals();
+    int index = 0;
+    for ( int i = 0; i < num_events; i++ )
+    {
+      x_vals[i] = xyz[ index++ ];
+      y_vals[i] = xyz[ index++ ];
+      z_vals[i] = xyz[ index++ ];
+    }
+
+    float[] old_weights = events.eventWeights();
+    if ( old_weights != null )
+    {
+      weights = new float[ num_events ];
+      System.arraycopy( old_weights, 0, weights, 0, num_events );
+    }
+  }
+
+
+  @Override
+  public int numEntries()
+  {
+    return num_events;
+  }
+
+
+  @Override
+  public float eventWeight( int i )
+  {
+    if ( weights != null )
+      return weights[i];
+    return 0;
+  }
+
+
+  @Override
+  public float[] eventWeights()
+  {
+    return weights;
+  }
+
+
+  @Override
+  public void setEventWeights( float[] weights )
+  {
+    this.weights = weights;
+  }
+
+
+  @Override
+  public void eventVals( int i, double[] values )
+  {
+    values[0] = x_vals[i];
+    values[1] = y_vals[i];
+    values[2] = z_vals[i];
+  }
+
+
+  /**
+   * Get the interleaved xyz coordinates of the events.  The array is 
+   * built the first time this is called, so code that can work with
+   * the separate arrays should use xVals(), yVals() and zVals() instead.
+   */
+  @Override
+  public synchronized float[] eventVals()
+  {
+    if ( xyz_vals == null )
+    {
+      float[] xyz = new float[ 3 * num_events ];
+      int index = 0;
+      for ( int i = 0; i < num_events; i++ )
+      {
+        xyz[ index++ ] = x_vals[i];
+        xyz[ index++ ] = y_vals[i];
+        xyz[ index++ ] = z_vals[i];
+      }
+      xyz_vals = xyz;
+    }
+    return xyz_vals;
+  }
+
+
+  /**
+   * Get a reference to the array of x-coordinates of the events.  Only
+   * the first numEntries() values are valid.
+   */
+  public float[] xVals()
+  {
+    return x_vals;
+  }
+
+
+  /**
+   * Get a reference to the array of y-coordinates of the events.  Only
+   * the first numEntries() values are valid.
+   */
+  public float[] yVals()
+  {
+    return y_vals;
+  }
+
+
+  /**
+   * Get a reference to the array of z-coordinates of the events.  Only
+   * the first numEntries() values are valid.
+   */
+  public float[] zVals()
+  {
+    return z_vals;
+  }
+
+
+  @Override
+  public double eventX( int i )
+  {
+    return x_vals[i];
+  }
+
+
+  @Override
+  public double eventY( int i )
+  {
+    return y_vals[i];
+  }
+
+
+  @Override
+  public double eventZ( int i )
+  {
+    return z_vals[i];
+  }
+
+
+  @Override
+  public IEventBinner xExtent()
+  {
+    if ( x_extent == null )
+      x_extent = min_max( x_vals );
+
+    return x_extent;
+  }
+
+
+  @Override
+  public IEventBinner yExtent()
+  {
+    if ( y_extent == null )
+      y_extent = min_max( y_vals );
+
+    return y_extent;
+  }
+
+
+  @Override
+  public IEventBinner zExtent()
+  {
+    if ( z_extent == null )
+      z_extent = min_max( z_vals );
+
+    return z_extent;
+  }
+
+
+  /**
+   * Find the bin indices of a range of events in this list, for each of
+   * three binners, in one pass.  This is the bulk form of calling 
+   * index(x,y,z) on each binner for each event, except that -1 is 
+   * recorded for events that are not in a bin.
+   *
+   * @param first      The index of the first event to process.
+   * @param num        The number of events to process.
+   * @param x_binner   The binner giving the x_index of each event.
+   * @param y_binner   The binner giving the y_index of each event.
+   * @param z_binner   The binner giving the z_index of each event.
+   * @param x_index    Array to hold the x indices, at the event positions.
+   * @param y_index    Array to hold the y indices, at the event positions.
+   * @param z_index    Array to hold the z indices, at the event positions.
+   */
+  public void binIndices( int first, int num,
+                          IProjectionBinner3D x_binner,
+                          IProjectionBinner3D y_binner,
+                          IProjectionBinner3D z_binner,
+                          int[] x_index, int[] y_index, int[] z_index )
+  {
+    x_binner.index( x_vals, y_vals, z_vals, first, num, x_index );
+    y_binner.index( x_vals, y_vals, z_vals, first, num, y_index );
+    z_binner.index( x_vals, y_vals, z_vals, first, num, z_index );
+  }
+
+
+  /**
+   *  Return a string giving the number of entries, and the
+   *  x,y,z extents of the events.
+   */
+  public String toString()
+  {
+    return String.format( "Num: %6d ", numEntries() ) +
+           "XRange: " + xExtent() +
+           "YRange: " + yExtent() +
+           "ZRange: " + zExtent();
+  }
+
+
+  /**
+   * Construct an event binner that spans the extent of the values in
+   * the specified array of coordinates.
+   */
+  private IEventBinner min_max( float[] vals )
+  {
+    float min = vals[0];
+    float max = vals[0];
+    for ( int i = 1; i < num_events; i++ )
+    {
+      float val = vals[i];
+      if ( val < min )
+        min = val;
+      if ( val > max )
+        max = val;
+    }
+                                     // move max slightly above the largest
+    float old_max = max;             // value, for a half-open interval
+    float eps = 1e-30f;
+    while ( max == old_max )
+    {
+      max = old_max + eps;
+      eps *= 10;
+    }
+
+    return new UniformEventBinner( min, max, 1 );
+  }
+
+
+  /**
+   *  main program that compares the time to find the bin indices of a 
+   *  list of events, one event at a time, with the time taken by the
+   *  bulk index() methods on the interleaved and separate arrays, and
+   *  checks that all three give the same indices.
+   */
+  public static void main( String[] args )
+  {
+    int num_events = 4000000;
+    if ( args.length > 0 )
+      num_events = Integer.parseInt( args[0] );
+
+    Random random = new Random( 1 );
+    float[] xyz = new float[ 3 * num_events ];
+    for ( int i = 0; i < xyz.length; i++ )
+      xyz[i] = (float)( 20 * random.nextDouble() - 10 );
+
+    FloatArrayEventList3D aos = new FloatArrayEventList3D( null, xyz );
+    SoAEventList3D        soa = new SoAEventList3D( aos );
+
+    IProjectionBinner3D binner = 
+           new ProjectionBinner3D( new UniformEventBinner( -8, 8, 512 ),
+                                   new Vector3D( 1, 2, 3 ) );
+    int[] single = new int[ num_events ];
+    int[] bulk   = new int[ num_events ];
+    int[] split  = new int[ num_events ];
+
+    for ( int trial = 0; trial < 5; trial++ )
+    {
+      long start = System.nanoTime();
+      for ( int i = 0; i < num_events; i++ )
+      {
+        int index = binner.index( xyz[3*i], xyz[3*i+1], xyz[3*i+2] );
+        if ( index >= binner.numBins() )
+          index = -1;
+        single[i] = index;
+      }
+      long end = System.nanoTime();
+      double single_time = (end - start)/1.0e6;
+
+      start = System.nanoTime();
+      binner.index( xyz, 0, num_events, bulk );
+      end = System.nanoTime();
+      double bulk_time = (end - start)/1.0e6;
+
+      start = System.nanoTime();
+      binner.index( soa.xVals(), soa.yVals(), soa.zVals(), 
+                    0, num_events, split );
+      end = System.nanoTime();
+      double split_time = (end - start)/1.0e6;
+
+      System.out.printf( "Per event %6.1f ms, bulk interleaved %6.1f ms, " +
+                         "bulk separate %6.1f ms\n",
+                         single_time, bulk_time, split_time );
+    }
+
+    int n_bad = 0;
+    for ( int i = 0; i < num_events; i++ )
+      if ( single[i] != bulk[i] || single[i] != split[i] )
+        n_bad++;
+    System.out.println( "Number of mismatched indices = " + n_bad );
+  }
+
+}
@@ -0,0 +1,1020 @@
+/* 
+ * File: AbstractHistogram3D.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package EventTools.Histogram;
+
+import java.util.*;
+
+import EventTools.EventList.FloatArrayEventList3D;
+import EventTools.EventList.IEventList3D;
+
+import gov.anl.ipns.MathTools.Geometry.Vector3D;
+
+/**
+ *   This class is the base class for 3D histograms that use a storage 
+ * scheme other than the float[][][] array used by Histogram3D.  The bins
+ * are determined by three ProjectionBinner3D objects, exactly as for
+ * Histogram3D, and the queries provided by Histogram3D are implemented
+ * here in terms of the abstract methods getBin() and addToBin() that
+ * access one bin at a given page, row and column.  Derived classes
+ * provide the storage, and override methods such as clear() and 
+ * scanHistogram() where the storage scheme allows a faster implementation.
+ *   Methods that change the histogram are synchronized on this object, 
+ * as are the methods returning the min, max and total value information.
+ * Code that works with an IHistogram3D, such as the SliceHistogramHandler,
+ * can use these histograms in place of a Histogram3D.
+ */
+abstract public class AbstractHistogram3D implements IHistogram3D
+{
+  protected float  max;                      // max bin value (weighted)
+  protected float  min;                      // min bin value (weighted)
+  protected double sum;                      // sum of weighted events added
+  protected long   num_added;                // total number of events added
+                                             // to histogram (NOT weighted)
+
+                                             // These determine the edges of
+                                             // the parallelepipeds that are
+                                             // the histogram bins
+  protected IProjectionBinner3D x_edge_binner,
+                                y_edge_binner,
+                                z_edge_binner;
+                                             // These are normal to the planes 
+                                             // that form the histogram bin
+                                             // boundaries.
+  protected IProjectionBinner3D x_binner,
+                                y_binner,
+                                z_binner;
+
+  protected int num_x;                       // number of columns, rows and 
+  protected int num_y;                       // pages in the histogram
+  protected int num_z;
+
+
+  /**
+   * Construct the binners for a histogram covering a parallelepiped region
+   * of 3-dimensional real space, as for the Histogram3D constructor.  
+   * NOTE: The derived class constructor must allocate its storage, based
+   *       on num_x, num_y and num_z.
+   * 
+   * @param x_edge_binner  IProjectionBinner3D that determines the edges of 
+   *                       the histogram bins (parallelepipeds) in the 
+   *                       "x direction".
+   * @param y_edge_binner  IProjectionBinner3D that determines the edges of 
+   *                       the histogram bins (parallelepipeds) in the 
+   *                       "y direction".
+   * @param z_edge_binner  IProjectionBinner3D that determines the edges of 
+   *                       the histogram bins (parallelepipeds) in the 
+   *                       "z direction".
+   */
+  protected AbstractHistogram3D( IProjectionBinner3D x_edge_binner, 
+                                 IProjectionBinner3D y_edge_binner,
+                                 IProjectionBinner3D z_edge_binner )
+  {
+    this.x_edge_binner = x_edge_binner;
+    this.y_edge_binner = y_edge_binner;
+    this.z_edge_binner = z_edge_binner;
+
+    IProjectionBinner3D[] dual_binners =
+                         ProjectionBinner3D.getDualBinners( x_edge_binner, 
+                                                            y_edge_binner, 
+                                                            z_edge_binner );
+    x_binner = dual_binners[0];
+    y_binner = dual_binners[1];
+    z_binner = dual_binners[2];
+
+    num_x = x_binner.numBins();
+    num_y = y_binner.numBins();
+    num_z = z_binner.numBins();
+
+    max = Float.NEGATIVE_INFINITY;
+    min = Float.POSITIVE_INFINITY;
+    sum = 0;
+  }
+
+
+  /**
+   * Get the value stored in the specified bin.  The indices must be valid.
+   *
+   * @param page  The page (z index) of the bin.
+   * @param row   The row (y index) of the bin.
+   * @param col   The column (x index) of the bin.
+   *
+   * @return the value in the bin.
+   */
+  abstract public float getBin( int page, int row, int col );
+
+
+  /**
+   * Add the specified count to the specified bin.  The indices must be
+   * valid.  This is only called from synchronized methods.
+   *
+   * @param page   The page (z index) of the bin.
+   * @param row    The row (y index) of the bin.
+   * @param col    The column (x index) of the bin.
+   * @param count  The amount to add to the bin.
+   *
+   * @return the new value in the bin.
+   */
+  abstract protected float addToBin( int page, int row, int col, float count );
+
+
+  /**
+   * Set all bins of the storage to zero.  This is only called from 
+   * synchronized methods.
+   */
+  abstract protected void clearBins();
+
+
+  /**
+   * Make a new, empty histogram of the same type as this histogram, using 
+   * the specified edge binners.  This is used by getSubHistogram().
+   */
+  abstract protected AbstractHistogram3D makeHistogram( 
+                                          IProjectionBinner3D x_edge_binner,
+                                          IProjectionBinner3D y_edge_binner,
+                                          IProjectionBinner3D z_edge_binner );
+
+
+  /**
+   * Get a reference to the ProjectionBinner3D that determines the edges
+   * of the histogram bins in the local "X" direction.
+   */
+  public IProjectionBinner3D xEdgeBinner()
+  {
+    return x_edge_binner;
+  }
+
+
+  /**
+   * Get a reference to the ProjectionBinner3D that determines the edges
+   * of the histogram bins in the local "Y" direction.
+   */
+  public IProjectionBinner3D yEdgeBinner()
+  {
+    return y_edge_binner;
+  }
+
+
+  /**
+   * Get a reference to the ProjectionBinner3D that determines the edges
+   * of the histogram bins in the local "Z" direction.
+   */
+  public IProjectionBinner3D zEdgeBinner()
+  {
+    return z_edge_binner;
+  }
+
+
+  /**
+   * Get a reference to the ProjectionBinner3D used to determine in which
+   * bin in the local "X" direction a 3D point should be placed.
+   */
+  public IProjectionBinner3D xBinner()
+  {
+    return x_binner;
+  }
+
+
+  /**
+   * Get a reference to the ProjectionBinner3D used to determine in which
+   * bin in the local "Y" direction a 3D point should be placed.
+   */
+  public IProjectionBinner3D yBinner()
+  {
+    return y_binner;
+  }
+
+
+  /**
+   * Get a reference to the ProjectionBinner3D used to determine in which
+   * bin in the local "Z" direction a 3D point should be placed.
+   */
+  public IProjectionBinner3D zBinner()
+  {
+    return z_binner;
+  }
+
+
+  /**
+   * Get the maximum value of any bin in the histogram.
+   * @return  The max bin value.
+   */
+  synchronized public double maxVal()
+  {
+    return max;
+  }
+
+
+  /**
+   * Get the minimum value of any bin in the histogram.
+   * @return  The min bin value.
+   */
+  synchronized public double minVal()
+  {
+    return min;
+  }
+
+
+  /**
+   * Get the total of all bins in the histogram.
+   * @return  The total value.
+   */
+  synchronized public double total()
+  {
+    return sum;
+  }
+
+
+  /**
+   * Get the number of distinct events that were added to the histogram,
+   * NOT counting the weight of the events.
+   *
+   * @return  The total number of distinct events added to the histogram.
+   */
+  synchronized public long numAdded()
+  {
+    return num_added;
+  }
+
+
+  /**
+   *  Set all bins of the histogram to 0.
+   */
+  synchronized public void clear()
+  {
+    clearBins();
+    num_added = 0;
+    min = 0;
+    max = 0;
+    sum = 0;
+  }
+
+
+  /**
+   * Add all events from the specified IEventList3D to corresponding
+   * bins in this histogram.  
+   * 
+   * @param events       The list of events to be added to this histogram.
+   * @param use_weights  Flag indicating wheter to add the event weight to
+   *                     the histogram bin, or to just add one to the 
+   *                     histogram bin, for each event.
+   *
+   * @return  The total weighted event count that was added.  
+   */
+  synchronized public double addEvents( IEventList3D events, 
+                                        boolean      use_weights )
+  {
+    if ( events == null || events.numEntries() == 0 )    // empty list
+      return 0;                                          // so just return 0
+
+    int     num_events   = events.numEntries();
+    float[] event_xyz    = events.eventVals();
+    float[] event_weight = events.eventWeights();
+    int     event_index  = 0;
+    double  added        = 0;
+
+    float x, y, z;
+    float count;
+    float val;
+    int   x_index, y_index, z_index;
+    for ( int i = 0; i < num_events; i++ )
+    {
+      x = event_xyz[event_index++];   
+      y = event_xyz[event_index++];   
+      z = event_xyz[event_index++];   
+
+      z_index = z_binner.index( x, y, z );
+      if ( z_index >= 0 && z_index < num_z )
+      {
+        x_index = x_binner.index( x, y, z );
+        y_index = y_binner.index( x, y, z );
+
+        if ( x_index >= 0 && x_index < num_x &&
+             y_index >= 0 && y_index < num_y  )
+        {
+          if ( use_weights )
+            count = event_weight[i];
+          else
+            count = 1;
+
+          val = addToBin( z_index, y_index, x_index, count );
+          if ( val > max )
+            max = val;
+
+          if ( val < min )
+            min = val;
+
+          added += count;
+        }
+      }
+    }
+
+    sum       += added;
+    num_added += num_events;
+    return added;
+  }
+
+
+  /**
+   * Add all events from the specified IEventList3D to corresponding
+   * bins in this histogram.  Since addEvents() is synchronized, calls
+   * from several threads are just done one after the other.
+   *
+   * @param events       The list of events to be added to this histogram.
+   * @param use_weights  Flag indicating wheter to add the event weight to
+   *                     the histogram bin, or to just add one to the 
+   *                     histogram bin, for each event.
+   *
+   * @return  The total weighted event count that was added.  
+   */
+  public double addEventsConcurrent( IEventList3D events, 
+                                     boolean      use_weights )
+  {
+    return addEvents( events, use_weights );
+  }
+
+
+  /**
+   * Add all events from the specified block of events to this histogram,
+   * using the event weights.
+   *
+   * @param events  The block of events to be added to this histogram.
+   */
+  public void consume( IEventList3D events )
+  {
+    addEvents( events, true );
+  }
+
+
+  /**
+   * Scan across ALL bins of this histogram and set the min, max and total
+   * value information.  
+   */
+  synchronized public void scanHistogram()
+  {
+    double total = 0;
+    float  val;
+    min = getBin( 0, 0, 0 );
+    max = min;
+    for ( int page = 0; page < num_z; page++ )
+      for ( int row = 0; row < num_y; row++ )
+        for ( int col = 0; col < num_x; col++ )
+        {
+          val = getBin( page, row, col );
+          total += val;
+          if ( val > max )
+            max = val;
+          else if ( val < min )
+            min = val;
+        }
+    sum = total;
+  }
+
+
+  /** Get the value recorded at the histogram bin corresponding to the 
+   *  point (x,y,z).  If the position is outside of the region covered 
+   *  by the histogram, zero is returned.
+   *
+   *  @param  x   The x-coordinate of the point
+   *  @param  y   The y-coordinate of the point
+   *  @param  z   The z-coordinate of the point
+   *
+   *  @return The value recorded in the histogram bin containing (x,y,z), if
+   *          the point (x,y,z) is in the region covered by the histogram,
+   *          or zero, if (x,y,z) is outside the region. 
+   */
+  public float valueAt( float x, float y, float z )
+  {
+    int z_index = z_binner.index(x,y,z);
+    if ( z_index < 0 || z_index >= num_z )
+      return 0;
+
+    int y_index = y_binner.index(x,y,z);
+    if ( y_index < 0 || y_index >= num_y )
+      return 0;
+
+    int x_index = x_binner.index(x,y,z);
+    if ( x_index < 0 || x_index >= num_x )
+      return 0;
+
+    return getBin( z_index, y_index, x_index );
+  }
+
+
+  /**
+   *  Find the total of the histogram bins at the specified x,y,z location
+   *  plus or minus the specified number of bins in each direction.
+   *
+   *  @param  x      The x-coordinate of the center bin 
+   *  @param  y      The y-coordinate of the center bin 
+   *  @param  z      The z-coordinate of the center bin
+   *  @param  n_bins The number of bins on each side of the center bin that
+   *                 should be summed.  
+   *
+   *  @return The sum of the values in the histogram bins, around and 
+   *          including the bin containing (x,y,z).  If the full set of bins
+   *          is NOT included in the histogram, this functon will return 0.
+   */
+  public float totalNear( float x, float y, float z, int n_bins )
+  {
+    int z_index = z_binner.index(x,y,z);
+    if ( z_index < n_bins || z_index >= num_z - n_bins )
+      return 0;
+
+    int y_index = y_binner.index(x,y,z);
+    if ( y_index < n_bins || y_index >= num_y - n_bins )
+      return 0;
+
+    int x_index = x_binner.index(x,y,z);
+    if ( x_index < n_bins || x_index >= num_x - n_bins )
+      return 0;
+
+    float total = 0;
+    for ( int x_i = x_index-n_bins; x_i <= x_index+n_bins; x_i++ )
+      for ( int y_i = y_index-n_bins; y_i <= y_index+n_bins; y_i++ )
+        for ( int z_i = z_index-n_bins; z_i <= z_index+n_bins; z_i++ )
+          total += getBin( z_i, y_i, x_i );
+
+    return total;
+  }
+
+
+  /** Check whether or not the specified point (x,y,z) is in the region covered
+   *  by the histogram.
+   *
+   *  @param  x   The x-coordinate of the point
+   *  @param  y   The y-coordinate of the point
+   *  @param  z   The z-coordinate of the point
+   *
+   *  @return true if the point is in the region covered by the histogram,
+   *          and false otherwise.
+   */
+  public boolean isPointIn( float x, float y, float z )
+  {
+    int z_index = z_binner.index(x,y,z);
+    if ( z_index < 0 || z_index >= num_z )
+      return false;
+
+    int y_index = y_binner.index(x,y,z);
+    if ( y_index < 0 || y_index >= num_y )
+      return false;
+
+    int x_index = x_binner.index(x,y,z);
+    if ( x_index < 0 || x_index >= num_x )
+      return false;
+
+    return true;
+  }
+
+
+  /**
+   * Get the location in 3D space of the center of the bin with the 
+   * specified indexes.
+   *
+   * @param  x_index    The index of the requested bin, in the histograms
+   *                    local x direction.
+   * @param  y_index    The index of the requested bin, in the histograms
+   *                    local y direction.
+   * @param  z_index    The index of the requested bin, in the histograms
+   *                    local z direction.
+   *
+   * @return  A Vector3D object containing the position of the center of the
+   *          requested bin.
+   */
+  public Vector3D binLocation( int x_index, int y_index, int z_index )
+  {
+    float[] bin_center_coords = new float[3];
+
+    ProjectionBinner3D.centerPoint( x_index, y_index, z_index,
+                                    x_edge_binner, y_edge_binner, z_edge_binner,
+                                    bin_center_coords );
+    return new Vector3D( bin_center_coords );
+  }
+
+
+  /**
+   * Get a new histogram of the same type, with values in a neighborhood of
+   * the specified point, as described for Histogram3D.getSubHistogram().
+   *
+   *  @param x            The x coodinate of the center of the region
+   *  @param y            The y coodinate of the center of the region
+   *  @param z            The z coodinate of the center of the region
+   *  @param radius       The radius of a sphere that determines the size
+   *                      of the region that is returned.
+   *  @param max_x_offset The maximum allowed number of bins the index in
+   *                      the x direction can differ from the center index.
+   *                      Pass in -1 if the x-offset should not be resticted.
+   *  @param max_y_offset The maximum allowed number of bins the index in
+   *                      the y direction can differ from the center index.
+   *                      Pass in -1 if the y-offset should not be resticted.
+   *  @param max_z_offset The maximum allowed number of bins the index in
+   *                      the z direction can differ from the center index.
+   *                      Pass in -1 if the y-offset should not be resticted.
+   *
+   *  @return a new histogram containing a portion of this histogram, or
+   *          null if the point is not in this histogram.
+   */
+  public AbstractHistogram3D getSubHistogram( float x, 
+                                              float y, 
+                                              float z, 
+                                              float radius,
+                                              int   max_x_offset,
+                                              int   max_y_offset,
+                                              int   max_z_offset )
+  {
+    int[][] ranges = getIndexRanges( x, y, z, 
+                                     radius, 
+                                     max_x_offset, 
+                                     max_y_offset,
+                                     max_z_offset );
+    if ( ranges == null )
+      return null;
+
+    int min_x_index = ranges[0][0];
+    int max_x_index = ranges[0][1];
+
+    int min_y_index = ranges[1][0];
+    int max_y_index = ranges[1][1];
+
+    int min_z_index = ranges[2][0];
+    int max_z_index = ranges[2][1];
+
+    IProjectionBinner3D new_x_binner = (IProjectionBinner3D)
+                        x_edge_binner.getSubBinner( min_x_index, max_x_index );
+
+    IProjectionBinner3D new_y_binner = (IProjectionBinner3D)
+                        y_edge_binner.getSubBinner( min_y_index, max_y_index );
+
+    IProjectionBinner3D new_z_binner = (IProjectionBinner3D)
+                        z_edge_binner.getSubBinner( min_z_index, max_z_index );
+
+    AbstractHistogram3D new_histogram = makeHistogram( new_x_binner,
+                                                       new_y_binner,
+                                                       new_z_binner );
+    synchronized( new_histogram )
+    {
+      copyRegion( ranges, new_histogram );
+
+      new_histogram.scanHistogram();
+      new_histogram.num_added = (long)new_histogram.sum;
+    }
+    return new_histogram;
+  }
+
+
+  /**
+   * Copy the bins in the specified ranges of pages, rows and columns of
+   * this histogram to the new histogram, made by makeHistogram(), whose 
+   * bins cover exactly those ranges.  This uses getBin() and addToBin() 
+   * for each bin.  Derived classes can override this to copy whole rows
+   * at once.
+   *
+   * @param ranges         The min and max x, y and z index, as returned by
+   *                       getIndexRanges().
+   * @param new_histogram  The empty histogram to copy the values to.
+   */
+  protected void copyRegion( int[][] ranges, AbstractHistogram3D new_histogram )
+  {
+    float value;
+    for ( int z_index = ranges[2][0]; z_index <= ranges[2][1]; z_index++ )
+      for ( int y_index = ranges[1][0]; y_index <= ranges[1][1]; y_index++ )
+        for ( int x_index = ranges[0][0]; x_index <= ranges[0][1]; x_index++ )
+        {
+          value = getBin( z_index, y_index, x_index );
+          if ( value != 0 )
+            new_histogram.addToBin( z_index - ranges[2][0],
+                                    y_index - ranges[1][0],
+                                    x_index - ranges[0][0],
+                                    value );
+        }
+  }
+
+
+  /**
+   * Find the centroid of a spherical region with the specified radius
+   * around the specified point.  
+   *
+   *  @param x      The x coodinate of the center of the sphere 
+   *  @param y      The y coodinate of the center of the sphere
+   *  @param z      The z coodinate of the center of the sphere 
+   *  @param radius Radius of the sphere
+   *
+   *  @return a Vector3D giving the location (real coordinates) of the 
+   *          centroid of the sphere.  If all counts are zero, or if 
+   *          the specified point is not in the histogram, 
+   *          this will return null. 
+   */
+  public Vector3D centroid( float x, float y, float z, float radius )
+  {
+    int[][] ranges = getIndexRanges( x, y, z, radius, -1, -1, -1 );
+    if ( ranges == null )
+      return null;
+
+    float  counts;
+    float  total  = 0;
+    float  x_sum  = 0;
+    float  y_sum  = 0;
+    float  z_sum  = 0;
+    float  distance;
+
+    Vector3D diff_vec   = new Vector3D();
+    Vector3D center_vec = new Vector3D( x, y, z );
+
+    float[] bin_center_coords = new float[3];
+
+    for ( int x_index = ranges[0][0]; x_index <= ranges[0][1]; x_index++ )
+      for ( int y_index = ranges[1][0]; y_index <= ranges[1][1]; y_index++ )
+        for ( int z_index = ranges[2][0]; z_index <= ranges[2][1]; z_index++ )
+        {
+          counts = getBin( z_index, y_index, x_index );
+          if ( counts == 0 )
+            continue;
+
+          ProjectionBinner3D.centerPoint( x_index, y_index, z_index,
+                                          x_edge_binner,
+                                          y_edge_binner,
+                                          z_edge_binner,
+                                          bin_center_coords );
+          diff_vec.set( bin_center_coords );
+          diff_vec.subtract( center_vec );
+          distance = diff_vec.length();
+
+          if ( distance < radius )
+          {
+            total += counts;
+            x_sum += x_index * counts;
+            y_sum += y_index * counts;
+            z_sum += z_index * counts;
+          }
+        }
+
+    if ( total == 0 )
+      return null;
+
+    Vector3D vec = x_binner.Vec( x_sum/total );
+    vec.add( y_binner.Vec( y_sum/total ) );
+    vec.add( z_binner.Vec( z_sum/total ) );
+    return vec;
+  }
+
+
+  /**
+   *  Find the total counts that are enclosed within spheres with the 
+   *  specified radii around the specified point.  
+   *
+   *  @param x      The x coodinate of the center of the spheres
+   *  @param y      The y coodinate of the center of the spheres
+   *  @param z      The z coodinate of the center of the spheres
+   *  @param radii  Array containing the radii of the spheres
+   *
+   *  @return A Vector containing an array of floats giving counts in 
+   *          a sphere and an array of floats giving the number of bins
+   *          contributing to the counts, as for 
+   *          Histogram3D.sphereIntegrals(), or null if the point is not
+   *          in the histogram.
+   */
+  public Vector sphereIntegrals( float x, float y, float z, float[] radii )
+  {
+    float max_radius = 0;
+    for ( int i = 0; i < radii.length; i++ )
+      if ( max_radius < radii[ i ] )
+        max_radius = radii[i];
+
+    int[][] ranges = getIndexRanges( x, y, z, max_radius, -1, -1, -1 );
+    if ( ranges == null )
+      return null;
+
+    float[]  counts = new float[ radii.length ];
+    float[]  n_bins = new float[ radii.length ];
+    float    distance;
+    float    value;
+    Vector3D diff_vec   = new Vector3D();
+    Vector3D center_vec = new Vector3D( x, y, z );
+
+    float[] bin_center_coords = new float[3];
+
+    for ( int x_index = ranges[0][0]; x_index <= ranges[0][1]; x_index++ )
+      for ( int y_index = ranges[1][0]; y_index <= ranges[1][1]; y_index++ )
+        for ( int z_index = ranges[2][0]; z_index <= ranges[2][1]; z_index++ )
+        {
+          ProjectionBinner3D.centerPoint( x_index, y_index, z_index,
+                                          x_edge_binner, 
+                                          y_edge_binner,
+                                          z_edge_binner,
+                                          bin_center_coords );
+          diff_vec.set( bin_center_coords );
+          diff_vec.subtract( center_vec ); 
+          distance = diff_vec.length();
+
+          value = getBin( z_index, y_index, x_index );
+          for ( int i = 0; i < radii.length; i++ )
+            if ( distance < radii[i] )
+            {
+              counts[i] += value;
+              n_bins[i] += 1;
+            }
+        }
+
+     Vector result = new Vector(2);
+     result.add( counts );
+     result.add( n_bins );
+     return result;
+  }
+
+
+  /**
+   * Get a copy of one page of data (ie. values at constant "z") 
+   * from this 3D histogram.  
+   *
+   * @param page The page number in the array for the slice that will 
+   *             be returned.  
+   *
+   * @return A copy of one page of this 3D histogram, indexed as [row][col]
+   */
+  public float[][] pageSlice( int page )
+  {
+    float[][] page_slice = new float[num_y][num_x];
+    for ( int row = 0; row < num_y; row++ )
+      for ( int col = 0; col < num_x; col++ )
+        page_slice[row][col] = getBin( page, row, col );
+
+    return page_slice;
+  }
+
+
+  /**
+   * Get a copy of a 2D slice at constant "y" from this histogram,
+   * indexed as [col][page], as for Histogram3D.rowSlice().
+   *
+   * @param row The row number in the array for the slice that will be
+   *            returned.
+   *
+   * @return A copy of the data from one row of this 3D histogram.
+   */
+  public float[][] rowSlice( int row )
+  {
+    float[][] row_slice = new float[num_x][num_z];
+    for ( int page = 0; page < num_z; page++ )
+      for ( int col = 0; col < num_x; col++ )
+        row_slice[col][page] = getBin( page, row, col );
+
+    return row_slice;
+  }
+
+
+  /**
+   * Get a copy of a 2D slice at constant "x" from this histogram,
+   * indexed as [page][row], as for Histogram3D.colSlice().
+   *
+   * @param col The column number in the array for the slice that will be
+   *            returned. 
+   *
+   * @return A copy of the data from one column of this 3D histogram.
+   */
+  public float[][] colSlice( int col )
+  {
+    float[][] col_slice = new float[num_z][num_y];
+    for ( int page = 0; page < num_z; page++ )
+      for ( int row = 0; row < num_y; row++ )
+        col_slice[page][row] = getBin( page, row, col );
+
+    return col_slice;
+  }
+
+
+  /**
+   * Get a copy of this histogram as an array based Histogram3D, with the
+   * same bins and bin values.  This is needed by code, such as the peak
+   * image display, that works with the float[][][] array of a Histogram3D.
+   *
+   * @return a new Histogram3D with the values from this histogram.
+   */
+  synchronized public Histogram3D toHistogram3D()
+  {
+    Histogram3D hist = new Histogram3D( x_edge_binner, 
+                                        y_edge_binner, 
+                                        z_edge_binner );
+    float[][][] array = hist.getHistogramArray();
+    float[][]   page_slice;
+    for ( int page = 0; page < num_z; page++ )
+    {
+      page_slice = pageSlice( page );
+      for ( int row = 0; row < num_y; row++ )
+        System.arraycopy( page_slice[row], 0, array[page][row], 0, num_x );
+    }
+    hist.scanHistogram();
+    return hist;
+  }
+
+
+  /**
+   * Get event lists from bins of this histogram with values in intervals
+   * determined by the specified IEventBinner.  The result has the same 
+   * form as the result of Histogram3D.getEventLists(), with all bins 
+   * treated as one segment, so the returned Vector has one entry, which
+   * is a Vector with one IEventList3D, or null, for each bin of the 
+   * specified binner.  As for the GetEventLists operator, the bins in 
+   * each interval are first counted and then the bin centers are stored
+   * in arrays of the right size.
+   *
+   * @param binner  The IEventBinner specifying the histogram levels
+   *                of bins that should be returned.
+   *                
+   * @return  a Vector of Vectors containing IEventList3D object.
+   */
+  synchronized public Vector getEventLists( IEventBinner binner )
+  {
+    int   n_bins    = binner.numBins();
+    int[] bin_count = new int[ n_bins ];
+    addLevelBins( binner, bin_count, null );
+
+    float[][] xyz_vals = new float[ n_bins ][];
+    for ( int i = 0; i < n_bins; i++ )
+      if ( bin_count[i] > 0 )
+        xyz_vals[i] = new float[ 3 * bin_count[i] ];
+
+    addLevelBins( binner, new int[ n_bins ], xyz_vals );
+
+    Vector result = new Vector( n_bins );
+    for ( int i = 0; i < n_bins; i++ )
+    {
+      if ( bin_count[i] == 0 )
+        result.add( null );
+      else
+      {
+        float[] weights = new float[ bin_count[i] ];
+        Arrays.fill( weights, i );
+        result.add( new FloatArrayEventList3D( weights, xyz_vals[i] ) );
+      }
+    }
+
+    Vector segments = new Vector(1);
+    segments.add( result );
+    return segments;
+  }
+
+
+  /**
+   * Count the bins with a value in each of the intervals of the binner 
+   * or, if xyz_vals is not null, also store the centers of those bins.
+   * Derived classes can override this to skip regions that are known to 
+   * be empty, calling addLevelBin() for each bin that is checked.
+   *
+   * @param binner     The IEventBinner specifying the histogram levels.
+   * @param bin_count  The number of bins found so far in each interval.
+   * @param xyz_vals   Null, or arrays with room for the x,y,z coordinates
+   *                   of the centers of the bins in each interval.
+   */
+  protected void addLevelBins( IEventBinner binner, 
+                               int[]        bin_count,
+                               float[][]    xyz_vals )
+  {
+    float[] coords = new float[3];
+    for ( int page = 0; page < num_z; page++ )
+      for ( int row = 0; row < num_y; row++ )
+        for ( int col = 0; col < num_x; col++ )
+          addLevelBin( binner, getBin( page, row, col ), page, row, col,
+                       bin_count, xyz_vals, coords );
+  }
+
+
+  /**
+   * Count the specified bin, in the binner interval containing its value,
+   * and if xyz_vals is not null, store the center of the bin.
+   *
+   * @param binner     The IEventBinner specifying the histogram levels.
+   * @param value      The value in the bin.
+   * @param page       The page of the bin.
+   * @param row        The row of the bin.
+   * @param col        The column of the bin.
+   * @param bin_count  The number of bins found so far in each interval.
+   * @param xyz_vals   Null, or arrays for the bin centers in each interval.
+   * @param coords     Scratch array of length 3.
+   */
+  protected final void addLevelBin( IEventBinner binner,
+                                    float        value,
+                                    int          page,
+                                    int          row,
+                                    int          col,
+                                    int[]        bin_count,
+                                    float[][]    xyz_vals,
+                                    float[]      coords )
+  {
+    int index = binner.index( value );
+    if ( index < 0 || index >= bin_count.length )
+      return;
+
+    if ( xyz_vals != null )
+    {
+      ProjectionBinner3D.centerPoint( col, row, page,
+                                      x_edge_binner, 
+                                      y_edge_binner, 
+                                      z_edge_binner,
+                                      coords );
+      int k = 3 * bin_count[index];
+      xyz_vals[index][k]   = coords[0];
+      xyz_vals[index][k+1] = coords[1];
+      xyz_vals[index][k+2] = coords[2];
+    }
+    bin_count[index]++;
+  }
+
+
+  /**
+   * Get ranges of x, y and z indices that cover a sphere of the specified
+   * radius around the specified point BUT are restricted to lie within
+   * the histogram, and restricted to be no more than the specifed number of
+   * bins from the center bin, in the x, y and z directions.
+   *
+   * @return A 2D array of ints.  The first row has the min and max index
+   *         in the "x" direction, the second row has the min and max index
+   *         in the "y" direction and the third row has the min and max index
+   *         in the "z" direction, or null if the point is not in the 
+   *         histogram.
+   */
+  protected int[][] getIndexRanges( float x, 
+                                    float y, 
+                                    float z, 
+                                    float radius,
+                                    int   max_x_offset,
+                                    int   max_y_offset,
+                                    int   max_z_offset )
+  {
+    if ( !isPointIn( x, y, z ) )
+      return null;
+
+    Vector3D center_vec = new Vector3D( x, y, z );
+
+    int[][] ranges = new int[3][];
+    ranges[0] = getMinMaxIndex( x_binner, center_vec, radius, max_x_offset );
+    ranges[1] = getMinMaxIndex( y_binner, center_vec, radius, max_y_offset );
+    ranges[2] = getMinMaxIndex( z_binner, center_vec, radius, max_z_offset );
+
+    return ranges;
+  }
+
+
+  /**
+   *  Get the range of indexes required to cover a sphere of the specified
+   *  radius in the direction of the specified binner, restricted to be
+   *  no more than "max_offset" bins away from the center bin.  
+   */
+  private int[] getMinMaxIndex( IProjectionBinner3D binner, 
+                                Vector3D            center_vec,
+                                float               radius,
+                                int                 max_offset )
+  {
+    int      n_bins = binner.numBins();
+    Vector3D d_vec  = binner.directionVec();
+    d_vec.multiply( radius );
+
+    Vector3D temp = new Vector3D( center_vec );
+    temp.add( d_vec );
+    int index_1 = binner.index( temp.getX(), temp.getY(), temp.getZ() );
+    index_1 = Math.max( 0, Math.min( n_bins - 1, index_1 ) );
+
+    temp.set( center_vec );
+    temp.subtract( d_vec );
+    int index_2 = binner.index( temp.getX(), temp.getY(), temp.getZ() );
+    index_2 = Math.max( 0, Math.min( n_bins - 1, index_2 ) );
+
+    if ( max_offset > 0 )
+    {
+      int center_index = binner.index( center_vec.getX(), 
+                                       center_vec.getY(), 
+                                       center_vec.getZ() );
+      index_1 = Math.max( center_index - max_offset,
+                          Math.min( center_index + max_offset, index_1 ) );
+      index_2 = Math.max( center_index - max_offset,
+                          Math.min( center_index + max_offset, index_2 ) );
+    }
+
+    int[] range = {Math.min( index_1, index_2 ), Math.max( index_1, index_2 )};
+    return range;
+  }
+
+}
@@ -0,0 +1,319 @@
+/* 
+ * File: FlatHistogram3D.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package EventTools.Histogram;
+
+import java.nio.*;
+
+/**
+ *   This class represents a 3D histogram whose bins are stored contiguously,
+ * page after page, rather than in the many separate row arrays used by
+ * Histogram3D.  The storage can either be off the Java heap, in direct
+ * ByteBuffers viewed as FloatBuffers, or on the heap in flat float arrays.
+ * Using direct buffers allows histograms larger than the heap, and since
+ * the bins are contiguous, clearing and scanning the histogram step
+ * sequentially through memory.  The storage is split into blocks holding
+ * a whole number of pages, each of at most MAX_BLOCK_SIZE floats, so that
+ * the total size is not limited by the maximum buffer size.
+ *   Pages, rows and columns are views of the storage with strides 
+ * num_x*num_y, num_x and 1 respectively.  The SliceHistogramHandler uses
+ * this class when the SlicesHistogramStorage property is FLAT or DIRECT.
+ */
+public class FlatHistogram3D extends AbstractHistogram3D
+{
+  /**
+   *  Maximum number of floats stored in one block, 1GB per block.
+   */
+  public static final int MAX_BLOCK_SIZE = 1 << 28;
+
+  private static final int ZERO_SIZE = 65536;   // size of zero array used
+                                                // when clearing buffers
+
+  private boolean       use_direct;
+  private int           page_size;         // num_x * num_y
+  private int           pages_per_block;
+  private FloatBuffer[] blocks;
+
+
+  /**
+   * Construct a FlatHistogram3D object covering a parallelepiped region 
+   * of 3-dimensional real space, with bins determined by the specified
+   * edge binners, as for Histogram3D.
+   * 
+   * @param x_edge_binner  IProjectionBinner3D that determines the edges of 
+   *                       the histogram bins (parallelepipeds) in the 
+   *                       "x direction".
+   * @param y_edge_binner  IProjectionBinner3D that determines the edges of 
+   *                       the histogram bins (parallelepipeds) in the 
+   *                       "y direction".
+   * @param z_edge_binner  IProjectionBinner3D that determines the edges of 
+   *                       the histogram bins (parallelepipeds) in the 
+   *                       "z direction".
+   * @param use_direct     If true, the bins are stored off the Java heap
+   *                       in direct buffers, if false the bins are stored
+   *                       in flat float arrays.
+   */
+  public FlatHistogram3D( IProjectionBinner3D x_edge_binner, 
+                          IProjectionBinner3D y_edge_binner,
+                          IProjectionBinner3D z_edge_binner,
+                          boolean             use_direct )
+  {
+    super( x_edge_binner, y_edge_binner, z_edge_binner );
+
+    this.use_direct = use_direct;
+
+    if ( (long)num_x * num_y > MAX_BLOCK_SIZE )
+      throw new IllegalArgumentException( "Page size " + num_x + "x" + num_y +
+                                          " exceeds " + MAX_BLOCK_SIZE );
+    page_size       = num_x * num_y;
+    pages_per_block = Math.min( num_z, MAX_BLOCK_SIZE / page_size );
+
+    int n_blocks = (num_z + pages_per_block - 1) / pages_per_block;
+    blocks = new FloatBuffer[ n_blocks ];
+    for ( int i = 0; i < n_blocks; i++ )
+    {
+      int n_pages = Math.min( pages_per_block, num_z - i * pages_per_block );
+      int size    = n_pages * page_size;
+      if ( use_direct )
+        blocks[i] = ByteBuffer.allocateDirect( 4 * size )
+                              .order( ByteOrder.nativeOrder() )
+                              .asFloatBuffer();
+      else
+        blocks[i] = FloatBuffer.wrap( new float[ size ] );
+    }
+  }
+
+
+  /**
+   * Check whether the bins of this histogram are stored off the Java heap.
+   *
+   * @return true if the bins are in direct buffers.
+   */
+  public boolean isDirect()
+  {
+    return use_direct;
+  }
+
+
+  @Override
+  public float getBin( int page, int row, int col )
+  {
+    return blocks[ page / pages_per_block ]
+             .get( (page % pages_per_block) * page_size + row * num_x + col );
+  }
+
+
+  @Override
+  protected float addToBin( int page, int row, int col, float count )
+  {
+    FloatBuffer block = blocks[ page / pages_per_block ];
+    int   index = (page % pages_per_block) * page_size + row * num_x + col;
+    float val   = block.get( index ) + count;
+    block.put( index, val );
+    return val;
+  }
+
+
+  @Override
+  protected void clearBins()
+  {
+    float[] zeros = null;
+    for ( int i = 0; i < blocks.length; i++ )
+    {
+      FloatBuffer block = blocks[i];
+      if ( block.hasArray() )
+        java.util.Arrays.fill( block.array(), 0 );
+      else
+      {
+        if ( zeros == null )
+          zeros = new float[ ZERO_SIZE ];
+
+        FloatBuffer buffer = block.duplicate();
+        buffer.clear();
+        while ( buffer.remaining() > 0 )
+          buffer.put( zeros, 0, Math.min( ZERO_SIZE, buffer.remaining() ) );
+      }
+    }
+  }
+
+
+  @Override
+  protected AbstractHistogram3D makeHistogram( 
+                                          IProjectionBinner3D x_edge_binner,
+                                          IProjectionBinner3D y_edge_binner,
+                                          IProjectionBinner3D z_edge_binner )
+  {
+    return new FlatHistogram3D( x_edge_binner, 
+                                y_edge_binner, 
+                                z_edge_binner, 
+                                use_direct );
+  }
+
+
+  /**
+   * Copy the bins in the specified ranges to the new FlatHistogram3D, one
+   * row at a time.  Each row of the region is a contiguous run of the 
+   * storage, so it is copied with one bulk put from a view of the row.
+   */
+  @Override
+  protected void copyRegion( int[][] ranges, AbstractHistogram3D new_histogram )
+  {
+    FlatHistogram3D dest = (FlatHistogram3D)new_histogram;
+
+    int n_cols = ranges[0][1] - ranges[0][0] + 1;
+    for ( int page = ranges[2][0]; page <= ranges[2][1]; page++ )
+    {
+      FloatBuffer src = blocks[ page / pages_per_block ].duplicate();
+      int src_start   = (page % pages_per_block) * page_size + ranges[0][0];
+
+      int dest_page   = page - ranges[2][0];
+      FloatBuffer dst = dest.blocks[ dest_page / dest.pages_per_block ]
+                                                               .duplicate();
+      int dst_start   = (dest_page % dest.pages_per_block) * dest.page_size;
+
+      for ( int row = ranges[1][0]; row <= ranges[1][1]; row++ )
+      {
+        int start = src_start + row * num_x;
+        src.limit( start + n_cols );
+        src.position( start );
+        dst.position( dst_start + (row - ranges[1][0]) * dest.num_x );
+        dst.put( src );
+      }
+    }
+  }
+
+
+  /**
+   * Scan across ALL bins of this histogram, in storage order, and set the
+   * min, max and total value information.  
+   */
+  @Override
+  synchronized public void scanHistogram()
+  {
+    double total = 0;
+    float  val;
+    min = blocks[0].get( 0 );
+    max = min;
+    for ( int i = 0; i < blocks.length; i++ )
+    {
+      FloatBuffer block = blocks[i];
+      int size = block.capacity();
+      for ( int k = 0; k < size; k++ )
+      {
+        val = block.get( k );
+        total += val;
+        if ( val > max )
+          max = val;
+        else if ( val < min )
+          min = val;
+      }
+    }
+    sum = total;
+  }
+
+
+  /**
+   * Get a read-only view of one page of data (ie. values at constant "z") 
+   * from this histogram.  The bin in row r and column c of the page is at
+   * position r*num_x + c of the view.  No data is copied.
+   *
+   * @param page The page number for the view.  This must be at least 0 
+   *             but less than the number of pages. 
+   *
+   * @return A read-only FloatBuffer view of one page of this histogram.
+   */
+  public FloatBuffer pageBuffer( int page )
+  {
+    FloatBuffer buffer = blocks[ page / pages_per_block ].asReadOnlyBuffer();
+    int start = (page % pages_per_block) * page_size;
+    buffer.limit( start + page_size );
+    buffer.position( start );
+    return buffer.slice();
+  }
+
+
+  /**
+   * Get a copy of one page of data (ie. values at constant "z") from 
+   * this histogram, indexed as [row][col].  Each row is copied from the
+   * contiguous storage with one bulk get.
+   */
+  @Override
+  public float[][] pageSlice( int page )
+  {
+    FloatBuffer buffer = pageBuffer( page );
+    float[][] page_slice = new float[num_y][num_x];
+    for ( int row = 0; row < num_y; row++ )
+      buffer.get( page_slice[row] );
+
+    return page_slice;
+  }
+
+
+  /**
+   * Get a copy of a 2D slice at constant "y" from this histogram, indexed
+   * as [col][page], as for Histogram3D.rowSlice().  Within each page the 
+   * row is contiguous, so the values are read with stride 1 along the
+   * row and stride num_x*num_y between pages.
+   */
+  @Override
+  public float[][] rowSlice( int row )
+  {
+    float[][] row_slice = new float[num_x][num_z];
+    for ( int page = 0; page < num_z; page++ )
+    {
+      FloatBuffer block = blocks[ page / pages_per_block ];
+      int index = (page % pages_per_block) * page_size + row * num_x;
+      for ( int col = 0; col < num_x; col++ )
+        row_slice[col][page] = block.get( index++ );
+    }
+    return row_slice;
+  }
+
+
+  /**
+   * Get a copy of a 2D slice at constant "x" from this histogram, indexed
+   * as [page][row], as for Histogram3D.colSlice().  The values are read 
+   * with stride num_x along a page.
+   */
+  @Override
+  public float[][] colSlice( int col )
+  {
+    float[][] col_slice = new float[num_z][num_y];
+    for ( int page = 0; page < num_z; page++ )
+    {
+      FloatBuffer block = blocks[ page / pages_per_block ];
+      int index = (page % pages_per_block) * page_size + col;
+      for ( int row = 0; row < num_y; row++ )
+      {
+        col_slice[page][row] = block.get( index );
+        index += num_x;
+      }
+    }
+    return col_slice;
+  }
+
+}
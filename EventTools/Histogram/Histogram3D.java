@@ -35,12 +35,14 @@
 package EventTools.Histogram;
 
 import java.util.*;
+import java.util.concurrent.locks.*;
 
 import EventTools.EventList.IEventList3D;
 import EventTools.Histogram.Operators.BinEvents;
 import EventTools.Histogram.Operators.ClearPages;
 import EventTools.Histogram.Operators.ScanHistogram3D;
 import EventTools.Histogram.Operators.GetEventLists;
+import EventTools.Histogram.Operators.IndexEvents;
 
 import gov.anl.ipns.MathTools.Geometry.Vector3D;
 
@@ -64,8 +66,10 @@ import gov.anl.ipns.Operator.Threads.*;
  * could be (0,0,1)   
  *   The histogram also records basic information such as the min and max
  * value, and sum of all values in the histogram.
+ *   FlatHistogram3D and SparseHistogram3D implement the same IHistogram3D
+ * operations using contiguous and brick-sparse storage, respectively.
  */
-public class Histogram3D
+public class Histogram3D implements IHistogram3D
 {
   private float  max;                        // max bin value (weighted)
   private float  min;                        // min bin value (weighted)
@@ -100,6 +104,17 @@ public class Histogram3D
   private int[] page_1 = new int[n_segments];
   private int[] page_2 = new int[n_segments];
 
+                                             // Operations on the whole
+                                             // histogram hold the write lock.
+                                             // addEventsConcurrent() holds
+                                             // the read lock, and locks the
+                                             // stripes of pages it changes.
+  private final ReentrantReadWriteLock hist_lock = 
+                                             new ReentrantReadWriteLock();
+  public  static final int N_LOCK_STRIPES = 64;
+  private final Object[]   stripe_locks   = new Object[ N_LOCK_STRIPES ];
+  private final Object     stats_lock     = new Object();
+
 
   /**
    * Construct a Histogram3D object covering a parallelepiped region 
@@ -129,6 +144,9 @@ public class Histogram3D
     this.y_edge_binner = y_edge_binner;
     this.z_edge_binner = z_edge_binner;
 
+    for ( int i = 0; i < N_LOCK_STRIPES; i++ )
+      stripe_locks[i] = new Object();
+
     init_histogram();
   }
 
@@ -171,9 +189,12 @@ public class Histogram3D
       cur_num_z = num_z;
     }
 
-    max = Float.NEGATIVE_INFINITY;
-    min = Float.POSITIVE_INFINITY;
-    sum = 0;
+    synchronized( stats_lock )
+    {
+      max = Float.NEGATIVE_INFINITY;
+      min = Float.POSITIVE_INFINITY;
+      sum = 0;
+    }
   }
 
 
@@ -276,7 +297,10 @@ public class Histogram3D
    */
   public double maxVal()
   {
-    return max;
+    synchronized( stats_lock )
+    {
+      return max;
+    }
   }
 
   
@@ -286,7 +310,10 @@ public class Histogram3D
    */
   public double minVal()
   {
-    return min;
+    synchronized( stats_lock )
+    {
+      return min;
+    }
   }
 
   
@@ -296,7 +323,10 @@ public class Histogram3D
    */
   public double total()
   {
-    return sum;
+    synchronized( stats_lock )
+    {
+      return sum;
+    }
   }
 
 
@@ -308,7 +338,10 @@ public class Histogram3D
    */
   public long numAdded()
   {
-    return num_added;
+    synchronized( stats_lock )
+    {
+      return num_added;
+    }
   }
 
 
@@ -336,7 +369,8 @@ public class Histogram3D
                                     IProjectionBinner3D y_edge_binner,
                                     IProjectionBinner3D z_edge_binner )
   {
-    synchronized(histogram)
+    hist_lock.writeLock().lock();
+    try
     {
       this.x_edge_binner = x_edge_binner;
       this.y_edge_binner = y_edge_binner;
@@ -344,6 +378,10 @@ public class Histogram3D
 
       init_histogram();
     }
+    finally
+    {
+      hist_lock.writeLock().unlock();
+    }
   }
 
   
@@ -352,7 +390,8 @@ public class Histogram3D
    */
   public void clear()
   {
-    synchronized(histogram)
+    hist_lock.writeLock().lock();
+    try
     {
       SplitPages();
 
@@ -362,11 +401,19 @@ public class Histogram3D
 
       ParallelExecutor pe = new ParallelExecutor( ops, n_threads, max_time );
       pe.runOperators();
-      num_added = 0;
+
+      synchronized( stats_lock )
+      {
+        num_added = 0;
+        min = 0;
+        max = 0;
+        sum = 0;
+      }
+    }
+    finally
+    {
+      hist_lock.writeLock().unlock();
     }
-    min = 0;
-    max = 0;
-    sum = 0;
   }  
 
 
@@ -390,28 +437,190 @@ public class Histogram3D
     if ( events == null || events.numEntries() == 0 )    // empty list
       return 0;                                          // so just return 0
 
-    synchronized(histogram)
+    hist_lock.writeLock().lock();
+    try
     {
       SplitPages();
+                                             // find the bin of each event
+      int   num_events = events.numEntries();      // once, splitting the
+      int[] page_index = new int[ num_events ];    // events between threads
+      int[] row_index  = new int[ num_events ];
+      int[] col_index  = new int[ num_events ];
 
       Vector  ops = new Vector();
-      for ( int i = 0; i < n_segments; i++ )
+      for ( int i = 0; i < n_threads; i++ )
+        ops.add( new IndexEvents( events,
+                                  (int)( (long)num_events * i / n_threads ),
+                                  (int)( (long)num_events * (i+1) / n_threads),
+                                  x_binner, y_binner, z_binner,
+                                  page_index, row_index, col_index ) );
+
+      ParallelExecutor pe = new ParallelExecutor( ops, n_threads, max_time );
+      pe.runOperators();
+                                             // then add the events to the
+      ops = new Vector();                    // pages, splitting the pages
+      for ( int i = 0; i < n_segments; i++ ) // between threads
         ops.add( new BinEvents( histogram, 
                                 use_weights,
                                 min, max, 
                                 page_1[i], page_2[i], 
-                                x_binner, y_binner, z_binner,  
+                                page_index, row_index, col_index,
                                 events ) );
 
-      ParallelExecutor pe = new ParallelExecutor( ops, n_threads, max_time );
+      pe = new ParallelExecutor( ops, n_threads, max_time );
       Vector results = pe.runOperators();
 
-      double old_sum = sum;
-      extract_scan_info( results, old_sum );
+      synchronized( stats_lock )
+      {
+        double old_sum = sum;
+        extract_scan_info( results, old_sum );
+
+        num_added += events.numEntries();
+        return sum - old_sum;
+      }
+    }
+    finally
+    {
+      hist_lock.writeLock().unlock();
+    }
+  }
+
+
+  /**
+   * Add all events from the specified IEventList3D to corresponding
+   * bins in this histogram, allowing several threads to add events to 
+   * this histogram at the same time.  Unlike addEvents(), which holds 
+   * a lock on the whole histogram and splits the work by pages across
+   * several threads, this method does all of the binning in the calling
+   * thread, and only locks the stripe of pages that it is currently 
+   * changing.  The pages are divided among N_LOCK_STRIPES locks, with
+   * page p controlled by lock p % N_LOCK_STRIPES.  This is intended for
+   * use when several producer threads are adding blocks of events, so 
+   * that throughput scales with the number of producers.  The max, min,
+   * total and number of events added are updated together, once for each
+   * call, so they remain consistent.  Events added to the same bin by one
+   * call are added in the same order as by addEvents().
+   * NOTE: Operations on the whole histogram, such as clear(), addEvents()
+   *       and scanHistogram(), wait until concurrent adds are finished.
+   * 
+   * @param events       The list of events to be added to this histogram.
+   * @param use_weights  Flag indicating wheter to add the event weight to
+   *                     the histogram bin, or to just add one to the 
+   *                     histogram bin, for each event.
+   *
+   * @return  The total weighted event count that was added.  
+   */
+  public double addEventsConcurrent( IEventList3D events, boolean use_weights )
+  {
+    if ( events == null || events.numEntries() == 0 )    // empty list
+      return 0;                                          // so just return 0
+
+    hist_lock.readLock().lock();
+    try
+    {
+      int     num_events   = events.numEntries();
+      float[] event_weight = events.eventWeights();
+                                             // first find the bin for each
+                                             // event and count the events in
+                                             // each stripe of pages
+      int[] page_index    = new int[ num_events ];
+      int[] row_index     = new int[ num_events ];
+      int[] col_index     = new int[ num_events ];
+      int[] stripe_start  = new int[ N_LOCK_STRIPES + 1 ];
+
+      new IndexEvents( events, 0, num_events, 
+                       x_binner, y_binner, z_binner,
+                       page_index, row_index, col_index ).getResult();
+
+      for ( int i = 0; i < num_events; i++ )
+        if ( page_index[i] >= 0 )
+          stripe_start[ page_index[i] % N_LOCK_STRIPES + 1 ]++;
+
+                                             // order the events by stripe,
+                                             // keeping the original order of
+                                             // the events in each stripe
+      for ( int s = 0; s < N_LOCK_STRIPES; s++ )
+        stripe_start[s+1] += stripe_start[s];
+
+      int[] next   = new int[ N_LOCK_STRIPES ];
+      int[] sorted = new int[ stripe_start[ N_LOCK_STRIPES ] ];
+      System.arraycopy( stripe_start, 0, next, 0, N_LOCK_STRIPES );
+      for ( int i = 0; i < num_events; i++ )
+        if ( page_index[i] >= 0 )
+          sorted[ next[ page_index[i] % N_LOCK_STRIPES ]++ ] = i;
+
+      float  local_min = Float.POSITIVE_INFINITY;
+      float  local_max = Float.NEGATIVE_INFINITY;
+      double local_sum = 0;
+      float  count;
+      float  val;
+      float[] row;
+                                             // start at a different stripe
+                                             // in each thread, to reduce
+                                             // waiting for the same lock
+      int first_stripe = (int)(Thread.currentThread().getId() % N_LOCK_STRIPES);
+      for ( int k = 0; k < N_LOCK_STRIPES; k++ )
+      {
+        int stripe = (first_stripe + k) % N_LOCK_STRIPES;
+        if ( stripe_start[stripe] == stripe_start[stripe+1] )
+          continue;
+
+        synchronized( stripe_locks[stripe] )
+        {
+          for ( int j = stripe_start[stripe]; j < stripe_start[stripe+1]; j++ )
+          {
+            int i = sorted[j];
+            if ( use_weights )
+              count = event_weight[i];
+            else
+              count = 1;
+
+            row = histogram[ page_index[i] ][ row_index[i] ];
+            val = row[ col_index[i] ] + count;
+            row[ col_index[i] ] = val;
+
+            if ( val > local_max )
+              local_max = val;
+
+            if ( val < local_min )
+              local_min = val;
+
+            local_sum += count;
+          }
+        }
+      }
+
+      synchronized( stats_lock )
+      {
+        if ( local_min < min )
+          min = local_min;
 
-      num_added += events.numEntries();
-      return sum - old_sum;
+        if ( local_max > max )
+          max = local_max;
+
+        sum       += local_sum;
+        num_added += num_events;
+      }
+      return local_sum;
     }
+    finally
+    {
+      hist_lock.readLock().unlock();
+    }
+  }
+
+
+  /**
+   * Add all events from the specified block of events to this histogram,
+   * using the event weights.  This allows a Histogram3D to directly receive
+   * the blocks of events produced by the streaming form of
+   * SNS_Tof_to_Q_map.MapEventsToQ().
+   *
+   * @param events  The block of events to be added to this histogram.
+   */
+  public void consume( IEventList3D events )
+  {
+    addEvents( events, true );
   }
 
 
@@ -1203,7 +1412,8 @@ public class Histogram3D
    */
   public Vector getEventLists( IEventBinner binner )
   {
-    synchronized(histogram)
+    hist_lock.writeLock().lock();
+    try
     {
       SplitPages();
 
@@ -1220,6 +1430,10 @@ public class Histogram3D
       Vector results = pe.runOperators();
       return results;
     }
+    finally
+    {
+      hist_lock.writeLock().unlock();
+    }
   }
 
 
@@ -1324,7 +1538,8 @@ public class Histogram3D
    */
   public void scanHistogram()
   {
-    synchronized(histogram)
+    hist_lock.writeLock().lock();
+    try
     {
       SplitPages();
 
@@ -1335,7 +1550,14 @@ public class Histogram3D
       ParallelExecutor pe = new ParallelExecutor( ops, n_threads, max_time );
       Vector results = pe.runOperators();
 
-      extract_scan_info( results, 0 );
+      synchronized( stats_lock )
+      {
+        extract_scan_info( results, 0 );
+      }
+    }
+    finally
+    {
+      hist_lock.writeLock().unlock();
     }
   }
 
@@ -1353,6 +1575,7 @@ public class Histogram3D
    *                 get the new total sum.  It should be passed in as
    *                 the old_sum when adding extra events to a non-zero
    *                 histogram using BinEvents.
+   *                 NOTE: The caller must hold the stats_lock.
    */
   private void extract_scan_info( Vector results, double old_sum )
   {
@@ -0,0 +1,235 @@
+/*
+ * File: IHistogram3D.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ *
+ *  $Author$
+ *  $Date$
+ *  $Revision$
+ */
+
+package EventTools.Histogram;
+
+import java.util.Vector;
+
+import EventTools.EventList.IEventList3D;
+import EventTools.EventList.IEventList3DConsumer;
+
+import gov.anl.ipns.MathTools.Geometry.Vector3D;
+
+
+/**
+ *  This interface describes the operations on a 3D histogram whose bins
+ *  are determined by three IProjectionBinner3D objects, independent of how
+ *  the bins are stored.  Histogram3D stores the bins in a float[][][]
+ *  array, and classes derived from AbstractHistogram3D provide other
+ *  storage schemes.  Code that only needs these operations can use any
+ *  of them.  See Histogram3D for a full description of each method.
+ */
+public interface IHistogram3D extends IEventList3DConsumer
+{
+
+  /**
+   * Get the binner that determines the edges of the histogram bins in
+   * the local "X" direction.
+   */
+  IProjectionBinner3D xEdgeBinner();
+
+
+  /**
+   * Get the binner that determines the edges of the histogram bins in
+   * the local "Y" direction.
+   */
+  IProjectionBinner3D yEdgeBinner();
+
+
+  /**
+   * Get the binner that determines the edges of the histogram bins in
+   * the local "Z" direction.
+   */
+  IProjectionBinner3D zEdgeBinner();
+
+
+  /**
+   * Get the binner used to place points in bins in the local "X" direction.
+   */
+  IProjectionBinner3D xBinner();
+
+
+  /**
+   * Get the binner used to place points in bins in the local "Y" direction.
+   */
+  IProjectionBinner3D yBinner();
+
+
+  /**
+   * Get the binner used to place points in bins in the local "Z" direction.
+   */
+  IProjectionBinner3D zBinner();
+
+
+  /**
+   * Get the maximum value of any bin in the histogram.
+   */
+  double maxVal();
+
+
+  /**
+   * Get the minimum value of any bin in the histogram.
+   */
+  double minVal();
+
+
+  /**
+   * Get the total of all bins in the histogram.
+   */
+  double total();
+
+
+  /**
+   * Get the number of distinct events that were added to the histogram,
+   * NOT counting the weight of the events.
+   */
+  long numAdded();
+
+
+  /**
+   * Set all bins of the histogram to 0.
+   */
+  void clear();
+
+
+  /**
+   * Add all events from the specified IEventList3D to corresponding
+   * bins in this histogram.
+   *
+   * @param events       The list of events to be added to this histogram.
+   * @param use_weights  Flag indicating wheter to add the event weight to
+   *                     the histogram bin, or to just add one to the
+   *                     histogram bin, for each event.
+   *
+   * @return  The total weighted event count that was added.
+   */
+  double addEvents( IEventList3D events, boolean use_weights );
+
+
+  /**
+   * Add all events from the specified IEventList3D to corresponding
+   * bins in this histogram.  Unlike addEvents(), this may be called
+   * from several threads at the same time.
+   *
+   * @param events       The list of events to be added to this histogram.
+   * @param use_weights  Flag indicating wheter to add the event weight to
+   *                     the histogram bin, or to just add one to the
+   *                     histogram bin, for each event.
+   *
+   * @return  The total weighted event count that was added.
+   */
+  double addEventsConcurrent( IEventList3D events, boolean use_weights );
+
+
+  /**
+   * Scan across ALL bins of this histogram and set the min, max and total
+   * value information.
+   */
+  void scanHistogram();
+
+
+  /**
+   * Get the value recorded at the histogram bin corresponding to the
+   * point (x,y,z), or zero if the point is outside of the histogram.
+   */
+  float valueAt( float x, float y, float z );
+
+
+  /**
+   * Find the total of the histogram bins at the specified x,y,z location
+   * plus or minus the specified number of bins in each direction.
+   */
+  float totalNear( float x, float y, float z, int n_bins );
+
+
+  /**
+   * Check whether or not the specified point (x,y,z) is in the region
+   * covered by the histogram.
+   */
+  boolean isPointIn( float x, float y, float z );
+
+
+  /**
+   * Get the location in 3D space of the center of the bin with the
+   * specified indexes.
+   */
+  Vector3D binLocation( int x_index, int y_index, int z_index );
+
+
+  /**
+   * Get a new histogram, of the same type, with values in a neighborhood
+   * of the specified point.
+   */
+  IHistogram3D getSubHistogram( float x,
+                                float y,
+                                float z,
+                                float radius,
+                                int   max_x_offset,
+                                int   max_y_offset,
+                                int   max_z_offset );
+
+
+  /**
+   * Find the centroid of a spherical region with the specified radius
+   * around the specified point.
+   */
+  Vector3D centroid( float x, float y, float z, float radius );
+
+
+  /**
+   * Find the total counts that are enclosed within spheres with the
+   * specified radii around the specified point.
+   */
+  Vector sphereIntegrals( float x, float y, float z, float[] radii );
+
+
+  /**
+   * Get event lists from bins of this histogram with values in intervals
+   * determined by the specified IEventBinner, as a Vector of Vectors of
+   * IEventList3D objects.
+   */
+  Vector getEventLists( IEventBinner binner );
+
+
+  /**
+   * Get one page of data (ie. values at constant "z"), indexed as
+   * [row][col].  The calling code must NOT modify the returned array.
+   */
+  float[][] pageSlice( int page );
+
+
+  /**
+   * Get a copy of a 2D slice at constant "y", indexed as [col][page].
+   */
+  float[][] rowSlice( int row );
+
+
+  /**
+   * Get a copy of a 2D slice at constant "x", indexed as [page][row].
+   */
+  float[][] colSlice( int col );
+
+}
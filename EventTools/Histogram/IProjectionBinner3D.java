@@ -67,6 +67,39 @@ public interface IProjectionBinner3D extends IEventBinner
    */
   int index( Vector3D vec );  
 
+  /**
+   * Find the indices for a block of events whose coordinates are stored
+   * in separate arrays of x, y and z values.  The index of each event is
+   * the same as returned by index(x,y,z), except that -1 is returned for
+   * ALL events that are not in a bin, including events past the last bin.
+   *
+   * @param x_vals      Array of x-coordinates of events.
+   * @param y_vals      Array of y-coordinates of events.
+   * @param z_vals      Array of z-coordinates of events.
+   * @param first       The position of the first event in the arrays.
+   * @param num_events  The number of events to process.
+   * @param indices     Array that will be filled with the index of each
+   *                    event, at the same position as the event, from
+   *                    first to first + num_events - 1.
+   */
+  void index( float[] x_vals, float[] y_vals, float[] z_vals, 
+              int first, int num_events, int[] indices );
+
+  /**
+   * Find the indices for a block of events whose coordinates are stored
+   * as interleaved x, y, z values, as returned by IEventList3D.eventVals().
+   * The index of each event is the same as returned by index(x,y,z), 
+   * except that -1 is returned for ALL events that are not in a bin.
+   *
+   * @param xyz_vals    Array of interleaved xyz-coordinates of events.
+   * @param first       The index of the first event to process.
+   * @param num_events  The number of events to process.
+   * @param indices     Array that will be filled with the index of each
+   *                    event, at the same position as the event, from
+   *                    first to first + num_events - 1.
+   */
+  void index( float[] xyz_vals, int first, int num_events, int[] indices );
+
   /**
    * Get a Vector3D object giving the "lower" endpoint of the interval
    * along the direction vector, with the specified index.
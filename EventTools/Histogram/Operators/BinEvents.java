@@ -60,6 +60,10 @@ public class BinEvents implements IOperator
   private IProjectionBinner3D y_binner;
   private IProjectionBinner3D z_binner;
 
+  private int[] page_index = null;      // bins found in advance by
+  private int[] row_index  = null;      // IndexEvents, if not null
+  private int[] col_index  = null;
+
 
   /**
    * Construct an operator to bin the specified list of events, into a 
@@ -123,6 +127,55 @@ public class BinEvents implements IOperator
   }
 
 
+  /**
+   * Construct an operator to add the specified list of events to a 
+   * portion of the specified histogram array, using the page, row and 
+   * column of each event that were already found by IndexEvents 
+   * operators.  This avoids calculating the bin of each event in each
+   * of the operators that share the histogram.
+   *  
+   * @param histogram  The 3D array into which the events are binned.
+   * @param use_weight Flag indicating whether to add the event's weight to
+   *                   to a bin, or to just add one for each event.
+   * @param min        The current min count in any bin
+   * @param max        The current max count in any bin
+   * @param first_page The first page of the portion of the 3D histogram 
+   *                   that this operator will use.
+   * @param last_page  The last page of the portion of the 3D histogram 
+   *                   that this operator will use.
+   * @param page_index The page of each event, or -1 if the event is not
+   *                   in the histogram.
+   * @param row_index  The row of each event.
+   * @param col_index  The column of each event.
+   * @param events     The list of events to be added to the histogram.
+   */
+  public BinEvents( float[][][]  histogram, 
+                    boolean      use_weight,
+                    float        min,
+                    float        max,
+                    int          first_page, 
+                    int          last_page,
+                    int[]        page_index,
+                    int[]        row_index,
+                    int[]        col_index,
+                    IEventList3D events    )
+  {
+    this.histogram  = histogram;
+    this.use_weight = use_weight;
+
+    this.max        = max;
+    this.min        = min;
+    this.first_page = first_page;
+    this.last_page  = last_page;
+
+    this.page_index = page_index;
+    this.row_index  = row_index;
+    this.col_index  = col_index;
+
+    this.events = events;
+  }
+
+
   /**
    * Step through the list of events passed in to the constructor and add
    * them to the corresponding bins of the histogram.  The sum of all events
@@ -144,6 +197,9 @@ public class BinEvents implements IOperator
             y_index,
             z_index;
 
+    if ( page_index != null )
+      return addIndexedEvents();
+
     try
     {
       int     num_x_bins = x_binner.numBins();
@@ -206,4 +262,49 @@ public class BinEvents implements IOperator
     }
   }
 
+
+  /**
+   * Add the events to the histogram, using the page, row and column
+   * found in advance for each event.
+   */
+  private Object addIndexedEvents()
+  {
+    float   val;
+    float   count = 1;
+    double  sum   = 0;
+    int     page;
+
+    int     num_events   = events.numEntries();
+    float[] event_weight = events.eventWeights();
+    float[] row;
+
+    for ( int i = 0; i < num_events; i++ )
+    {
+      page = page_index[i];
+      if ( page >= first_page && page <= last_page )
+      {
+        if ( use_weight )
+          count = event_weight[i];
+
+        row = histogram[page][ row_index[i] ];
+        val = row[ col_index[i] ] + count;
+        row[ col_index[i] ] = val;
+
+        if ( val > max )
+          max = val;
+
+        if ( val < min )
+          min = val;
+
+        sum += count;
+      }
+    }
+
+    Vector results = new Vector(3);
+    results.add( new Double( sum ) );
+    results.add( new Double( min ) );
+    results.add( new Double( max ) );
+    return results;
+  }
+
 }
@@ -0,0 +1,138 @@
+/* 
+ * File: IndexEvents.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package EventTools.Histogram.Operators;
+
+import EventTools.EventList.IEventList3D;
+import EventTools.EventList.SoAEventList3D;
+import EventTools.Histogram.IProjectionBinner3D;
+import gov.anl.ipns.Operator.*;
+
+/**
+ * This IOperator finds the page, row and column of a 3D histogram array
+ * for each event in a range of events, using the bulk index() methods of
+ * the binners.  Several objects of this class, covering different ranges
+ * of events, are run in separate threads by the Histogram3D class, so 
+ * that the bin of each event is only calculated once, before the events
+ * are added to the histogram by BinEvents operators.
+ */
+public class IndexEvents implements IOperator
+{
+  /**
+   *  Number of events processed at a time, so that the coordinates are
+   *  still in cache for the second and third binners.
+   */
+  public static final int BLOCK_SIZE = 4096;
+
+  private IEventList3D        events;
+  private IProjectionBinner3D x_binner;
+  private IProjectionBinner3D y_binner;
+  private IProjectionBinner3D z_binner;
+  private int                 first,
+                              last;
+  private int[]               page_index;
+  private int[]               row_index;
+  private int[]               col_index;
+
+
+  /**
+   * Construct an operator to find the bins of the specified range of 
+   * events.  The results are stored in the index arrays at the positions
+   * of the events, with page_index set to -1 for events that are not in
+   * the histogram.
+   *
+   * @param events      The list of events.
+   * @param first       The index of the first event to process.
+   * @param last        One more than the index of the last event to process.
+   * @param x_binner    The binner that determines the column of an event.
+   * @param y_binner    The binner that determines the row of an event.
+   * @param z_binner    The binner that determines the page of an event.
+   * @param page_index  Array to hold the page of each event.
+   * @param row_index   Array to hold the row of each event.
+   * @param col_index   Array to hold the column of each event.
+   */
+  public IndexEvents( IEventList3D        events,
+                      int                 first,
+                      int                 last,
+                      IProjectionBinner3D x_binner,
+                      IProjectionBinner3D y_binner,
+                      IProjectionBinner3D z_binner,
+                      int[]               page_index,
+                      int[]               row_index,
+                      int[]               col_index )
+  {
+    this.events     = events;
+    this.first      = first;
+    this.last       = last;
+    this.x_binner   = x_binner;
+    this.y_binner   = y_binner;
+    this.z_binner   = z_binner;
+    this.page_index = page_index;
+    this.row_index  = row_index;
+    this.col_index  = col_index;
+  }
+
+
+  /**
+   *  Find the page, row and column of each event in the range.
+   *
+   *  @return an Integer giving the number of events that are in the
+   *          histogram.
+   */
+  public Object getResult()
+  {
+    SoAEventList3D soa = null;
+    float[]        xyz = null;
+    if ( events instanceof SoAEventList3D )
+      soa = (SoAEventList3D)events;
+    else
+      xyz = events.eventVals();
+
+    int count = 0;
+    for ( int start = first; start < last; start += BLOCK_SIZE )
+    {
+      int num = Math.min( BLOCK_SIZE, last - start );
+      if ( soa != null )
+        soa.binIndices( start, num, x_binner, y_binner, z_binner,
+                        col_index, row_index, page_index );
+      else
+      {
+        x_binner.index( xyz, start, num, col_index );
+        y_binner.index( xyz, start, num, row_index );
+        z_binner.index( xyz, start, num, page_index );
+      }
+
+      for ( int i = start; i < start + num; i++ )
+        if ( col_index[i] < 0 || row_index[i] < 0 )
+          page_index[i] = -1;
+        else if ( page_index[i] >= 0 )
+          count++;
+    }
+    return new Integer( count );
+  }
+
+}
@@ -222,6 +222,77 @@ public class ProjectionBinner3D implements IProjectionBinner3D
   }
 
 
+  @Override
+  public void index( float[] x_vals, float[] y_vals, float[] z_vals, 
+                     int first, int num_events, int[] indices )
+  {
+    int n_bins = binner1D.numBins();
+    int last   = first + num_events;
+    if ( binner1D instanceof UniformEventBinner )
+    {                                       // inline the uniform binner's
+      UniformEventBinner uniform = (UniformEventBinner)binner1D;
+      double scale = uniform.indexScale();  // calculation, so the JIT gets
+      double shift = uniform.indexShift();  // a simple loop over the arrays
+      double min   = uniform.axisMin();
+      for ( int k = first; k < last; k++ )
+      {
+        float val = x_vals[k] * vec_x + y_vals[k] * vec_y + z_vals[k] * vec_z;
+        int index = (int)( shift + val * scale );
+        if ( val < min || index >= n_bins )
+          index = -1;
+        indices[k] = index;
+      }
+    }
+    else
+      for ( int k = first; k < last; k++ )
+      {
+        float val = x_vals[k] * vec_x + y_vals[k] * vec_y + z_vals[k] * vec_z;
+        int index = binner1D.index( val );
+        if ( index < 0 || index >= n_bins )
+          index = -1;
+        indices[k] = index;
+      }
+  }
+
+
+  @Override
+  public void index( float[] xyz_vals, int first, int num_events, 
+                     int[] indices )
+  {
+    int n_bins = binner1D.numBins();
+    int last   = first + num_events;
+    int k      = 3 * first;
+    if ( binner1D instanceof UniformEventBinner )
+    {
+      UniformEventBinner uniform = (UniformEventBinner)binner1D;
+      double scale = uniform.indexScale();
+      double shift = uniform.indexShift();
+      double min   = uniform.axisMin();
+      for ( int i = first; i < last; i++ )
+      {
+        float val = xyz_vals[k] * vec_x + xyz_vals[k+1] * vec_y + 
+                                          xyz_vals[k+2] * vec_z;
+        int index = (int)( shift + val * scale );
+        if ( val < min || index >= n_bins )
+          index = -1;
+        indices[i] = index;
+        k += 3;
+      }
+    }
+    else
+      for ( int i = first; i < last; i++ )
+      {
+        float val = xyz_vals[k] * vec_x + xyz_vals[k+1] * vec_y + 
+                                          xyz_vals[k+2] * vec_z;
+        int index = binner1D.index( val );
+        if ( index < 0 || index >= n_bins )
+          index = -1;
+        indices[i] = index;
+        k += 3;
+      }
+  }
+
+
   @Override
   public String toString()
   {
@@ -0,0 +1,322 @@
+/* 
+ * File: SparseHistogram3D.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package EventTools.Histogram;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ *   This class represents a 3D histogram that is stored as a set of cubical
+ * "bricks" of bins, with each brick only allocated when an event is first
+ * added to it.  In reciprocal space most bins outside of the region covered
+ * by the detectors are never touched, so this allows much finer binning with
+ * the same amount of memory as a Histogram3D.  Scans of the histogram, such
+ * as scanHistogram() and getEventLists(), skip bricks that were never 
+ * allocated.  The side length of a brick is a power of two, typically 
+ * 8 or 16 bins.
+ *   Bricks are only allocated by the synchronized methods that add events,
+ * but getBin() is not synchronized, so the brick table is kept in an
+ * AtomicReferenceArray.  A brick is fully allocated before it is stored
+ * in the table, so a thread calling getBin() sees either no brick, or the
+ * complete brick.  The SliceHistogramHandler uses this class when the
+ * SlicesHistogramStorage property is SPARSE.
+ */
+public class SparseHistogram3D extends AbstractHistogram3D
+{
+  public static final int DEFAULT_BRICK_SHIFT = 4;    // 16x16x16 bricks
+
+  private int       shift;              // log base 2 of brick side length
+  private int       mask;               // brick side length - 1
+  private int       n_brick_x;          // number of bricks in each direction
+  private int       n_brick_y;
+  private int       n_brick_z;
+                                        // bins in brick b are stored in
+                                        // bricks.get(b)[(z*side+y)*side+x]
+  private AtomicReferenceArray<float[]> bricks;
+  private int       num_allocated;
+
+
+  /**
+   * Construct a SparseHistogram3D object covering a parallelepiped region 
+   * of 3-dimensional real space, with bins determined by the specified
+   * edge binners, as for Histogram3D, using bricks with 16 bins on a side.
+   * 
+   * @param x_edge_binner  IProjectionBinner3D that determines the edges of 
+   *                       the histogram bins in the "x direction".
+   * @param y_edge_binner  IProjectionBinner3D that determines the edges of 
+   *                       the histogram bins in the "y direction".
+   * @param z_edge_binner  IProjectionBinner3D that determines the edges of 
+   *                       the histogram bins in the "z direction".
+   */
+  public SparseHistogram3D( IProjectionBinner3D x_edge_binner, 
+                            IProjectionBinner3D y_edge_binner,
+                            IProjectionBinner3D z_edge_binner )
+  {
+    this( x_edge_binner, y_edge_binner, z_edge_binner, DEFAULT_BRICK_SHIFT );
+  }
+
+
+  /**
+   * Construct a SparseHistogram3D object covering a parallelepiped region 
+   * of 3-dimensional real space, with bins determined by the specified
+   * edge binners, using bricks with 2^brick_shift bins on a side.
+   * 
+   * @param x_edge_binner  IProjectionBinner3D that determines the edges of 
+   *                       the histogram bins in the "x direction".
+   * @param y_edge_binner  IProjectionBinner3D that determines the edges of 
+   *                       the histogram bins in the "y direction".
+   * @param z_edge_binner  IProjectionBinner3D that determines the edges of 
+   *                       the histogram bins in the "z direction".
+   * @param brick_shift    The log base 2 of the number of bins on a side
+   *                       of a brick, 3 for 8x8x8 bricks, 4 for 16x16x16
+   *                       bricks.  This must be between 1 and 6.
+   */
+  public SparseHistogram3D( IProjectionBinner3D x_edge_binner, 
+                            IProjectionBinner3D y_edge_binner,
+                            IProjectionBinner3D z_edge_binner,
+                            int                 brick_shift )
+  {
+    super( x_edge_binner, y_edge_binner, z_edge_binner );
+
+    if ( brick_shift < 1 || brick_shift > 6 )
+      throw new IllegalArgumentException( "Brick shift " + brick_shift +
+                                          " must be between 1 and 6" );
+    shift = brick_shift;
+    mask  = (1 << shift) - 1;
+
+    n_brick_x = (num_x + mask) >> shift;
+    n_brick_y = (num_y + mask) >> shift;
+    n_brick_z = (num_z + mask) >> shift;
+
+    long n_bricks = (long)n_brick_x * n_brick_y * n_brick_z;
+    if ( n_bricks > Integer.MAX_VALUE )
+      throw new IllegalArgumentException( "Too many bricks, " + n_bricks +
+                                          ", use a larger brick size" );
+    bricks = new AtomicReferenceArray<float[]>( (int)n_bricks );
+  }
+
+
+  /**
+   * Get the number of bricks that have been allocated.
+   *
+   * @return the number of bricks currently allocated.
+   */
+  synchronized public int numAllocatedBricks()
+  {
+    return num_allocated;
+  }
+
+
+  /**
+   * Get the total number of bricks covering the histogram, allocated or not.
+   *
+   * @return the number of bricks needed to cover the whole histogram.
+   */
+  public int numBricks()
+  {
+    return bricks.length();
+  }
+
+
+  /**
+   * Get the number of bins on one side of a brick.
+   *
+   * @return the brick side length in bins.
+   */
+  public int brickSize()
+  {
+    return 1 << shift;
+  }
+
+
+  @Override
+  public float getBin( int page, int row, int col )
+  {
+    float[] brick = bricks.get( brickIndex( page, row, col ) );
+    if ( brick == null )
+      return 0;
+
+    return brick[ binIndex( page, row, col ) ];
+  }
+
+
+  @Override
+  protected float addToBin( int page, int row, int col, float count )
+  {
+    int b_index = brickIndex( page, row, col );
+    float[] brick = bricks.get( b_index );
+    if ( brick == null )
+    {
+      brick = new float[ 1 << (3*shift) ];
+      bricks.set( b_index, brick );
+      num_allocated++;
+    }
+    int   index = binIndex( page, row, col );
+    float val   = brick[ index ] + count;
+    brick[ index ] = val;
+    return val;
+  }
+
+
+  @Override
+  protected void clearBins()
+  {
+    for ( int b = 0; b < bricks.length(); b++ )   // just release all of
+      bricks.set( b, null );                      // the bricks
+    num_allocated = 0;
+  }
+
+
+  @Override
+  protected AbstractHistogram3D makeHistogram( 
+                                          IProjectionBinner3D x_edge_binner,
+                                          IProjectionBinner3D y_edge_binner,
+                                          IProjectionBinner3D z_edge_binner )
+  {
+    return new SparseHistogram3D( x_edge_binner, 
+                                  y_edge_binner, 
+                                  z_edge_binner, 
+                                  shift );
+  }
+
+
+  /**
+   * Scan across all allocated bricks of this histogram and set the min,
+   * max and total value information.  Bins in bricks that were never 
+   * allocated are zero.
+   */
+  @Override
+  synchronized public void scanHistogram()
+  {
+    double total = 0;
+    float  val;
+    if ( num_allocated < bricks.length() )      // some bins are still zero
+    {
+      min = 0;
+      max = 0;
+    }
+    else
+    {
+      min = Float.POSITIVE_INFINITY;
+      max = Float.NEGATIVE_INFINITY;
+    }
+
+    for ( int b = 0; b < bricks.length(); b++ )
+    {
+      float[] brick = bricks.get( b );
+      if ( brick == null )
+        continue;
+
+      int[] ranges = brickRanges( b );
+      for ( int page = ranges[0]; page < ranges[1]; page++ )
+        for ( int row = ranges[2]; row < ranges[3]; row++ )
+          for ( int col = ranges[4]; col < ranges[5]; col++ )
+          {
+            val = brick[ binIndex( page, row, col ) ];
+            total += val;
+            if ( val > max )
+              max = val;
+            if ( val < min )
+              min = val;
+          }
+    }
+    sum = total;
+  }
+
+
+  /**
+   * Count, and if xyz_vals is not null store the centers of, the bins in
+   * allocated bricks with values in the intervals of the binner.  Bricks
+   * that were never allocated are skipped, so if the binner includes zero
+   * values, the bins in those bricks are NOT listed.
+   */
+  @Override
+  protected void addLevelBins( IEventBinner binner,
+                               int[]        bin_count,
+                               float[][]    xyz_vals )
+  {
+    float[] coords = new float[3];
+    for ( int b = 0; b < bricks.length(); b++ )
+    {
+      float[] brick = bricks.get( b );
+      if ( brick == null )
+        continue;
+
+      int[] ranges = brickRanges( b );
+      for ( int page = ranges[0]; page < ranges[1]; page++ )
+        for ( int row = ranges[2]; row < ranges[3]; row++ )
+          for ( int col = ranges[4]; col < ranges[5]; col++ )
+            addLevelBin( binner, brick[ binIndex( page, row, col ) ],
+                         page, row, col, bin_count, xyz_vals, coords );
+    }
+  }
+
+
+  /**
+   *  Get the index of the brick containing the specified bin.
+   */
+  private int brickIndex( int page, int row, int col )
+  {
+    return ( (page >> shift) * n_brick_y + (row >> shift) ) * n_brick_x + 
+             (col >> shift);
+  }
+
+
+  /**
+   *  Get the index of the specified bin within its brick.
+   */
+  private int binIndex( int page, int row, int col )
+  {
+    return ( ((page & mask) << shift) + (row & mask) << shift ) + (col & mask);
+  }
+
+
+  /**
+   *  Get the ranges of pages, rows and columns covered by the specified
+   *  brick, restricted to the size of the histogram.
+   *
+   *  @return array with first and one past last page, first and one past
+   *          last row, first and one past last column, in that order.
+   */
+  private int[] brickRanges( int b )
+  {
+    int bx = b % n_brick_x;
+    int by = (b / n_brick_x) % n_brick_y;
+    int bz = b / (n_brick_x * n_brick_y);
+
+    int side = 1 << shift;
+    int[] ranges = new int[6];
+    ranges[0] = bz << shift;
+    ranges[1] = Math.min( ranges[0] + side, num_z );
+    ranges[2] = by << shift;
+    ranges[3] = Math.min( ranges[2] + side, num_y );
+    ranges[4] = bx << shift;
+    ranges[5] = Math.min( ranges[4] + side, num_x );
+    return ranges;
+  }
+
+}
@@ -102,6 +102,24 @@ public class UniformEventBinner extends EventBinner
     return index;
   }
 
+  /**
+   * Get the scale factor used to map a value to a fractional index.
+   */
+  double indexScale()
+  {
+    return to_index_scale;
+  }
+
+
+  /**
+   * Get the shift used to map a value to a fractional index.
+   */
+  double indexShift()
+  {
+    return to_index_shift;
+  }
+
+
   @Override
   public double centerVal( int index )
   {
@@ -107,6 +107,9 @@ public class EV_IntegrateUtils
  *                        Q vector for the peak into crystal coordinates.
  *  @param ev_list        List of events for one detector
  *
+ *  NOTE: HKL_EventTable groups the events for all detectors by h,k,l
+ *  in the same way, without making an object for each event.
+ *
  *  @return a Hashtable containing Vectors of EventInfo objects, with one
  *          Vector for each h,k,l that is present in this detector.
  */
@@ -186,6 +189,131 @@ public class EV_IntegrateUtils
                                            Tran3D            UB_inverse,
                                            Vector<EventInfo> ev_list_for_hkl,
                                            Vector<EventInfo> ev_list_for_det )
+  {
+    float[] info   = EventInfo.ToInfoList( ev_list_for_det );
+    int[]   events = new int[ ev_list_for_det.size() ];
+    for ( int i = 0; i < events.length; i++ )
+      events[i] = i;
+
+    return GetPeakEventList_Q_Aligned( peak, tolerance, UB_inverse, 
+                                       info, events, 0, events.length,
+                                       0, events.length, null );
+  }
+
+
+/**
+ *  Get a list of events in a detector row, column and |Q| aligned block, 
+ *  corresponding to the specified peak, considering the specified tolerance,
+ *  in the same way as the form of this method that takes Vectors of 
+ *  EventInfo objects.  The events for the peak's detector are taken from
+ *  the specified table, and the PeakEventList that is returned is a view
+ *  of the table's packed list of event information, so no event objects
+ *  are made.
+ *
+ *  @param peak        A Peak_new object with information about this
+ *                     peak, including h,k,l, the detector number and the 
+ *                     sample orientation.
+ *  @param tolerance   Tolerance on h,k,l to use when determining the
+ *                     range of row,col,|Q| for events to be associated
+ *                     with this peak.
+ *  @param UB_inverse  The matrix that maps Q/(2PI) to HKL
+ *  @param table       Table of the events for each detector and h,k,l.
+ *
+ *  @return  A PeakEventList object containing the specified peak object and
+ *           the list of events associated with this peak.  If fewer than 5
+ *           events are within the tolerance on h,k,l, this returns null.
+ */
+  public static PeakEventList GetPeakEventList_Q_Aligned(
+                                           Peak_new          peak,
+                                           float             tolerance,
+                                           Tran3D            UB_inverse,
+                                           HKL_EventTable    table )
+  {
+    return GetPeakEventList_Q_Aligned( peak, tolerance, UB_inverse,
+                                       table, null );
+  }
+
+
+/**
+ *  Get a list of events in a detector row, column and |Q| aligned block,
+ *  as described for the previous form of this method, using the specified
+ *  array as scratch space while scanning the detector's events.  A thread
+ *  that gets the event lists for many peaks can pass the same scratch
+ *  array on each call, to avoid allocating a detector sized array for
+ *  each peak.  If the tolerance is no larger than 1/2, only the events 
+ *  that the table lists for the peak's h,k,l are checked against the 
+ *  tolerance, so the table must have been made using the same UB_inverse
+ *  and sample orientation as the peak.
+ *
+ *  @param peak        A Peak_new object with information about this
+ *                     peak, including h,k,l, the detector number and the 
+ *                     sample orientation.
+ *  @param tolerance   Tolerance on h,k,l to use when determining the
+ *                     range of row,col,|Q| for events to be associated
+ *                     with this peak.
+ *  @param UB_inverse  The matrix that maps Q/(2PI) to HKL
+ *  @param table       Table of the events for each detector and h,k,l.
+ *  @param scratch     Array used for the event numbers in the box around
+ *                     the peak.  If this is null, or has fewer entries than
+ *                     the number of events for the peak's detector, a 
+ *                     new array is allocated.  The contents of the scratch
+ *                     array are overwritten.
+ *
+ *  @return  A PeakEventList object containing the specified peak object and
+ *           the list of events associated with this peak.  If fewer than 5
+ *           events are within the tolerance on h,k,l, this returns null.
+ */
+  public static PeakEventList GetPeakEventList_Q_Aligned(
+                                           Peak_new          peak,
+                                           float             tolerance,
+                                           Tran3D            UB_inverse,
+                                           HKL_EventTable    table,
+                                           int[]             scratch )
+  {
+    int det_id    = peak.detnum();
+    int det_first = table.DetStart( det_id );
+    int det_last  = table.DetEnd( det_id );
+    int hkl_first = det_first;
+    int hkl_last  = det_last;
+    if ( tolerance <= 0.5f )          // only events rounding to the peak's
+    {                                 // h,k,l can be within the tolerance
+      int index = table.FindHKL( det_id, Math.round( peak.h() ),
+                                         Math.round( peak.k() ),
+                                         Math.round( peak.l() ) );
+      if ( index < 0 )
+        return null;
+      hkl_first = table.HKLStart( index );
+      hkl_last  = table.HKLEnd( index );
+    }
+    return GetPeakEventList_Q_Aligned( peak, tolerance, UB_inverse,
+                                       table.getInfoList(),
+                                       table.getEventNumbers(),
+                                       det_first, det_last,
+                                       hkl_first, hkl_last,
+                                       scratch );
+  }
+
+
+/**
+ *  Get the list of events in a box around the peak, as described for the
+ *  public form of this method, from the events with numbers 
+ *  events[first..last-1] in the packed list of event information.  Only
+ *  the events at positions hkl_first..hkl_last-1, which must include all
+ *  events within the tolerance on h,k,l, are checked against the 
+ *  tolerance.  The scratch array is used to collect the event numbers in
+ *  the box, if it is not null and is large enough.
+ */
+  private static PeakEventList GetPeakEventList_Q_Aligned(
+                                           Peak_new          peak,
+                                           float             tolerance,
+                                           Tran3D            UB_inverse,
+                                           float[]           info,
+                                           int[]             events,
+                                           int               first,
+                                           int               last,
+                                           int               hkl_first,
+                                           int               hkl_last,
+                                           int[]             scratch )
   {
     Vector3D target_hkl = new Vector3D( Math.round(peak.h()),
                                         Math.round(peak.k()),
@@ -206,25 +334,25 @@ public class EV_IntegrateUtils
     int   max_col   = -10000;
     float min_mag_Q =  10000;
     float max_mag_Q = -10000;
-    Vector3D q_vec;
-    Vector3D hkl = new Vector3D();
+    Vector3D q_vec = new Vector3D();
+    Vector3D hkl   = new Vector3D();
 
     int event_count = 0; 
 
-    for ( int i_count = 0; i_count < ev_list_for_det.size(); i_count++ )
+    for ( int pos = hkl_first; pos < hkl_last; pos++ )
     {
-      EventInfo info = ev_list_for_det.elementAt(i_count);
+      int ev = events[ pos ];
 
-      q_vec = info.VecQ_over_2PI();
+      EventInfo.VecQ_over_2PI( info, ev, q_vec );
       to_hkl.apply_to( q_vec, hkl );
 
       hkl.subtract( target_hkl );
       if ( hkl.length() < tolerance )
       {
         event_count++;
-        int   row   = info.Row();
-        int   col   = info.Col();
-        float mag_Q = info.MagQ_over_2PI();
+        int   row   = EventInfo.Row( info, ev );
+        int   col   = EventInfo.Col( info, ev );
+        float mag_Q = EventInfo.MagQ_over_2PI( info, ev );
         if ( row < min_row )
           min_row = row;
         if ( row > max_row )
@@ -263,22 +391,31 @@ public class EV_IntegrateUtils
     // detector, and only keep those that are within the specified ranges
     // of row, col and mag_Q.
     //
-    Vector<EventInfo> ev_list = new Vector<EventInfo>();
-    for ( int i_count = 0; i_count < ev_list_for_det.size(); i_count++ )
+    int[] ev_list  = scratch;
+    if ( ev_list == null || ev_list.length < last - first )
+      ev_list = new int[ last - first ];
+    int   n_in_box = 0;
+    for ( int pos = first; pos < last; pos++ )
     {
-      EventInfo info = ev_list_for_det.elementAt(i_count);
-      int row     = info.Row();
-      int col     = info.Col();
+      int ev      = events[ pos ];
+      int row     = EventInfo.Row( info, ev );
+      int col     = EventInfo.Col( info, ev );
       if ( row   >= min_row    &&  row   <= max_row  &&
            col   >= min_col    &&  col   <= max_col   )
       {
-         float mag_Q = info.MagQ_over_2PI();
+         float mag_Q = EventInfo.MagQ_over_2PI( info, ev );
          if ( mag_Q >= min_mag_Q  &&  mag_Q <= max_mag_Q   )
-           ev_list.add( info );
+           ev_list[ n_in_box++ ] = ev;
       }
     }
 
-    PeakEventList result = new PeakEventList( peak, ev_list,
+                                          // keep the events in the order
+                                          // of the packed list
+    int[] in_box = new int[ n_in_box ];
+    System.arraycopy( ev_list, 0, in_box, 0, n_in_box );
+    Arrays.sort( in_box );
+
+    PeakEventList result = new PeakEventList( peak, info, in_box,
                                               min_row, max_row,
                                               min_col, max_col,
                                               min_mag_Q, max_mag_Q );
@@ -324,6 +461,131 @@ public class EV_IntegrateUtils
                                            Tran3D            UB_inverse,
                                            Vector<EventInfo> ev_list_for_hkl,
                                            Vector<EventInfo> ev_list_for_det )
+  {
+    float[] info   = EventInfo.ToInfoList( ev_list_for_det );
+    int[]   events = new int[ ev_list_for_det.size() ];
+    for ( int i = 0; i < events.length; i++ )
+      events[i] = i;
+
+    return GetPeakEventList_TOF_Aligned( peak, tolerance, UB_inverse, 
+                                         info, events, 0, events.length,
+                                         0, events.length, null );
+  }
+
+
+/**
+ *  Get a list of events in a detector row, column and TOF aligned block, 
+ *  corresponding to the specified peak, considering the specified tolerance,
+ *  in the same way as the form of this method that takes Vectors of 
+ *  EventInfo objects.  The events for the peak's detector are taken from
+ *  the specified table, and the PeakEventList that is returned is a view
+ *  of the table's packed list of event information, so no event objects
+ *  are made.
+ *
+ *  @param peak        A Peak_new object with information about this
+ *                     peak, including h,k,l, the detector number and the 
+ *                     sample orientation.
+ *  @param tolerance   Tolerance on h,k,l to use when determining the
+ *                     range of row,col,TOF for events to be associated
+ *                     with this peak.
+ *  @param UB_inverse  The matrix that maps Q/(2PI) to HKL
+ *  @param table       Table of the events for each detector and h,k,l.
+ *
+ *  @return  A PeakEventList object containing the specified peak object and
+ *           the list of events associated with this peak.  If fewer than 5
+ *           events are within the tolerance on h,k,l, this returns null.
+ */
+  public static PeakEventList GetPeakEventList_TOF_Aligned(
+                                           Peak_new          peak,
+                                           float             tolerance,
+                                           Tran3D            UB_inverse,
+                                           HKL_EventTable    table )
+  {
+    return GetPeakEventList_TOF_Aligned( peak, tolerance, UB_inverse,
+                                         table, null );
+  }
+
+
+/**
+ *  Get a list of events in a detector row, column and TOF aligned block,
+ *  as described for the previous form of this method, using the specified
+ *  array as scratch space while scanning the detector's events.  A thread
+ *  that gets the event lists for many peaks can pass the same scratch
+ *  array on each call, to avoid allocating a detector sized array for
+ *  each peak.  If the tolerance is no larger than 1/2, only the events 
+ *  that the table lists for the peak's h,k,l are checked against the 
+ *  tolerance, so the table must have been made using the same UB_inverse
+ *  and sample orientation as the peak.
+ *
+ *  @param peak        A Peak_new object with information about this
+ *                     peak, including h,k,l, the detector number and the 
+ *                     sample orientation.
+ *  @param tolerance   Tolerance on h,k,l to use when determining the
+ *                     range of row,col,TOF for events to be associated
+ *                     with this peak.
+ *  @param UB_inverse  The matrix that maps Q/(2PI) to HKL
+ *  @param table       Table of the events for each detector and h,k,l.
+ *  @param scratch     Array used for the event numbers in the box around
+ *                     the peak.  If this is null, or has fewer entries than
+ *                     the number of events for the peak's detector, a 
+ *                     new array is allocated.  The contents of the scratch
+ *                     array are overwritten.
+ *
+ *  @return  A PeakEventList object containing the specified peak object and
+ *           the list of events associated with this peak.  If fewer than 5
+ *           events are within the tolerance on h,k,l, this returns null.
+ */
+  public static PeakEventList GetPeakEventList_TOF_Aligned(
+                                           Peak_new          peak,
+                                           float             tolerance,
+                                           Tran3D            UB_inverse,
+                                           HKL_EventTable    table,
+                                           int[]             scratch )
+  {
+    int det_id    = peak.detnum();
+    int det_first = table.DetStart( det_id );
+    int det_last  = table.DetEnd( det_id );
+    int hkl_first = det_first;
+    int hkl_last  = det_last;
+    if ( tolerance <= 0.5f )          // only events rounding to the peak's
+    {                                 // h,k,l can be within the tolerance
+      int index = table.FindHKL( det_id, Math.round( peak.h() ),
+                                         Math.round( peak.k() ),
+                                         Math.round( peak.l() ) );
+      if ( index < 0 )
+        return null;
+      hkl_first = table.HKLStart( index );
+      hkl_last  = table.HKLEnd( index );
+    }
+    return GetPeakEventList_TOF_Aligned( peak, tolerance, UB_inverse,
+                                         table.getInfoList(),
+                                         table.getEventNumbers(),
+                                         det_first, det_last,
+                                         hkl_first, hkl_last,
+                                         scratch );
+  }
+
+
+/**
+ *  Get the list of events in a box around the peak, as described for the
+ *  public form of this method, from the events with numbers 
+ *  events[first..last-1] in the packed list of event information.  Only
+ *  the events at positions hkl_first..hkl_last-1, which must include all
+ *  events within the tolerance on h,k,l, are checked against the 
+ *  tolerance.  The scratch array is used to collect the event numbers in
+ *  the box, if it is not null and is large enough.
+ */
+  private static PeakEventList GetPeakEventList_TOF_Aligned(
+                                           Peak_new          peak,
+                                           float             tolerance,
+                                           Tran3D            UB_inverse,
+                                           float[]           info,
+                                           int[]             events,
+                                           int               first,
+                                           int               last,
+                                           int               hkl_first,
+                                           int               hkl_last,
+                                           int[]             scratch )
   {
     Vector3D target_hkl = new Vector3D( Math.round(peak.h()),
                                         Math.round(peak.k()),
@@ -346,26 +608,26 @@ public class EV_IntegrateUtils
     float max_mag_Q = -10000;
     float min_tof   =  (float)1.0e20;
     float max_tof   = -1;
-    Vector3D q_vec;
-    Vector3D hkl = new Vector3D();
+    Vector3D q_vec = new Vector3D();
+    Vector3D hkl   = new Vector3D();
 
     int event_count = 0;
 
-    for ( int i_count = 0; i_count < ev_list_for_det.size(); i_count++ )
+    for ( int pos = hkl_first; pos < hkl_last; pos++ )
     {
-      EventInfo info = ev_list_for_det.elementAt(i_count);
+      int ev = events[ pos ];
 
-      q_vec = info.VecQ_over_2PI();
+      EventInfo.VecQ_over_2PI( info, ev, q_vec );
       to_hkl.apply_to( q_vec, hkl );
 
       hkl.subtract( target_hkl );
       if ( hkl.length() < tolerance )
       {
         event_count++;
-        int   row   = info.Row();
-        int   col   = info.Col();
-        float mag_Q = info.MagQ_over_2PI();
-        float tof   = info.Tof();
+        int   row   = EventInfo.Row( info, ev );
+        int   col   = EventInfo.Col( info, ev );
+        float mag_Q = EventInfo.MagQ_over_2PI( info, ev );
+        float tof   = EventInfo.Tof( info, ev );
         if ( row < min_row )
           min_row = row;
         if ( row > max_row )
@@ -413,22 +675,31 @@ public class EV_IntegrateUtils
     // detector, and only keep those that are within the specified ranges
     // of row, col and mag_Q.
     //
-    Vector<EventInfo> ev_list = new Vector<EventInfo>();
-    for ( int i_count = 0; i_count < ev_list_for_det.size(); i_count++ )
+    int[] ev_list  = scratch;
+    if ( ev_list == null || ev_list.length < last - first )
+      ev_list = new int[ last - first ];
+    int   n_in_box = 0;
+    for ( int pos = first; pos < last; pos++ )
     {
-      EventInfo info = ev_list_for_det.elementAt(i_count);
-      int row     = info.Row();
-      int col     = info.Col();
+      int ev      = events[ pos ];
+      int row     = EventInfo.Row( info, ev );
+      int col     = EventInfo.Col( info, ev );
       if ( row   >= min_row    &&  row   <= max_row  &&
            col   >= min_col    &&  col   <= max_col   )
       {
-         float tof = info.Tof();
+         float tof = EventInfo.Tof( info, ev );
          if ( tof >= min_tof  &&  tof <= max_tof )
-           ev_list.add( info );
+           ev_list[ n_in_box++ ] = ev;
       }
     }
 
-    PeakEventList result = new PeakEventList( peak, ev_list,
+                                          // keep the events in the order
+                                          // of the packed list
+    int[] in_box = new int[ n_in_box ];
+    System.arraycopy( ev_list, 0, in_box, 0, n_in_box );
+    Arrays.sort( in_box );
+
+    PeakEventList result = new PeakEventList( peak, info, in_box,
                                               min_row, max_row,
                                               min_col, max_col,
                                               min_mag_Q, max_mag_Q );
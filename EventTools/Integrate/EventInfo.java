@@ -42,6 +42,13 @@ import gov.anl.ipns.MathTools.Geometry.*;
 public class EventInfo 
 {
   public static float Q_scale = (float)( 1.0 / (2.0 * Math.PI ) );
+
+  /**
+   *  Number of floats per event in a packed list of event information,
+   *  as returned by SNS_Tof_to_Q_map.MapEventsTo_Q_ID_Row_Col().
+   */
+  public static final int VALS_PER_EVENT = 8;
+
   float qx, 
         qy, 
         qz;
@@ -79,6 +86,120 @@ public class EventInfo
   }
 
 
+/**
+ * Make a packed list of event information from a list of EventInfo 
+ * objects, with eight successive floats for each event, in the same form
+ * as returned by SNS_Tof_to_Q_map.MapEventsTo_Q_ID_Row_Col().
+ *
+ * @param events  The list of EventInfo objects.
+ *
+ * @return array with Q,id,row,col,tof and lamda values for each event.
+ */
+  public static float[] ToInfoList( java.util.Vector<EventInfo> events )
+  {
+    float[] list  = new float[ VALS_PER_EVENT * events.size() ];
+    int     index = 0;
+    for ( int i = 0; i < events.size(); i++ )
+    {
+      EventInfo event = events.elementAt(i);
+      list[index++] = event.qx;
+      list[index++] = event.qy;
+      list[index++] = event.qz;
+      list[index++] = event.det_id;
+      list[index++] = event.row;
+      list[index++] = event.col;
+      list[index++] = event.tof;
+      list[index++] = event.lamda;
+    }
+    return list;
+  }
+
+
+/**
+ * Get the detector module ID for an event in a packed list of event 
+ * information, in the same way as ID().
+ *
+ * @param list  array containing the event information in groups of 
+ *              eight successive floats
+ * @param ev    the number of the event in the list.
+ */
+  public static int ID( float[] list, int ev )
+  {
+    return Math.round( list[ VALS_PER_EVENT * ev + 3 ] );
+  }
+
+
+/**
+ * Get the row number for an event in a packed list of event information,
+ * in the same way as Row().
+ */
+  public static int Row( float[] list, int ev )
+  {
+    return Math.round( list[ VALS_PER_EVENT * ev + 4 ] );
+  }
+
+
+/**
+ * Get the column number for an event in a packed list of event 
+ * information, in the same way as Col().
+ */
+  public static int Col( float[] list, int ev )
+  {
+    return Math.round( list[ VALS_PER_EVENT * ev + 5 ] );
+  }
+
+
+/**
+ * Get the time-of-flight for an event in a packed list of event 
+ * information.
+ */
+  public static float Tof( float[] list, int ev )
+  {
+    return list[ VALS_PER_EVENT * ev + 6 ];
+  }
+
+
+/**
+ * Get the 3D Q vector, with |Q| = 1/d, for an event in a packed list of
+ * event information, in the same way as VecQ_over_2PI().
+ */
+  public static Vector3D VecQ_over_2PI( float[] list, int ev )
+  {
+    int index = VALS_PER_EVENT * ev;
+    return new Vector3D( list[index]   * Q_scale, 
+                         list[index+1] * Q_scale, 
+                         list[index+2] * Q_scale );
+  }
+
+
+/**
+ * Set the specified vector to the 3D Q vector, with |Q| = 1/d, for an 
+ * event in a packed list of event information, so that one vector can be
+ * reused while scanning many events.
+ */
+  public static void VecQ_over_2PI( float[] list, int ev, Vector3D q_vec )
+  {
+    int index = VALS_PER_EVENT * ev;
+    q_vec.set( list[index]   * Q_scale, 
+               list[index+1] * Q_scale, 
+               list[index+2] * Q_scale );
+  }
+
+
+/**
+ * Get |Q| = 1/d for an event in a packed list of event information, in
+ * the same way as MagQ_over_2PI().
+ */
+  public static float MagQ_over_2PI( float[] list, int ev )
+  {
+    int   index = VALS_PER_EVENT * ev;
+    float qx    = list[index];
+    float qy    = list[index+1];
+    float qz    = list[index+2];
+    return (float)( Math.sqrt( qx*qx + qy*qy + qz*qz ) ) * Q_scale;
+  }
+
+
 /**
  *  Get the 3D Q vector for this event, in lab coordinates, following the
  *  physics convention that |Q| = 2PI/d.
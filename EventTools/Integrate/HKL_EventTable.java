@@ -0,0 +1,428 @@
+/* 
+ * File: HKL_EventTable.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package EventTools.Integrate;
+
+import gov.anl.ipns.MathTools.Geometry.*;
+
+/**
+ *  This class groups the events from a packed list of event information,
+ *  as returned by SNS_Tof_to_Q_map.MapEventsTo_Q_ID_Row_Col(), by detector
+ *  module ID and then by the h,k,l closest to each event, without making
+ *  an object for each event.  The event numbers are stored in one array, 
+ *  sorted by detector ID and then by a packed long key for h,k,l.  Offset
+ *  tables give the range of positions in that array for each detector, 
+ *  and for each h,k,l present in each detector.  Events with h,k,l = 0,0,0
+ *  are included in the range for their detector, but not in any h,k,l 
+ *  range.  The values for an event are read directly from the packed list
+ *  using the event number.  Within each h,k,l range the events are in 
+ *  the same order as in the packed list.
+ */
+public class HKL_EventTable 
+{
+  private static final int  VALS_PER_EVENT = EventInfo.VALS_PER_EVENT;
+  private static final int  HKL_BITS       = 21;
+  private static final int  HKL_OFFSET     = 1 << (HKL_BITS - 1);
+  private static final long HKL_MASK       = (1L << HKL_BITS) - 1;
+
+  /**
+   *  Key used for events whose h,k,l can't be packed into a long.  These
+   *  are sorted to the end of the range for their detector and are not
+   *  in any h,k,l range.
+   */
+  public static final long INVALID_KEY = Long.MAX_VALUE;
+
+  private float[] info;           // Q,id,row,col,tof,lamda for each event
+  private int     max_id;
+
+  private int[]   events;         // event numbers, sorted by id, then hkl
+  private int[]   det_start;      // first position for each detector ID,
+                                  // with an extra entry at the end
+  private long[]  hkl_keys;       // key for each h,k,l, sorted by id, hkl
+  private int[]   hkl_start;      // first and last+1 positions in the event
+  private int[]   hkl_end;        // array, for each h,k,l
+  private int[]   det_hkl_start;  // first h,k,l for each detector ID, with
+                                  // an extra entry at the end
+
+
+/**
+ *  Construct the table of events for each detector and h,k,l.  The h,k,l
+ *  for an event is found by rounding the fractional h,k,l values obtained
+ *  from UB_inverse * gonio_inverse * Q/(2PI), exactly as in 
+ *  EV_IntegrateUtils.SplitEventsByHKL().  Only the packed list of event
+ *  information is referenced, not copied, and it must not be changed 
+ *  while this table is in use.
+ *
+ *  @param max_id         The largest detector module ID to include.  Events
+ *                        with larger or negative IDs are omitted.
+ *  @param ev_info_list   Array of floats containing Q,id,row,col,tof and 
+ *                        lamda values in sequence, for each event.
+ *  @param UB_inverse     The transform that maps the Q vector in crystal
+ *                        coordinates to H,K,L
+ *  @param gonio_inverse  Inverse goniometer rotation, used to rotate the
+ *                        Q vector for the peak into crystal coordinates.
+ */
+  public HKL_EventTable( int     max_id,
+                         float[] ev_info_list,
+                         Tran3D  UB_inverse,
+                         Tran3D  gonio_inverse )
+  {
+    if ( max_id < 0 )
+      throw new IllegalArgumentException( "Invalid max_id " + max_id );
+
+    if ( ev_info_list == null )
+      throw new IllegalArgumentException( "Event info list is null" );
+
+    this.info   = ev_info_list;
+    this.max_id = max_id;
+
+    int num_events = ev_info_list.length / VALS_PER_EVENT;
+                                             // count the events for each ID
+                                             // and set up the ID offsets
+    det_start = new int[ max_id + 2 ];
+    for ( int ev = 0; ev < num_events; ev++ )
+    {
+      int id = EventInfo.ID( info, ev );
+      if ( id >= 0 && id <= max_id )
+        det_start[ id + 1 ]++;
+    }
+    for ( int id = 0; id <= max_id; id++ )
+      det_start[ id + 1 ] += det_start[ id ];
+                                             // place the event numbers in
+                                             // order by ID, keeping the 
+                                             // original order for each ID
+    events = new int[ det_start[ max_id + 1 ] ];
+    int[] next = new int[ max_id + 1 ];
+    System.arraycopy( det_start, 0, next, 0, max_id + 1 );
+    for ( int ev = 0; ev < num_events; ev++ )
+    {
+      int id = EventInfo.ID( info, ev );
+      if ( id >= 0 && id <= max_id )
+        events[ next[id]++ ] = ev;
+    }
+    next = null;
+                                             // sort each detector's events
+                                             // by hkl and record the ranges
+    Tran3D to_hkl = new Tran3D( UB_inverse );
+    to_hkl.multiply_by( gonio_inverse );
+
+    int max_det_size = 0;
+    for ( int id = 0; id <= max_id; id++ )
+      max_det_size = Math.max( max_det_size, det_start[id+1] - det_start[id] );
+
+    long[] keys      = new long[ events.length ];
+    long[] temp_keys = new long[ max_det_size ];
+    int[]  temp_evs  = new int [ max_det_size ];
+
+    Vector3D hkl = new Vector3D();
+    int num_hkls = 0;
+    for ( int id = 0; id <= max_id; id++ )
+    {
+      int first = det_start[ id ];
+      int last  = det_start[ id + 1 ];
+      for ( int pos = first; pos < last; pos++ )
+      {
+        int ev = events[ pos ];
+        to_hkl.apply_to( EventInfo.VecQ_over_2PI( info, ev ), hkl );
+        keys[ pos ] = PackHKL( Math.round( hkl.getX() ),
+                               Math.round( hkl.getY() ),
+                               Math.round( hkl.getZ() ) );
+      }
+      MergeSort( keys, events, first, last, temp_keys, temp_evs );
+
+      for ( int pos = first; pos < last; pos++ )
+        if ( IsBucketKey( keys[pos] ) && 
+             ( pos == first || keys[pos] != keys[pos-1] ) )
+          num_hkls++;
+    }
+    temp_keys = null;
+    temp_evs  = null;
+                                            // make the table of hkl ranges
+    hkl_keys      = new long[ num_hkls ];
+    hkl_start     = new int [ num_hkls ];
+    hkl_end       = new int [ num_hkls ];
+    det_hkl_start = new int [ max_id + 2 ];
+    int n_hkl = 0;
+    for ( int id = 0; id <= max_id; id++ )
+    {
+      det_hkl_start[ id ] = n_hkl;
+      int first = det_start[ id ];
+      int last  = det_start[ id + 1 ];
+      for ( int pos = first; pos < last; pos++ )
+        if ( IsBucketKey( keys[pos] ) )
+        {
+          if ( pos == first || keys[pos] != keys[pos-1] )
+          {
+            hkl_keys [ n_hkl ] = keys[pos];
+            hkl_start[ n_hkl ] = pos;
+            n_hkl++;
+          }
+          hkl_end[ n_hkl - 1 ] = pos + 1;
+        }
+    }
+    det_hkl_start[ max_id + 1 ] = n_hkl;
+  }
+
+
+/**
+ *  Pack the specified h,k,l values into one long, so that the keys are
+ *  ordered by h, then k, then l.
+ *
+ *  @return the packed key, or INVALID_KEY if any of h,k,l is too large
+ *          in magnitude to be packed.
+ */
+  public static long PackHKL( int h, int k, int l )
+  {
+    if ( h < -HKL_OFFSET || h >= HKL_OFFSET ||
+         k < -HKL_OFFSET || k >= HKL_OFFSET ||
+         l < -HKL_OFFSET || l >= HKL_OFFSET )
+      return INVALID_KEY;
+
+    return ( (long)( h + HKL_OFFSET ) << (2 * HKL_BITS) ) |
+           ( (long)( k + HKL_OFFSET ) <<      HKL_BITS  ) |
+             (long)( l + HKL_OFFSET );
+  }
+
+
+/**
+ *  Get the h, k or l value from a key made by PackHKL().
+ *
+ *  @param key    The packed key.
+ *  @param index  0, 1 or 2 to get h, k or l.
+ */
+  public static int UnpackHKL( long key, int index )
+  {
+    int shift = ( 2 - index ) * HKL_BITS;
+    return (int)( ( key >> shift ) & HKL_MASK ) - HKL_OFFSET;
+  }
+
+
+/**
+ *  Get the packed list of event information that this table refers to.
+ */
+  public float[] getInfoList()
+  {
+    return info;
+  }
+
+
+/**
+ *  Get the array of event numbers, sorted by detector ID and h,k,l.  The
+ *  positions in this array are used by the ranges for each detector ID
+ *  and h,k,l.  NOTE: This is a reference to the internal array and must
+ *  not be changed.
+ */
+  public int[] getEventNumbers()
+  {
+    return events;
+  }
+
+
+/**
+ *  Get the first position in the array of event numbers for the specified
+ *  detector ID.
+ */
+  public int DetStart( int id )
+  {
+    if ( id < 0 || id > max_id )
+      return 0;
+    return det_start[ id ];
+  }
+
+
+/**
+ *  Get one more than the last position in the array of event numbers for
+ *  the specified detector ID.
+ */
+  public int DetEnd( int id )
+  {
+    if ( id < 0 || id > max_id )
+      return 0;
+    return det_start[ id + 1 ];
+  }
+
+
+/**
+ *  Get the number of events for the specified detector ID.
+ */
+  public int NumEvents( int id )
+  {
+    return DetEnd( id ) - DetStart( id );
+  }
+
+
+/**
+ *  Find the index of the range of events for the specified h,k,l in the
+ *  specified detector, using a binary search.
+ *
+ *  @return the index of the h,k,l range, to be passed to HKLStart() and 
+ *          HKLEnd(), or -1 if there are no events for that h,k,l in the 
+ *          detector.
+ */
+  public int FindHKL( int id, int h, int k, int l )
+  {
+    if ( id < 0 || id > max_id )
+      return -1;
+
+    long key = PackHKL( h, k, l );
+    if ( !IsBucketKey( key ) )
+      return -1;
+
+    int low  = det_hkl_start[ id ];
+    int high = det_hkl_start[ id + 1 ] - 1;
+    while ( low <= high )
+    {
+      int  mid     = ( low + high ) >>> 1;
+      long mid_key = hkl_keys[ mid ];
+      if ( mid_key < key )
+        low = mid + 1;
+      else if ( mid_key > key )
+        high = mid - 1;
+      else
+        return mid;
+    }
+    return -1;
+  }
+
+
+/**
+ *  Get the first position in the array of event numbers for the h,k,l
+ *  range with the specified index.
+ */
+  public int HKLStart( int hkl_index )
+  {
+    return hkl_start[ hkl_index ];
+  }
+
+
+/**
+ *  Get one more than the last position in the array of event numbers for
+ *  the h,k,l range with the specified index.
+ */
+  public int HKLEnd( int hkl_index )
+  {
+    return hkl_end[ hkl_index ];
+  }
+
+
+/**
+ *  Get the number of events for the specified h,k,l in the specified
+ *  detector.
+ */
+  public int NumEvents( int id, int h, int k, int l )
+  {
+    int index = FindHKL( id, h, k, l );
+    if ( index < 0 )
+      return 0;
+    return hkl_end[ index ] - hkl_start[ index ];
+  }
+
+
+/**
+ *  Check whether a key corresponds to an h,k,l range.  Events with
+ *  h,k,l = 0,0,0 or h,k,l values that can't be packed are not in any range.
+ */
+  private static boolean IsBucketKey( long key )
+  {
+    return key != INVALID_KEY && key != PackHKL( 0, 0, 0 );
+  }
+
+
+/**
+ *  Stable merge sort of positions first..last-1 of the keys array, moving
+ *  the corresponding entries of the values array along with the keys.
+ *  The temporary arrays must have at least last-first entries.
+ */
+  private static void MergeSort( long[] keys,      int[] values, 
+                                 int    first,     int   last,
+                                 long[] temp_keys, int[] temp_vals )
+  {
+    if ( last - first < 2 )
+      return;
+
+    if ( last - first <= 16 )                    // insertion sort for short
+    {                                            // ranges
+      for ( int i = first + 1; i < last; i++ )
+      {
+        long key = keys[i];
+        int  val = values[i];
+        int  j   = i - 1;
+        while ( j >= first && keys[j] > key )
+        {
+          keys  [j+1] = keys[j];
+          values[j+1] = values[j];
+          j--;
+        }
+        keys  [j+1] = key;
+        values[j+1] = val;
+      }
+      return;
+    }
+
+    int mid = ( first + last ) >>> 1;
+    MergeSort( keys, values, first, mid, temp_keys, temp_vals );
+    MergeSort( keys, values, mid,   last, temp_keys, temp_vals );
+
+    if ( keys[mid-1] <= keys[mid] )              // already in order
+      return;
+
+    int n = last - first;
+    System.arraycopy( keys,   first, temp_keys, 0, n );
+    System.arraycopy( values, first, temp_vals, 0, n );
+
+    int i   = 0;
+    int j   = mid - first;
+    int k   = first;
+    while ( i < mid - first && j < n )
+    {
+      if ( temp_keys[j] < temp_keys[i] )
+      {
+        keys  [k] = temp_keys[j];
+        values[k] = temp_vals[j++];
+      }
+      else
+      {
+        keys  [k] = temp_keys[i];
+        values[k] = temp_vals[i++];
+      }
+      k++;
+    }
+    while ( i < mid - first )
+    {
+      keys  [k] = temp_keys[i];
+      values[k] = temp_vals[i++];
+      k++;
+    }
+    while ( j < n )
+    {
+      keys  [k] = temp_keys[j];
+      values[k] = temp_vals[j++];
+      k++;
+    }
+  }
+
+}
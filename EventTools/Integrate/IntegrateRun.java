@@ -45,6 +45,7 @@ import gov.anl.ipns.ViewTools.Panels.PeakArrayPanel.PeakArrayPanels;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import gov.anl.ipns.Util.File.*;
 import EventTools.EventList.*;
 import EventTools.Histogram.*;
@@ -52,6 +53,7 @@ import Operators.TOF_SCD.*;
 import gov.anl.ipns.MathTools.Geometry.*;
 import DataSetTools.operator.Generic.TOF_SCD.*;
 import DataSetTools.instruments.*;
+import DataSetTools.util.TaskUtil;
 
 public class IntegrateRun 
 {
@@ -59,6 +61,44 @@ public class IntegrateRun
 public static final String DET_X_Y_Q     = "DET_X_Y_Q";
 public static final String THRESHOLD_XYT = "THRESHOLD_XYT";
 
+private static final int EVENT_LIST_PHASE = 0;     // indices in the arrays
+private static final int CENTER_PHASE     = 1;     // of per-phase times
+private static final int INTEGRATE_PHASE  = 2;
+private static final int NUM_PHASES       = 3;
+
+private static int n_threads = Runtime.getRuntime().availableProcessors();
+
+
+/**
+ *  Set the number of threads used to integrate peaks.  The peaks on each
+ *  detector are integrated by one task, and the tasks for different 
+ *  detectors run concurrently.  The integrated peaks, their sequence 
+ *  numbers and the order in which they are listed do not depend on the
+ *  number of threads.
+ *
+ *  @param num_threads  The number of threads to use.  This must be at
+ *                      least 1.
+ */
+  public static void setNumThreads( int num_threads )
+  {
+    if ( num_threads < 1 )
+      throw new IllegalArgumentException("Number of threads must be at least 1 "
+                                         + num_threads );
+    n_threads = num_threads;
+  }
+
+
+/**
+ *  Get the number of threads used to integrate peaks.
+ *
+ *  @return the number of threads that will be used.
+ */
+  public static int getNumThreads()
+  {
+    return n_threads;
+  }
+
+
 /**
  *  Integrate the peaks in specified peaks file, using data from the 
  *  specified SNS raw event file.
@@ -125,133 +165,301 @@ public static final String THRESHOLD_XYT = "THRESHOLD_XYT";
                                                     mapping_file,
                                                     null );
 
-    SNS_TofEventList tof_evl = new SNS_TofEventList( ev_file );
+    long start_time = System.nanoTime();
+    SNS_MappedTofEventList tof_evl = new SNS_MappedTofEventList( ev_file );
 
     int num_events = 2000000000;
     float[] info_list = mapper.MapEventsTo_Q_ID_Row_Col(tof_evl, 0, num_events); 
     num_events        = info_list.length/8;
+    long map_time = System.nanoTime() - start_time;
 
-                                        // get separate lists of event objects
-                                        // for each different detector ID
-    Vector<Vector<EventInfo>> lists_by_id = 
-                       EV_IntegrateUtils.SplitEventsByID( max_id+1, info_list );
+                                        // group the events by detector ID
+                                        // and then by the hkl closest to
+                                        // each event
+    start_time = System.nanoTime();
+    HKL_EventTable ev_table = 
+              new HKL_EventTable( max_id, info_list, UB_inverse, gonio_inv );
+    long split_time = System.nanoTime() - start_time;
 
     int n_tested = peaks.size();
+                                        // make tasks for each detector that
+                                        // has peaks, to integrate the peaks
+                                        // on that detector.  Detectors with
+                                        // many peaks are split into several
+                                        // tasks, so one detector doesn't
+                                        // hold up the rest
+    PeakResult[] results  = new PeakResult[ n_tested ];
+    int[]        n_on_det = new int[ max_id + 1 ];
+    for ( int peak_index = 0; peak_index < n_tested; peak_index++ )
+    {
+      Peak_new peak = peaks.elementAt( peak_index );
+      if ( peak.detnum() >= 0 && peak.detnum() <= max_id )
+        n_on_det[ peak.detnum() ]++;
+      else                                // no events, just record error
+        results[ peak_index ] = IntegratePeak( peak, int_method, UB_inverse,
+                                               ev_table, null, 
+                                               new long[ NUM_PHASES ] );
+    }
+
+    int n_parts      = 4 * Math.max( 1, n_threads );
+    int max_per_task = Math.max( 1, ( n_tested + n_parts - 1 ) / n_parts );
+    int num_dets = 0;
+    Vector<Callable<long[]>> tasks = new Vector<Callable<long[]>>();
+    for ( int det_id = 0; det_id <= max_id; det_id++ )
+      if ( n_on_det[ det_id ] > 0 )
+      {
+        num_dets++;
+        int[] det_peaks = new int[ n_on_det[ det_id ] ];
+        int   count     = 0;
+        for ( int peak_index = 0; peak_index < n_tested; peak_index++ )
+          if ( peaks.elementAt( peak_index ).detnum() == det_id )
+            det_peaks[ count++ ] = peak_index;
+
+        for ( int start = 0; start < count; start += max_per_task )
+        {
+          int[] peak_nums = new int[ Math.min( max_per_task, count - start ) ];
+          System.arraycopy( det_peaks, start, peak_nums, 0, peak_nums.length );
+          tasks.add( new IntegrateDetectorTask( peaks, peak_nums, int_method,
+                                                UB_inverse, ev_table, 
+                                                results ) );
+        }
+      }
 
-    Vector<EventInfo> ev_list_for_det = null;
-    Hashtable         table           = null;
-    int last_det_id = -1;
+    start_time = System.nanoTime();
+    Vector<long[]> task_times = TaskUtil.RunTasks( tasks, n_threads );
+    long int_wall_time = System.nanoTime() - start_time;
 
+    long[] phase_times = new long[ NUM_PHASES ];
+    for ( int i = 0; i < task_times.size(); i++ )
+      for ( int phase = 0; phase < NUM_PHASES; phase++ )
+        phase_times[ phase ] += task_times.elementAt(i)[ phase ];
+
+                                        // record the integrated peaks in
+                                        // the order of the original list, 
+                                        // so the sequence numbers and output
+                                        // don't depend on the threads used
     int    peak_count = 0;
     Vector<Peak_new> integrated_peaks = new Vector<Peak_new>();
 
     for ( int peak_index = 0; peak_index < n_tested; peak_index++ )
     {
-      Peak_new peak = peaks.elementAt( peak_index );
-                                   // if first peak in a detector, get a new
-                                   // list for display and split the events
-                                   // for this detector into lists per hkl
-                                   // with events closest to each hkl
-      int det_id = peak.detnum();
-      if ( det_id != last_det_id )
-      {
-        ev_list_for_det = lists_by_id.elementAt( det_id );
-        table = EV_IntegrateUtils.SplitEventsByHKL( UB_inverse, 
-                                                    gonio_inv, 
-                                                    ev_list_for_det );
-        last_det_id = det_id;
-      }
+      PeakResult result = results[ peak_index ];
+      if ( result == null )
+        continue;
 
-      if ( ev_list_for_det == null || ev_list_for_det.size() <= 0 )
+      if ( result.message != null )
       {
-        System.out.println("ERROR: No events found for " + det_id );
+        System.out.println( result.message );
         continue;
       }
 
-      Vector3D target_hkl = new Vector3D( Math.round(peak.h()),
-                                          Math.round(peak.k()),
-                                          Math.round(peak.l()) );
-
-      String key = "" + Math.round( target_hkl.getX() ) + "," +
-                        Math.round( target_hkl.getY() ) + "," +
-                        Math.round( target_hkl.getZ() );
+      Peak_new peak     = peaks.elementAt( peak_index );
+      float[]  IsigI    = result.IsigI;
+      float[]  newIsigI = result.newIsigI;
 
-      Vector<EventInfo> ev_list_for_hkl = ( Vector<EventInfo>)table.get( key );
-      if ( ev_list_for_hkl.size() == 0 )
-        continue;
-
-      float tol = 0.30f;
-      PeakEventList pev_list = null;
+      peak.seqnum( peak_count+1 );
+      peak_count++;
 
       if ( int_method.equalsIgnoreCase(DET_X_Y_Q) )
-        pev_list = EV_IntegrateUtils.GetPeakEventList_Q_Aligned( 
-                                           peak, tol, UB_inverse,
-                                           ev_list_for_hkl, ev_list_for_det );
-
-      else if ( int_method.equalsIgnoreCase(THRESHOLD_XYT) )
-        pev_list = EV_IntegrateUtils.GetPeakEventList_TOF_Aligned(
-                                           peak, tol, UB_inverse,
-                                           ev_list_for_hkl, ev_list_for_det );
-      if ( pev_list == null )
       {
-        System.out.println("ERROR: No events in tolerance for: \n " + peak );
-        continue;
+        peak.inti( IsigI[0] );
+        peak.sigi( IsigI[1] );
+      }
+      else
+      {
+        peak.inti( newIsigI[0] );
+        peak.sigi( newIsigI[1] );
       }
 
-      float rc_radius = 20; 
-      int   border    = 5;
- 
-      peak.seqnum( peak_count+1 );
+      integrated_peaks.add( peak );
+      System.out.printf("%6.0f  %6.0f  %6.0f\n",peak.h(),peak.k(),peak.l());
+//      System.out.printf("SeqNum: %4d  Radius = %6.1f  intI = %8.1f\n", 
+//                        peak_count, sigma, IsigI[0]);
 
-      for ( int repeat = 0; repeat < 2; repeat++ )
-        pev_list.setCenterRowColToCenterOfMass( rc_radius/2 );
+      System.out.printf("  %4d   IntI = %10.2f  sigI = %8.1f\n", 
+                         peak_count, IsigI[0], IsigI[1] );
 
-      float sigma = pev_list.getStandardDeviation( rc_radius );
-      if ( sigma <= 5 )
-        sigma = 5; 
-      else if ( sigma > 20 )
-        sigma = 20;
+      System.out.printf("         IntI = %10.2f  sigI = %8.1f\n", 
+                         newIsigI[0], newIsigI[1] );
+    }
 
-      PeakEventList.PeakType type = pev_list.GetPeakType( rc_radius/2, border );
+                                // now copy the integrated peaks back to 
+    peaks.clear();              // the original list
+    for ( int i = 0; i < integrated_peaks.size(); i++ )
+      peaks.add( integrated_peaks.elementAt(i) );
+
+    System.out.println("Integrated " + peak_count + " of " + n_tested + 
+                       " peaks using " + 
+                       Math.max( 1, Math.min( n_threads, tasks.size() ) ) +
+                       " thread(s) for " + num_dets + " detectors in " +
+                       tasks.size() + " tasks" );
+    System.out.printf("Map events to Q        : %10.1f ms\n", map_time/1.0e6 );
+    System.out.printf("Split by det and hkl   : %10.1f ms\n", split_time/1.0e6);
+    System.out.printf("Get peak event lists   : %10.1f ms (all threads)\n",
+                       phase_times[ EVENT_LIST_PHASE ]/1.0e6 );
+    System.out.printf("Center peaks           : %10.1f ms (all threads)\n",
+                       phase_times[ CENTER_PHASE ]/1.0e6 );
+    System.out.printf("Integrate peaks        : %10.1f ms (all threads)\n",
+                       phase_times[ INTEGRATE_PHASE ]/1.0e6 );
+    System.out.printf("Elapsed for all peaks  : %10.1f ms\n", 
+                       int_wall_time/1.0e6 );
+  }
+
+
+/**
+ *  Find the events for one peak, center the peak and integrate it using
+ *  the specified method.  This only reads the event table and changes
+ *  nothing but the PeakEventList that it makes, so it can be called for
+ *  different peaks concurrently.  The time spent in each phase is added
+ *  to the corresponding entry of the times array.
+ *
+ *  @param peak        The peak to integrate
+ *  @param int_method  DET_X_Y_Q or THRESHOLD_XYT
+ *  @param UB_inverse  The matrix that maps Q/(2PI) to HKL
+ *  @param ev_table    Table of the events for each detector and h,k,l.
+ *  @param scratch     Scratch array with at least as many entries as there
+ *                     are events on the peak's detector.
+ *  @param times       Array of NUM_PHASES times, in nanoseconds, that the
+ *                     time for each phase is added to.
+ *
+ *  @return a PeakResult with the integrated intensities, or with an error
+ *          message, or null if the peak should just be skipped.
+ */
+  private static PeakResult IntegratePeak( Peak_new       peak,
+                                           String         int_method,
+                                           Tran3D         UB_inverse,
+                                           HKL_EventTable ev_table,
+                                           int[]          scratch,
+                                           long[]         times )
+  {
+    PeakResult result = new PeakResult();
+
+    int det_id = peak.detnum();
+    if ( ev_table.NumEvents( det_id ) <= 0 )
+    {
+      result.message = "ERROR: No events found for " + det_id;
+      return result;
+    }
+                                   // skip the peak if no events are closer
+                                   // to its hkl than to any other hkl
+    if ( ev_table.NumEvents( det_id, Math.round( peak.h() ),
+                                     Math.round( peak.k() ),
+                                     Math.round( peak.l() ) ) == 0 )
+      return null;
+
+    long start_time = System.nanoTime();
+    float tol = 0.30f;
+    PeakEventList pev_list = null;
+
+    if ( int_method.equalsIgnoreCase(DET_X_Y_Q) )
+      pev_list = EV_IntegrateUtils.GetPeakEventList_Q_Aligned( 
+                                  peak, tol, UB_inverse, ev_table, scratch );
+
+    else if ( int_method.equalsIgnoreCase(THRESHOLD_XYT) )
+      pev_list = EV_IntegrateUtils.GetPeakEventList_TOF_Aligned(
+                                  peak, tol, UB_inverse, ev_table, scratch );
+    times[ EVENT_LIST_PHASE ] += System.nanoTime() - start_time;
+
+    if ( pev_list == null )
+    {
+      result.message = "ERROR: No events in tolerance for: \n " + peak;
+      return result;
+    }
+
+    start_time = System.nanoTime();
+    float rc_radius = 20; 
+    int   border    = 5;
+ 
+    for ( int repeat = 0; repeat < 2; repeat++ )
+      pev_list.setCenterRowColToCenterOfMass( rc_radius/2 );
+
+    float sigma = pev_list.getStandardDeviation( rc_radius );
+    if ( sigma <= 5 )
+      sigma = 5; 
+    else if ( sigma > 20 )
+      sigma = 20;
+
+    PeakEventList.PeakType type = pev_list.GetPeakType( rc_radius/2, border );
                                  // treat as edge peak if within 15 of border
-                 
-//      if ( type == PeakEventList.PeakType.INTERIOR )
-      { 
-        float[] IsigI = EV_IntegrateUtils.IntegrateSlices( pev_list, 3*sigma );
+    times[ CENTER_PHASE ] += System.nanoTime() - start_time;
 
-//        float[] newIsigI = EV_IntegrateUtils.IntegrateRegion( pev_list,
-//                                                       5, 25, 25, 25, false );
-        float[] newIsigI = EV_IntegrateUtils.EllipseIntegrate( pev_list, 0.5f);
-        peak_count++;
+    start_time = System.nanoTime();
+//    if ( type == PeakEventList.PeakType.INTERIOR )
+    { 
+      result.IsigI = EV_IntegrateUtils.IntegrateSlices( pev_list, 3*sigma );
 
-        if ( int_method.equalsIgnoreCase(DET_X_Y_Q) )
-        {
-          peak.inti( IsigI[0] );
-          peak.sigi( IsigI[1] );
-        }
-        else
-        {
-          peak.inti( newIsigI[0] );
-          peak.sigi( newIsigI[1] );
-        }
+//      result.newIsigI = EV_IntegrateUtils.IntegrateRegion( pev_list,
+//                                                     5, 25, 25, 25, false );
+      result.newIsigI = EV_IntegrateUtils.EllipseIntegrate( pev_list, 0.5f);
+    }
+    times[ INTEGRATE_PHASE ] += System.nanoTime() - start_time;
 
-        integrated_peaks.add( peak );
-        System.out.printf("%6.0f  %6.0f  %6.0f\n",peak.h(),peak.k(),peak.l());
-//        System.out.printf("SeqNum: %4d  Radius = %6.1f  intI = %8.1f\n", 
-//                          peak_count, sigma, IsigI[0]);
+    return result;
+  }
 
-        System.out.printf("  %4d   IntI = %10.2f  sigI = %8.1f\n", 
-                           peak_count, IsigI[0], IsigI[1] );
 
-        System.out.printf("         IntI = %10.2f  sigI = %8.1f\n", 
-                           newIsigI[0], newIsigI[1] );
-      }
+/**
+ *  The results of integrating one peak, or the error message for a peak 
+ *  that could not be integrated.
+ */
+  private static class PeakResult
+  {
+    String  message;                // null if the peak was integrated
+    float[] IsigI;                  // from IntegrateSlices
+    float[] newIsigI;               // from EllipseIntegrate
+  }
+
+
+/**
+ *  Task that integrates the listed peaks, all from one detector,
+ *  storing the result for each peak at the peak's index in the shared 
+ *  results array.  The task has its own scratch array, large enough for
+ *  all events on the detector, which is reused for each of its peaks.
+ *  The call() method returns the time spent in each phase by this task.
+ */
+  private static class IntegrateDetectorTask implements Callable<long[]>
+  {
+    private Vector<Peak_new> peaks;
+    private int[]            peak_nums;
+    private String           int_method;
+    private Tran3D           UB_inverse;
+    private HKL_EventTable   ev_table;
+    private PeakResult[]     results;
+
+    public IntegrateDetectorTask( Vector<Peak_new> peaks,
+                                  int[]            peak_nums,
+                                  String           int_method,
+                                  Tran3D           UB_inverse,
+                                  HKL_EventTable   ev_table,
+                                  PeakResult[]     results )
+    {
+      this.peaks      = peaks;
+      this.peak_nums  = peak_nums;
+      this.int_method = int_method;
+      this.UB_inverse = UB_inverse;
+      this.ev_table   = ev_table;
+      this.results    = results;
     }
 
-                                // now copy the integrated peaks back to 
-    peaks.clear();              // the original list
-    for ( int i = 0; i < integrated_peaks.size(); i++ )
-      peaks.add( integrated_peaks.elementAt(i) );
+    public long[] call()
+    {
+      long[] times = new long[ NUM_PHASES ];
+
+      int   det_id  = peaks.elementAt( peak_nums[0] ).detnum();
+      int[] scratch = new int[ Math.max( 0, ev_table.NumEvents( det_id ) ) ];
+
+      for ( int i = 0; i < peak_nums.length; i++ )
+      {
+        int peak_index = peak_nums[i];
+        results[ peak_index ] = IntegratePeak( peaks.elementAt( peak_index ),
+                                               int_method,
+                                               UB_inverse,
+                                               ev_table,
+                                               scratch,
+                                               times );
+      }
+      return times;
+    }
   }
 
 
@@ -56,6 +56,11 @@ public class IntegrateTools
 {
   public static final float BACKGROUND_RATIO = 1.25992105f;
 
+  private static final int   STREAM_BLOCK_SIZE    = 1 << 21; 
+  private static final float HISTOGRAM_BIN_MARGIN = 0.1f;  // more than the
+                                                           // diagonal of a
+                                                           // histogram bin
+
   private static DataSet isigi_ds   = new DataSet();
   private static DataSet density_ds = new DataSet();
   private static DataSet normalized_density_ds = new DataSet();
@@ -209,10 +214,31 @@ public class IntegrateTools
             y,
             z;
     float   d_squared;
+                                        // if the list has a spatial index
+                                        // only check the events in the 
+    int[] candidates = null;            // largest sphere
+    if ( event_list instanceof FloatArrayEventList3D )
+    {
+      EventGridIndex grid_index = 
+                   ((FloatArrayEventList3D)event_list).getSpatialIndex();
+      if ( grid_index != null )
+      {
+        float max_radius = 0;
+        for ( int i = 0; i < num_radii; i++ )
+          max_radius = Math.max( max_radius, radii[i] );
+        candidates = grid_index.getSphereIndices( q_vec, 
+                                   max_radius + Math.ulp( max_radius ) );
+        num_events = candidates.length;
+      }
+    }
 
-    int index = 0;
-    for ( int i = 0; i < num_events; i++ )
+    int index;
+    for ( int n = 0; n < num_events; n++ )
     {
+      int i = n;
+      if ( candidates != null )
+        i = candidates[n];
+      index = 3 * i;
       x = qx - xyz[ index++ ];
       y = qy - xyz[ index++ ];
       z = qz - xyz[ index++ ];
@@ -625,10 +651,9 @@ public class IntegrateTools
 //    String DetCalFile = "/usr2/TOPAZ_11/natrolite1242_1.DetCal";
     String DetCalFile = null;
     mapper = new SNS_Tof_to_Q_map( DetCalFile, null, inst_name );
-    SNS_TofEventList  tof_evl = new SNS_TofEventList( filename );
+    SNS_MappedTofEventList tof_evl = new SNS_MappedTofEventList( filename );
 
-    int num_events = (int)tof_evl.numEntries();
-    IEventList3D Q_evl = mapper.MapEventsToQ( tof_evl, 0, num_events );
+    long num_events = tof_evl.numEntries();
 
     float peak_radius = Float.parseFloat( args[3].trim() ); 
     float bkg_radius  = BACKGROUND_RATIO * peak_radius;
@@ -637,11 +662,25 @@ public class IntegrateTools
     Vector peaks = Peak_new_IO.ReadPeaks_new( peaks_file );
     float[][] all_Qs = getPeakQsFromFile( peaks_file );
 
+    int n_threads = Runtime.getRuntime().availableProcessors();
     boolean raw_events = true;
     if ( raw_events )
     {
       System.out.println("Integrating using RAW EVENTS");
+                                           // only keep events near peaks
+      PeakRegionEventCollector collector = 
+          new PeakRegionEventCollector( getPeakQsFromPeakVector( peaks ), 
+                                        bkg_radius );
+      mapper.MapEventsToQ( tof_evl, 0, num_events, 
+                           STREAM_BLOCK_SIZE, n_threads, collector );
+      FloatArrayEventList3D Q_evl = collector.getEvents();
+      if ( Q_evl == null )
+      {
+        System.out.println("No events found near the peaks");
+        return;
+      }
       long start = System.nanoTime();
+      Q_evl.buildSpatialIndex( n_threads );   // searched once per peak
       IntegratePeaksEvents( peaks, peak_radius, bkg_radius, Q_evl );
       long end = System.nanoTime();
       System.out.printf("Time to integrate events = %5.2f ms\n",
@@ -650,8 +689,16 @@ public class IntegrateTools
     else
     {
       System.out.println("Integrating using HISTOGRAM");
-      Histogram3D histogram = MakeEmptyHistogram();
-      histogram.addEvents( Q_evl, false );
+      final Histogram3D histogram = MakeEmptyHistogram();
+      IEventList3DConsumer adder = new IEventList3DConsumer()
+      {
+        public void consume( IEventList3D events )
+        {
+          histogram.addEvents( events, false );
+        }
+      };
+      mapper.MapEventsToQ( tof_evl, 0, num_events, 
+                           STREAM_BLOCK_SIZE, n_threads, adder );
       long start = System.nanoTime();
       IntegratePeaksHistogram( peaks, peak_radius, bkg_radius, histogram );
       long end = System.nanoTime();
@@ -690,11 +737,7 @@ public class IntegrateTools
     System.out.println();
 
     mapper = new SNS_Tof_to_Q_map( null, null, inst_name );
-    SNS_TofEventList  tof_evl = new SNS_TofEventList( filename );
-
-    int num_events = (int)tof_evl.numEntries();
-    IEventList3D Q_evl = mapper.MapEventsToQ( tof_evl, 0, num_events );
-
+    SNS_MappedTofEventList tof_evl = new SNS_MappedTofEventList( filename );
 
 //    float[] q_vec = getSNAP_240_peak_Q();
     float[][] all_Qs = getPeakQsFromFile( peaks_file );
@@ -740,6 +783,25 @@ public class IntegrateTools
     }
     
 
+                                        // only keep events near enough
+                                        // to the peaks to be counted in the
+                                        // spheres, or in histogram bins
+                                        // that are counted in the spheres
+    PeakRegionEventCollector collector = 
+         new PeakRegionEventCollector( all_Qs, radii[ num_radii - 1 ] + 
+                                               HISTOGRAM_BIN_MARGIN );
+    mapper.MapEventsToQ( tof_evl, 0, tof_evl.numEntries(), 
+                         STREAM_BLOCK_SIZE,
+                         Runtime.getRuntime().availableProcessors(),
+                         collector );
+    FloatArrayEventList3D Q_evl = collector.getEvents();
+    if ( Q_evl == null )
+    {
+      System.out.println("No events found near the peaks");
+      return;
+    }
+    Q_evl.buildSpatialIndex( Runtime.getRuntime().availableProcessors() );
+
     float scale = 16734;                // scale factor to make histogram bin
                                         // count and actual volume equal.
     float[] volumes   = new float[ num_radii ];
@@ -45,8 +45,11 @@ import DataSetTools.operator.Generic.TOF_SCD.Peak_new;
 
 
 /**
- *  This class manages a Peak_new object and a list of EventInfo objects
- *  corresponding to that peak.
+ *  This class manages a Peak_new object and a list of the events 
+ *  corresponding to that peak.  The events are not copied.  The list is a
+ *  view of a packed list of event information, as returned by
+ *  SNS_Tof_to_Q_map.MapEventsTo_Q_ID_Row_Col(), given by an array of 
+ *  event numbers in that packed list.
  */
 public class PeakEventList 
 {
@@ -55,7 +58,8 @@ public class PeakEventList
                          BOTTOM_LEFT, BOTTOM_RIGHT, TOP_LEFT, TOP_RIGHT };
 
   private Peak_new     peak    = null;
-  private EventInfo[]  ev_list = null;
+  private float[]      info    = null;   // packed Q,id,row,col,tof,lamda
+  private int[]        ev_list = null;   // event numbers in info[]
   private int          min_row;
   private int          max_row;
   private int          min_col;
@@ -70,7 +74,8 @@ public class PeakEventList
 
 /**
  * Construct an PeakEventList object from a peak, list of events and range
- * of row, col and mag_Q in the list.
+ * of row, col and mag_Q in the list.  The events are copied into a new
+ * packed list of event information.
  *
  * @param peak        Peak_new object with basic data about the peak.
  * @param events      List of events that are in a rectangular block around
@@ -90,8 +95,44 @@ public class PeakEventList
                         int               max_col,
                         float             min_mag_Q,
                         float             max_mag_Q  )
+  {
+    this( peak, EventInfo.ToInfoList( events ), AllEvents( events.size() ),
+          min_row, max_row, min_col, max_col, min_mag_Q, max_mag_Q );
+  }
+
+
+/**
+ * Construct an PeakEventList object from a peak, a view of a packed list
+ * of events and range of row, col and mag_Q in the list.  Neither array 
+ * is copied, so they must not be changed while this object is in use.
+ *
+ * @param peak        Peak_new object with basic data about the peak.
+ * @param info        Array of floats containing Q,id,row,col,tof and lamda
+ *                    values in sequence, for each event, as returned by
+ *                    SNS_Tof_to_Q_map.MapEventsTo_Q_ID_Row_Col().
+ * @param events      The numbers of the events in the info array that are
+ *                    in a rectangular block around the peak in row, col, 
+ *                    |Q| space.
+ * @param min_row     Smallest row number of any event in the list.
+ * @param max_row     Largest  row number of any event in the list.
+ * @param min_col     Smallest column number of any event in the list.
+ * @param max_col     Largest  column number of any event in the list.
+ * @param min_mag_Q   Smallest |Q| of any event in the list.
+ * @param max_mag_Q   Largest  |Q| of any event in the list.
+ */
+  public PeakEventList( Peak_new          peak,
+                        float[]           info,
+                        int[]             events,
+                        int               min_row,
+                        int               max_row,
+                        int               min_col,
+                        int               max_col,
+                        float             min_mag_Q,
+                        float             max_mag_Q  )
   {
     this.peak      = peak;
+    this.info      = info;
+    this.ev_list   = events;
     this.min_row   = min_row;
     this.max_row   = max_row;
     this.min_col   = min_col;
@@ -103,14 +144,10 @@ public class PeakEventList
     this.center_row = (int)peak.y()-1;      // initialize with the row and col
     this.center_col = (int)peak.x()-1;      // from the peak object
 
-    float     tof;
-    EventInfo event;
-    ev_list = new EventInfo[ events.size() ];
+    float tof;
     for ( int i = 0; i < ev_list.length; i++ )
     {
-      event      = events.elementAt(i);
-      ev_list[i] = event;
-      tof        = event.Tof();
+      tof = Tof( ev_list[i] );
       if ( tof < min_tof )
         min_tof = tof;
       if ( tof > max_tof )
@@ -186,14 +223,26 @@ public class PeakEventList
 
 
 /**
- *  Get a reference to the complete list of EventInfo objects for this
- *  peak.
+ *  Get a new list of EventInfo objects for the events for this peak.
+ *  NOTE: This makes a new object for each event.
  *
- *  @return  a reference to the list of EventInfo objects
+ *  @return  a list of EventInfo objects
  */
   public EventInfo[] getEventArray()
   {
-    return ev_list;
+    EventInfo[] list = new EventInfo[ ev_list.length ];
+    for ( int i = 0; i < ev_list.length; i++ )
+      list[i] = new EventInfo( info, EventInfo.VALS_PER_EVENT * ev_list[i] );
+    return list;
+  }
+
+
+/**
+ *  Get the number of events for this peak.
+ */
+  public int numEvents()
+  {
+    return ev_list.length;
   }
 
 
@@ -222,10 +271,10 @@ public class PeakEventList
     Vector<Vector3D> vectors = new Vector<Vector3D>( ev_list.length );
     for ( int i = 0; i < ev_list.length; i++ )
     {
-      EventInfo ev_info = ev_list[i];
-      qx = ev_info.Qx() - center[0];
-      qy = ev_info.Qy() - center[1];
-      qz = ev_info.Qz() - center[2];
+      int index = EventInfo.VALS_PER_EVENT * ev_list[i];
+      qx = info[ index     ] - center[0];
+      qy = info[ index + 1 ] - center[1];
+      qz = info[ index + 2 ] - center[2];
       if ( qx*qx + qy*qy + qz*qz <= radius_2 )
         vectors.add( new Vector3D( qx, qy, qz ) );
     }
@@ -369,15 +418,15 @@ public class PeakEventList
     // float scale = det_dist/0.425f;
     // rc_radius *= scale;
 
-    EventInfo[] selected_events = new EventInfo[ ev_list.length ];
+    int[] selected_events = new int[ ev_list.length ];
     int num_selected = 0;
     float rc_radius_2 = rc_radius * rc_radius;
     float d_row,
           d_col;
     for ( int i = 0; i < ev_list.length; i++ )
     {
-      d_row = ev_list[i].Row() - center_row;
-      d_col = ev_list[i].Col() - center_col;
+      d_row = Row( ev_list[i] ) - center_row;
+      d_col = Col( ev_list[i] ) - center_col;
       if ( d_row*d_row + d_col*d_col <= rc_radius_2 )
       {
         selected_events[ num_selected ] = ev_list[i];
@@ -422,15 +471,15 @@ public class PeakEventList
   public Histogram3D getCenteredSquareHistogram( float size,
                                                  int num_q_steps )
   {
-    EventInfo[] selected_events = new EventInfo[ ev_list.length ];
+    int[] selected_events = new int[ ev_list.length ];
     int num_selected = 0;
     float size_by_2 = size/2;
     float d_row,
           d_col;
     for ( int i = 0; i < ev_list.length; i++ )
     {
-      d_row = Math.abs(ev_list[i].Row() - center_row);
-      d_col = Math.abs(ev_list[i].Col() - center_col);
+      d_row = Math.abs(Row( ev_list[i] ) - center_row);
+      d_col = Math.abs(Col( ev_list[i] ) - center_col);
       if ( d_row <= size_by_2 && d_col <= size_by_2 )
       {
         selected_events[ num_selected ] = ev_list[i];
@@ -673,8 +722,8 @@ public class PeakEventList
 
     for ( int i = 0; i < ev_list.length; i++ )
     {
-      d_row = Math.abs(ev_list[i].Row() - center_row);
-      d_col = Math.abs(ev_list[i].Col() - center_col);
+      d_row = Math.abs(Row( ev_list[i] ) - center_row);
+      d_col = Math.abs(Col( ev_list[i] ) - center_col);
       if ( d_row * d_row + d_col * d_col <= radius_2 )
       {
         sum_sq_row += d_row * d_row;
@@ -713,14 +762,14 @@ public class PeakEventList
  * Get the events in this peak, in the form of a FloatArrayEventList3D
  * object, with components col, row and |Q|/2PI. 
  *
- * @param  list   A partially filled array of EventInfo objects
- * @param  num    The number of EventInfo objects in the list
+ * @param  list   A partially filled array of event numbers
+ * @param  num    The number of event numbers in the list
  *
  * @return a FloatArrayEventlist3D containing col, row, |Q| info about
  *         each of the events in the current event list.  If the list
  *         is empty, this will return null.
  */
-  private FloatArrayEventList3D getColRowMagQList( EventInfo[] list, int num )
+  private FloatArrayEventList3D getColRowMagQList( int[] list, int num )
   {
     if ( num == 0 || list == null || list.length == 0 )
       return null;
@@ -729,9 +778,9 @@ public class PeakEventList
     int index = 0;
     for ( int i = 0; i < num; i++ )
     {
-      xyz_vals[index++] = list[i].Col();            // col
-      xyz_vals[index++] = list[i].Row();            // row
-      xyz_vals[index++] = list[i].MagQ_over_2PI();
+      xyz_vals[index++] = Col( list[i] );           // col
+      xyz_vals[index++] = Row( list[i] );           // row
+      xyz_vals[index++] = MagQ_over_2PI( list[i] );
     }
 
     FloatArrayEventList3D ev_list_3D = 
@@ -745,14 +794,14 @@ public class PeakEventList
  * Get the events in this peak, in the form of a FloatArrayEventList3D
  * object, with components col, row and time-of-flight. 
  *
- * @param  list   A partially filled array of EventInfo objects
- * @param  num    The number of EventInfo objects in the list
+ * @param  list   A partially filled array of event numbers
+ * @param  num    The number of event numbers in the list
  *
  * @return a FloatArrayEventlist3D containing col, row, TOF info about
  *         each of the events in the current event list.  If the list
  *         is empty, this will return null.
  */
-  private FloatArrayEventList3D getColRowTOFList( EventInfo[] list, int num )
+  private FloatArrayEventList3D getColRowTOFList( int[] list, int num )
   {
     if ( num == 0 || list == null || list.length == 0 )
       return null;
@@ -761,18 +810,18 @@ public class PeakEventList
     int index = 0;
     for ( int i = 0; i < num; i++ )
     {
-      float col = list[i].Col();
-      float row = list[i].Row();
-      float tof = list[i].Tof();
+      float col = Col( list[i] );
+      float row = Row( list[i] );
+      float tof = Tof( list[i] );
       if ( Float.isNaN( col ) || Float.isNaN( row ) || Float.isNaN( tof ) )
         System.out.println( "NaN col = " + col + 
                                " row = " + row + 
                                " tof = " + tof );
       else
       {
-        xyz_vals[index++] = list[i].Col();            // col
-        xyz_vals[index++] = list[i].Row();            // row
-        xyz_vals[index++] = list[i].Tof();
+        xyz_vals[index++] = col;                      // col
+        xyz_vals[index++] = row;                      // row
+        xyz_vals[index++] = tof;
       }
     }
 
@@ -783,6 +832,54 @@ public class PeakEventList
   }
 
 
+/**
+ *  Get the row number of the pixel for the specified event number.
+ */
+  private int Row( int ev )
+  {
+    return EventInfo.Row( info, ev );
+  }
+
+
+/**
+ *  Get the column number of the pixel for the specified event number.
+ */
+  private int Col( int ev )
+  {
+    return EventInfo.Col( info, ev );
+  }
+
+
+/**
+ *  Get the time-of-flight for the specified event number.
+ */
+  private float Tof( int ev )
+  {
+    return EventInfo.Tof( info, ev );
+  }
+
+
+/**
+ *  Get |Q|/(2PI) for the specified event number.
+ */
+  private float MagQ_over_2PI( int ev )
+  {
+    return EventInfo.MagQ_over_2PI( info, ev );
+  }
+
+
+/**
+ *  Get the list of event numbers 0, 1, ..., num-1.
+ */
+  private static int[] AllEvents( int num )
+  {
+    int[] list = new int[ num ];
+    for ( int i = 0; i < num; i++ )
+      list[i] = i;
+    return list;
+  }
+
+
 /**
  *  Get an empty Histogram3D covering the specified ranges in x, y, z, 
  *  with the specified number of steps in each of those directions.
@@ -0,0 +1,266 @@
+/* 
+ * File: PeakRegionEventCollector.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package EventTools.Integrate;
+
+import java.util.*;
+
+import EventTools.EventList.*;
+
+/**
+ * This class keeps only those events, from the blocks of events passed to
+ * it by the streaming form of SNS_Tof_to_Q_map.MapEventsToQ(), that are
+ * within a specified radius of at least one of a list of peak Q vectors.
+ * Integrating peaks from the raw events only requires the events near the
+ * peaks, so memory use then depends on the number of events near peaks,
+ * rather than on the number of events in the run.
+ *   To avoid comparing each event with every peak, space is divided into
+ * cubic cells with edge length equal to the radius, and each cell records
+ * the peaks that are within one cell of it.  Each event is then only 
+ * compared with the peaks recorded for the cell containing the event.
+ */
+public class PeakRegionEventCollector implements IEventList3DConsumer
+{
+  private static final long EMPTY = Long.MIN_VALUE;   // unused table slot
+  private static final int  MASK  = 0x1FFFFF;         // 21 bits per index
+
+  private float[][] centers;
+  private float     cell_size;
+  private float     radius_sq;
+
+  private long[]    cell_keys;        // open addressing table of the cells
+  private int[][]   cell_centers;     // that have peaks close to them
+
+  private float[]   xyz_vals = new float[ 3 * 1024 ];
+  private float[]   weights  = new float[ 1024 ];
+  private int       num_events = 0;
+
+
+  /**
+   * Construct a collector that will keep the events within the specified
+   * radius of any of the specified centers.
+   *
+   * @param centers  Array of Qx,Qy,Qz values for the peaks, in the same
+   *                 units as the events that will be passed in.
+   * @param radius   The maximum distance from a center for events that
+   *                 are kept.
+   */
+  public PeakRegionEventCollector( float[][] centers, float radius )
+  {
+    if ( centers == null )
+      throw new IllegalArgumentException( "centers array is null" );
+
+    if ( radius <= 0 )
+      throw new IllegalArgumentException( "radius must be positive: " +
+                                           radius );
+    this.centers = centers;
+    cell_size    = radius;
+    radius_sq    = radius * radius;
+                                        // record each center in the cell
+                                        // containing it and its neighbors
+    HashMap<Long,Vector<Integer>> cells = new HashMap<Long,Vector<Integer>>();
+    for ( int i = 0; i < centers.length; i++ )
+    {
+      int ix = CellIndex( centers[i][0] );
+      int iy = CellIndex( centers[i][1] );
+      int iz = CellIndex( centers[i][2] );
+      for ( int dx = -1; dx <= 1; dx++ )
+        for ( int dy = -1; dy <= 1; dy++ )
+          for ( int dz = -1; dz <= 1; dz++ )
+          {
+            Long key = CellKey( ix + dx, iy + dy, iz + dz );
+            Vector<Integer> list = cells.get( key );
+            if ( list == null )
+            {
+              list = new Vector<Integer>();
+              cells.put( key, list );
+            }
+            list.add( i );
+          }
+    }
+
+    int size = 16;
+    while ( size < 2 * cells.size() )
+      size *= 2;
+
+    cell_keys    = new long[ size ];
+    cell_centers = new int[ size ][];
+    Arrays.fill( cell_keys, EMPTY );
+    for ( Map.Entry<Long,Vector<Integer>> entry : cells.entrySet() )
+    {
+      long key  = entry.getKey();
+      int  slot = Slot( key );
+      while ( cell_keys[ slot ] != EMPTY )
+        slot = ( slot + 1 ) & ( size - 1 );
+
+      Vector<Integer> list = entry.getValue();
+      int[] indices = new int[ list.size() ];
+      for ( int k = 0; k < indices.length; k++ )
+        indices[k] = list.elementAt( k );
+
+      cell_keys[ slot ]    = key;
+      cell_centers[ slot ] = indices;
+    }
+  }
+
+
+  /**
+   * Keep the events from the specified block that are close to one of 
+   * the centers.
+   *
+   * @param events  The next block of events.
+   */
+  public void consume( IEventList3D events )
+  {
+    int     n_events = events.numEntries();
+    float[] xyz      = events.eventVals();
+    float[] wts      = events.eventWeights();
+
+    int index = 0;
+    for ( int i = 0; i < n_events; i++ )
+    {
+      float x = xyz[ index++ ];
+      float y = xyz[ index++ ];
+      float z = xyz[ index++ ];
+      int[] near = NearCenters( x, y, z );
+      if ( near != null && CloseToOne( near, x, y, z ) )
+      {
+        if ( num_events >= weights.length )
+        {
+          weights  = CopyOf( weights, 2 * weights.length );
+          xyz_vals = CopyOf( xyz_vals, 2 * xyz_vals.length );
+        }
+        xyz_vals[ 3 * num_events     ] = x;
+        xyz_vals[ 3 * num_events + 1 ] = y;
+        xyz_vals[ 3 * num_events + 2 ] = z;
+        if ( wts != null )
+          weights[ num_events ] = wts[ i ];
+        else
+          weights[ num_events ] = 1;
+        num_events++;
+      }
+    }
+  }
+
+
+  /**
+   * Get the events that were kept, in the order they were received.
+   *
+   * @return a new event list with the events that are close to the 
+   *         centers, or null if no such events were received.
+   */
+  public FloatArrayEventList3D getEvents()
+  {
+    if ( num_events <= 0 )
+      return null;
+
+    return new FloatArrayEventList3D( CopyOf( weights, num_events ),
+                                   CopyOf( xyz_vals, 3 * num_events ));
+  }
+
+
+  /**
+   * Get the number of events kept so far.
+   *
+   * @return the number of events that were close to the centers.
+   */
+  public int numEvents()
+  {
+    return num_events;
+  }
+
+
+  /**
+   *  Check whether the point x,y,z is within the radius of any of the
+   *  listed centers.
+   */
+  private boolean CloseToOne( int[] near, float x, float y, float z )
+  {
+    for ( int k = 0; k < near.length; k++ )
+    {
+      float[] center = centers[ near[k] ];
+      float dx = x - center[0];
+      float dy = y - center[1];
+      float dz = z - center[2];
+      if ( dx*dx + dy*dy + dz*dz <= radius_sq )
+        return true;
+    }
+    return false;
+  }
+
+
+  /**
+   *  Get the list of centers recorded for the cell containing x,y,z, or
+   *  null if no center is close to that cell.
+   */
+  private int[] NearCenters( float x, float y, float z )
+  {
+    long key  = CellKey( CellIndex(x), CellIndex(y), CellIndex(z) );
+    int  slot = Slot( key );
+    while ( cell_keys[ slot ] != EMPTY )
+    {
+      if ( cell_keys[ slot ] == key )
+        return cell_centers[ slot ];
+      slot = ( slot + 1 ) & ( cell_keys.length - 1 );
+    }
+    return null;
+  }
+
+
+  private int CellIndex( float val )
+  {
+    return (int)Math.floor( val / cell_size );
+  }
+
+
+  private static long CellKey( int ix, int iy, int iz )
+  {
+    return ( (long)( ix & MASK ) << 42 ) | 
+           ( (long)( iy & MASK ) << 21 ) | 
+             (long)( iz & MASK );
+  }
+
+
+  private int Slot( long key )
+  {
+    key *= 0x9E3779B97F4A7C15L;
+    return (int)( key >>> 40 ) & ( cell_keys.length - 1 );
+  }
+
+
+  /**
+   *  Copy the specified array into a new array of the specified length,
+   *  padding with zeros if the new array is longer.
+   */
+  private static float[] CopyOf( float[] array, int length )
+  {
+    float[] result = new float[ length ];
+    System.arraycopy( array, 0, result, 0, Math.min( array.length, length ));
+    return result;
+  }
+
+}
@@ -0,0 +1,117 @@
+/* 
+ * File: CachedEventsCmd.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package EventTools.ShowEventsApp.Command;
+
+/**
+ * This class identifies a segment of an event file, before the events are
+ * read, so that it can be delivered in a LOAD_CACHED_Q_EVENTS message.  If
+ * the QMapperHandler has a Q event cache file for the segment, it sends 
+ * the cached events to the histograms and records that with setFound(), 
+ * so the EventLoader does not need to read the raw events at all.
+ */
+public class CachedEventsCmd
+{
+  private String           event_file;
+  private long             first;
+  private long             num_events;
+  private volatile boolean found = false;
+
+
+  /**
+   * Construct a command object for the specified segment of an event file.
+   *
+   * @param event_file  The name of the event file.
+   * @param first       The index in the file of the first event in the 
+   *                    segment.
+   * @param num_events  The number of events in the segment.
+   */
+  public CachedEventsCmd( String event_file, long first, long num_events )
+  {
+    if ( event_file == null )
+      throw new IllegalArgumentException( "event file name null" );
+
+    this.event_file = event_file;
+    this.first      = first;
+    this.num_events = num_events;
+  }
+
+
+  /**
+   * Get the name of the event file.
+   */
+  public String getEventFile()
+  {
+    return event_file;
+  }
+
+
+  /**
+   * Get the index in the event file of the first event in the segment.
+   */
+  public long getFirstEvent()
+  {
+    return first;
+  }
+
+
+  /**
+   * Get the number of events in the segment.
+   */
+  public long numEvents()
+  {
+    return num_events;
+  }
+
+
+  /**
+   * Record whether the events for the segment were found in a cache file
+   * and sent to the histograms.
+   */
+  public void setFound( boolean found )
+  {
+    this.found = found;
+  }
+
+
+  /**
+   * Check whether the events for the segment were found in a cache file
+   * and sent to the histograms.
+   */
+  public boolean wasFound()
+  {
+    return found;
+  }
+
+
+  public String toString()
+  {
+    return "CachedEventsCmd: " + num_events + " events from " +
+           event_file + " starting at " + first;
+  }
+
+}
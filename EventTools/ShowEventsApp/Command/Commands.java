@@ -38,6 +38,7 @@ public class Commands
   public static final String Q_GRAPH_NORMALIZER ="Q_GRAPH_NORMALIZER";
   public static final String D_GRAPH_NORMALIZER ="D_GRAPH_NORMALIZER";
   public static final String MAP_EVENTS_TO_Q = "MAP_EVENTS_TO_Q";
+  public static final String LOAD_CACHED_Q_EVENTS = "LOAD_CACHED_Q_EVENTS";
 
   public static final String ADD_EVENTS_TO_HISTOGRAMS
                                              = "ADD_EVENTS_TO_HISTOGRAMS";
@@ -0,0 +1,131 @@
+/* 
+ * File: FileEventsCmd.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package EventTools.ShowEventsApp.Command;
+
+import EventTools.EventList.ITofEventList;
+
+/**
+ * This class wraps a segment of time-of-flight events loaded from an event
+ * file, so that it can be delivered in a MAP_EVENTS_TO_Q message along with
+ * the name of the file and the position of the segment in the file.  The
+ * QMapperHandler uses this information to find, or write, a cache file 
+ * holding the events already mapped to Q.  Since it is also an 
+ * ITofEventList, receivers that only look at the raw events can treat it
+ * like any other list of events.
+ */
+public class FileEventsCmd implements ITofEventList
+{
+  private ITofEventList events;
+  private String        event_file;
+  private long          first;
+
+
+  /**
+   * Construct a command object wrapping the specified segment of events.
+   *
+   * @param events      The list of raw time-of-flight events.
+   * @param event_file  The name of the file the events were loaded from.
+   * @param first       The index in the file of the first event in the 
+   *                    list.
+   */
+  public FileEventsCmd( ITofEventList events, String event_file, long first )
+  {
+    if ( events == null )
+      throw new IllegalArgumentException( "event list null" );
+
+    if ( event_file == null )
+      throw new IllegalArgumentException( "event file name null" );
+
+    this.events     = events;
+    this.event_file = event_file;
+    this.first      = first;
+  }
+
+
+  /**
+   * Get the list of raw events wrapped by this command.
+   */
+  public ITofEventList getEvents()
+  {
+    return events;
+  }
+
+
+  /**
+   * Get the name of the file the events were loaded from.
+   */
+  public String getEventFile()
+  {
+    return event_file;
+  }
+
+
+  /**
+   * Get the index in the event file of the first event in this segment.
+   */
+  public long getFirstEvent()
+  {
+    return first;
+  }
+
+
+  @Override
+  public long numEntries()
+  {
+    return events.numEntries();
+  }
+
+
+  @Override
+  public int[] rawEvents( long first_event, long num_events )
+  {
+    return events.rawEvents( first_event, num_events );
+  }
+
+
+  @Override
+  public int[] eventTof( long first_event, long num_events )
+  {
+    return events.eventTof( first_event, num_events );
+  }
+
+
+  @Override
+  public int[] eventPixelID( long first_event, long num_events )
+  {
+    return events.eventPixelID( first_event, num_events );
+  }
+
+
+  public String toString()
+  {
+    return "FileEventsCmd: " + events.numEntries() + " events from " +
+           event_file + " starting at " + first;
+  }
+
+}
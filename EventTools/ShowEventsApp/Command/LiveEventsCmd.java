@@ -0,0 +1,126 @@
+/* 
+ * File: LiveEventsCmd.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package EventTools.ShowEventsApp.Command;
+
+import EventTools.EventList.IEventList3D;
+import EventTools.EventList.ITofEventList;
+
+/**
+ * This class wraps a block of live time-of-flight events, so that it can be
+ * delivered in a MAP_EVENTS_TO_Q message by the live data pipeline, and 
+ * carry back the resulting lists of events in Q.  Since it is also an
+ * ITofEventList, receivers that only look at the raw events can treat it
+ * like any other list of events.  When the QMapperHandler receives one of
+ * these, it records the mapped events with setQ_Events() rather than 
+ * sending ADD_EVENTS_TO_HISTOGRAMS messages, so the pipeline can pass the
+ * events on to the next stage.
+ */
+public class LiveEventsCmd implements ITofEventList
+{
+  private ITofEventList           events;
+  private volatile IEventList3D[] q_events = null;
+
+
+  /**
+   * Construct a command object wrapping the specified list of raw events.
+   *
+   * @param events  The list of raw time-of-flight events.
+   */
+  public LiveEventsCmd( ITofEventList events )
+  {
+    if ( events == null )
+      throw new IllegalArgumentException( "event list null" );
+
+    this.events = events;
+  }
+
+
+  /**
+   * Get the list of raw events wrapped by this command.
+   */
+  public ITofEventList getEvents()
+  {
+    return events;
+  }
+
+
+  /**
+   * Record the lists of events in Q, obtained by mapping the raw events.
+   *
+   * @param q_events  The lists of events mapped to Q.
+   */
+  public void setQ_Events( IEventList3D[] q_events )
+  {
+    this.q_events = q_events;
+  }
+
+
+  /**
+   * Get the lists of events in Q, or null if the events have not been
+   * mapped to Q.
+   */
+  public IEventList3D[] getQ_Events()
+  {
+    return q_events;
+  }
+
+
+  @Override
+  public long numEntries()
+  {
+    return events.numEntries();
+  }
+
+
+  @Override
+  public int[] rawEvents( long first_event, long num_events )
+  {
+    return events.rawEvents( first_event, num_events );
+  }
+
+
+  @Override
+  public int[] eventTof( long first_event, long num_events )
+  {
+    return events.eventTof( first_event, num_events );
+  }
+
+
+  @Override
+  public int[] eventPixelID( long first_event, long num_events )
+  {
+    return events.eventPixelID( first_event, num_events );
+  }
+
+
+  public String toString()
+  {
+    return "LiveEventsCmd: " + events.numEntries() + " events";
+  }
+
+}
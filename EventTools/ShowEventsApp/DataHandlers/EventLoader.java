@@ -48,7 +48,9 @@ import EventTools.EventList.ITofEventList;
 import EventTools.EventList.SNS_TofEventList;
 
 import EventTools.EventList.EventSegmentLoadOp;
+import EventTools.ShowEventsApp.Command.CachedEventsCmd;
 import EventTools.ShowEventsApp.Command.Commands;
+import EventTools.ShowEventsApp.Command.FileEventsCmd;
 import EventTools.ShowEventsApp.Command.LoadEventsCmd;
 import EventTools.ShowEventsApp.Command.Util;
 
@@ -150,9 +152,11 @@ public class EventLoader implements IReceiveMessage
     boolean done       = false;
     long    num_loaded = 0;
     Vector<IOperator> ops = new Vector<IOperator>();
+    Vector<Long> seg_starts = new Vector<Long>();
     while ( !done )
     {
       ops.clear();
+      seg_starts.clear();
       int n_threads = 0;
       while ( n_threads < num_threads && num_loaded < num_to_load )
       {
@@ -161,10 +165,32 @@ public class EventLoader implements IReceiveMessage
 
 //      Util.sendInfo( "Loading " + seg_size + " starting with " + first );
 //      System.out.println("FIRST = " + first + " SEG_SIZE = " + seg_size );
-        ops.add( new EventSegmentLoadOp( event_file_name, first, seg_size ) );
+                                       // if the QMapperHandler has a Q event
+                                       // cache for this segment, it sends
+                                       // the cached events to the histograms
+                                       // and we don't need to read them
+        CachedEventsCmd cached = new CachedEventsCmd( event_file_name,
+                                                      first, 
+                                                      seg_size );
+        message_center.deliver( new Message( Commands.LOAD_CACHED_Q_EVENTS,
+                                             cached,
+                                             false,
+                                             false ) );
+        if ( !cached.wasFound() )
+        {
+          ops.add( new EventSegmentLoadOp( event_file_name, first, seg_size ));
+          seg_starts.add( first );
+          n_threads++;     
+        }
         first      += seg_size;
         num_loaded += seg_size;
-        n_threads++;     
+      }
+
+      if ( ops.size() == 0 )
+      {
+        if ( num_loaded >= num_to_load )
+          done = true;
+        continue;
       }
 
       if ( n_threads > 4 )
@@ -196,8 +222,11 @@ public class EventLoader implements IReceiveMessage
       for ( int i = 0; i < num_segs; i++ )
       {
         ITofEventList tof_evl = (ITofEventList)((Vector)results).elementAt(i);
+        FileEventsCmd seg_cmd = new FileEventsCmd( tof_evl, 
+                                                   event_file_name,
+                                                   seg_starts.elementAt(i) );
         Message map_to_Q_cmd = new Message( Commands.MAP_EVENTS_TO_Q,
-                                            tof_evl,
+                                            seg_cmd,
                                             false,
                                             true );
         int count = 0;
@@ -37,6 +37,7 @@ package EventTools.ShowEventsApp.DataHandlers;
 import java.util.Vector;
 import java.io.FileWriter;
 import java.io.BufferedWriter;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import gov.anl.ipns.MathTools.LinearAlgebra;
 import gov.anl.ipns.MathTools.Geometry.Vector3D;
@@ -84,6 +85,13 @@ public class HistogramHandler implements IReceiveMessage
   private String        current_instrument = "";
 
   private Histogram3D   histogram = null;
+                                        // adding events holds the read
+                                        // lock, so several threads can add
+                                        // events at once.  Searching for
+                                        // peaks or replacing the histogram
+                                        // holds the write lock.
+  private final ReentrantReadWriteLock update_lock = 
+                                               new ReentrantReadWriteLock();
   private int           num_bins;
   private double        max_hist_value_sent;
   private long          lastTimeShown;
@@ -273,8 +281,9 @@ public class HistogramHandler implements IReceiveMessage
         Util.sendInfo("Searching for peaks, PLEASE WAIT ...");
 
         Vector<PeakQ> peakQs = null; 
-                                     // don't search for peaks and change
-        synchronized ( histogram )   // the histogram at the same time !
+                                        // don't search for peaks and
+        update_lock.writeLock().lock(); // change the histogram at the 
+        try                             // same time !
         { 
           peakQs = FindPeaks( histogram,
                               cmd.getSmoothData(),
@@ -282,6 +291,10 @@ public class HistogramHandler implements IReceiveMessage
                               cmd.getMinPeakIntensity(),
                               cmd.getLogFileName() );
         }
+        finally
+        {
+          update_lock.writeLock().unlock();
+        }
 
         if ( peakQs != null && peakQs.size() > 0 )       // send out the peaks
         { 
@@ -498,17 +511,25 @@ public class HistogramHandler implements IReceiveMessage
    */
   synchronized private void Set_Histogram( String instrument )
   {
-    if ( instrument.equals("SNAP")  ||
-         instrument.equals("TOPAZ") ||
-         instrument.equals("MANDI")   )
-      Set_Histogram(num_bins, max_Q, -40.0f, 0, -25.0f, 25.0f, -25.0f, 25.0f);
+    update_lock.writeLock().lock();     // don't replace the histogram while
+    try                                 // events are being added
+    {
+      if ( instrument.equals("SNAP")  ||
+           instrument.equals("TOPAZ") ||
+           instrument.equals("MANDI")   )
+        Set_Histogram(num_bins, max_Q, -40.0f, 0, -25.0f, 25.0f, -25.0f, 25.0f);
 
-    else if ( instrument.equals("ARCS") ||
-              instrument.equals("SEQ")  )
-      Set_Histogram(num_bins, max_Q, -40.0f, 0, -15.0f, 40.0f, -15.0f, 15.0f);
+      else if ( instrument.equals("ARCS") ||
+                instrument.equals("SEQ")  )
+        Set_Histogram(num_bins, max_Q, -40.0f, 0, -15.0f, 40.0f, -15.0f, 15.0f);
 
-    else
-      Set_Histogram(num_bins, max_Q, -40.0f, 0, -25.0f, 25.0f, -25.0f, 25.0f);
+      else
+        Set_Histogram(num_bins, max_Q, -40.0f, 0, -25.0f, 25.0f, -25.0f, 25.0f);
+    }
+    finally
+    {
+      update_lock.writeLock().unlock();
+    }
   }
 
 
@@ -895,12 +916,24 @@ public class HistogramHandler implements IReceiveMessage
   }                         
 
 
-  synchronized public void AddEventsToHistogram( IEventList3D events )
+  /**
+   *  Add a list of events to the current histogram.  Several threads, such
+   *  as the histogram stage of the live data pipeline, may add events at
+   *  the same time.
+   *
+   *  @param events  The list of events in reciprocal space
+   */
+  public void AddEventsToHistogram( IEventList3D events )
   {
-                                     // don't search for peaks and change
-    synchronized( histogram )        // the histogram at the same time
+                                     // don't search for peaks or replace
+    update_lock.readLock().lock();   // the histogram while adding events
+    try
+    {
+      histogram.addEventsConcurrent( events, true );
+    }
+    finally
     {
-      histogram.addEvents( events, true );
+      update_lock.readLock().unlock();
     }
   }
 
@@ -0,0 +1,465 @@
+/* 
+ * File: LiveEventPipeline.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package EventTools.ShowEventsApp.DataHandlers;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import EventTools.EventList.IEventList3D;
+import EventTools.EventList.ITofEventList;
+
+/**
+ * This class is a chain of processing stages for live event data.  Each
+ * stage has a bounded queue of pending items and its own pool of worker
+ * threads.  A worker takes an item from its stage's queue, processes it,
+ * and offers the result, if any, to the queue of the next stage.  When
+ * the queue of a stage is full, the stage's OverflowPolicy determines 
+ * whether the thread offering the item waits, or whether the new or the
+ * oldest pending item is dropped.  Since every queue is bounded, the 
+ * memory used by data waiting in the pipeline is bounded, and a slow 
+ * stage can not stall the stages before it unless BLOCK is selected.
+ *
+ * Each stage records the number of items and events it processed or 
+ * dropped, and the time its workers were busy.  The time from when an 
+ * item entered the pipeline to when the last stage finished with it is 
+ * also recorded.  getReport() returns a summary of these statistics for 
+ * the time since the last report.
+ */
+public class LiveEventPipeline
+{
+  /**
+   * What to do with an item offered to a stage whose queue is full.
+   */
+  public enum OverflowPolicy { BLOCK, DROP_NEWEST, DROP_OLDEST };
+
+  /**
+   * The processing done by one stage of the pipeline.
+   */
+  public interface IStageProcessor
+  {
+    /**
+     * Process one item.  This is called concurrently from all of the
+     * stage's worker threads.
+     *
+     * @param item  The item to process.
+     *
+     * @return the item to pass on to the next stage, a Batch if the 
+     *         time the result entered the pipeline differs from that
+     *         of the input, an array of Batches to pass on several items,
+     *         or null if nothing should be passed on.
+     */
+    Object process( Object item ) throws Exception;
+  }
+
+
+  /**
+   * A value together with the time, from System.nanoTime(), at which
+   * the data it holds entered the pipeline.
+   */
+  public static class Batch
+  {
+    private Object value;
+    private long   start_time;
+    private long   num_events;
+
+    public Batch( Object value, long start_time )
+    {
+      this.value      = value;
+      this.start_time = start_time;
+      this.num_events = countEvents( value );
+    }
+
+    public Object getValue()
+    {
+      return value;
+    }
+
+    public long getStartTime()
+    {
+      return start_time;
+    }
+  }
+
+
+  private Vector<Stage> stages  = new Vector<Stage>();
+  private volatile boolean running = false;
+
+  private Object latency_lock  = new Object();
+  private long   num_finished  = 0;
+  private double total_latency = 0;       // in ms, since last report
+  private double max_latency   = 0;
+  private long   report_time   = System.nanoTime();
+
+
+  /**
+   * Add a stage to the end of the pipeline.  All stages must be added
+   * before the pipeline is started.
+   *
+   * @param name       The name of the stage, used in reports.
+   * @param processor  The processing done by the stage.
+   * @param n_threads  The number of worker threads for the stage.
+   * @param capacity   The maximum number of items waiting for the stage.
+   * @param policy     What to do when an item is offered to the stage
+   *                   and its queue is full.
+   */
+  public void addStage( String          name,
+                        IStageProcessor processor,
+                        int             n_threads,
+                        int             capacity,
+                        OverflowPolicy  policy )
+  {
+    if ( running )
+      throw new IllegalStateException( "Can't add stage " + name +
+                                       " to running pipeline" );
+    if ( processor == null )
+      throw new IllegalArgumentException( "null processor for " + name );
+
+    Stage stage = new Stage( name, processor, 
+                             Math.max( 1, n_threads ), 
+                             Math.max( 1, capacity ), 
+                             policy );
+    if ( stages.size() > 0 )
+      stages.lastElement().next = stage;
+    stages.add( stage );
+  }
+
+
+  /**
+   * Start the worker threads of all stages.  The workers are daemon
+   * threads, so they will not keep the application running.
+   */
+  public synchronized void start()
+  {
+    if ( running )
+      return;
+
+    running = true;
+    for ( int i = 0; i < stages.size(); i++ )
+      stages.elementAt(i).start();
+  }
+
+
+  /**
+   * Stop the worker threads of all stages and discard pending items.
+   */
+  public synchronized void stop()
+  {
+    running = false;
+    for ( int i = 0; i < stages.size(); i++ )
+      stages.elementAt(i).stop();
+  }
+
+
+  /**
+   * Offer an item to the first stage of the pipeline.
+   *
+   * @param item        The item to process.
+   * @param start_time  The time, from System.nanoTime(), at which the 
+   *                    data in the item was received.
+   *
+   * @return true if the item was queued, false if it was dropped.
+   */
+  public boolean submit( Object item, long start_time )
+  {
+    if ( stages.size() == 0 )
+      throw new IllegalStateException( "pipeline has no stages" );
+
+    return stages.firstElement().offer( new Batch( item, start_time ) );
+  }
+
+
+  /**
+   * Get a summary of the throughput of each stage and of the end-to-end
+   * latency, since the previous call to getReport(), and reset the 
+   * statistics for the next interval.
+   *
+   * @return a multi-line String with one line for each stage, followed
+   *         by one line for the latency.
+   */
+  public String getReport()
+  {
+    long   now     = System.nanoTime();
+    double seconds = Math.max( 1e-3, (now - report_time) / 1.0e9 );
+    report_time = now;
+
+    StringBuffer report = new StringBuffer();
+    for ( int i = 0; i < stages.size(); i++ )
+      report.append( stages.elementAt(i).getReport( seconds ) );
+
+    synchronized( latency_lock )
+    {
+      double average = 0;
+      if ( num_finished > 0 )
+        average = total_latency / num_finished;
+      report.append( String.format( 
+                 "Latency: %d batches, average %8.1f ms, max %8.1f ms\n",
+                  num_finished, average, max_latency ) );
+      num_finished  = 0;
+      total_latency = 0;
+      max_latency   = 0;
+    }
+    return report.toString();
+  }
+
+
+  /**
+   * Record the time taken for an item to get through the whole pipeline.
+   */
+  private void recordLatency( long start_time )
+  {
+    double latency = ( System.nanoTime() - start_time ) / 1.0e6;
+    synchronized( latency_lock )
+    {
+      num_finished++;
+      total_latency += latency;
+      if ( latency > max_latency )
+        max_latency = latency;
+    }
+  }
+
+
+  /**
+   * Get the number of events in a raw event list, a list of events in 
+   * Q, or an array of lists of events in Q.
+   */
+  private static long countEvents( Object value )
+  {
+    if ( value instanceof ITofEventList )
+      return ((ITofEventList)value).numEntries();
+
+    if ( value instanceof IEventList3D )
+      return ((IEventList3D)value).numEntries();
+
+    if ( value instanceof IEventList3D[] )
+    {
+      long total = 0;
+      IEventList3D[] lists = (IEventList3D[])value;
+      for ( int i = 0; i < lists.length; i++ )
+        if ( lists[i] != null )
+          total += lists[i].numEntries();
+      return total;
+    }
+
+    return 0;
+  }
+
+
+  /**
+   * One stage of the pipeline, with its queue, workers and statistics.
+   */
+  private class Stage
+  {
+    private String                       name;
+    private IStageProcessor              processor;
+    private int                          n_threads;
+    private OverflowPolicy               policy;
+    private ArrayBlockingQueue<Batch>    queue;
+    private Stage                        next = null;
+    private Thread[]                     workers;
+
+    private AtomicLong num_items      = new AtomicLong();
+    private AtomicLong num_events     = new AtomicLong();
+    private AtomicLong num_dropped    = new AtomicLong();
+    private AtomicLong dropped_events = new AtomicLong();
+    private AtomicLong num_errors     = new AtomicLong();
+    private AtomicLong busy_nanos     = new AtomicLong();
+
+    Stage( String          name, 
+           IStageProcessor processor, 
+           int             n_threads, 
+           int             capacity,
+           OverflowPolicy  policy )
+    {
+      this.name      = name;
+      this.processor = processor;
+      this.n_threads = n_threads;
+      this.policy    = policy;
+      queue = new ArrayBlockingQueue<Batch>( capacity );
+    }
+
+
+    void start()
+    {
+      workers = new Thread[ n_threads ];
+      for ( int i = 0; i < n_threads; i++ )
+      {
+        workers[i] = new Thread( new Runnable()
+        {
+          public void run()
+          {
+            work();
+          }
+        }, "LiveEventPipeline " + name + " " + i );
+        workers[i].setDaemon( true );
+        workers[i].start();
+      }
+    }
+
+
+    void stop()
+    {
+      if ( workers != null )
+        for ( int i = 0; i < workers.length; i++ )
+          workers[i].interrupt();
+      workers = null;
+      queue.clear();
+    }
+
+
+    /**
+     * Add an item to the queue, following the overflow policy if the
+     * queue is full.
+     *
+     * @return true if the item was queued.
+     */
+    boolean offer( Batch batch )
+    {
+      if ( policy == OverflowPolicy.BLOCK )
+      {
+        try
+        {
+          queue.put( batch );
+          return true;
+        }
+        catch ( InterruptedException ex )
+        {
+          drop( batch );
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+
+      if ( policy == OverflowPolicy.DROP_OLDEST )
+      {
+        while ( !queue.offer( batch ) )
+        {
+          Batch oldest = queue.poll();
+          if ( oldest != null )
+            drop( oldest );
+        }
+        return true;
+      }
+
+      if ( queue.offer( batch ) )
+        return true;
+
+      drop( batch );
+      return false;
+    }
+
+
+    private void drop( Batch batch )
+    {
+      num_dropped.incrementAndGet();
+      dropped_events.addAndGet( batch.num_events );
+    }
+
+
+    /**
+     * Take items from the queue and process them, until the pipeline
+     * is stopped.
+     */
+    private void work()
+    {
+      while ( running )
+      {
+        Batch batch;
+        try
+        {
+          batch = queue.take();
+        }
+        catch ( InterruptedException ex )
+        {
+          return;
+        }
+
+        long    start  = System.nanoTime();
+        Object  result = null;
+        boolean failed = false;
+        try
+        {
+          result = processor.process( batch.value );
+        }
+        catch ( Exception ex )
+        {
+          failed = true;
+          if ( num_errors.incrementAndGet() <= 10 )
+          {
+            System.out.println( "Exception in live data stage " + name );
+            ex.printStackTrace();
+          }
+        }
+        busy_nanos.addAndGet( System.nanoTime() - start );
+        num_items.incrementAndGet();
+        num_events.addAndGet( batch.num_events );
+
+        if ( next == null )
+        {
+          if ( !failed )                   // only count items that made it
+            recordLatency( batch.start_time );
+        }
+
+        else if ( result instanceof Batch )
+          next.offer( (Batch)result );
+
+        else if ( result instanceof Batch[] )
+        {
+          Batch[] results = (Batch[])result;
+          for ( int i = 0; i < results.length; i++ )
+            next.offer( results[i] );
+        }
+
+        else if ( result != null )
+          next.offer( new Batch( result, batch.start_time ) );
+      }
+    }
+
+
+    /**
+     * Get one line summarizing the throughput of this stage, and reset
+     * the counts.
+     */
+    String getReport( double seconds )
+    {
+      long   items   = num_items.getAndSet( 0 );
+      long   events  = num_events.getAndSet( 0 );
+      long   dropped = num_dropped.getAndSet( 0 );
+      long   lost    = dropped_events.getAndSet( 0 );
+      double busy    = busy_nanos.getAndSet( 0 ) / 1.0e9;
+
+      return String.format( "%-10s %8.1f items/s %11.0f events/s " +
+                            "busy %5.1f%%  queued %4d  dropped %d (%d events)"+
+                            "  errors %d\n",
+                            name, items / seconds, events / seconds,
+                            100 * busy / ( seconds * n_threads ),
+                            queue.size(), dropped, lost, num_errors.get() );
+    }
+  }
+
+}
@@ -34,11 +34,11 @@
 
 package EventTools.ShowEventsApp.DataHandlers;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Vector;
 
-import gov.anl.ipns.Operator.IOperator;
-import gov.anl.ipns.Operator.Threads.ParallelExecutor;
-import gov.anl.ipns.Operator.Threads.ExecFailException;
 import gov.anl.ipns.MathTools.Geometry.Vector3D;
 import gov.anl.ipns.MathTools.LinearAlgebra;
 
@@ -46,13 +46,19 @@ import MessageTools.IReceiveMessage;
 import MessageTools.Message;
 import MessageTools.MessageCenter;
 
+import EventTools.EventList.EventList3DCollector;
 import EventTools.EventList.IEventList3D;
+import EventTools.EventList.IEventList3DConsumer;
+import EventTools.EventList.QEventCacheReader;
+import EventTools.EventList.QEventCacheWriter;
 import EventTools.EventList.SNS_Tof_to_Q_map;
 import EventTools.EventList.ITofEventList;
-import EventTools.EventList.MapEventsToQ_Op;
+import EventTools.ShowEventsApp.Command.CachedEventsCmd;
 import EventTools.ShowEventsApp.Command.Commands;
+import EventTools.ShowEventsApp.Command.FileEventsCmd;
 import EventTools.ShowEventsApp.Command.PeaksCmd;
 import EventTools.ShowEventsApp.Command.IntegratePeaksCmd;
+import EventTools.ShowEventsApp.Command.LiveEventsCmd;
 import EventTools.ShowEventsApp.Command.PeakImagesCmd;
 import EventTools.ShowEventsApp.Command.SetNewInstrumentCmd;
 import EventTools.ShowEventsApp.Command.SelectPointCmd;
@@ -68,6 +74,18 @@ import Operators.TOF_SCD.IntegrateUtils;
 
 public class QMapperHandler implements IReceiveMessage
 {
+  private static final int MAP_BLOCK_SIZE = 1 << 21;   // events per block 
+  private static final int N_MAP_THREADS  = 4;         // when mapping to Q
+
+                                 // If this system property names a directory
+                                 // events mapped to Q from event files are
+                                 // cached there, and reused when the same 
+                                 // segment is loaded with the same mapping.
+                                 // Caching is off if the property is not set,
+                                 // since cache files are about as large as
+                                 // the event files.
+  public static final String Q_EVENT_CACHE_DIR = "QEventCacheDir";
+
   private MessageCenter    message_center;
   private String           instrument_name;
   private SNS_Tof_to_Q_map mapper;
@@ -78,6 +96,9 @@ public class QMapperHandler implements IReceiveMessage
   private float[][]        omit_peaks_array  = null; // array with six columns
                                                      // per peak, listing
                                                      // qx,qy,qz,d_qx,d_qy,d_qz
+  private String           det_file_name = null;   // DetCal and other params
+  private String           map_params    = null;   // used to make mapper, for
+                                                   // the Q event cache key
 
   public QMapperHandler( MessageCenter message_center )
   {
@@ -85,6 +106,7 @@ public class QMapperHandler implements IReceiveMessage
     this.message_center = message_center;
     message_center.addReceiver( this, Commands.INIT_NEW_INSTRUMENT );
     message_center.addReceiver( this, Commands.MAP_EVENTS_TO_Q );
+    message_center.addReceiver( this, Commands.LOAD_CACHED_Q_EVENTS );
     message_center.addReceiver( this, Commands.SELECT_POINT );
     message_center.addReceiver( this, Commands.SET_PEAK_Q_LIST );
     message_center.addReceiver( this, Commands.SET_INTEGRATED_PEAKS_LIST );
@@ -163,6 +185,8 @@ public class QMapperHandler implements IReceiveMessage
                                       cmd.getAbsorptionRadius(),
                                       cmd.getTotalAbsorption(),
                                       cmd.getAbsorptionTrue()  );
+      det_file_name = det_file;
+      map_params    = MakeMapParams( cmd );
 
       Util.sendInfo( "QMapper set up for " + instrument_name +
                      "\nUsing Detector File: " + det_file +
@@ -255,10 +279,25 @@ public class QMapperHandler implements IReceiveMessage
        {
          IEventList3D[] event_lists = null;
          boolean lists_ok = true; 
-         ITofEventList ev_list = (ITofEventList)obj;
+         ITofEventList ev_list  = (ITofEventList)obj;
+         LiveEventsCmd live_cmd = null;
+         FileEventsCmd file_cmd = null;
+         if ( obj instanceof LiveEventsCmd )     // live data pipeline will
+         {                                       // pass on the Q events
+           live_cmd = (LiveEventsCmd)obj;
+           ev_list  = live_cmd.getEvents();
+         }
+         else if ( obj instanceof FileEventsCmd )
+         {
+           file_cmd = (FileEventsCmd)obj;
+           ev_list  = file_cmd.getEvents();
+         }
          try
          {
-           event_lists = MapToQ( ev_list );
+           if ( file_cmd != null )
+             event_lists = MapToQ_Cached( file_cmd );
+           else
+             event_lists = MapToQ( ev_list );
          }
          catch (Exception ex)
          {
@@ -270,7 +309,9 @@ public class QMapperHandler implements IReceiveMessage
              if ( event_lists[i] == null )
                lists_ok = false;
 
-         if ( lists_ok )
+         if ( lists_ok && live_cmd != null )
+           live_cmd.setQ_Events( event_lists );
+         else if ( lists_ok )
            for ( int i = 0; i < event_lists.length; i++ )
              message_center.send(new Message( Commands.ADD_EVENTS_TO_HISTOGRAMS,
                                               event_lists[i],
@@ -287,6 +328,17 @@ public class QMapperHandler implements IReceiveMessage
        return false;
     }
 
+    else if ( message.getName().equals(Commands.LOAD_CACHED_Q_EVENTS) )
+    {
+       Object obj = message.getValue();
+       if ( obj != null && obj instanceof CachedEventsCmd )
+       {
+         CachedEventsCmd cmd = (CachedEventsCmd)obj;
+         cmd.setFound( SendCachedEvents( cmd ) );
+       }
+       return false;
+    }
+
     else if ( message.getName().equals(Commands.SET_PEAK_Q_LIST) )
     {
       Object obj = message.getValue();
@@ -724,66 +776,240 @@ public class QMapperHandler implements IReceiveMessage
   }
 
 
+  /**
+   *  Map the events to Q with the streaming form of MapEventsToQ(), so
+   *  only block-size buffers of raw events are used while mapping, rather
+   *  than a copy of all of the raw events.  The mapped blocks are kept,
+   *  in order, since the receivers of ADD_EVENTS_TO_HISTOGRAMS keep
+   *  references to the event lists.
+   */
   private IEventList3D[] MapToQ( ITofEventList ev_list )
   {
-    int N_THREADS = 4;
-
     if ( ev_list == null )
       return null;
 
-
-    int num_events = (int)(ev_list.numEntries());
+    long num_events = ev_list.numEntries();
     if ( num_events <= 0 )
       return null;
 
-    IEventList3D[] event_lists = null;
+    EventList3DCollector collector = new EventList3DCollector();
+    mapper.MapEventsToQ( ev_list, 0, num_events,
+                         MAP_BLOCK_SIZE, N_MAP_THREADS, collector );
+
+//    Util.sendInfo("Converted to Q in " + ((System.nanoTime()-start)/1e6) +
+//                  " ms" );
+    return collector.getEventLists();
+  }
+
 
-    if ( num_events > 400000 )          // split into separate threads
+  /**
+   *  Send the events in Q for a segment of an event file to the histograms,
+   *  directly from the blocks of a cache file, if the Q_EVENT_CACHE_DIR
+   *  property is set and that directory holds a cache file for the segment
+   *  made with the current mapping parameters.  The EventLoader asks for
+   *  this before reading each segment, so cached segments are never read
+   *  from the event file.  If the cache file can't be opened, nothing is
+   *  sent and the segment is read and mapped as usual.  If reading fails
+   *  after some blocks were sent, the failure is reported and the segment
+   *  is still treated as found, so no events are added twice.
+   *
+   *  @return true if the cached events were sent to the histograms.
+   */
+  private boolean SendCachedEvents( CachedEventsCmd cmd )
+  {
+    String cache_dir = System.getProperty( Q_EVENT_CACHE_DIR );
+    if ( cache_dir == null || map_params == null || cmd.numEvents() <= 0 )
+      return false;
+
+    String key = CacheKey( cmd.getEventFile(), 
+                           cmd.getFirstEvent(), 
+                           cmd.numEvents() );
+    String cache_file = QEventCacheWriter.cacheFileName( cache_dir, key );
+    if ( !new File( cache_file ).exists() )
+      return false;
+
+    QEventCacheReader reader = null;
+    try
     {
-      Object results    = null;
-      int    first      = 0;
-      int    num_to_map = num_events/N_THREADS;
+      reader = new QEventCacheReader( cache_file, key );
+    }
+    catch ( IllegalArgumentException ex )
+    {
+      System.out.println( "Can't use " + cache_file + ", mapping " +
+                          "events instead: " + ex.getMessage() );
+      return false;
+    }
 
-      Vector<IOperator> toQ_ops = new Vector<IOperator>();
-      for ( int i = 0; i < N_THREADS; i++ )
-      {
-        if ( i == N_THREADS - 1 )
-          num_to_map = num_events - first;       // bring in the rest
-
-        toQ_ops.add( new MapEventsToQ_Op( ev_list, 
-                                          first, 
-                                          num_to_map,  
-                                          mapper ) );
-        first += num_to_map;
-      }
-      try
+    final long[] num_sent = new long[1];
+    IEventList3DConsumer sender = new IEventList3DConsumer()
+    {
+      public void consume( IEventList3D events )
       {
-        ParallelExecutor exec =
-                           new ParallelExecutor( toQ_ops, N_THREADS, 600000 );
-        results = exec.runOperators();
+        message_center.send( new Message( Commands.ADD_EVENTS_TO_HISTOGRAMS,
+                                          events,
+                                          false,
+                                          true ) );
+        num_sent[0] += events.numEntries();
       }
-      catch ( ExecFailException fail_exception )
+    };
+
+    try
+    {
+      reader.readAll( sender, N_MAP_THREADS );
+      return true;
+    }
+    catch ( RuntimeException ex )
+    {
+      if ( Thread.currentThread().isInterrupted() )
+        throw ex;
+
+      if ( num_sent[0] > 0 )
       {
-        results = fail_exception.getPartialResults();
-        System.out.println("ExecFailException while converting to Q: " +
-                            fail_exception.getFailureStatus() );
+        Util.sendError( "Failed reading Q event cache " + cache_file + 
+                        " after " + num_sent[0] + " events: " + ex );
+        message_center.send( new Message( Commands.LOAD_FAILED,
+                                          null, true, true ) );
+        return true;
       }
+      System.out.println( "Failed to read " + cache_file + ", mapping " +
+                          "events instead: " + ex );
+      return false;
+    }
+    finally
+    {
+      reader.close();
+    }
+  }
+
+
+  /**
+   *  Make the key for the Q event cache file for a segment of an event 
+   *  file, mapped with the current DetCal file and mapping parameters.
+   */
+  private String CacheKey( String event_file, long first, long num_events )
+  {
+    return QEventCacheWriter.makeKey( event_file,
+                                      det_file_name,
+                                      map_params + 
+                                      ";first=" + first +
+                                      ";num="   + num_events );
+  }
 
-      event_lists = new IEventList3D[N_THREADS];
 
-      for ( int i = 0; i < N_THREADS; i++ )
-        event_lists[i] = (IEventList3D)(((Vector)results).elementAt(i));
+  /**
+   *  Map the events for a segment of an event file to Q.  If the
+   *  Q_EVENT_CACHE_DIR property is set, the events are also written to a
+   *  new cache file for the segment.  Cache files that already exist are
+   *  used by SendCachedEvents(), before the segment is read.  Failure to 
+   *  write the cache is reported, but the events are still mapped.
+   */
+  private IEventList3D[] MapToQ_Cached( FileEventsCmd file_cmd )
+  {
+    ITofEventList ev_list = file_cmd.getEvents();
+    String cache_dir = System.getProperty( Q_EVENT_CACHE_DIR );
+    if ( cache_dir == null || map_params == null )
+      return MapToQ( ev_list );
+
+    long num_events = ev_list.numEntries();
+    if ( num_events <= 0 )
+      return null;
+
+    String key = CacheKey( file_cmd.getEventFile(), 
+                           file_cmd.getFirstEvent(), 
+                           num_events );
+    String cache_file = QEventCacheWriter.cacheFileName( cache_dir, key );
+
+    QEventCacheWriter writer = null;
+    try
+    {
+      new File( cache_dir ).mkdirs();
+      writer = new QEventCacheWriter( cache_file, key, 0 );
     }
-    else
+    catch ( IOException ex )
     {
-      event_lists = new IEventList3D[1];
-      int num_to_map = (int)ev_list.numEntries();
-      event_lists[0] = mapper.MapEventsToQ( ev_list, 0, num_to_map );
+      System.out.println( "Can't write Q event cache " + cache_file + 
+                          " : " + ex );
     }
 
-//    Util.sendInfo("Converted to Q in " + ((System.nanoTime()-start)/1e6) +
-//                  " ms" );
-    return event_lists;
+    final EventList3DCollector collector = new EventList3DCollector();
+    final QEventCacheWriter    cache     = writer;
+    IEventList3DConsumer consumer = collector;
+    if ( cache != null )
+      consumer = new IEventList3DConsumer()
+      {
+        public void consume( IEventList3D events )
+        {
+          collector.consume( events );
+          cache.consume( events );
+        }
+      };
+
+    boolean mapped = false;
+    try
+    {
+      mapper.MapEventsToQ( ev_list, 0, num_events,
+                           MAP_BLOCK_SIZE, N_MAP_THREADS, consumer );
+      mapped = true;
+    }
+    finally
+    {
+      if ( cache != null && !mapped )
+        cache.abort();
+    }
+
+    if ( cache != null )
+      try
+      {
+        cache.close();
+      }
+      catch ( IOException ex )
+      {
+        cache.abort();
+        System.out.println( "Failed to finish Q event cache " + cache_file +
+                            " : " + ex );
+      }
+
+    return collector.getEventLists();
+  }
+
+
+  /**
+   *  Make a string listing the parameters used to construct the current
+   *  mapper, other than the DetCal file, to include in the key for
+   *  cached events.  The lists of omitted pixels, Q ranges and peaks are
+   *  only included as a digest, so the key stays short.
+   */
+  private String MakeMapParams( SetNewInstrumentCmd cmd )
+  {
+    String filters = "pixels=" + FilterInfo( omit_pixels_info )   +
+                     ";q="     + FilterInfo( omit_q_range_info )  +
+                     ";peaks=" + Arrays.deepToString( omit_peaks_array );
+
+    return "inst="   + cmd.getInstrumentName() +
+           ";bank="  + QEventCacheWriter.fileInfo( cmd.getBankFileName() ) +
+           ";map="   + QEventCacheWriter.fileInfo( cmd.getIDMapFileName() ) +
+           ";spec="  + QEventCacheWriter.fileInfo( 
+                                        cmd.getIncidentSpectrumFileName() ) +
+           ";abs="   + cmd.getAbsorptionPower()  + 
+           ","       + cmd.getAbsorptionRadius() +
+           ","       + cmd.getTotalAbsorption()  + 
+           ","       + cmd.getAbsorptionTrue()   +
+           ";min_q=" + cmd.getMinQValue() +
+           ";max_q=" + cmd.getMaxQValue() +
+           ";filters=" + QEventCacheWriter.digest( filters );
+  }
+
+
+  /**
+   *  Get a string listing the contents of a Vector of filter information,
+   *  including the contents of any arrays, or "none" if it is null.
+   */
+  private static String FilterInfo( Vector info )
+  {
+    if ( info == null )
+      return "none";
+
+    return Arrays.deepToString( info.toArray() );
   }
 
 }
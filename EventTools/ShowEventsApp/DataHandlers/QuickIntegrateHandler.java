@@ -654,14 +654,22 @@ public class QuickIntegrateHandler implements IReceiveMessage
   }
 
   
-  synchronized public void AddEventsToHistogram( IEventList3D events,
-                                                 boolean      use_weights )
+  /**
+   *  Add a list of events to the current histogram.  Several threads, such
+   *  as the histogram stage of the live data pipeline, may add events at
+   *  the same time.
+   *
+   *  @param events      The list of events in reciprocal space
+   *  @param use_weights Flag indicating whether the events should be
+   *                     weighted, or if each event should count 1.
+   */
+  public void AddEventsToHistogram( IEventList3D events,
+                                    boolean      use_weights )
   {
-                                     // don't search for peaks and change
-    synchronized( histogram )        // the histogram at the same time
-    {
-      histogram.addEvents( events, use_weights );
-    }
+                                     // the histogram may be freed by
+    Histogram3D hist = histogram;    // another thread, and several threads
+    if ( hist != null )              // may add events at the same time
+      hist.addEventsConcurrent( events, use_weights );
   }
 
 }
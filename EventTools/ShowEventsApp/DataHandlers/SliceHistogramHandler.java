@@ -61,14 +61,21 @@ import DataSetTools.operator.Generic.TOF_SCD.PeakQ;
  *  collection of slices in reciprocal space.
  *  It processes messages that clear and add events to the histogram, 
  *  and adjusts the region of reciprocal space that is binned.
+ *  The storage used for the histogram is set by the system property
+ *  SlicesHistogramStorage.  The default, ARRAY, uses a Histogram3D.  FLAT 
+ *  and DIRECT use a FlatHistogram3D with the bins in flat arrays, or in
+ *  direct buffers off the Java heap, respectively.  SPARSE uses a 
+ *  SparseHistogram3D that only allocates the bricks of bins that are hit.
  */
 public class SliceHistogramHandler implements IReceiveMessage
 {
+  public static final String STORAGE_PROPERTY = "SlicesHistogramStorage";
+
   private MessageCenter message_center;
 
   private float[][]     orientation_matrix;
 
-  private Histogram3D   histogram = null;
+  private IHistogram3D  histogram = null;
 
   private boolean       use_weights = false;
 
@@ -226,7 +233,10 @@ public class SliceHistogramHandler implements IReceiveMessage
       if ( histogram != null )
       {
         Vector regions = new Vector();
-        regions.add( histogram );
+        if ( histogram instanceof AbstractHistogram3D )
+          regions.add( ((AbstractHistogram3D)histogram).toHistogram3D() );
+        else
+          regions.add( histogram );
         PeakImagesCmd peak_image_cmd = new PeakImagesCmd( null, regions );
 
         Message peak_images_message =
@@ -447,7 +457,7 @@ public class SliceHistogramHandler implements IReceiveMessage
                                               step_1, num_1 );
     try
     {
-      histogram = new Histogram3D( x_binner, y_binner, z_binner );
+      histogram = MakeHistogram( x_binner, y_binner, z_binner );
       
       Message allocated = new Message( Commands.SLICES_HISTOGRAM_READY,
                                        null, true, true );
@@ -602,6 +612,33 @@ public class SliceHistogramHandler implements IReceiveMessage
   }
 
 
+  /**
+   *  Make a new histogram with the specified edge binners, using the 
+   *  storage set by the SlicesHistogramStorage property.
+   */
+  private static IHistogram3D MakeHistogram( IProjectionBinner3D x_binner,
+                                             IProjectionBinner3D y_binner,
+                                             IProjectionBinner3D z_binner )
+  {
+    String storage = System.getProperty( STORAGE_PROPERTY, "ARRAY" ).trim();
+
+    if ( storage.equalsIgnoreCase( "FLAT" ) )
+      return new FlatHistogram3D( x_binner, y_binner, z_binner, false );
+
+    if ( storage.equalsIgnoreCase( "DIRECT" ) )
+      return new FlatHistogram3D( x_binner, y_binner, z_binner, true );
+
+    if ( storage.equalsIgnoreCase( "SPARSE" ) )
+      return new SparseHistogram3D( x_binner, y_binner, z_binner );
+
+    if ( !storage.equalsIgnoreCase( "ARRAY" ) )
+      System.out.println( "Invalid " + STORAGE_PROPERTY + " " + storage +
+                          ", using ARRAY" );
+
+    return new Histogram3D( x_binner, y_binner, z_binner );
+  }
+
+
   /**
    *  Add a list of events to the current histogram.
    *
@@ -610,14 +647,13 @@ public class SliceHistogramHandler implements IReceiveMessage
    *                     using the weights determined from choices on the
    *                     Load Data screen, or if each event should count 1.
    */
-  synchronized public void AddEventsToHistogram( IEventList3D events,
-                                                 boolean      use_weights )
+  public void AddEventsToHistogram( IEventList3D events,
+                                    boolean      use_weights )
   {
-                                     // don't search for peaks and change
-    synchronized( histogram )        // the histogram at the same time
-    {
-      histogram.addEvents( events, use_weights );
-    }
+                                     // the histogram may be freed by
+    IHistogram3D hist = histogram;   // another thread, and several threads
+    if ( hist != null )              // may add events at the same time
+      hist.addEventsConcurrent( events, use_weights );
   }
 
 }
@@ -36,10 +36,15 @@ package EventTools.ShowEventsApp.DataHandlers;
 
 
 import java.io.*;
+import java.util.Vector;
 
 import EventTools.EventList.FileUtil;
+import EventTools.EventList.IEventList3D;
+import EventTools.EventList.ITofEventList;
 import EventTools.EventList.TofEventList;
 import EventTools.ShowEventsApp.Command.Commands;
+import EventTools.ShowEventsApp.Command.LiveEventsCmd;
+import EventTools.ShowEventsApp.Command.Util;
 import MessageTools.Message;
 import MessageTools.MessageCenter;
 import MessageTools.TimedTrigger;
@@ -49,6 +54,18 @@ import NetComm.UDPReceive;
 /**
  * Class that loads event data sent via UDP sockets and sends the information
  * using messages to listeners.
+ *
+ * The events pass through a LiveEventPipeline with three stages.  The
+ * "decode" stage takes the packets from the UDP thread and collects the
+ * events into blocks.  The "Q map" stage maps each block to Q by 
+ * delivering a MAP_EVENTS_TO_Q message holding a LiveEventsCmd.  The
+ * "histogram" stage delivers the resulting lists of events to the 
+ * receivers of ADD_EVENTS_TO_HISTOGRAMS, which pass them on to the views.
+ * The number of threads and queue size for the stages, and the policy 
+ * used when a stage falls behind, can be set with the system properties
+ * LiveQMapThreads, LiveHistogramThreads, LiveQueueSize and 
+ * LiveOverflowPolicy (BLOCK, DROP_NEWEST or DROP_OLDEST).  The UDP thread
+ * never waits; packets are dropped if the decode stage falls behind.
  * 
  * @author Ruth
  * 
@@ -63,6 +80,13 @@ public class SocketEventLoader implements IUDPUser
                                                  // 10 max size UDP packets
 
    public static int SEND_MIN_TIME = 2000; // ms      
+
+   public static int PACKET_QUEUE_SIZE = 1000;  // packets waiting to decode
+
+   public static int REPORT_INTERVAL = 60000;   // ms between pipeline reports
+
+   private static final byte[] FLUSH = new byte[0];  // asks decode stage to
+                                                     // send any pending events
    UDPReceive         udpReceiver;
    
    boolean            udpReceiverStarted;
@@ -72,14 +96,18 @@ public class SocketEventLoader implements IUDPUser
    MessageCenter      message_center;
 
    int[]              sendBuff ;   
-   
-   int[][]            BuffPool         = new int[10]
-                                              [ SocketEventLoader.BUFF_SIZE ];
-
-   int                currentBuffPage  = 0;
 
    int                Buffstart        = 0;
 
+   long               batchStartTime   = 0;   // when first event in sendBuff
+                                              // was received
+   Vector<LiveEventPipeline.Batch> readyBatches = 
+                                     new Vector<LiveEventPipeline.Batch>();
+
+   LiveEventPipeline  pipeline;
+
+   timerThread        timer;
+
    long               timeStamp        = - 1;
    
    boolean            pause            = false;
@@ -184,9 +212,112 @@ public class SocketEventLoader implements IUDPUser
          sendNEvents = true;
      
      
-     sendBuff = BuffPool[ currentBuffPage ];
+     sendBuff = new int[ SocketEventLoader.BUFF_SIZE ];
+
+     MakePipeline();
      
-     ( new timerThread( this ) ).start();
+     timer = new timerThread( this );
+     timer.start();
+   }
+
+
+   /**
+    * Make and start the pipeline of stages that decode the packets, map
+    * the events to Q and add the events to the histograms.
+    */
+   private void MakePipeline()
+   {
+     int q_threads    = getIntProperty( "LiveQMapThreads", 2 );
+     int hist_threads = getIntProperty( "LiveHistogramThreads", 1 );
+     int queue_size   = getIntProperty( "LiveQueueSize", 4 );
+
+     LiveEventPipeline.OverflowPolicy policy = 
+                                       LiveEventPipeline.OverflowPolicy.BLOCK;
+     String policy_name = System.getProperty( "LiveOverflowPolicy" );
+     if ( policy_name != null )
+       try
+       {
+         policy = LiveEventPipeline.OverflowPolicy.valueOf( 
+                                              policy_name.trim().toUpperCase() );
+       }
+       catch ( IllegalArgumentException ex )
+       {
+         System.out.println( "Invalid LiveOverflowPolicy " + policy_name +
+                             ", using " + policy );
+       }
+
+     pipeline = new LiveEventPipeline();
+
+     pipeline.addStage( "decode",
+                        new LiveEventPipeline.IStageProcessor()
+                        {
+                          public Object process( Object item )
+                          {
+                            return DecodePacket( (byte[])item );
+                          }
+                        },
+                        1, PACKET_QUEUE_SIZE,
+                        LiveEventPipeline.OverflowPolicy.DROP_NEWEST );
+
+     pipeline.addStage( "Q map",
+                        new LiveEventPipeline.IStageProcessor()
+                        {
+                          public Object process( Object item )
+                          {
+                            LiveEventsCmd cmd = 
+                                       new LiveEventsCmd( (ITofEventList)item );
+                            message_center.deliver( new Message( 
+                                 Commands.MAP_EVENTS_TO_Q, cmd, false, false ) );
+                            return cmd.getQ_Events();
+                          }
+                        },
+                        q_threads, queue_size, policy );
+
+     pipeline.addStage( "histogram",
+                        new LiveEventPipeline.IStageProcessor()
+                        {
+                          public Object process( Object item )
+                          {
+                            IEventList3D[] lists = (IEventList3D[])item;
+                            for ( int i = 0; i < lists.length; i++ )
+                              message_center.deliver( new Message(
+                                             Commands.ADD_EVENTS_TO_HISTOGRAMS,
+                                             lists[i], false, false ) );
+                            return null;
+                          }
+                        },
+                        hist_threads, queue_size, policy );
+
+     pipeline.start();
+   }
+
+
+   private static int getIntProperty( String name, int default_value )
+   {
+     String value = System.getProperty( name );
+     if ( value == null )
+       return default_value;
+
+     try
+     {
+       return Math.max( 1, Integer.parseInt( value.trim() ) );
+     }
+     catch ( NumberFormatException ex )
+     {
+       System.out.println( "Invalid " + name + " " + value );
+       return default_value;
+     }
+   }
+
+
+   /**
+    * Get a summary of the throughput of each stage of the live data 
+    * pipeline and of the latency from receiving a packet to adding its
+    * events to the histograms, since the last report.
+    */
+   public String getPipelineReport()
+   {
+     return pipeline.getReport();
    }
   
 
@@ -208,6 +339,8 @@ public class SocketEventLoader implements IUDPUser
    public void close()
    {
      udpReceiver.close();
+     timer.stopTimer();
+     pipeline.stop();
    }
    
  
@@ -268,51 +401,101 @@ public class SocketEventLoader implements IUDPUser
     */
    public void ProcessData(byte[] data, int length)
    {
-
-      synchronized( buffer_lock )
+      if ( pause )
       {
-         if ( pause )
+         synchronized( buffer_lock )
          {
             Buffstart = 0;
-            return;
          }
+         return;
+      }
 
-         if ( data == null || data.length < length )
-            return;
+      if ( data == null || data.length < length )
+         return;
+                                              // UDPReceive reuses its buffer
+      byte[] packet = new byte[ length ];     // so pass on a copy
+      System.arraycopy( data, 0, packet, 0, length );
+      pipeline.submit( packet, System.nanoTime() );
+   }     
 
-         if ( NReceived < 100 && SocketEventLoader.debug == 1 )
-         {
-            System.out.print( "data packet length=" + data.length + ","
-                  + length );
-            
-            System.out.println( String.format( "%02x%02x%02x%02x" , data[0] ,
-                  data[1] , data[2] , data[3] ) );
-         }
 
-         if ( ( NReceived + 1 ) % 200 < 0 )
-         {
-            String firstData = String.format(
-                  "%02x%02x%02x%02x %02x%02x%02x%02x %02x%02x%02x%02x" ,
-                  data[48] , data[49] , data[50] , data[51] , data[52] ,
-                  data[53] , data[54] , data[55] , data[0] , data[1] , data[2] ,
-                  data[3] );
-            System.out.println( "received packets =" + NReceived + ",data="
-                  + firstData );
-            
-         }
+   /**
+    * Process one packet in the decode stage of the pipeline, adding its
+    * events to the current block of events.
+    *
+    * @param data  The packet, or FLUSH to just send the current block if
+    *              enough time has passed.
+    *
+    * @return an array of the blocks of events that are ready for the
+    *         next stage, or null if none are ready.
+    */
+   private Object DecodePacket( byte[] data )
+   {
+      synchronized( buffer_lock )
+      {
+         readyBatches.clear();
 
-         if ( isCommandPacket( data , length ) )
-         {
-            ProcessCommandPacket( data , length );
-            return;
-            
-         } else
-            
-            System.out.println( "Stray Packet" );
+         if ( data == FLUSH )
+            SendMessage( 0 );
 
-         return;
+         else if ( pause )
+            Buffstart = 0;
+
+         else
+            DecodeData( data, data.length );
+
+         if ( readyBatches.size() == 0 )
+            return null;
+
+         LiveEventPipeline.Batch[] batches = 
+                       new LiveEventPipeline.Batch[ readyBatches.size() ];
+         readyBatches.toArray( batches );
+         readyBatches.clear();
+         return batches;
+      }
+   }
+
+
+   /**
+    * Decode one data packet, called from the decode stage.
+    * 
+    * @param data
+    *           the data packet
+    * @param length
+    *           The number of bytes in the data
+    */
+   private void DecodeData(byte[] data, int length)
+   {
+      if ( NReceived < 100 && SocketEventLoader.debug == 1 )
+      {
+         System.out.print( "data packet length=" + data.length + ","
+               + length );
+         
+         System.out.println( String.format( "%02x%02x%02x%02x" , data[0] ,
+               data[1] , data[2] , data[3] ) );
+      }
+
+      if ( ( NReceived + 1 ) % 200 < 0 )
+      {
+         String firstData = String.format(
+               "%02x%02x%02x%02x %02x%02x%02x%02x %02x%02x%02x%02x" ,
+               data[48] , data[49] , data[50] , data[51] , data[52] ,
+               data[53] , data[54] , data[55] , data[0] , data[1] , data[2] ,
+               data[3] );
+         System.out.println( "received packets =" + NReceived + ",data="
+               + firstData );
+         
       }
-   }     
+
+      if ( isCommandPacket( data , length ) )
+      {
+         ProcessCommandPacket( data , length );
+         return;
+         
+      } else
+         
+         System.out.println( "Stray Packet" );
+   }
 
    
    
@@ -370,6 +553,9 @@ public class SocketEventLoader implements IUDPUser
          SendMessage( NEvents );
       }
       
+      if( Buffstart == 0 )
+         batchStartTime = System.nanoTime();
+
       for( int i = Buffstart ; i < Buffstart + 2*NEvents ; i++)
       {
          sendBuff[i]= Cvrt2Int( data, start );
@@ -430,8 +616,18 @@ public class SocketEventLoader implements IUDPUser
      
    
   
-   // Sends a message if enough info has been buffered or enough time has
-   // passed
+   /**
+    * Ask the decode stage to send the current block of events, if enough
+    * time has passed since the last block was sent.
+    */
+   protected void flush()
+   {
+      pipeline.submit( FLUSH, System.nanoTime() );
+   }
+
+
+   // Passes the current block of events on to the next pipeline stage if 
+   // enough info has been buffered or enough time has passed
    protected void SendMessage(int NEvents)
    {
       synchronized( buffer_lock )
@@ -489,8 +685,8 @@ public class SocketEventLoader implements IUDPUser
                   System.out.println( );
             }
             
-         message_center.send( 
-             new Message( Commands.MAP_EVENTS_TO_Q, raw_events, false, true ) );
+         readyBatches.add( 
+                 new LiveEventPipeline.Batch( raw_events, batchStartTime ) );
 
          if( SocketEventLoader.debug == 5)
             System.arraycopy( sendBuff, 0, 
@@ -500,12 +696,9 @@ public class SocketEventLoader implements IUDPUser
          TotalEventDataSent2IsawEV += Buffstart;
          Buffstart = 0;
          
-         //--------------------------Will check first & 2nd entry if neg
-         //                           can reuse
-         currentBuffPage++;
-         currentBuffPage = currentBuffPage % 10;
-         sendBuff = BuffPool[ currentBuffPage ];
-         //------------------------------
+                                    // the block just sent may still be
+                                    // in use, so start a new buffer
+         sendBuff = new int[ SocketEventLoader.BUFF_SIZE ];
          timeStamp = System.currentTimeMillis( );
       }
    }
@@ -540,10 +733,24 @@ public class SocketEventLoader implements IUDPUser
 
       SocketEventLoader user;
 
+      volatile boolean  keep_running = true;
+
+      long              last_report  = System.currentTimeMillis();
+
+      int               last_total   = 0;
+
       public timerThread(SocketEventLoader user)
       {
 
          this.user = user;
+         setDaemon( true );
+      }
+
+
+      public void stopTimer()
+      {
+         keep_running = false;
+         interrupt();
       }
 
       
@@ -555,11 +762,26 @@ public class SocketEventLoader implements IUDPUser
             if ( user == null )
                return;
             
-            while( true )
+            while( keep_running )
             {
                Thread.sleep( SocketEventLoader.SEND_MIN_TIME );
-               user.SendMessage( 0 );
+               user.flush();
+
+               long now = System.currentTimeMillis();
+               if ( now - last_report >= SocketEventLoader.REPORT_INTERVAL )
+               {
+                  String report = user.getPipelineReport();
+                  if ( user.total_received != last_total )
+                     Util.sendInfo( "Live data pipeline:\n" + report );
+                  if ( SocketEventLoader.debug != 0 )
+                     System.out.print( report );
+                  last_total  = user.total_received;
+                  last_report = now;
+               }
             }
+         } catch( InterruptedException s )
+         {
+            return;
          } catch( Exception s )
          {
             System.out.println( "This catch block should not have been empty" );
@@ -157,10 +157,7 @@ public class LocalEventViewHandler implements IReceiveMessage, IhasWindowClosed
 
       System.out.println("******* Sublist size: " + sublist.numEntries() );
 
-      synchronized( histogram )  
-      {
-        histogram.addEvents( sublist, true );
-      }
+      histogram.addEventsConcurrent( sublist, true );
 
       String max_message = String.format(
                         "Max Histogram Value : %4.2f,  Total Events: %d",
@@ -246,6 +246,48 @@ public class MessageCenter
   }
   
   
+  /* ------------------------------ deliver ------------------------------- */
+  /**
+   *  Deliver the specified message immediately to the receivers currently 
+   *  registered for its queue, by calling their receive() methods in the 
+   *  calling thread.  The message is NOT placed in a queue and is not 
+   *  ordered with respect to other messages, and the useNewThread() flag
+   *  of the message is ignored.  This allows a thread that is processing
+   *  a stream of data, such as the live data pipeline, to pass each block 
+   *  of data to the receivers without waiting for the next call to 
+   *  dispatchMessages() and without starting a new thread for each block.
+   *
+   *  @param message  The message that is to be delivered.
+   *
+   *  @return true if at least one receiver returned true.
+   */
+  public boolean deliver( Message message )
+  {
+    if ( message == null || message.getName() == null )
+    {
+      System.out.println("Warning: null message in "
+                        + center_name + " MessageCenter.deliver()");
+      return false;
+    }
+
+    Vector<IReceiveMessage> listeners;
+    synchronized( lists_lock )
+    {
+      Vector<IReceiveMessage> list = receiver_table.get( message.getName() );
+      if ( list == null )
+        return false;
+      listeners = new Vector<IReceiveMessage>( list );
+    }
+
+    boolean some_changed = false;
+    for ( int j = 0; j < listeners.size(); j++ )
+      if ( listeners.elementAt(j).receive( message ) )
+        some_changed = true;
+
+    return some_changed;
+  }
+
+
   /* --------------------------- addReceiver ------------------------------ */
   /**
    *  Add the specified receiver object to the specified message queue.  If
@@ -87,6 +87,7 @@ public class CommandObject implements Serializable
   public static final int GET_SUMMARY     = 150; // to specify the data
   public static final int GET_DS_ID_RANGE = 160; 
   public static final int GET_DS_X_RANGE  = 170; 
+  public static final int GET_DS_BINARY   = 180; // DataSet as BinaryDataSet
   public static final int END_DATA_CMDS   = 200; // BOUND ON DATA COMMANDS
 
   public static final int GET_FILE_NAMES   = 210;// This can only be used with a
@@ -107,6 +108,7 @@ public class CommandObject implements Serializable
                                                  GET_DS_TYPES,
                                                  GET_DS_NAME,
                                                  GET_DS,
+                                                 GET_DS_BINARY,
                                                  GET_DATA_BLOCKS,
                                                  GET_SUMMARY,
                                                  GET_FILE_NAMES,
@@ -121,6 +123,7 @@ public class CommandObject implements Serializable
                                                 "GET_DS_TYPES",   
                                                 "GET_DS_NAME",
                                                 "GET_DS",
+                                                "GET_DS_BINARY",
                                                 "GET_DATA_BLOCKS",
                                                 "GET_SUMMARY",
                                                 "GET_FILE_NAMES",
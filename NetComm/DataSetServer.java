@@ -58,14 +58,25 @@ package NetComm;
 import gov.anl.ipns.Util.Sys.*;
 
 import java.io.*;
+import java.lang.ref.*;
 import java.util.*;
+import DataSetTools.dataset.*;
 import DataSetTools.retriever.*;
 
 /**
  *  This is a base class for servers that receive requests for DataSets and 
  *  sends them to clients on a network.  It adds some commands, utility 
  *  methods and a list of data directories that are used by both 
- *  LiveDataServers and FileDataServers
+ *  LiveDataServers and FileDataServers.
+ *  Retrievers for recently used files, and recently served DataSets, are
+ *  kept in LRU caches, so that repeated requests for the same runs don't
+ *  re-open and re-parse the files.  The number of open Retrievers and the
+ *  total size of the cached DataSets are bounded, and the DataSets are only
+ *  softly referenced, so they are dropped if memory runs low.  Cached
+ *  entries are discarded if the file is modified.  Different files can be
+ *  opened and read at the same time, while requests for the same file or 
+ *  DataSet wait for the first request, then use the cached result.  Cache
+ *  hits and misses are reported in the server log.
  *
  *  @see NetComm.LiveDataServer 
  *  @see NetComm.FileDataServer 
@@ -74,9 +85,38 @@ import DataSetTools.retriever.*;
 
 public class DataSetServer extends TCPServer 
 {
+  public static final int  DEFAULT_MAX_RETRIEVERS = 8;
+  public static final long DEFAULT_MAX_DS_BYTES   = 256L * 1024 * 1024;
+
+  private static final int NUM_LOAD_LOCKS = 32;
 
   protected  Vector  directory_names = null;
 
+  private int    max_retrievers = DEFAULT_MAX_RETRIEVERS;
+  private long   max_ds_bytes   = DEFAULT_MAX_DS_BYTES;
+
+  private final Object cache_lock = new Object();  // guards caches & counts
+  private LinkedHashMap<String,CachedRetriever> retrievers = 
+                         new LinkedHashMap<String,CachedRetriever>(16,0.75f,true);
+  private LinkedHashMap<String,CachedDataSet>   data_sets  = 
+                         new LinkedHashMap<String,CachedDataSet>(16,0.75f,true);
+  private long   ds_bytes           = 0;
+  private long   retriever_hits     = 0;
+  private long   retriever_misses   = 0;
+  private long   ds_hits            = 0;
+  private long   ds_misses          = 0;
+  private long   ds_evictions       = 0;
+                                     // Retrievers that are cached or in use,
+                                     // and evicted Retrievers waiting to be
+                                     // closed once no longer in use
+  private IdentityHashMap<Retriever,CachedRetriever> open_retrievers =
+                              new IdentityHashMap<Retriever,CachedRetriever>();
+  private Vector<Retriever> retrievers_to_close = new Vector<Retriever>();
+
+  private Object[] retriever_locks  = makeLocks();  // only one thread opens
+  private Object[] data_set_locks   = makeLocks();  // a file or reads a 
+                                                    // DataSet at a time
+
   /* ---------------------------- Constructor -------------------------- */
   /**
    *  Construct a DataSetServer with an empty list of DataSets.
@@ -164,6 +204,23 @@ public class DataSetServer extends TCPServer
        count++;
        dir_name = StringUtil.getCommand( count, "-D", args );
      }
+
+     int  num_retrievers = max_retrievers;
+     long num_ds_bytes   = max_ds_bytes;
+     try
+     {
+       String command = StringUtil.getCommand( 1, "-R", args );
+       if ( command.length() > 0 )
+         num_retrievers = Integer.parseInt( command );
+
+       command = StringUtil.getCommand( 1, "-M", args );
+       if ( command.length() > 0 )
+         num_ds_bytes = Long.parseLong( command ) * 1024 * 1024;
+     }
+     catch ( NumberFormatException e )
+     {
+     }
+     setCacheLimits( num_retrievers, num_ds_bytes );
    }
 
   /* ----------------------- showDataSetServerUsage ----------------------- */
@@ -177,6 +234,48 @@ public class DataSetServer extends TCPServer
     System.out.println("                   To add multiple directories, use");
     System.out.println("                   -D multiple times, once for each");
     System.out.println("                   additional directory.");
+    System.out.println("  -R<number>       Set max number of open files");
+    System.out.println("  -M<megabytes>    Set max memory for cached DataSets");
+   }
+
+
+  /* --------------------------- setCacheLimits ------------------------- */
+  /**
+   *  Set the limits on the number of Retrievers and on the total size of
+   *  the DataSets that are kept in the caches.  Setting either limit to
+   *  zero disables that cache.
+   *
+   *  @param  max_retrievers  The maximum number of open Retrievers to keep.
+   *  @param  max_ds_bytes    The maximum total size, in bytes, of the 
+   *                          DataSets to keep.
+   */
+   public void setCacheLimits( int max_retrievers, long max_ds_bytes )
+   {
+     synchronized( cache_lock )
+     {
+       this.max_retrievers = Math.max( 0, max_retrievers );
+       this.max_ds_bytes   = Math.max( 0, max_ds_bytes );
+       trimCaches();
+     }
+   }
+
+
+  /* ---------------------------- clearCaches --------------------------- */
+  /**
+   *  Remove all Retrievers and DataSets from the caches.
+   */
+   public void clearCaches()
+   {
+     synchronized( cache_lock )
+     {
+       Iterator<CachedRetriever> r_iter = retrievers.values().iterator();
+       while ( r_iter.hasNext() )
+         evict( r_iter.next() );
+       retrievers.clear();
+       data_sets.clear();
+       ds_bytes = 0;
+     }
+     closeEvicted();
    }
 
 
@@ -189,7 +288,13 @@ public class DataSetServer extends TCPServer
  /* ---------------------------- get_retriever --------------------------- */
  /**
   *  Get a Retriver for the specified file, currently IPNS runfiles and
-  *  NeXus files are supported.  
+  *  NeXus files are supported.  A cached Retriever is returned if the file
+  *  was used recently and has not been modified since.  Retrievers are
+  *  shared by all clients, so calls to a Retriever should be synchronized
+  *  on the Retriever.  Retrievers for different files can be made at the
+  *  same time.  Each Retriever obtained from this method must be passed to
+  *  release_retriever() when it is no longer needed, so that Retrievers 
+  *  removed from the cache can be closed.
   *
   *  @param file_name  The base name of the file, relative to one of the
   *                    directories available in the list of directories.
@@ -199,14 +304,191 @@ public class DataSetServer extends TCPServer
   *          otherwise.
   */
 
-  synchronized protected Retriever get_retriever( String file_name )
+  protected Retriever get_retriever( String file_name )
   {
     String full_name = find_file( file_name );
-    Retriever retriever = null;
+    if ( full_name == null )
+      return null;
+ 
+    long modified = new File( full_name ).lastModified();
+    synchronized( getLock( retriever_locks, full_name ) )
+    {
+      synchronized( cache_lock )
+      {
+        CachedRetriever cached = retrievers.get( full_name );
+        if ( cached != null && cached.modified == modified )
+        {
+          retriever_hits++;
+          cached.users++;
+          return cached.retriever;
+        }
+        retriever_misses++;
+      }
+
+      Retriever retriever = make_retriever( full_name );
+
+      if ( retriever != null )
+      {
+        synchronized( cache_lock )
+        {
+          CachedRetriever entry = new CachedRetriever( retriever, modified );
+          entry.users = 1;
+          CachedRetriever old = retrievers.put( full_name, entry );
+          if ( old != null )                       // file was modified
+            evict( old );
+          open_retrievers.put( retriever, entry );
+          trimCaches();
+        }
+        closeEvicted();
+      }
+
+      return retriever;
+    }
+  }
+
+
+ /* -------------------------- release_retriever ------------------------- */
+ /**
+  *  Release a Retriever obtained from get_retriever().  If the Retriever
+  *  was removed from the cache while in use, it is closed when the last
+  *  user releases it.
+  *
+  *  @param retriever  The Retriever to release, may be null.
+  */
+  protected void release_retriever( Retriever retriever )
+  {
+    if ( retriever == null )
+      return;
 
+    synchronized( cache_lock )
+    {
+      CachedRetriever entry = open_retrievers.get( retriever );
+      if ( entry != null )
+      {
+        entry.users--;
+        if ( entry.evicted && entry.users <= 0 )
+        {
+          open_retrievers.remove( retriever );
+          retrievers_to_close.add( retriever );
+        }
+      }
+    }
+    closeEvicted();
+  }
+
+
+ /* ---------------------------- get_data_set --------------------------- */
+ /**
+  *  Get the specified DataSet from the specified file.  A cached DataSet 
+  *  is returned if the DataSet was sent recently and the file has not been
+  *  modified since.  The DataSet is shared by all clients, so it must not
+  *  be changed.  
+  *
+  *  @param file_name  The base name of the file, relative to one of the
+  *                    directories available in the list of directories.
+  *  @param ds_num     The number of the DataSet in the file.
+  *
+  *  @return Return the requested DataSet, or null if the file or DataSet
+  *          does not exist.
+  */
+  protected DataSet get_data_set( String file_name, int ds_num )
+  {
+    String full_name = find_file( file_name );
     if ( full_name == null )
       return null;
  
+    long   modified = new File( full_name ).lastModified();
+    String key      = full_name + "#" + ds_num;
+    synchronized( getLock( data_set_locks, key ) )
+    {
+      synchronized( cache_lock )
+      {
+        CachedDataSet cached = data_sets.get( key );
+        if ( cached != null )
+        {
+          DataSet ds = cached.data_set.get();
+          if ( ds != null && cached.modified == modified )
+          {
+            ds_hits++;
+            return ds;
+          }
+          data_sets.remove( key );
+          ds_bytes -= cached.size;
+        }
+        ds_misses++;
+      }
+
+      Retriever retriever = get_retriever( file_name );
+      if ( retriever == null )
+        return null;
+
+      DataSet ds;
+      try
+      {
+        synchronized( retriever )
+        {
+          ds = retriever.getDataSet( ds_num );
+        }
+      }
+      finally
+      {
+        release_retriever( retriever );
+      }
+
+      if ( ds != null )
+      {
+        ds.deleteIObservers();
+        long size = sizeOf( ds );
+        synchronized( cache_lock )
+        {
+          if ( size <= max_ds_bytes )
+          {
+            data_sets.put( key, new CachedDataSet( ds, size, modified ) );
+            ds_bytes += size;
+            trimCaches();
+          }
+        }
+      }
+      return ds;
+    }
+  }
+
+
+ /* --------------------------- getLogSummary --------------------------- */
+ /**
+  *  Get the cache statistics to be written in the server log.
+  *
+  *  @return A String with the cache sizes, hits and misses.
+  */
+  protected String getLogSummary()
+  {
+    synchronized( cache_lock )
+    {
+      return "Retriever cache: " + retrievers.size() + " open, " +
+                                   retriever_hits + " hits, " + 
+                                   retriever_misses + " misses\n" +
+             "DataSet cache:   " + data_sets.size() + " DataSets, " + 
+                                   (ds_bytes / (1024*1024)) + " MB, " +
+                                   ds_hits + " hits, " +
+                                   ds_misses + " misses, " +
+                                   ds_evictions + " evicted\n";
+    }
+  }
+
+
+ /* --------------------------- make_retriever --------------------------- */
+ /**
+  *  Make a new Retriever for the specified file.
+  *
+  *  @param full_name  The fully qualified name of the file.
+  *
+  *  @return A new Retriever for the file, or null if the file is not one
+  *          of the supported types of files.
+  */
+  protected Retriever make_retriever( String full_name )
+  {
+    Retriever retriever = null;
+
     String temp = full_name.toUpperCase();
     if ( temp.endsWith( "RUN" ) )
       retriever = new RunfileRetriever( full_name );
@@ -217,7 +499,7 @@ public class DataSetServer extends TCPServer
     return retriever;
   }
 
- /*-------------------------------------------------------------------------
+/*-------------------------------------------------------------------------
   *
   *  PRIVATE METHODS
   *
@@ -262,6 +544,161 @@ public class DataSetServer extends TCPServer
   }
 
 
+/* ------------------------------ trimCaches ----------------------------- */
+ /**
+  *  Remove the least recently used entries from the caches until they are
+  *  within the limits, dropping any DataSets that were already discarded
+  *  by the garbage collector.  This must be called while holding the 
+  *  cache_lock.  Evicted Retrievers are closed by closeEvicted(), which
+  *  must be called after releasing the cache_lock.
+  */
+  private void trimCaches()
+  {
+    Iterator<Map.Entry<String,CachedRetriever>> r_iter = 
+                                              retrievers.entrySet().iterator();
+    while ( retrievers.size() > max_retrievers && r_iter.hasNext() )
+    {
+      evict( r_iter.next().getValue() );
+      r_iter.remove();
+    }
+
+    Iterator<CachedDataSet> ds_iter = data_sets.values().iterator();
+    while ( ds_iter.hasNext() )
+    {
+      CachedDataSet cached = ds_iter.next();
+      if ( ds_bytes > max_ds_bytes || cached.data_set.get() == null )
+      {
+        ds_iter.remove();
+        ds_bytes -= cached.size;
+        ds_evictions++;
+      }
+    }
+  }
+
+
+/* -------------------------------- evict -------------------------------- */
+ /**
+  *  Mark a Retriever that was removed from the cache as evicted, and queue
+  *  it to be closed if it is not in use.  This must be called while 
+  *  holding the cache_lock.
+  */
+  private void evict( CachedRetriever entry )
+  {
+    entry.evicted = true;
+    if ( entry.users <= 0 )
+    {
+      open_retrievers.remove( entry.retriever );
+      retrievers_to_close.add( entry.retriever );
+    }
+  }
+
+
+/* ----------------------------- closeEvicted ---------------------------- */
+ /**
+  *  Close the evicted Retrievers that are no longer in use.  This must NOT
+  *  be called while holding the cache_lock, since closing a Retriever 
+  *  waits for any thread that is still using it.
+  */
+  private void closeEvicted()
+  {
+    Vector<Retriever> to_close;
+    synchronized( cache_lock )
+    {
+      if ( retrievers_to_close.isEmpty() )
+        return;
+      to_close = retrievers_to_close;
+      retrievers_to_close = new Vector<Retriever>();
+    }
+
+    for ( int i = 0; i < to_close.size(); i++ )
+    {
+      Retriever retriever = to_close.elementAt(i);
+      synchronized( retriever )
+      {                                    // RunfileRetrievers close the
+        if ( retriever instanceof NexusRetriever )    // file after each use
+          ((NexusRetriever)retriever).close();
+      }
+    }
+  }
+
+
+/* -------------------------------- sizeOf ------------------------------- */
+ /**
+  *  Estimate the memory used by the x, y and error values of a DataSet,
+  *  from the number of x values of each Data block.  The y values are not 
+  *  used, since getting them would force lazily loaded Data to be read.
+  */
+  private static long sizeOf( DataSet ds )
+  {
+    long size = 0;
+    for ( int i = 0; i < ds.getNum_entries(); i++ )
+    {
+      int num_x = ds.getData_entry(i).getX_scale().getNum_x();
+      size += 12L * num_x;          // 4 bytes per x, y and error value
+    }
+    return size;
+  }
+
+
+/* ------------------------------- getLock ------------------------------- */
+ /**
+  *  Get the lock object to use for the specified key.
+  */
+  private static Object getLock( Object[] locks, String key )
+  {
+    return locks[ (key.hashCode() & 0x7FFFFFFF) % locks.length ];
+  }
+
+
+/* ------------------------------ makeLocks ------------------------------ */
+ /**
+  *  Make a set of lock objects.
+  */
+  private static Object[] makeLocks()
+  {
+    Object[] locks = new Object[ NUM_LOAD_LOCKS ];
+    for ( int i = 0; i < locks.length; i++ )
+      locks[i] = new Object();
+    return locks;
+  }
+
+
+ /*-------------------------------------------------------------------------
+  *
+  *  PRIVATE CLASSES
+  *
+  */
+
+  private static class CachedRetriever
+  {
+    Retriever retriever;
+    long      modified;
+    int       users   = 0;          // number of unreleased get_retriever()
+    boolean   evicted = false;      // true once removed from the cache
+
+    CachedRetriever( Retriever retriever, long modified )
+    {
+      this.retriever = retriever;
+      this.modified  = modified;
+    }
+  }
+
+
+  private static class CachedDataSet
+  {
+    SoftReference<DataSet> data_set;
+    long                   size;
+    long                   modified;
+
+    CachedDataSet( DataSet data_set, long size, long modified )
+    {
+      this.data_set = new SoftReference<DataSet>( data_set );
+      this.size     = size;
+      this.modified = modified;
+    }
+  }
+
+
   /* ------------------------------ main --------------------------------- */
 
   public static void main(String args[])
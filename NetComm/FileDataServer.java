@@ -102,7 +102,10 @@ public class FileDataServer extends DataSetServer
 
   /* -------------------------- ProcessCommand -------------------------- */
   /**
-   *  Method to process commands from a TCP client.  
+   *  Method to process commands from a TCP client.  This is not
+   *  synchronized, so requests from different clients can be processed 
+   *  at the same time.  Retrievers and DataSets are obtained from the
+   *  caches in DataSetServer.
    *
    *  @param  command    The command object sent by the client.
    *
@@ -113,8 +116,8 @@ public class FileDataServer extends DataSetServer
    *          needed. Returns false if the command was not handled, and
    *          so some response must still be sent back to the client.
    */
-   synchronized public boolean ProcessCommand( CommandObject   command,
-                                               ThreadedTCPComm tcp_io   )
+   public boolean ProcessCommand( CommandObject   command,
+                                  ThreadedTCPComm tcp_io   )
    {
       if ( debug_server )
         System.out.println("FileDataServer ProcessCommand called:"+command);
@@ -129,41 +132,45 @@ public class FileDataServer extends DataSetServer
             tcp_io.Send( new Integer( RemoteDataRetriever.BAD_FILE_NAME ) );
           else
           {
-            int n_ds = r.numDataSets();
-            int types[] = new int[ n_ds ];
-            for ( int i = 0; i < n_ds; i++ )
-              types[i] = r.getType(i);
+            int types[];
+            try
+            {
+              synchronized( r )                  // retriever may be shared
+              {
+                int n_ds = r.numDataSets();
+                types = new int[ n_ds ];
+                for ( int i = 0; i < n_ds; i++ )
+                  types[i] = r.getType(i);
+              }
+            }
+            finally
+            {
+              release_retriever( r );
+            }
             tcp_io.Reset();
             tcp_io.Send( types );
-            r = null; 
-            //System.gc();
           }
         }
 
-        else if ( command.getCommand() == CommandObject.GET_DS )
+        else if ( command.getCommand() == CommandObject.GET_DS        ||
+                  command.getCommand() == CommandObject.GET_DS_BINARY  )
         { 
           int index = ((GetDataCommand)command).getDataSetNumber();
           String file_name = ((GetDataCommand)command).getFilename();
-          Retriever r = get_retriever( file_name );
-          if ( r == null )
-            tcp_io.Send( DataSet.EMPTY_DATA_SET );
-          else 
-          { 
-            DataSet ds = r.getDataSet( index );
-
-            if ( ds != null )                           // remove observers
-            {                                           // before sending
-              if ( debug_server )
-                System.out.println("Trying to send " + ds );
-              ds.deleteIObservers(); 
-              data_name = ds.getTitle();
+          DataSet ds = get_data_set( file_name, index );  // observers have
+                                                          // been removed
+          if ( ds != null )
+          {
+            String data_name = ds.getTitle();
+            if ( debug_server )
+              System.out.println("Trying to send " + data_name );
+            if ( command.getCommand() == CommandObject.GET_DS_BINARY )
+              tcp_io.Send( new BinaryDataSet( ds ) );
+            else
               tcp_io.Send( ds );
-            }
-            else                                       
-              tcp_io.Send( DataSet.EMPTY_DATA_SET );
-            r = null; 
-            //System.gc();
           }
+          else                                       
+            tcp_io.Send( DataSet.EMPTY_DATA_SET );
         }
   
         else if ( command.getCommand() == CommandObject.GET_STATUS )
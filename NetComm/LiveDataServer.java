@@ -326,11 +326,31 @@ public class LiveDataServer extends    DataSetServer
     System.out.println("FileName: " + file_name );
 
     Retriever rr = get_retriever( file_name );
-
+    int[]     rr_types = null;
+    DataSet[] rr_ds    = null;
     if ( rr != null )
+      try
+      {
+        synchronized( rr )                 // cached retriever may be shared
+        {
+          rr_types = new int[ rr.numDataSets() ];
+          rr_ds    = new DataSet[ rr_types.length ];
+          for ( int i = 0; i < rr_types.length; i++ )
+          {
+            rr_types[i] = rr.getType( i );
+            rr_ds[i]    = rr.getDataSet( i );
+          }
+        }
+      }
+      finally
+      {
+        release_retriever( rr );
+      }
+
+    if ( rr_ds != null )
     {
       max_seg_id = 0;
-      int num_data_sets = rr.numDataSets();
+      int num_data_sets = rr_ds.length;
       if ( num_data_sets > 0 )
       {
         data_set     = new DataSet[ num_data_sets ];
@@ -342,8 +362,8 @@ public class LiveDataServer extends    DataSetServer
         max_tof      = new float[ num_data_sets ];
         for ( int i = 0; i < num_data_sets; i++ )
         {
-          ds_type[i] = rr.getType( i ); 
-          data_set[i] = rr.getDataSet( i ); 
+          ds_type[i] = rr_types[i]; 
+          data_set[i] = rr_ds[i]; 
           SetToZero( data_set[i] );
 
           comp_ds[i]      = null;
@@ -491,7 +511,9 @@ public class LiveDataServer extends    DataSetServer
   
   /* -------------------------- ProcessCommand -------------------------- */
   /**
-   *  Method to process commands from a TCP client.  
+   *  Method to process commands from a TCP client.  This is synchronized,
+   *  since the live DataSets it sends are shared by all clients and are
+   *  also updated as UDP packets arrive.
    *
    *  @param  command    The command object sent by the client.
    *
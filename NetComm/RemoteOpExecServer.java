@@ -78,8 +78,11 @@ public class RemoteOpExecServer extends TCPServer
 
   /* -------------------------- ProcessCommand -------------------------- */
   /**
-   *  Method to process commands from a TCP client.  
-   * *  @param  command    The command object sent by the client.
+   *  Method to process commands from a TCP client.  This is synchronized,
+   *  since operators may use state shared through the rest of the system,
+   *  so only one operator is executed at a time.
+   *
+   *  @param  command    The command object sent by the client.
    *
    *  @param  tcp_io     The TCP communications object to which the response
    *                     must be sent.
@@ -162,7 +162,9 @@ public class TCPComm
    *  @param  data_obj  The object to send.  The object (and any member 
    *                    objects) must be serializable.  The object will be
    *                    written to the ObjectOutputStream associated with
-   *                    the TCP connection.  
+   *                    the TCP connection.  DataSets are sent as
+   *                    CompressedDataSets.  To send a DataSet in the framed
+   *                    binary form, pass a BinaryDataSet instead.
    */
   public void Send( Object data_obj ) throws IOException
   {
@@ -226,6 +228,8 @@ public class TCPComm
       data_obj = obj_in_stream.readObject( );
       if ( data_obj instanceof CompressedDataSet )            // expand it 
         data_obj = ((CompressedDataSet)data_obj).getDataSet();    
+      else if ( data_obj instanceof BinaryDataSet )      // already decoded
+        data_obj = ((BinaryDataSet)data_obj).getDataSet();
     }
     catch( ClassNotFoundException e )
     {
@@ -60,6 +60,7 @@ import gov.anl.ipns.Util.Sys.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  *  This is a base class for servers that receive TCP requests from clients
@@ -67,6 +68,14 @@ import java.util.*;
  *  passwords (not fully implemented) and passes requests on to the 
  *  ProcessCommand() method.  The ProcessCommand() method must be implemented
  *  in a derived class to provide the needed functionality.
+ *  Each client connection has its own thread that reads requests, but the
+ *  requests are carried out by a bounded pool of worker threads, so that
+ *  requests from different clients can be processed at the same time, 
+ *  while limiting the total number of requests being processed.  The thread
+ *  for a connection waits for its current request to finish before reading
+ *  the next request from that client, so one busy client can not flood the
+ *  pool.  Since ProcessCommand() may be called by several threads at once,
+ *  derived classes must only lock the shared state that they use.
  *
  *  @see ITCPUser
  *  @see TCPComm
@@ -89,6 +98,7 @@ public class TCPServer implements ITCPUser
 
   public static final int    DEFAULT_SERVER_TCP_PORT = 6088;
   public static final String DEFAULT_PASSWORD        = "IPNS";
+  public static final int    DEFAULT_NUM_WORKERS     = 8;
 
   public static boolean debug_server = false;
 
@@ -104,6 +114,8 @@ public class TCPServer implements ITCPUser
   private    String    server_name      = "TCPServer";
   private    int       current_tcp_port = DEFAULT_SERVER_TCP_PORT;
   private    String    start_time       = "";
+  private    int       num_workers      = DEFAULT_NUM_WORKERS;
+  private    ExecutorService workers    = null;
   protected  String    data_name        = "DEFAULT_DATA_NAME"; 
                                                     // identifier for last
                                                     // data processed.   
@@ -193,14 +205,43 @@ public class TCPServer implements ITCPUser
    }
 
 
+  /* --------------------------- setNumWorkers ------------------------- */
+  /**
+   *  Set the maximum number of client requests that will be processed at
+   *  the same time.  To be effective this must be called before the first
+   *  request is received.
+   *
+   *  @param  num  The number of worker threads to use.  If this is less
+   *               than 1, DEFAULT_NUM_WORKERS will be used.
+   */
+  public void setNumWorkers( int num )
+  {
+     if ( num < 1 )
+       num_workers = DEFAULT_NUM_WORKERS;
+     else
+       num_workers = num;
+  }
+
+
+  /* --------------------------- getNumWorkers ------------------------- */
+  /**
+   *  Get the maximum number of client requests that will be processed at
+   *  the same time.
+   */
+  public int getNumWorkers()
+  {
+     return num_workers;
+  }
+
+
   /* ------------------------- parseArgs ----------------------------- */
   /**
    *  Parse a list of command line arguments to extract values for the
    *  server name, log file name and TCP port.  This will typically be 
    *  used instead of separately calling the methods to set these individually,
    *  if the values are specified on a command line.  Commands supported at
-   *  this level are -L, -S, -T to specify the Logfile name, Server name and
-   *  TCP port respectively.  Commands to control usernames and passwords 
+   *  this level are -L, -S, -T, -W to specify the Logfile name, Server name,
+   *  TCP port and number of worker threads respectively.  Commands to control usernames and passwords 
    *  may be added to this level later. 
    *
    *  @param args  Array of strings from the command line, containing 
@@ -227,6 +268,19 @@ public class TCPServer implements ITCPUser
        {
        }
      }
+
+     command = StringUtil.getCommand( 1, "-W", args );
+     if ( command.length() > 0 )
+     {
+       try
+       {
+         int value = Integer.parseInt(command);
+         setNumWorkers( value ); 
+       }
+       catch ( NumberFormatException e )
+       {
+       }
+     }
    } 
 
 
@@ -240,6 +294,8 @@ public class TCPServer implements ITCPUser
      System.out.println("  -T<port>         Set TCP port to use");
      System.out.println("  -L<file name>    Set name of log file");
      System.out.println("  -S<name>         Set name for server in log file");
+     System.out.println("  -W<number>       Set max number of requests to");
+     System.out.println("                   process at the same time");
    }
 
 
@@ -269,11 +325,14 @@ public class TCPServer implements ITCPUser
    *  @param  tcp_io     The TCP communications object to which the response
    *                     must be sent.
    *
+   *  This may be called by several worker threads at once, for requests
+   *  from different clients.
+   *
    *  @return True if the command was processed and no further action is 
    *          needed. Returns false if the command was not handled, and
    *          so some response must still be sent back to the client. 
    */
-   synchronized public boolean ProcessCommand( CommandObject   command, 
+   public boolean ProcessCommand( CommandObject   command, 
                                                ThreadedTCPComm tcp_io   )
    {  
      if ( debug_server )
@@ -291,7 +350,10 @@ public class TCPServer implements ITCPUser
   *  Method to process data from a TCP client.  This is the method needed
   *  to implement the ITCPUser interface.  It is called whenever an Object
   *  is received from a TCP client.  The Object should consist of a String
-  *  command, requiring a response from the server.
+  *  command, requiring a response from the server.  Commands are passed to
+  *  the pool of worker threads, and this method waits until the command
+  *  has been processed, before returning to read the next request from 
+  *  the same client.
   *
   *  @param  data_obj   The object sent by the client.  This must be a
   *                     string in order to be processed by this method.
@@ -299,61 +361,39 @@ public class TCPServer implements ITCPUser
   *  @param  tcp_io     The TCP communications object to which the response
   *                     must be sent.
   */
-  synchronized public void ProcessData(Object data_obj, ThreadedTCPComm tcp_io)
+  public void ProcessData( Object data_obj, final ThreadedTCPComm tcp_io )
   {
 
     if ( data_obj instanceof CommandObject )
     {
-      CommandObject command = (CommandObject)data_obj; 
+      final CommandObject command = (CommandObject)data_obj; 
       if ( debug_server )
         System.out.println("Received request " + command );
-      try
-      {
-        if ( command != null )
-        {
-          user_name = command.getUsername();
-          MakeLogEntry(command.toString(),tcp_io.getInetAddressString(),false);
-        }
-        else
-          MakeLogEntry("NULL COMMAND",tcp_io.getInetAddressString(),false);
 
-        if ( CheckPassword( command ) )
-        {
-          if ( !ProcessCommand( command, tcp_io ) )
-          {
-            System.out.println("ERROR: Process command failed");
-            MakeLogEntry( "Command failed for" + command,
-                          tcp_io.getInetAddressString(), 
-                          true );
-            tcp_io.Send( ANSWER_NOT_OK );
-          }  
-        }
-        else                                           // break connection
+      Future<?> result = getWorkers().submit( new Runnable()
+      {
+        public void run()
         {
-          if ( !user_ok )
-            System.out.println("ERROR: user name not valid in TCPServer");
-
-          if ( !password_ok )
-            System.out.println("ERROR: password not valid in TCPServer");
-
-          MakeLogEntry( "Invalid user info for " + command,
-                        tcp_io.getInetAddressString(), 
-                        true );
-          tcp_io.Send( new TCPCommExitClass() );
+          HandleCommand( command, tcp_io );
         }
+      } );
 
+      try
+      {
+        result.get();
       }
-      catch ( Exception e )
+      catch ( InterruptedException e )
+      {
+        result.cancel( true );
+        System.out.println("Error: TCPServer interrupted processing " + 
+                            command );
+      }
+      catch ( ExecutionException e )
       {
         System.out.println("Error: TCPServer command: " + command);
-        System.out.println("Error: couldn't send data " + e ); 
-        System.out.println( "Exception is " + e );
-        e.printStackTrace();
-
-        MakeLogEntry( FAIL_STRING + " for " + command,
-                      tcp_io.getInetAddressString(), 
-                      true );
-      }  
+        System.out.println("Exception is " + e.getCause() );
+        e.getCause().printStackTrace();
+      }
     }
 
     else if ( data_obj instanceof TCPCommExitClass )
@@ -361,13 +401,14 @@ public class TCPServer implements ITCPUser
       if ( debug_server )
         System.out.println("Exit received in TCPServer");
 
-      MakeLogEntry( EXIT_STRING, tcp_io.getInetAddressString(), true);
+      MakeLogEntry( null, EXIT_STRING, tcp_io.getInetAddressString(), true);
     }
 
     else
     {
       System.out.println("Error: int TCPServer, command NOT CommandObject");
-      MakeLogEntry( INVALID_COMMAND, tcp_io.getInetAddressString(), true );
+      MakeLogEntry( null, 
+                    INVALID_COMMAND, tcp_io.getInetAddressString(), true );
       try 
       {
         tcp_io.Send( ANSWER_NOT_OK );
@@ -406,12 +447,124 @@ public class TCPServer implements ITCPUser
   }
 
 
+  /* --------------------------- getLogSummary -------------------------- */
+  /**
+   *  Get a summary of the server's state to be written at the start of the
+   *  log file.  Derived classes can override this to report statistics, 
+   *  such as cache usage.  
+   *
+   *  @return A String with one or more lines of information, each ending
+   *          with a new line, or an empty String, if there is nothing to
+   *          report.
+   */
+  protected String getLogSummary()
+  {
+    return "";
+  }
+
+
   /* ----------------------------------------------------------------------
    *
    *  PRIVATE METHODS
    *
    */
 
+  /* --------------------------- HandleCommand --------------------------- */
+  /**
+   *  Log the command, check the password and pass the command on to
+   *  ProcessCommand().  This is called on one of the worker threads.
+   *
+   *  @param  command    The command object sent by the client.
+   *
+   *  @param  tcp_io     The TCP communications object to which the response
+   *                     must be sent.
+   */
+  private void HandleCommand( CommandObject command, ThreadedTCPComm tcp_io )
+  {
+    String user = null;
+    if ( command != null )
+      user = command.getUsername();
+
+    try
+    {
+      if ( command != null )
+        MakeLogEntry( user, 
+                      command.toString(), 
+                      tcp_io.getInetAddressString(), 
+                      false );
+      else
+        MakeLogEntry( null, 
+                      "NULL COMMAND", tcp_io.getInetAddressString(), false );
+
+      if ( CheckPassword( command ) )
+      {
+        if ( !ProcessCommand( command, tcp_io ) )
+        {
+          System.out.println("ERROR: Process command failed");
+          MakeLogEntry( user,
+                        "Command failed for" + command,
+                        tcp_io.getInetAddressString(), 
+                        true );
+          tcp_io.Send( ANSWER_NOT_OK );
+        }  
+      }
+      else                                           // break connection
+      {
+        if ( !user_ok )
+          System.out.println("ERROR: user name not valid in TCPServer");
+
+        if ( !password_ok )
+          System.out.println("ERROR: password not valid in TCPServer");
+
+        MakeLogEntry( user,
+                      "Invalid user info for " + command,
+                      tcp_io.getInetAddressString(), 
+                      true );
+        tcp_io.Send( new TCPCommExitClass() );
+      }
+
+    }
+    catch ( Exception e )
+    {
+      System.out.println("Error: TCPServer command: " + command);
+      System.out.println("Error: couldn't send data " + e ); 
+      System.out.println( "Exception is " + e );
+      e.printStackTrace();
+
+      MakeLogEntry( user,
+                    FAIL_STRING + " for " + command,
+                    tcp_io.getInetAddressString(), 
+                    true );
+    }  
+  }
+
+
+  /* ---------------------------- getWorkers ----------------------------- */
+  /**
+   *  Get the pool of worker threads, creating it when the first request 
+   *  is received.
+   */
+  synchronized private ExecutorService getWorkers()
+  {
+    if ( workers == null )
+      workers = Executors.newFixedThreadPool( num_workers, 
+                                              new ThreadFactory()
+      {
+        private int count = 0;
+
+        public Thread newThread( Runnable runnable )
+        {
+          Thread thread = new Thread( runnable, 
+                                      server_name + "-worker-" + (count++) );
+          thread.setDaemon( true );
+          return thread;
+        }
+      } );
+
+    return workers;
+  }
+
+
   /* -------------------------- CheckPassword -------------------------- */
   /**
    *  Check the username and password for this command object.
@@ -431,12 +584,17 @@ public class TCPServer implements ITCPUser
   /* ---------------------------- MakeLogEntry --------------------------- */
   /**
    *  Make an entry in the log for the specified inet address for the 
-   *  current user and date.
+   *  specified user and current date.  If the user is null, the last 
+   *  user name that was logged is used.
    */
-  private void MakeLogEntry( String  command,
-                             String  inet_address, 
-                             boolean write_file )
+  synchronized private void MakeLogEntry( String  user,
+                                          String  command,
+                                          String  inet_address, 
+                                          boolean write_file )
   {
+    if ( user != null )
+      user_name = user;
+
     String log_key  = user_name + "@" + inet_address;
     int    requests = 1;
 
@@ -468,6 +626,12 @@ public class TCPServer implements ITCPUser
        file_writer.write( "------------------------------------------------\n");
        file_writer.write( server_name+" since "+start_time+"\n");
        file_writer.write( "------------------------------------------------\n");
+       String summary = getLogSummary();
+       if ( summary.length() > 0 )
+       {
+         file_writer.write( summary );
+         file_writer.write( "------------------------------------------------\n");
+       }
        Enumeration e = log.keys();
        while ( e.hasMoreElements() )
        {
@@ -35,10 +35,14 @@
 package Operators.Special;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Vector;
 
 import gov.anl.ipns.MathTools.Geometry.DetectorPosition;
 import gov.anl.ipns.MathTools.Geometry.Vector3D;
@@ -67,6 +71,20 @@ import DataSetTools.retriever.RunfileRetriever;
  */
 public class SNSDetCal
 {
+   /**
+    * Maximum number of .DetCal files whose contents are kept in memory.
+    */
+   private static final int MAX_CACHED_FILES = 4;
+
+   private static LinkedHashMap<String,DetCalInfo> detcal_cache =
+       new LinkedHashMap<String,DetCalInfo>( 8, 0.75f, true )
+       {
+         protected boolean removeEldestEntry(Map.Entry<String,DetCalInfo> e)
+         {
+           return size() > MAX_CACHED_FILES;
+         }
+       };
+
    /**
     * Apply the area detector calibration information from the specified file
     * to the specified DataSet.  Assuming that the file contains calibration
@@ -97,91 +115,37 @@ public class SNSDetCal
      if ( ids == null || ids.length == 0 )
        return new ErrorString("NO area grids in ApplySNSDetectorCalibration");
          
-     Hashtable grids = new Hashtable();
-     float l1 = Float.NaN;
-     float t0 = Float.NaN; 
+     DetCalInfo info;
      try
      {
-       FileReader f_in = new FileReader( file_name );
-       BufferedReader buff = new BufferedReader( f_in );
-       Scanner scanner = new Scanner( buff );
-
-       String next_val = scanner.next();
-       while( !next_val.equals("5")  &&          // skip to line type 5 or 7
-              !next_val.equals("7")   )
-       {
-         scanner.nextLine();
-         next_val = scanner.next();
-       }
-
-       if ( next_val.equals("7") )               // Read in  L1 & T0
-       {
-         l1 = scanner.nextFloat()/100;           // file value in cm
-         t0 = scanner.nextFloat();
-         scanner.nextLine();
-         next_val = scanner.next();
-         while( !next_val.equals("5") )          // now skip to line type 5
-         {
-           scanner.nextLine();
-           next_val = scanner.next();
-         }
-       }
-
-       boolean more_grids = true;
-       while ( more_grids )
-       {
-          int id = scanner.nextInt();
-          int nrows    = scanner.nextInt();
-          int ncols    = scanner.nextInt();
-          float width  = scanner.nextFloat()/100; // file values in cm
-          float height = scanner.nextFloat()/100;
-          float depth  = scanner.nextFloat()/100;
-          scanner.next(); // skip the redundant DETD
-                                                  // The grid values are now
-                                                  // written in SNS coords, so
-                                                  // we need to permute them
-                                                  // back to IPNS coords by
-                                                  // reading in the order yzx
-          float center_y = scanner.nextFloat()/100;
-          float center_z = scanner.nextFloat()/100;
-          float center_x = scanner.nextFloat()/100;
-
-          float base_y   = scanner.nextFloat();
-          float base_z   = scanner.nextFloat();
-          float base_x   = scanner.nextFloat();
-
-          float up_y     = scanner.nextFloat();
-          float up_z     = scanner.nextFloat();
-          float up_x     = scanner.nextFloat();
-
-          Vector3D center = new Vector3D( center_x, center_y, center_z );
-          Vector3D base   = new Vector3D( base_x, base_y, base_z );
-          Vector3D up     = new Vector3D( up_x, up_y, up_z );
-          IDataGrid grid = new UniformGrid( id, "m",
-                                            center, base, up,
-                                            width, height, depth,
-                                            nrows, ncols );
-          grids.put( new Integer(id), grid );
-          if ( scanner.hasNext() )
-          {  
-            if ( !scanner.next().equals("5") )
-              more_grids = false;
-          }
-          else
-            more_grids = false;
-          
-          if ( debug )
-        	System.out.println("CALIBRATED GRID " + grid);
-       }
-       scanner.close();
-       buff.close();
-       f_in.close();
+       info = GetDetCalInfo( file_name );
      }
      catch ( IOException exception )
      {
        exception.printStackTrace();
        return new ErrorString( "Error reading calibration file " + file_name);
      }
+                                                  // make new grids for this
+                                                  // DataSet, since the grids
+                                                  // become part of the DataSet
+     float l1 = info.l1;
+     float t0 = info.t0;
+     Hashtable grids = new Hashtable();
+     for ( int k = 0; k < info.grid_ids.length; k++ )
+     {
+       float[] p = info.grid_params[k];
+       Vector3D center = new Vector3D( p[5],  p[6],  p[7]  );
+       Vector3D base   = new Vector3D( p[8],  p[9],  p[10] );
+       Vector3D up     = new Vector3D( p[11], p[12], p[13] );
+       IDataGrid grid = new UniformGrid( info.grid_ids[k], "m",
+                                         center, base, up,
+                                         p[2], p[3], p[4],
+                                         (int)p[0], (int)p[1] );
+       grids.put( new Integer( info.grid_ids[k] ), grid );
+
+       if ( debug )
+         System.out.println("CALIBRATED GRID " + grid);
+     }
 
      if ( !Float.isNaN(l1) )
      {
@@ -282,6 +246,149 @@ public class SNSDetCal
      return null;
    }
    
+   /**
+    * Get the L1, T0 and detector grid information from the specified 
+    * .DetCal file.  The information from the most recently used files is
+    * kept, so that calibrating many DataSets with the same file, as is done
+    * when finding or integrating peaks for many runs and detectors, only
+    * reads the file once.  The file is read again if its length or 
+    * modification time changes.
+    *
+    * @param  file_name  The name of the .DetCal file.
+    *
+    * @return The calibration information from the file.  This is shared,
+    *         and must not be changed.
+    */
+   private static DetCalInfo GetDetCalInfo( String file_name ) 
+                             throws IOException
+   {
+     File   file = new File( file_name );
+     String key  = file.getAbsolutePath() + "|" + file.length() + 
+                                            "|" + file.lastModified();
+     synchronized ( detcal_cache )
+     {
+       DetCalInfo info = detcal_cache.get( key );
+       if ( info != null )
+         return info;
+     }
+
+     DetCalInfo info = ReadDetCalInfo( file_name );
+     synchronized ( detcal_cache )
+     {
+       detcal_cache.put( key, info );
+     }
+     return info;
+   }
+
+
+   /**
+    * Read the L1, T0 and detector grid information from the specified 
+    * .DetCal file.  Distances are converted from cm to m and the grid
+    * positions and orientations are permuted from SNS to IPNS coordinates.
+    *
+    * @param  file_name  The name of the .DetCal file.
+    *
+    * @return The calibration information from the file.
+    */
+   private static DetCalInfo ReadDetCalInfo( String file_name ) 
+                             throws IOException
+   {
+     DetCalInfo info = new DetCalInfo();
+     Vector<Integer> ids    = new Vector<Integer>();
+     Vector<float[]> params = new Vector<float[]>();
+
+     FileReader f_in = new FileReader( file_name );
+     BufferedReader buff = new BufferedReader( f_in );
+     Scanner scanner = new Scanner( buff );
+
+     String next_val = scanner.next();
+     while( !next_val.equals("5")  &&          // skip to line type 5 or 7
+            !next_val.equals("7")   )
+     {
+       scanner.nextLine();
+       next_val = scanner.next();
+     }
+
+     if ( next_val.equals("7") )               // Read in  L1 & T0
+     {
+       info.l1 = scanner.nextFloat()/100;      // file value in cm
+       info.t0 = scanner.nextFloat();
+       scanner.nextLine();
+       next_val = scanner.next();
+       while( !next_val.equals("5") )          // now skip to line type 5
+       {
+         scanner.nextLine();
+         next_val = scanner.next();
+       }
+     }
+
+     boolean more_grids = true;
+     while ( more_grids )
+     {
+        float[] p = new float[14];
+        int id = scanner.nextInt();
+        p[0] = scanner.nextInt();               // nrows
+        p[1] = scanner.nextInt();               // ncols
+        p[2] = scanner.nextFloat()/100;         // width, file values in cm
+        p[3] = scanner.nextFloat()/100;         // height
+        p[4] = scanner.nextFloat()/100;         // depth
+        scanner.next(); // skip the redundant DETD
+                                                // The grid values are now
+                                                // written in SNS coords, so
+                                                // we need to permute them
+                                                // back to IPNS coords by
+                                                // reading in the order yzx
+        p[6]  = scanner.nextFloat()/100;        // center
+        p[7]  = scanner.nextFloat()/100;
+        p[5]  = scanner.nextFloat()/100;
+
+        p[9]  = scanner.nextFloat();            // base
+        p[10] = scanner.nextFloat();
+        p[8]  = scanner.nextFloat();
+
+        p[12] = scanner.nextFloat();            // up
+        p[13] = scanner.nextFloat();
+        p[11] = scanner.nextFloat();
+
+        ids.add( id );
+        params.add( p );
+        if ( scanner.hasNext() )
+        {  
+          if ( !scanner.next().equals("5") )
+            more_grids = false;
+        }
+        else
+          more_grids = false;
+     }
+     scanner.close();
+     buff.close();
+     f_in.close();
+
+     info.grid_ids    = new int[ ids.size() ];
+     info.grid_params = new float[ ids.size() ][];
+     for ( int k = 0; k < ids.size(); k++ )
+     {
+       info.grid_ids[k]    = ids.elementAt(k);
+       info.grid_params[k] = params.elementAt(k);
+     }
+     return info;
+   }
+
+
+   /**
+    * The information read from one .DetCal file.  The parameters for each
+    * grid are nrows, ncols, width, height, depth, followed by the x, y, z
+    * components of the center, base and up vectors in IPNS coordinates.
+    */
+   private static class DetCalInfo
+   {
+     float     l1 = Float.NaN;
+     float     t0 = Float.NaN;
+     int[]     grid_ids;
+     float[][] grid_params;
+   }
+
+   
    /**
     *  Crude functionality test for the ApplySNSDetectorCalibration method.
     */
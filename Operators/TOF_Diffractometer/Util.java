@@ -159,29 +159,16 @@ public class Util
        last =  STOF.numEntries() - 1;
 
      long num_to_load  = last - firstEvent + 1;
-     long seg_size     = DEFAULT_SEG_SIZE;
-     long num_segments = num_to_load / seg_size + 1;
-     long num_loaded   = 0;
-
-     Vector ops = new Vector();
-     for ( int i = 0; i < num_segments; i ++ )
-     {
-       seg_size = Math.min( seg_size, num_to_load - num_loaded );
-
-       Make_Histograms_Op op;
-       op = new Make_Histograms_Op( SMap,
-                                    x_axis_type,
-                                    STOF, firstEvent, seg_size,
-                                    binner );
-       ops.add( op );
-       num_loaded += seg_size;
-       firstEvent += seg_size;
-     }
-
-     ParallelExecutor pe = new ParallelExecutor(ops, n_threads, max_time);
-     Vector results = pe.runOperators();
-
-     float[][] Histograms = CombinePartialHistograms( results );
+
+     int[][] int_histograms = SMap.Make_Histograms( STOF, 
+                                       firstEvent, 
+                                       num_to_load,
+                                       new int[] { HistogramType(x_axis_type) },
+                                       new IEventBinner[] { binner },
+                                       null, 0, 0,
+                                       n_threads )[0];
+
+     float[][] Histograms = ConvertTo2DfloatArray( int_histograms );
 
      if ( Histograms == null)
        return null;
@@ -363,30 +350,47 @@ public class Util
            last =  STOF.numEntries() - 1;
 
          long num_to_load  = last - firstEvent + 1;
-         long seg_size     = DEFAULT_SEG_SIZE;
-         long num_segments = num_to_load / seg_size + 1;
-         long num_loaded   = 0;
 
-         Vector ops = new Vector();
-         for ( int i = 0; i < num_segments; i ++ )
+         float[][] Histograms;
+         if ( !useGhosting )              // bin all events in one pass
          {
-           seg_size = Math.min( seg_size, num_to_load - num_loaded );
-
-           Make_d_Histograms_Op op;
-           op = new Make_d_Histograms_Op( SMap,
-                                          STOF, firstEvent, seg_size,
-                                          binner,
-                                          d_map,
-                                          ghost_ids, ghost_weights );
-           ops.add( op );
-           num_loaded += seg_size;
-           firstEvent += seg_size;
+           int[][] int_histograms = SMap.Make_Histograms( STOF, 
+                                   firstEvent, 
+                                   num_to_load,
+                                   new int[] { SNS_Tof_to_Q_map.D_SPACING_HIST },
+                                   new IEventBinner[] { binner },
+                                   d_map, 0, 0,
+                                   n_threads )[0];
+
+           Histograms = ConvertTo2DfloatArray( int_histograms );
          }
+         else
+         {
+           long seg_size     = DEFAULT_SEG_SIZE;
+           long num_segments = num_to_load / seg_size + 1;
+           long num_loaded   = 0;
 
-         ParallelExecutor pe = new ParallelExecutor(ops, n_threads, max_time);
-         Vector results = pe.runOperators();
+           Vector ops = new Vector();
+           for ( int i = 0; i < num_segments; i ++ )
+           {
+             seg_size = Math.min( seg_size, num_to_load - num_loaded );
+
+             Make_d_Histograms_Op op;
+             op = new Make_d_Histograms_Op( SMap,
+                                            STOF, firstEvent, seg_size,
+                                            binner,
+                                            d_map,
+                                            ghost_ids, ghost_weights );
+             ops.add( op );
+             num_loaded += seg_size;
+             firstEvent += seg_size;
+           }
 
-         float[][] Histograms = CombinePartialHistograms( results );
+           ParallelExecutor pe = new ParallelExecutor(ops, n_threads, max_time);
+           Vector results = pe.runOperators();
+
+           Histograms = CombinePartialHistograms( results );
+         }
 
          if( Histograms == null)
             return null;
@@ -543,31 +547,48 @@ public class Util
            last =  STOF.numEntries() - 1;
   
          long num_to_load  = last - firstEvent + 1;
-         long seg_size     = DEFAULT_SEG_SIZE;
-         long num_segments = num_to_load / seg_size + 1;
-         long num_loaded   = 0;
 
-         Vector ops = new Vector();
-         for ( int i = 0; i < num_segments; i ++ )
+         float[][] Histograms;
+         if ( !useGhosting )              // bin all events in one pass
          {
-           seg_size = Math.min( seg_size, num_to_load - num_loaded );
-
-           Make_Time_Focused_Histograms_Op op;
-           op = new Make_Time_Focused_Histograms_Op( 
-                                          SMap,
-                                          STOF, firstEvent, seg_size,
-                                          binner,
-                                          angle_deg, final_L_m,
-                                          ghost_ids, ghost_weights );
-           ops.add( op );
-           num_loaded += seg_size;
-           firstEvent += seg_size;
+           int[][] int_histograms = SMap.Make_Histograms( STOF, 
+                                   firstEvent, 
+                                   num_to_load,
+                                   new int[] { SNS_Tof_to_Q_map.FOCUSED_HIST },
+                                   new IEventBinner[] { binner },
+                                   null, angle_deg, final_L_m,
+                                   n_threads )[0];
+
+           Histograms = ConvertTo2DfloatArray( int_histograms );
          }
+         else
+         {
+           long seg_size     = DEFAULT_SEG_SIZE;
+           long num_segments = num_to_load / seg_size + 1;
+           long num_loaded   = 0;
+
+           Vector ops = new Vector();
+           for ( int i = 0; i < num_segments; i ++ )
+           {
+             seg_size = Math.min( seg_size, num_to_load - num_loaded );
+
+             Make_Time_Focused_Histograms_Op op;
+             op = new Make_Time_Focused_Histograms_Op( 
+                                            SMap,
+                                            STOF, firstEvent, seg_size,
+                                            binner,
+                                            angle_deg, final_L_m,
+                                            ghost_ids, ghost_weights );
+             ops.add( op );
+             num_loaded += seg_size;
+             firstEvent += seg_size;
+           }
 
-         ParallelExecutor pe = new ParallelExecutor(ops, n_threads, max_time);
-         Vector results = pe.runOperators();
+           ParallelExecutor pe = new ParallelExecutor(ops, n_threads, max_time);
+           Vector results = pe.runOperators();
 
-         float[][] Histograms = CombinePartialHistograms( results );
+           Histograms = CombinePartialHistograms( results );
+         }
 
          if( Histograms == null)
             return null;
@@ -606,6 +627,33 @@ public class Util
    }
 
 
+  /**
+   *  Get the SNS_Tof_to_Q_map histogram type code corresponding to one
+   *  of the x-axis type Strings D_SPACING, MAG_Q, WAVELENGTH, RAW_TOF or
+   *  TOF.  NOTE: TOF histograms are focused to the center of each bank.
+   */
+  private static int HistogramType( String x_axis_type )
+  {
+    if ( x_axis_type.equalsIgnoreCase( MAG_Q ) )
+      return SNS_Tof_to_Q_map.MAG_Q_HIST;
+
+    if ( x_axis_type.equalsIgnoreCase( WAVELENGTH ) )
+      return SNS_Tof_to_Q_map.WAVELENGTH_HIST;
+
+    if ( x_axis_type.equalsIgnoreCase( D_SPACING ) )
+      return SNS_Tof_to_Q_map.D_SPACING_HIST;
+
+    if ( x_axis_type.equalsIgnoreCase( RAW_TOF ) )
+      return SNS_Tof_to_Q_map.RAW_TOF_HIST;
+
+    if ( x_axis_type.equalsIgnoreCase( TOF ) )
+      return SNS_Tof_to_Q_map.BANK_FOCUSED_HIST;
+
+    throw new IllegalArgumentException( "Unsupported x_axis_type " + 
+                                         x_axis_type );
+  }
+
+
   /**
    *  Sum up the partial histograms that were returned from the
    *  operators that loaded parts of the files.
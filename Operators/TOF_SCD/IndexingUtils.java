@@ -34,6 +34,7 @@
 package Operators.TOF_SCD;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 
 import jnt.FFT.*;
@@ -44,9 +45,80 @@ import gov.anl.ipns.MathTools.*;
 import DataSetTools.components.ui.Peaks.subs;
 import DataSetTools.operator.Generic.TOF_SCD.IPeak;
 import DataSetTools.operator.Generic.TOF_SCD.Peak_new;
+import DataSetTools.util.TaskUtil;
 
 public class IndexingUtils
 {
+                                   // number of threads used when scanning
+                                   // for directions and candidate UBs
+private static int   n_threads = Runtime.getRuntime().availableProcessors();
+
+                                   // if positive, Find_UB and FindUB_UsingFFT
+                                   // stop trying candidate UBs once one
+                                   // indexes this fraction of the peaks
+private static float early_exit_fraction = 0;
+
+
+/**
+ *  Set the number of threads used to scan for possible cell edge directions
+ *  and to try candidate UB matrices.  The results do not depend on the
+ *  number of threads, since the candidates are always compared in the same
+ *  order.
+ *
+ *  @param num_threads  The number of threads to use.  This must be at
+ *                      least 1.
+ */
+public static void setNumThreads( int num_threads )
+{
+  if ( num_threads < 1 )
+    throw new IllegalArgumentException("Number of threads must be at least 1 "
+                                       + num_threads );
+  n_threads = num_threads;
+}
+
+
+/**
+ *  Get the number of threads used to scan for possible cell edge directions
+ *  and to try candidate UB matrices.
+ *
+ *  @return the number of threads that will be used.
+ */
+public static int getNumThreads()
+{
+  return n_threads;
+}
+
+
+/**
+ *  Set the fraction of the peaks that a candidate UB must index, for Find_UB
+ *  and FindUB_UsingFFT to accept the best candidate found so far without
+ *  trying the remaining candidates.  The candidates are still checked in
+ *  the same order, so the result is repeatable, but it may differ from the
+ *  result of the full search.
+ *
+ *  @param fraction  The required fraction of the peaks, between 0 and 1.
+ *                   A value of 0 (the default) tries all candidates.
+ */
+public static void setEarlyExitFraction( float fraction )
+{
+  if ( fraction < 0 || fraction > 1 )
+    throw new IllegalArgumentException("Early exit fraction must be between "
+                                       + "0 and 1 " + fraction );
+  early_exit_fraction = fraction;
+}
+
+
+/**
+ *  Get the fraction of the peaks that a candidate UB must index to stop
+ *  the search for a UB early.
+ *
+ *  @return the early exit fraction, or 0 if all candidates are tried.
+ */
+public static float getEarlyExitFraction()
+{
+  return early_exit_fraction;
+}
+
 
 public static float angle( Vector3D v1, Vector3D v2 )
 {
@@ -773,24 +845,46 @@ public static float Find_UB( Tran3D             UB,
 
   Tran3D temp_UB = new Tran3D();
   float min_deg  = 40;        
-  for ( int i = 0; i < directions.size()-2; i++ )
+                                   // try the candidates in batches, using
+                                   // separate threads, but select from them
+                                   // in order so the result is repeatable
+  int     num_threads    = n_threads;
+  float   exit_fraction  = early_exit_fraction;
+  int     num_candidates = directions.size()-2;
+  int     batch_size     = num_candidates;
+  if ( exit_fraction > 0 )
+    batch_size = num_threads;
+
+  boolean done  = false;
+  int     first = 0;
+  while ( !done && first < num_candidates )
   {
-    if ( FormUB_From_abc_Vectors( temp_UB, directions, i, min_deg ) )
+    int last = Math.min( first + batch_size, num_candidates );
+    Vector<CandidateUB> candidates = 
+           TryCandidateUBs( directions, first, last, min_deg, q_vectors,
+                            required_tolerance, num_initial, num_threads );
+
+    for ( int i = first; i < last && !done; i++ )
     {
-      num_sets++;
-      num_indexed = ExpandSetOfIndexedPeaks( temp_UB, 
-                                             q_vectors, 
-                                             required_tolerance,
-                                             num_initial,
-                                             fit_error );
-//#########
-      if ( num_indexed > 0.25*max_indexed && fit_error[0] < min_error )
+      CandidateUB candidate = candidates.elementAt( i - first );
+      if ( candidate.formed )
       {
-        UB.set( temp_UB );
-        min_error = fit_error[0];
-        set_used = i;
+        num_sets++;
+        temp_UB.set( candidate.UB );
+        num_indexed = candidate.num_indexed;
+//#########
+        if ( num_indexed > 0.25*max_indexed && candidate.fit_error < min_error )
+        {
+          UB.set( temp_UB );
+          min_error = candidate.fit_error;
+          set_used = i;
+          if ( exit_fraction > 0 && 
+               num_indexed >= exit_fraction * q_vectors.size() )
+            done = true;
+        }
       }
     }
+    first = last;
   }
 
   if ( set_used == -1 )
@@ -918,7 +1012,7 @@ public static float FindUB_UsingFFT( Tran3D             UB,
   Tran3D temp_UB = new Tran3D();
   float  min_vol = min_d * min_d * min_d / 4.0f;
   if ( !FormUB_From_abc_Vectors( temp_UB, directions, q_vectors,
-                                 required_tolerance, min_vol ) )
+                                 required_tolerance, min_vol, n_threads ) )
     throw new IllegalArgumentException("Could NOT form UB matrix from abc's");
   else
      UB.set( temp_UB );
@@ -988,6 +1082,10 @@ public static float FindUB_UsingFFT( Tran3D             UB,
  *  @param req_tolerance The required tolerance on h,k,l to consider a peak
  *                       to be indexed.
  *  @param min_vol       The smallest possible unit cell volume.
+ *  @param num_threads   The number of threads to use for counting the
+ *                       peaks indexed.  This should be 1 if this method
+ *                       is called from a task that is already running
+ *                       in a thread pool.
  *
  *  @return true if a UB matrix was set, and false if it not possible to
  *          choose a,b,c (i.e. UB) from the list of directions, starting
@@ -998,10 +1096,10 @@ private static boolean FormUB_From_abc_Vectors( Tran3D           UB,
                                                 Vector<Vector3D> directions,
                                                 Vector<Vector3D> q_vectors,
                                                 float            req_tolerance,
-                                                float            min_vol )
+                                                float            min_vol,
+                                                int              num_threads )
 {
    int      max_indexed = 0;
-   float    vol;
    float    alpha = 0, 
             beta  = 0, 
             gamma = 0;
@@ -1011,42 +1109,58 @@ private static boolean FormUB_From_abc_Vectors( Tran3D           UB,
             a_temp = null,
             b_temp = null, 
             c_temp = null;
-   Vector3D acrossb = new Vector3D();
-
-   float[] ave_2_error  = new float[1];
-
-   for ( int i = 0; i < directions.size()-2; i++ )
+                                   // count the peaks indexed by each set
+                                   // of a,b,c for a batch of "a" directions
+                                   // using separate threads, then select
+                                   // from the batch in order.
+   float   exit_fraction = early_exit_fraction;
+   int     num_a_dirs    = directions.size()-2;
+   int     batch_size    = num_a_dirs;
+   if ( exit_fraction > 0 )
+     batch_size = num_threads;
+
+   boolean done  = false;
+   int     first = 0;
+   while ( !done && first < num_a_dirs )
    {
-     a_temp = directions.elementAt( i );
-     for ( int j = i+1; j < directions.size()-1; j++ )
+     int last = Math.min( first + batch_size, num_a_dirs );
+     Vector<int[]> counts = CountIndexed_3D( directions, first, last,
+                                             q_vectors, req_tolerance,
+                                             min_vol, num_threads );
+     for ( int i = first; i < last && !done; i++ )
      {
-       b_temp = directions.elementAt( j );
-       acrossb.cross( a_temp, b_temp );
-       for ( int k = j+1; k < directions.size(); k++ )
+       int[] n_indexed = counts.elementAt( i - first );
+       int   count_num = 0;
+       a_temp = directions.elementAt( i );
+       for ( int j = i+1; j < directions.size()-1 && !done; j++ )
        {
-         c_temp = directions.elementAt( k );
-         vol = Math.abs( acrossb.dot( c_temp ) );
-         if ( vol > min_vol )
+         b_temp = directions.elementAt( j );
+         for ( int k = j+1; k < directions.size() && !done; k++ )
          {
-           int n_tol = NumberIndexed_3D( a_temp, b_temp, c_temp, 
-                                         q_vectors, req_tolerance, 
-                                         ave_2_error );
-
-           // Requiring 20% more indexed with longer edge lengths, favors 
-           // the smaller unit cells.
-           if ( n_tol > 1.20 * max_indexed ) 
+           c_temp = directions.elementAt( k );
+           int n_tol = n_indexed[ count_num++ ];
+           if ( n_tol >= 0 )             // volume was more than min_vol
            {
-             max_indexed = n_tol;
-             a_dir = a_temp;
-             b_dir = b_temp;
-             c_dir = c_temp;
-             alpha = angle( b_temp, c_temp );
-             beta  = angle( c_temp, a_temp );
-             gamma = angle( a_temp, b_temp );
+             // Requiring 20% more indexed with longer edge lengths, favors 
+             // the smaller unit cells.
+             if ( n_tol > 1.20 * max_indexed ) 
+             {
+               max_indexed = n_tol;
+               a_dir = a_temp;
+               b_dir = b_temp;
+               c_dir = c_temp;
+               alpha = angle( b_temp, c_temp );
+               beta  = angle( c_temp, a_temp );
+               gamma = angle( a_temp, b_temp );
+               if ( exit_fraction > 0 &&
+                    n_tol >= exit_fraction * q_vectors.size() )
+                 done = true;
+             }
            }
          }
        }
      }
+     first = last;
   }
 
   if ( a_dir == null )
@@ -3777,8 +3891,6 @@ public static float ScanFor_UB( Vector3D a_dir,
 */
   Vector a_dir_list = MakeHemisphereDirections( num_a_steps );
 
-  Vector b_dir_list;
-
   Vector3D a_dir_temp;
   Vector3D b_dir_temp;
   Vector3D c_dir_temp;
@@ -3786,75 +3898,31 @@ public static float ScanFor_UB( Vector3D a_dir,
   float error;
   float dot_prod;
   int   nearest_int;
-  int   max_indexed = 0;
   Vector3D q_vec = new Vector3D();
                                               // first select those directions
-                                              // that index the most peaks
-  Vector<Vector3D> selected_a_dirs = new Vector<Vector3D>();
-  Vector<Vector3D> selected_b_dirs = new Vector<Vector3D>();
-  Vector<Vector3D> selected_c_dirs = new Vector<Vector3D>();
-                                                             
-  for ( int a_dir_num = 0; a_dir_num < a_dir_list.size(); a_dir_num++ )
-  {
-    a_dir_temp = (Vector3D)a_dir_list.elementAt( a_dir_num );
-    a_dir_temp = new Vector3D( a_dir_temp );
-    a_dir_temp.multiply( a );
+                                              // that index the most peaks,
+                                              // scanning parts of the list of
+                                              // "a" directions in parallel
+  int num_threads = n_threads;
+  int num_parts   = TaskUtil.NumParts( a_dir_list.size(), num_threads );
+  Vector<Callable<SelectedDirections>> tasks = 
+                             new Vector<Callable<SelectedDirections>>();
+  for ( int part = 0; part < num_parts; part++ )
+    tasks.add( new ScanFor_UB_Task( a_dir_list,
+                                    TaskUtil.PartStart( part, num_parts,
+                                                        a_dir_list.size() ),
+                                    TaskUtil.PartStart( part + 1, num_parts,
+                                                        a_dir_list.size() ),
+                                    q_vectors, 
+                                    a, b, c, alpha, beta, gamma,
+                                    num_b_steps, required_tolerance ) );
+
+  SelectedDirections selected = 
+              MergeSelections( TaskUtil.RunTasks( tasks, num_threads ) );
+  Vector<Vector3D> selected_a_dirs = selected.a_dirs;
+  Vector<Vector3D> selected_b_dirs = selected.b_dirs;
+  Vector<Vector3D> selected_c_dirs = selected.c_dirs;
 
-    b_dir_list = MakeCircleDirections( num_b_steps, a_dir_temp, gamma );
-
-    for ( int b_dir_num = 0; b_dir_num < b_dir_list.size(); b_dir_num++ )
-    {
-      b_dir_temp = (Vector3D)( b_dir_list.elementAt(b_dir_num) );
-      b_dir_temp = new Vector3D( b_dir_temp );
-      b_dir_temp.multiply( b );
-      c_dir_temp = Make_c_dir( a_dir_temp, b_dir_temp,
-                               c, alpha, beta, gamma );
-
-      int num_indexed = 0;
-      for ( int q_num = 0; q_num < q_vectors.size(); q_num++ )
-      {
-        boolean indexes_peak = true;
-        q_vec = (Vector3D)(q_vectors.elementAt( q_num ));
-        dot_prod = a_dir_temp.dot( q_vec );
-        nearest_int = Math.round( dot_prod );
-        error = Math.abs( dot_prod - nearest_int );
-        if ( error > required_tolerance )
-          indexes_peak = false;
-        else
-        {
-          dot_prod = b_dir_temp.dot( q_vec );
-          nearest_int = Math.round( dot_prod );
-          error = Math.abs( dot_prod - nearest_int );
-          if ( error > required_tolerance )
-            indexes_peak = false;
-          else
-          {
-            dot_prod = c_dir_temp.dot( q_vec );
-            nearest_int = Math.round( dot_prod );
-            error = Math.abs( dot_prod - nearest_int );
-            if ( error > required_tolerance )
-              indexes_peak = false;
-          }
-        }
-        if ( indexes_peak )
-          num_indexed++;
-      }
-
-      if ( num_indexed > max_indexed )     // only keep those directions that
-      {                                    // index the max number of peaks
-        selected_a_dirs.clear();
-        selected_b_dirs.clear();
-        selected_c_dirs.clear();
-        max_indexed = num_indexed;
-      }
-      if ( num_indexed == max_indexed )
-      {
-        selected_a_dirs.add( a_dir_temp );
-        selected_b_dirs.add( b_dir_temp );
-        selected_c_dirs.add( c_dir_temp );
-      }
-    }
-  }
                                           // now, for each such direction, find
                                           // the one that indexes closes to
                                           // integer values
@@ -4064,8 +4132,6 @@ public static int FFTScanFor_Directions( Vector<Vector3D> directions,
                                          float    degrees_per_step )
 {
   final    int N_FFT_STEPS = 512;
-  float    error;
-  float[]  fit_error = new float[1];
   int      max_indexed = 0;
   Vector3D q_vec = new Vector3D();
                            // first, make hemisphere of possible directions 
@@ -4086,7 +4152,8 @@ public static int FFTScanFor_Directions( Vector<Vector3D> directions,
   max_mag_Q *= 1.1f;      // allow for a little "headroom" for FFT range
 
                           // apply the FFT to each of the directions, and
-                          // keep track of their maximum magnitude past DC
+                          // keep track of their maximum magnitude past DC,
+                          // using separate threads for parts of the list
   float   max_mag_fft;
   float[] max_fft_val   = new float[ full_list.size() ];
 
@@ -4095,17 +4162,23 @@ public static int FFTScanFor_Directions( Vector<Vector3D> directions,
 
   float index_factor = N_FFT_STEPS / max_mag_Q;     // maps |proj Q| to index 
 
-  RealFloatFFT_Radix2 FFT = new RealFloatFFT_Radix2( N_FFT_STEPS );
-  for ( int dir_num = 0; dir_num < full_list.size(); dir_num++ )
-  {
-    Vector3D current_dir = full_list.elementAt( dir_num );
-    max_mag_fft = GetMagFFT( FFT, q_vectors, current_dir,
-                             projections,
-                             index_factor,
-                             magnitude_fft );
+  int num_threads = n_threads;
+  int num_parts   = TaskUtil.NumParts( full_list.size(), num_threads );
+  Vector<Callable<Integer>> fft_tasks = new Vector<Callable<Integer>>();
+  for ( int part = 0; part < num_parts; part++ )
+    fft_tasks.add( new MagFFT_Task( 
+                            full_list,
+                            TaskUtil.PartStart( part, num_parts,
+                                                full_list.size() ),
+                            TaskUtil.PartStart( part+1, num_parts,
+                                                full_list.size() ),
+                            q_vectors,
+                            N_FFT_STEPS,
+                            index_factor,
+                            max_fft_val ) );
+  TaskUtil.RunTasks( fft_tasks, num_threads );
 
-    max_fft_val[ dir_num ] = max_mag_fft; 
-  }
+  RealFloatFFT_Radix2 FFT = new RealFloatFFT_Radix2( N_FFT_STEPS );
                           // find the directions with the 500 largest
                           // fft values, and place them in temp_dirs vector
   int N_TO_TRY = 500;
@@ -4182,52 +4255,25 @@ public static int FFTScanFor_Directions( Vector<Vector3D> directions,
   }
                                    // refine directions and again find the 
                                    // max number indexed, for the optimized
-                                   // directions
+                                   // directions, using separate threads
+                                   // for parts of the list
   max_indexed = 0;
-  Vector<Vector3D> index_vals = new Vector<Vector3D>();
-  Vector<Vector3D> indexed_qs = new Vector<Vector3D>();
-  for ( int dir_num = 0; dir_num < temp_dirs.size(); dir_num++ )
-  {
-    current_dir = temp_dirs.elementAt( dir_num );
-
-    num_indexed = GetIndexedPeaks_1D( current_dir,
-                                      q_vectors,
-                                      required_tolerance,
-                                      index_vals,
-                                      indexed_qs,
-                                      fit_error  );
-    try
-    {
-      int     count  = 0;
-      boolean failed = false;
-      while ( count < 5 && !failed )     // 5 iterations should be enough for
-      {                                  // the optimization to stabilize
-        num_indexed = 0;
-        error = Optimize_Direction_3D( current_dir, index_vals, indexed_qs );
- 
-        if ( Float.isNaN(error) )
-          failed = true;
-        else
-        {
-          num_indexed = GetIndexedPeaks_1D( current_dir,
-                                            q_vectors,
-                                            required_tolerance,
-                                            index_vals,
-                                            indexed_qs,
-                                            fit_error  ); 
-          if ( num_indexed > max_indexed )
-            max_indexed = num_indexed;
+  num_parts   = TaskUtil.NumParts( temp_dirs.size(), num_threads );
+  Vector<Callable<Integer>> refine_tasks = new Vector<Callable<Integer>>();
+  for ( int part = 0; part < num_parts; part++ )
+    refine_tasks.add( new RefineDirections_Task(
+                            temp_dirs,
+                            TaskUtil.PartStart( part, num_parts,
+                                                temp_dirs.size() ),
+                            TaskUtil.PartStart( part+1, num_parts,
+                                                temp_dirs.size() ),
+                            q_vectors,
+                            required_tolerance ) );
 
-          count++;
-        }
-      }
-    }
-    catch ( Exception ex )
-    { 
-      // System.out.print  ("Failed to optimize direction # " + dir_num );
-      // don't continue to refine if the direction fails to optimize properly
-    }
-  }
+  Vector<Integer> part_max = TaskUtil.RunTasks( refine_tasks, num_threads );
+  for ( int part = 0; part < part_max.size(); part++ )
+    if ( part_max.elementAt( part ) > max_indexed )
+      max_indexed = part_max.elementAt( part );
 
                                       // discard ones with length out of bounds
   temp_dirs_2.clear();
@@ -4443,12 +4489,7 @@ public static int  ScanFor_Directions( Vector<Vector3D> directions,
                                        float    required_tolerance,
                                        float    degrees_per_step )
 {
-  float    error;
-  float[]  fit_error = new float[1];
-  float    dot_prod;
-  int      nearest_int;
   int      max_indexed = 0;
-  Vector3D q_vec = new Vector3D();
                            // first, make hemisphere of possible directions 
                            // with specified resolution.
   int num_steps = (int)Math.round( 90.0 / degrees_per_step );
@@ -4462,42 +4503,28 @@ public static int  ScanFor_Directions( Vector<Vector3D> directions,
   float delta_d = 0.1f;
   int n_steps = Math.round( 1 +(max_d - min_d)/delta_d );
 
-  Vector<Vector3D> selected_dirs = new Vector<Vector3D>();
-  Vector3D dir_temp = new Vector3D();
-
-  for ( int dir_num = 0; dir_num < full_list.size(); dir_num++ )
-  {
-    Vector3D current_dir = full_list.elementAt( dir_num );
-
-    for ( int step = 0; step <= n_steps; step++ )
-    {
-      dir_temp.set( current_dir );
-      dir_temp.multiply( min_d + step * delta_d );    // increasing size
-      
-      int num_indexed = 0;
-      for ( int q_num = 0; q_num < q_vectors.size(); q_num++ )
-      {
-        q_vec = (Vector3D)(q_vectors.elementAt( q_num ));
-        dot_prod = dir_temp.dot( q_vec );
-        nearest_int = Math.round( dot_prod );
-        error = Math.abs( dot_prod - nearest_int );
-        if ( error <= required_tolerance )
-          num_indexed++;
-      }
-
-//#### if ( num_indexed > max_indexed + 1 ) // discard previous directions if 
-//#### if ( num_indexed > max_indexed + 2 ) // discard previous directions if 
-      if ( num_indexed > max_indexed )     // discard previous directions if 
-      {                                    // we find a direction that indexes 
-        selected_dirs.clear();             // significantly more peaks
-        max_indexed = num_indexed;
-      }
-      if ( num_indexed >= max_indexed )
-      {
-        selected_dirs.add( new Vector3D( dir_temp ) );
-      }
-    }
-  }
+                           // The parts of the list of directions are
+                           // scanned in parallel and the parts that reach
+                           // the overall maximum number indexed are kept.
+  int num_threads = n_threads;
+  int num_parts   = TaskUtil.NumParts( full_list.size(), num_threads );
+  Vector<Callable<SelectedDirections>> scan_tasks = 
+                             new Vector<Callable<SelectedDirections>>();
+  for ( int part = 0; part < num_parts; part++ )
+    scan_tasks.add( new ScanFor_Directions_Task( 
+                             full_list,
+                             TaskUtil.PartStart( part, num_parts,
+                                                 full_list.size() ),
+                             TaskUtil.PartStart( part+1, num_parts,
+                                                 full_list.size() ),
+                             q_vectors,
+                             min_d, delta_d, n_steps,
+                             required_tolerance ) );
+
+  SelectedDirections selected = 
+              MergeSelections( TaskUtil.RunTasks( scan_tasks, num_threads ) );
+  Vector<Vector3D> selected_dirs = selected.a_dirs;
+  max_indexed = selected.max_indexed;
 
 /*
   System.out.println("After stage 1, number of directions = " + 
@@ -4511,25 +4538,30 @@ public static int  ScanFor_Directions( Vector<Vector3D> directions,
 */
                            // Now, optimize each direction and discard possible
                            // unit cell edges that are duplicates, putting the
-                           // new smaller list in the vector "directions"
-  Vector<Vector3D> index_vals = new Vector<Vector3D>();
-  Vector<Vector3D> indexed_qs = new Vector<Vector3D>();
+                           // new smaller list in the vector "directions".
+                           // The directions are optimized in parallel, but
+                           // duplicates are discarded in order.
+  Vector<Callable<Integer>> optimize_tasks = new Vector<Callable<Integer>>();
+  num_parts = TaskUtil.NumParts( selected_dirs.size(), num_threads );
+  for ( int part = 0; part < num_parts; part++ )
+    optimize_tasks.add( new OptimizeDirections_Task( 
+                         selected_dirs,
+                         TaskUtil.PartStart( part, num_parts,
+                                             selected_dirs.size() ),
+                         TaskUtil.PartStart( part+1, num_parts,
+                                             selected_dirs.size() ),
+                         q_vectors,
+                         required_tolerance ) );
+  TaskUtil.RunTasks( optimize_tasks, num_threads );
+
   directions.clear();
+  Vector3D dir_temp;
   Vector3D current_dir = new Vector3D();
   Vector3D diff        = new Vector3D();
   for ( int dir_num = 0; dir_num < selected_dirs.size(); dir_num++ )
   {
     current_dir = selected_dirs.elementAt( dir_num );
 
-    GetIndexedPeaks_1D( current_dir, 
-                        q_vectors,
-                        required_tolerance,
-                        index_vals, 
-                        indexed_qs,
-                        fit_error  );
-
-    Optimize_Direction_3D( current_dir, index_vals, indexed_qs );
-
     float length = current_dir.length();
     if ( length >= min_d && length <= max_d )   // only keep if within range
     {
@@ -4923,6 +4955,598 @@ private static void test_ScanForUB( Vector<Vector3D> q_vectors,
   }
 }
 
+/**
+ *  Try to form and refine UB matrices using each of the directions from
+ *  first to last-1 in the list as the "a" direction.  The candidates are
+ *  tried using separate threads.
+ *
+ *  @return a list with one CandidateUB for each "a" direction, in order.
+ */
+private static Vector<CandidateUB> TryCandidateUBs( 
+                                         Vector<Vector3D> directions,
+                                         int              first,
+                                         int              last,
+                                         float            min_deg,
+                                         Vector<Vector3D> q_vectors,
+                                         float            required_tolerance,
+                                         int              num_initial,
+                                         int              num_threads )
+{
+  Vector<Callable<CandidateUB>> tasks = new Vector<Callable<CandidateUB>>();
+  for ( int i = first; i < last; i++ )
+    tasks.add( new CandidateUB_Task( directions, i, min_deg, q_vectors,
+                                     required_tolerance, num_initial ) );
+  return TaskUtil.RunTasks( tasks, num_threads );
+}
+
+
+/**
+ *  Count the number of peaks indexed by each set of three directions
+ *  a, b, c, with a at positions first to last-1 in the list and b, c
+ *  at later positions in the list.  The counts for each "a" direction 
+ *  are calculated using separate threads.
+ *
+ *  @return a list with one array of counts for each "a" direction, in
+ *          order.  The counts are in the order of the b, c loops in
+ *          FormUB_From_abc_Vectors(), and are -1 if the volume of the 
+ *          cell is not more than min_vol.
+ */
+private static Vector<int[]> CountIndexed_3D( Vector<Vector3D> directions,
+                                              int              first,
+                                              int              last,
+                                              Vector<Vector3D> q_vectors,
+                                              float            req_tolerance,
+                                              float            min_vol,
+                                              int              num_threads )
+{
+  Vector<Callable<int[]>> tasks = new Vector<Callable<int[]>>();
+  for ( int i = first; i < last; i++ )
+    tasks.add( new CountIndexed_3D_Task( directions, i, q_vectors,
+                                         req_tolerance, min_vol ) );
+  return TaskUtil.RunTasks( tasks, num_threads );
+}
+
+
+/**
+ *  Combine the directions selected from consecutive parts of a scan, 
+ *  keeping only those from parts that reached the overall maximum number
+ *  indexed.  This gives the same list, in the same order, as a single 
+ *  pass over the whole scan.
+ */
+private static SelectedDirections MergeSelections( 
+                                    Vector<SelectedDirections> parts )
+{
+  SelectedDirections all = new SelectedDirections();
+  for ( int i = 0; i < parts.size(); i++ )
+    if ( parts.elementAt(i).max_indexed > all.max_indexed )
+      all.max_indexed = parts.elementAt(i).max_indexed;
+
+  for ( int i = 0; i < parts.size(); i++ )
+  {
+    SelectedDirections part = parts.elementAt(i);
+    if ( part.max_indexed == all.max_indexed )
+    {
+      all.a_dirs.addAll( part.a_dirs );
+      all.b_dirs.addAll( part.b_dirs );
+      all.c_dirs.addAll( part.c_dirs );
+    }
+  }
+  return all;
+}
+
+
+/**
+ *  The directions selected from part of a scan, that index the largest 
+ *  number of peaks found in that part of the scan, in scan order.  The
+ *  b_dirs and c_dirs lists are only used when scanning for all three
+ *  cell edges.
+ */
+private static class SelectedDirections
+{
+  int              max_indexed = 0;
+  Vector<Vector3D> a_dirs = new Vector<Vector3D>();
+  Vector<Vector3D> b_dirs = new Vector<Vector3D>();
+  Vector<Vector3D> c_dirs = new Vector<Vector3D>();
+}
+
+
+/**
+ *  A UB matrix formed from one "a" direction, and the number of peaks
+ *  it indexed and the fit error after being refined.
+ */
+private static class CandidateUB
+{
+  boolean formed      = false;
+  int     num_indexed = 0;
+  float   fit_error   = Float.POSITIVE_INFINITY;
+  Tran3D  UB          = new Tran3D();
+}
+
+
+/**
+ *  Task to form a UB using one "a" direction and refine it to index more
+ *  peaks, as done for each candidate in Find_UB().
+ */
+private static class CandidateUB_Task implements Callable<CandidateUB>
+{
+  private Vector<Vector3D> directions;
+  private int              a_index;
+  private float            min_deg;
+  private Vector<Vector3D> q_vectors;
+  private float            required_tolerance;
+  private int              num_initial;
+
+  CandidateUB_Task( Vector<Vector3D> directions,
+                    int              a_index,
+                    float            min_deg,
+                    Vector<Vector3D> q_vectors,
+                    float            required_tolerance,
+                    int              num_initial )
+  {
+    this.directions         = directions;
+    this.a_index            = a_index;
+    this.min_deg            = min_deg;
+    this.q_vectors          = q_vectors;
+    this.required_tolerance = required_tolerance;
+    this.num_initial        = num_initial;
+  }
+
+  public CandidateUB call()
+  {
+    CandidateUB candidate = new CandidateUB();
+    if ( FormUB_From_abc_Vectors( candidate.UB, directions, a_index, min_deg))
+    {
+      float[] fit_error = new float[1];
+      candidate.formed      = true;
+      candidate.num_indexed = ExpandSetOfIndexedPeaks( candidate.UB,
+                                                       q_vectors,
+                                                       required_tolerance,
+                                                       num_initial,
+                                                       fit_error );
+      candidate.fit_error   = fit_error[0];
+    }
+    return candidate;
+  }
+}
+
+
+/**
+ *  Task to count the peaks indexed by all sets of a, b, c directions 
+ *  with one fixed "a" direction, as done in FormUB_From_abc_Vectors().
+ */
+private static class CountIndexed_3D_Task implements Callable<int[]>
+{
+  private Vector<Vector3D> directions;
+  private int              a_index;
+  private Vector<Vector3D> q_vectors;
+  private float            req_tolerance;
+  private float            min_vol;
+
+  CountIndexed_3D_Task( Vector<Vector3D> directions,
+                        int              a_index,
+                        Vector<Vector3D> q_vectors,
+                        float            req_tolerance,
+                        float            min_vol )
+  {
+    this.directions    = directions;
+    this.a_index       = a_index;
+    this.q_vectors     = q_vectors;
+    this.req_tolerance = req_tolerance;
+    this.min_vol       = min_vol;
+  }
+
+  public int[] call()
+  {
+    int n_dirs = directions.size();
+    int m      = n_dirs - a_index - 1;           // number of b, c pairs
+    int[] counts = new int[ m * (m-1) / 2 ];
+
+    Vector3D acrossb     = new Vector3D();
+    float[]  ave_2_error = new float[1];
+    int      count_num   = 0;
+
+    Vector3D a_temp = directions.elementAt( a_index );
+    for ( int j = a_index+1; j < n_dirs-1; j++ )
+    {
+      Vector3D b_temp = directions.elementAt( j );
+      acrossb.cross( a_temp, b_temp );
+      for ( int k = j+1; k < n_dirs; k++ )
+      {
+        Vector3D c_temp = directions.elementAt( k );
+        float vol = Math.abs( acrossb.dot( c_temp ) );
+        if ( vol > min_vol )
+          counts[ count_num ] = NumberIndexed_3D( a_temp, b_temp, c_temp,
+                                                  q_vectors, req_tolerance,
+                                                  ave_2_error );
+        else
+          counts[ count_num ] = -1;
+        count_num++;
+      }
+    }
+    return counts;
+  }
+}
+
+
+/**
+ *  Task to scan part of the list of directions in ScanFor_Directions(),
+ *  for the vectors that index the most peaks.
+ */
+private static class ScanFor_Directions_Task 
+                     implements Callable<SelectedDirections>
+{
+  private Vector<Vector3D> full_list;
+  private int              first;
+  private int              last;
+  private Vector           q_vectors;
+  private float            min_d;
+  private float            delta_d;
+  private int              n_steps;
+  private float            required_tolerance;
+
+  ScanFor_Directions_Task( Vector<Vector3D> full_list,
+                           int              first,
+                           int              last,
+                           Vector           q_vectors,
+                           float            min_d,
+                           float            delta_d,
+                           int              n_steps,
+                           float            required_tolerance )
+  {
+    this.full_list          = full_list;
+    this.first              = first;
+    this.last               = last;
+    this.q_vectors          = q_vectors;
+    this.min_d              = min_d;
+    this.delta_d            = delta_d;
+    this.n_steps            = n_steps;
+    this.required_tolerance = required_tolerance;
+  }
+
+  public SelectedDirections call()
+  {
+    SelectedDirections selected = new SelectedDirections();
+    Vector3D dir_temp = new Vector3D();
+    Vector3D q_vec;
+    float    dot_prod;
+    int      nearest_int;
+    float    error;
+
+    for ( int dir_num = first; dir_num < last; dir_num++ )
+    {
+      Vector3D current_dir = full_list.elementAt( dir_num );
+
+      for ( int step = 0; step <= n_steps; step++ )
+      {
+        dir_temp.set( current_dir );
+        dir_temp.multiply( min_d + step * delta_d );    // increasing size
+      
+        int num_indexed = 0;
+        for ( int q_num = 0; q_num < q_vectors.size(); q_num++ )
+        {
+          q_vec = (Vector3D)(q_vectors.elementAt( q_num ));
+          dot_prod = dir_temp.dot( q_vec );
+          nearest_int = Math.round( dot_prod );
+          error = Math.abs( dot_prod - nearest_int );
+          if ( error <= required_tolerance )
+            num_indexed++;
+        }
+
+        if ( num_indexed > selected.max_indexed ) // discard previous 
+        {                                         // directions if we find a 
+          selected.a_dirs.clear();                // direction that indexes
+          selected.max_indexed = num_indexed;     // more peaks
+        }
+        if ( num_indexed >= selected.max_indexed )
+          selected.a_dirs.add( new Vector3D( dir_temp ) );
+      }
+    }
+    return selected;
+  }
+}
+
+
+/**
+ *  Task to optimize part of the list of directions selected by
+ *  ScanFor_Directions().  The directions are changed in place.
+ */
+private static class OptimizeDirections_Task implements Callable<Integer>
+{
+  private Vector<Vector3D> dirs;
+  private int              first;
+  private int              last;
+  private Vector           q_vectors;
+  private float            required_tolerance;
+
+  OptimizeDirections_Task( Vector<Vector3D> dirs,
+                           int              first,
+                           int              last,
+                           Vector           q_vectors,
+                           float            required_tolerance )
+  {
+    this.dirs               = dirs;
+    this.first              = first;
+    this.last               = last;
+    this.q_vectors          = q_vectors;
+    this.required_tolerance = required_tolerance;
+  }
+
+  public Integer call()
+  {
+    float[]  fit_error  = new float[1];
+    Vector<Vector3D> index_vals = new Vector<Vector3D>();
+    Vector<Vector3D> indexed_qs = new Vector<Vector3D>();
+    for ( int dir_num = first; dir_num < last; dir_num++ )
+    {
+      Vector3D current_dir = dirs.elementAt( dir_num );
+
+      GetIndexedPeaks_1D( current_dir, 
+                          q_vectors,
+                          required_tolerance,
+                          index_vals, 
+                          indexed_qs,
+                          fit_error  );
+
+      Optimize_Direction_3D( current_dir, index_vals, indexed_qs );
+    }
+    return last - first;
+  }
+}
+
+
+/**
+ *  Task to calculate the maximum magnitude of the FFT past DC, for part of 
+ *  the list of directions in FFTScanFor_Directions().  Each task uses its
+ *  own FFT and work arrays.
+ */
+private static class MagFFT_Task implements Callable<Integer>
+{
+  private Vector<Vector3D> full_list;
+  private int              first;
+  private int              last;
+  private Vector           q_vectors;
+  private int              n_fft_steps;
+  private float            index_factor;
+  private float[]          max_fft_val;
+
+  MagFFT_Task( Vector<Vector3D> full_list,
+               int              first,
+               int              last,
+               Vector           q_vectors,
+               int              n_fft_steps,
+               float            index_factor,
+               float[]          max_fft_val )
+  {
+    this.full_list    = full_list;
+    this.first        = first;
+    this.last         = last;
+    this.q_vectors    = q_vectors;
+    this.n_fft_steps  = n_fft_steps;
+    this.index_factor = index_factor;
+    this.max_fft_val  = max_fft_val;
+  }
+
+  public Integer call()
+  {
+    float[] projections   = new float[ n_fft_steps ];
+    float[] magnitude_fft = new float[ n_fft_steps/2 ];
+
+    RealFloatFFT_Radix2 FFT = new RealFloatFFT_Radix2( n_fft_steps );
+    for ( int dir_num = first; dir_num < last; dir_num++ )
+    {
+      Vector3D current_dir = full_list.elementAt( dir_num );
+      max_fft_val[ dir_num ] = GetMagFFT( FFT, q_vectors, current_dir,
+                                          projections,
+                                          index_factor,
+                                          magnitude_fft );
+    }
+    return last - first;
+  }
+}
+
+
+/**
+ *  Task to refine part of the list of directions in FFTScanFor_Directions().
+ *  The directions are changed in place, and the maximum number of peaks
+ *  indexed by any of the refined directions is returned.
+ */
+private static class RefineDirections_Task implements Callable<Integer>
+{
+  private Vector<Vector3D> dirs;
+  private int              first;
+  private int              last;
+  private Vector           q_vectors;
+  private float            required_tolerance;
+
+  RefineDirections_Task( Vector<Vector3D> dirs,
+                         int              first,
+                         int              last,
+                         Vector           q_vectors,
+                         float            required_tolerance )
+  {
+    this.dirs               = dirs;
+    this.first              = first;
+    this.last               = last;
+    this.q_vectors          = q_vectors;
+    this.required_tolerance = required_tolerance;
+  }
+
+  public Integer call()
+  {
+    int      max_indexed = 0;
+    int      num_indexed;
+    float    error;
+    float[]  fit_error  = new float[1];
+    Vector<Vector3D> index_vals = new Vector<Vector3D>();
+    Vector<Vector3D> indexed_qs = new Vector<Vector3D>();
+    for ( int dir_num = first; dir_num < last; dir_num++ )
+    {
+      Vector3D current_dir = dirs.elementAt( dir_num );
+
+      num_indexed = GetIndexedPeaks_1D( current_dir,
+                                        q_vectors,
+                                        required_tolerance,
+                                        index_vals,
+                                        indexed_qs,
+                                        fit_error  );
+      try
+      {
+        int     count  = 0;
+        boolean failed = false;
+        while ( count < 5 && !failed )     // 5 iterations should be enough
+        {                                  // for the optimization to 
+          num_indexed = 0;                 // stabilize
+          error = Optimize_Direction_3D( current_dir, index_vals, indexed_qs);
+ 
+          if ( Float.isNaN(error) )
+            failed = true;
+          else
+          {
+            num_indexed = GetIndexedPeaks_1D( current_dir,
+                                              q_vectors,
+                                              required_tolerance,
+                                              index_vals,
+                                              indexed_qs,
+                                              fit_error  ); 
+            if ( num_indexed > max_indexed )
+              max_indexed = num_indexed;
+
+            count++;
+          }
+        }
+      }
+      catch ( Exception ex )
+      { 
+        // don't continue to refine if the direction fails to optimize 
+        // properly
+      }
+    }
+    return max_indexed;
+  }
+}
+
+
+/**
+ *  Task to scan part of the list of "a" directions in the ScanFor_UB()
+ *  method that uses a tolerance, for the sets of a, b, c directions that
+ *  index the most peaks.
+ */
+private static class ScanFor_UB_Task implements Callable<SelectedDirections>
+{
+  private Vector a_dir_list;
+  private int    first;
+  private int    last;
+  private Vector q_vectors;
+  private float  a, b, c;
+  private float  alpha, beta, gamma;
+  private int    num_b_steps;
+  private float  required_tolerance;
+
+  ScanFor_UB_Task( Vector a_dir_list,
+                   int    first,
+                   int    last,
+                   Vector q_vectors,
+                   float  a,
+                   float  b,
+                   float  c,
+                   float  alpha,
+                   float  beta,
+                   float  gamma,
+                   int    num_b_steps,
+                   float  required_tolerance )
+  {
+    this.a_dir_list         = a_dir_list;
+    this.first              = first;
+    this.last               = last;
+    this.q_vectors          = q_vectors;
+    this.a                  = a;
+    this.b                  = b;
+    this.c                  = c;
+    this.alpha              = alpha;
+    this.beta               = beta;
+    this.gamma              = gamma;
+    this.num_b_steps        = num_b_steps;
+    this.required_tolerance = required_tolerance;
+  }
+
+  public SelectedDirections call()
+  {
+    SelectedDirections selected = new SelectedDirections();
+    Vector   b_dir_list;
+    Vector3D a_dir_temp;
+    Vector3D b_dir_temp;
+    Vector3D c_dir_temp;
+    Vector3D q_vec;
+    float    error;
+    float    dot_prod;
+    int      nearest_int;
+
+    for ( int a_dir_num = first; a_dir_num < last; a_dir_num++ )
+    {
+      a_dir_temp = (Vector3D)a_dir_list.elementAt( a_dir_num );
+      a_dir_temp = new Vector3D( a_dir_temp );
+      a_dir_temp.multiply( a );
+
+      b_dir_list = MakeCircleDirections( num_b_steps, a_dir_temp, gamma );
+
+      for ( int b_dir_num = 0; b_dir_num < b_dir_list.size(); b_dir_num++ )
+      {
+        b_dir_temp = (Vector3D)( b_dir_list.elementAt(b_dir_num) );
+        b_dir_temp = new Vector3D( b_dir_temp );
+        b_dir_temp.multiply( b );
+        c_dir_temp = Make_c_dir( a_dir_temp, b_dir_temp,
+                                 c, alpha, beta, gamma );
+
+        int num_indexed = 0;
+        for ( int q_num = 0; q_num < q_vectors.size(); q_num++ )
+        {
+          boolean indexes_peak = true;
+          q_vec = (Vector3D)(q_vectors.elementAt( q_num ));
+          dot_prod = a_dir_temp.dot( q_vec );
+          nearest_int = Math.round( dot_prod );
+          error = Math.abs( dot_prod - nearest_int );
+          if ( error > required_tolerance )
+            indexes_peak = false;
+          else
+          {
+            dot_prod = b_dir_temp.dot( q_vec );
+            nearest_int = Math.round( dot_prod );
+            error = Math.abs( dot_prod - nearest_int );
+            if ( error > required_tolerance )
+              indexes_peak = false;
+            else
+            {
+              dot_prod = c_dir_temp.dot( q_vec );
+              nearest_int = Math.round( dot_prod );
+              error = Math.abs( dot_prod - nearest_int );
+              if ( error > required_tolerance )
+                indexes_peak = false;
+            }
+          }
+          if ( indexes_peak )
+            num_indexed++;
+        }
+
+        if ( num_indexed > selected.max_indexed ) // only keep those 
+        {                                         // directions that index
+          selected.a_dirs.clear();                // the max number of peaks
+          selected.b_dirs.clear();
+          selected.c_dirs.clear();
+          selected.max_indexed = num_indexed;
+        }
+        if ( num_indexed == selected.max_indexed )
+        {
+          selected.a_dirs.add( a_dir_temp );
+          selected.b_dirs.add( b_dir_temp );
+          selected.c_dirs.add( c_dir_temp );
+        }
+      }
+    }
+    return selected;
+  }
+}
+
+
 public static void main( String args[] ) throws Exception
 {
   Vector<Vector3D> hkls      = new Vector<Vector3D>();
@@ -80,6 +80,12 @@ public class IntegrateUtils
 
   public static boolean DEBUG = false; 
 
+  // Number of pixels that the rectangle grown by integratePeakSlice() can
+  // extend past the center, including the border used for the background.
+  // The rectangle starts 2 pixels from the center and can move up to 10
+  // pixels before any requested increase.
+  private static final int SLICE_MARGIN = 13;
+
 
   public static int getCenterIndex( String centeringName )
   {
@@ -106,6 +112,103 @@ public class IntegrateUtils
                                         int          rowYrange[],
                                         int          timeZrange[],
                                         StringBuffer log )
+   {
+     if ( !shoeboxOnDetector( peak, ds, ids, 
+                              colXrange, rowYrange, timeZrange, log ) )
+       return;
+
+     PeakSubBlock block = shoeboxBlock( peak, ds, ids,
+                                        colXrange, rowYrange, timeZrange );
+     block.load();
+
+     integrateShoebox( peak, block, 
+                       colXrange[0], colXrange[1],
+                       rowYrange[0], rowYrange[1],
+                       timeZrange[0], timeZrange[1],
+                       false, log );
+   }
+
+
+  /**
+   * This method integrates all of the specified peaks on one detector
+   * using the same "shoebox" calculation as integrateShoebox().  The 
+   * regions of data needed for all of the peaks are first copied from the
+   * DataSet in one pass over the detector's pixels, then each peak is
+   * integrated using its own region.  The results are the same as calling
+   * integrateShoebox() for each peak.
+   *
+   * @param  peaks       Vector of IPeak objects, all on the detector whose
+   *                     pixels are given by ids[][].
+   * @param  ds          The data set with the peaks
+   * @param  ids         ids[x][y] is the index in the DataSet of the Data
+   *                     block for pixel (x,y).
+   * @param  colXrange   min and max delta col from the peak to use
+   * @param  rowYrange   min and max delta row from the peak to use
+   * @param  timeZrange  min and max delta time channel from the peak to use
+   * @param  logs        Array of buffers for the log information for each
+   *                     peak.  If this is null, or if an entry is null, no
+   *                     log information is kept for the corresponding peak.
+   */
+   public static void integrateShoeboxes( Vector         peaks,
+                                          DataSet        ds,
+                                          int            ids[][],
+                                          int            colXrange[],
+                                          int            rowYrange[],
+                                          int            timeZrange[],
+                                          StringBuffer[] logs )
+   {
+     int n_peaks = peaks.size();
+     if ( logs != null && logs.length < n_peaks )
+       throw new IllegalArgumentException( "Only " + logs.length + 
+                         " log buffers for " + n_peaks + " peaks" );
+
+     StringBuffer   dummy_log = new StringBuffer();
+     StringBuffer[] my_logs   = new StringBuffer[ n_peaks ];
+     PeakSubBlock[] blocks    = new PeakSubBlock[ n_peaks ];
+     for ( int i = 0; i < n_peaks; i++ )
+     {
+       if ( logs != null && logs[i] != null )
+         my_logs[i] = logs[i];
+       else
+         my_logs[i] = dummy_log;
+
+       IPeak peak = (IPeak)peaks.elementAt(i);
+       if ( shoeboxOnDetector( peak, ds, ids, 
+                               colXrange, rowYrange, timeZrange, my_logs[i] ) )
+         blocks[i] = shoeboxBlock( peak, ds, ids,
+                                   colXrange, rowYrange, timeZrange );
+
+       dummy_log.setLength( 0 );
+     }
+
+     PeakSubBlock.LoadAll( blocks );
+
+     for ( int i = 0; i < n_peaks; i++ )
+     {
+       if ( blocks[i] != null )
+         integrateShoebox( (IPeak)peaks.elementAt(i), blocks[i],
+                           colXrange[0], colXrange[1],
+                           rowYrange[0], rowYrange[1],
+                           timeZrange[0], timeZrange[1],
+                           false, my_logs[i] );
+       blocks[i] = null;
+       dummy_log.setLength( 0 );
+     }
+   }
+
+
+  /**
+   * Check whether the shoebox for the peak, and its border, lie on the
+   * detector and in the range of time channels.  If not, the peak's reflag
+   * is set to 0, the reason is added to the log and false is returned.
+   */
+   private static boolean shoeboxOnDetector( IPeak        peak,
+                                             DataSet      ds,
+                                             int          ids[][],
+                                             int          colXrange[],
+                                             int          rowYrange[],
+                                             int          timeZrange[],
+                                             StringBuffer log )
    {
      // set up where the peak is located
      int cenX=(int)Math.round(peak.x());
@@ -123,14 +226,14 @@ public class IntegrateUtils
      {
        peak.reflag(0);
        log.append("Shoebox: NOT INTEGRATED BECAUSE TOO CLOSE TO TIME CHANNEL 0");
-       return;
+       return false;
      }
 
      if ( cenZ + timeZrange[1] > maxZ )  // too close to max time channel
      {
        peak.reflag(0);
        log.append("Shoebox: NOT INTEGRATED BECAUSE TOO CLOSE TO TIME CHANNEL MAX");
-       return;
+       return false;
      }
 
      int minX = 1;                           // in ids[][] the first index
@@ -140,14 +243,14 @@ public class IntegrateUtils
      {
        peak.reflag(0);
        log.append("Shoebox: NOT INTEGRATED BECAUSE TOO CLOSE TO X MIN");
-       return;
+       return false;
      }
 
      if ( cenX + colXrange[1] > maxX - 1 )
      {
        peak.reflag(0);
        log.append("Shoebox: NOT INTEGRATED BECAUSE TOO CLOSE TO X MAX");
-       return;
+       return false;
      }
 
      int minY = 1;                           // in ids[][] the second index
@@ -157,114 +260,43 @@ public class IntegrateUtils
      {
        peak.reflag(0);
        log.append("Shoebox: NOT INTEGRATED BECAUSE TOO CLOSE TO Y MIN");
-       return;
+       return false;
      }
 
      if ( cenY + rowYrange[1] > maxY - 1 )
      {
        peak.reflag(0);
        log.append("Shoebox: NOT INTEGRATED BECAUSE TOO CLOSE TO Y MAX");
-       return;
+       return false;
      }
 
-     SCD_LogUtils.addLogHeader( log, peak );
-                                             // size of peak "shoebox"
-     int nX = colXrange[1]  - colXrange[0]  + 1;
-     int nY = rowYrange[1]  - rowYrange[0]  + 1;
-
-     float n_signal =  nX    *  nY;
-     float n_total  = (nX+2) * (nY+2);
-     float n_border = n_total - n_signal;
-     float ratio    = n_signal/n_border;
-
-     float slice_total = 0;      // slice total on peak + background region
-     float slice_total_var =0;   // slice total variance for Peak + backgroun
-     float slice_back_var =0;    // slice total variance for background
-     float p_sig_plus_back = 0;  // signal + background total for peak region
-     float intensity;            // intensity at one voxel
-     float border;               // total on border region only 
-     float slice_I;              // signal - background on one slice
-     float slice_sigI;           // sigI on one slice
-     float totI = 0;             // cumulative I for all slices
-     float totSigI = 0;          // cumulative sigI for all slices
-     float slice_peak;           // largest intensity in slice
-     int   slice_peak_x;         // x value of largest intensity in slice
-     int   slice_peak_y;         // y value of largest intensity in slice
-     boolean border_peak;        // set true if the largest value occurs on 
-                                 // the border of this slice
-
-                                          // range of x,y,z enclosed in shoebox
-     int first_x = cenX + colXrange[0];
-     int last_x  = cenX + colXrange[1];
-     int first_y = cenY + rowYrange[0];
-     int last_y  = cenY + rowYrange[1];
-     int first_z = cenZ + timeZrange[0];
-     int last_z  = cenZ + timeZrange[1];
-     for(int k = first_z; k <= last_z;  k++)
-     {
-       slice_peak   = -1;
-       slice_peak_x = -1;
-       slice_peak_y = -1;
-       slice_total  =  0;
-       p_sig_plus_back = 0;  
-       slice_total_var =0;  
-       slice_back_var =0;   
-       float err;
-       for(int i = first_x - 1; i <= last_x + 1;   i++)
-         for(int j = first_y - 1; j <= last_y + 1; j++)
-       {
-         intensity = getObs( ds, ids[i][j], k );
-         err = getErrObs( ds, ids[i][j],k);
-         slice_total += intensity;
-         slice_total_var += err*err;
-         if ( i >= first_x  &&  i <= last_x &&    // check if pixel in peak 
-              j >= first_y  &&  j <= last_y )     // region of this slice
-           p_sig_plus_back += intensity;
-         else
-         {
-            slice_back_var += err*err;
-         }
-
-         if ( intensity > slice_peak )
-         {
-           slice_peak = intensity;
-           slice_peak_x = i;
-           slice_peak_y = j;
-         }
-       }
-
-       if ( slice_peak_x == first_x - 1 ||
-            slice_peak_x == last_x  + 1 ||
-            slice_peak_y == first_y - 1 ||
-            slice_peak_y == last_y  + 1  )
-         border_peak = true;
-       else
-         border_peak = false;
-       slice_total_var -=slice_back_var;//Only interior points are used
-       border = slice_total - p_sig_plus_back;    // total on border region only
-       slice_I    = p_sig_plus_back - ratio * border;
-       slice_sigI = (float)Math.sqrt(slice_total_var +ratio*ratio*slice_back_var);
-             //             p_sig_plus_back + ratio * ratio * border);
-       float x = (float)Math.sqrt(   p_sig_plus_back + ratio * ratio * border);
-
-       totI += slice_I;
-       totSigI = (float)Math.sqrt( slice_sigI * slice_sigI + totSigI * totSigI);
-
-       SCD_LogUtils.addLogSlice( log,
-                                 k-cenZ, k,
-                                 slice_peak_x, slice_peak_y, (int)slice_peak,
-                                 first_x, last_x, first_y, last_y,
-                                 slice_I, slice_sigI, "Yes", border_peak );
-     }
+     return true;
+   }
 
-     peak.inti( totI );
-     peak.sigi( totSigI );
-     int ipkobs = (int)getObs( ds, ids[cenX][cenY], cenZ );
-     peak.ipkobs( ipkobs );
 
-     SCD_LogUtils.addLogPeakSummary( log, totI, totSigI );
+  /**
+   * Make an empty sub-block that covers the shoebox for the peak, together
+   * with its border pixels.
+   */
+   private static PeakSubBlock shoeboxBlock( IPeak   peak,
+                                             DataSet ds,
+                                             int     ids[][],
+                                             int     colXrange[],
+                                             int     rowYrange[],
+                                             int     timeZrange[] )
+   {
+     int cenX=(int)Math.round(peak.x());
+     int cenY=(int)Math.round(peak.y());
+     int cenZ=(int)Math.round(peak.z());
+
+     return new PeakSubBlock( ds, ids,
+                              cenX + colXrange[0] - 1, cenX + colXrange[1] + 1,
+                              cenY + rowYrange[0] - 1, cenY + rowYrange[1] + 1,
+                              cenZ + timeZrange[0],    cenZ + timeZrange[1],
+                              true );
    }
 
+
    /**
     * This method integrates the peak by looking at a rectangular "shoebox"
     * around the specified peak.  The volume specified by the shoebox is assumed 
@@ -360,6 +392,53 @@ public class IntegrateUtils
         return;
       }
 
+      PeakSubBlock block = new PeakSubBlock( ds, ids,
+                                             cenX + minDX - 1, cenX + maxDX + 1,
+                                             cenY + minDY - 1, cenY + maxDY + 1,
+                                             cenZ + minChan,   cenZ + maxChan,
+                                             true );
+      block.load();
+
+      integrateShoebox( peak, block, 
+                        minDX, maxDX, minDY, maxDY, minChan, maxChan,
+                        true, log );
+    }
+
+
+   /**
+    * Do the shoebox integration for a peak, using the counts and errors 
+    * in a sub-block that includes the shoebox and its border pixels.  The 
+    * caller must have checked that the shoebox and border are on the
+    * detector.
+    *
+    * @param  peak      - A peak that is to be integrated
+    * @param  block     - The sub-block with the data around the peak
+    * @param  minDX     - min delta col from peak to use(should be neg)
+    * @param  maxDX     - max delta  col from peak to use
+    * @param  minDY     - min delta row from peak to use
+    * @param  maxDY     - max delta row  from peak to use
+    * @param  minChan   - min delta timeChan  from peak to use
+    * @param  maxChan   - max delta timeChan  from peak to use 
+    * @param  positive_only - If true, only slices with positive intensity
+    *                     are added, and the slices after the peak are 
+    *                     stopped at the first slice that is not positive.
+    * @param  log       - A buffer to save log information
+    */
+    private static void integrateShoebox( IPeak        peak,
+                                          PeakSubBlock block,
+                                          int          minDX, 
+                                          int          maxDX,
+                                          int          minDY,
+                                          int          maxDY,
+                                          int          minChan,
+                                          int          maxChan,
+                                          boolean      positive_only,
+                                          StringBuffer log      )
+    {
+      int cenX=(int)Math.round(peak.x());
+      int cenY=(int)Math.round(peak.y());
+      int cenZ=(int)Math.round(peak.z());
+
       SCD_LogUtils.addLogHeader( log, peak );
                                               // size of peak "shoebox"
       int nX =  maxDX  - minDX  + 1;
@@ -375,6 +454,7 @@ public class IntegrateUtils
       float slice_back_var =0;    // slice total variance for background
       float p_sig_plus_back = 0;  // signal + background total for peak region
       float intensity;            // intensity at one voxel
+      float err;                  // error estimate at one voxel
       float border;               // total on border region only 
       float slice_I;              // signal - background on one slice
       float slice_sigI;           // sigI on one slice
@@ -390,9 +470,15 @@ public class IntegrateUtils
       int first_x = cenX + minDX;
       int last_x  = cenX + maxDX;
       int first_y = cenY + minDY;
-      int last_y  =cenY + maxDY;
+      int last_y  = cenY + maxDY;
       int first_z = cenZ + minChan;
       int last_z  = cenZ + maxChan;
+
+      float[] counts = block.counts;
+      float[] errors = block.errors;
+      int     n_z    = block.n_z;          // step between y values in block
+      int     index;
+
       boolean skip = false;
       for(int k = first_z; k <= last_z && !skip;  k++)
       {
@@ -403,25 +489,28 @@ public class IntegrateUtils
         p_sig_plus_back = 0;
         slice_total_var =0;  
         slice_back_var =0;   
-        float err;
         for(int i = first_x - 1; i <= last_x + 1;   i++)
-          for(int j = first_y - 1; j <= last_y + 1; j++)
         {
-          intensity = getObs( ds, ids.getData_entry(i,j), k );
-          err= getErrObs( ds, ids.getData_entry(i,j), k );
-          slice_total += intensity;
-          slice_total_var +=err*err;
-          if ( i >= first_x  &&  i <= last_x &&    // check if pixel in peak 
-               j >= first_y  &&  j <= last_y )     // region of this slice
-            p_sig_plus_back += intensity;
-          else
-             slice_back_var +=err*err;
-
-          if ( intensity > slice_peak )
+          index = block.index( i, first_y - 1, k );
+          for(int j = first_y - 1; j <= last_y + 1; j++)
           {
-            slice_peak = intensity;
-            slice_peak_x = i;
-            slice_peak_y = j;
+            intensity = counts[index];
+            err       = errors[index];
+            index    += n_z;
+            slice_total += intensity;
+            slice_total_var +=err*err;
+            if ( i >= first_x  &&  i <= last_x &&    // check if pixel in peak 
+                 j >= first_y  &&  j <= last_y )     // region of this slice
+              p_sig_plus_back += intensity;
+            else
+              slice_back_var +=err*err;
+
+            if ( intensity > slice_peak )
+            {
+              slice_peak = intensity;
+              slice_peak_x = i;
+              slice_peak_y = j;
+            }
           }
         }
 
@@ -431,24 +520,20 @@ public class IntegrateUtils
              slice_peak_y == last_y  + 1  )
           border_peak = true;
         else
-        {
           border_peak = false;
-        }
+
         border = slice_total - p_sig_plus_back;    // total on border region only
         slice_total_var -= slice_back_var;//Only interior points are used
         slice_I    = p_sig_plus_back - ratio * border;
         slice_sigI = (float)Math.sqrt(slice_total_var +ratio*ratio*slice_back_var);
-        //             p_sig_plus_back + ratio * ratio * border);
-      
 
-        if( slice_I >0)
+        if ( !positive_only || slice_I > 0 )
         {
            totI += slice_I; 
            totSigI = (float)Math.sqrt( slice_sigI * slice_sigI + totSigI * totSigI);
-           
-        }else if(k> cenZ)        
+        }
+        else if ( k > cenZ )        
            skip = true;
-       
         
         SCD_LogUtils.addLogSlice( log,
                                   k-cenZ, k,
@@ -459,7 +544,7 @@ public class IntegrateUtils
 
       peak.inti( totI );
       peak.sigi( totSigI );
-      int ipkobs = (int)getObs( ds, ids.getData_entry(  cenX, cenY), cenZ );
+      int ipkobs = (int)block.obs( cenX, cenY, cenZ );
       peak.ipkobs( ipkobs );
 
       SCD_LogUtils.addLogPeakSummary( log, totI, totSigI );
@@ -516,6 +601,16 @@ public class IntegrateUtils
       if( zrange[i]<minZ || zrange[i]>=maxZ ) return; // ends of time axis
     }
 
+    // copy the counts around the peak, for all of the time slices, into
+    // a sub-block.  The center can move by one pixel per slice, and the
+    // rectangle on each slice can grow by SLICE_MARGIN pixels.
+    int margin = zrange.length + SLICE_MARGIN + Math.max( 0, increaseSlice );
+    PeakSubBlock block = new PeakSubBlock( ds, ids,
+                                           cenX - margin, cenX + margin,
+                                           cenY - margin, cenY + margin,
+                                           minZrange, maxZrange, false );
+    block.load();
+
     // determine the range in index
     int indexZmin=0;
     int indexZcen=0;
@@ -539,8 +634,8 @@ public class IntegrateUtils
     innerLog.delete(0,innerLog.length());
     innerLog.append(SCD_LogUtils.formatInt(cenX)+"  "+
                     SCD_LogUtils.formatInt(cenY) +
-                    SCD_LogUtils.formatInt(getObs(ds,ids[cenX][cenY],cenZ),6));
-    tempIsigI=integratePeakSlice(ds,ids,cenX,cenY,cenZ,increaseSlice,innerLog);
+                    SCD_LogUtils.formatInt(block.obs(cenX,cenY,cenZ),6));
+    tempIsigI=integratePeakSlice(block,cenX,cenY,cenZ,increaseSlice,innerLog);
     integSliceLogs[indexZcen]=innerLog.toString();
     // update the list of integrals if intensity is positive
     if(tempIsigI[0]!=0f){
@@ -559,15 +654,15 @@ public class IntegrateUtils
     float maxP;
     // integrate the time slices before the peak
     for( int k=indexZcen-1 ; k>=0 ; k-- ){
-      maxP=getObs(ds,ids[cenX][cenY],zrange[k]);
+      maxP=block.obs(cenX,cenY,zrange[k]);
       if(zrange[k]>=minZrange){
         // determine the local maximum
         for( int i=cenX-1 ; i<=cenX+1 ; i++ ){
           for( int j=cenY-1 ; j<=cenY+1 ; j++ ){
             if( i==(int)Math.round(peak.x()) && j==(int)Math.round(peak.y()))
               continue;
-            if(getObs(ds,ids[i][j],zrange[k])>maxP){
-              maxP=getObs(ds,ids[i][j],zrange[k]);
+            if(block.obs(i,j,zrange[k])>maxP){
+              maxP=block.obs(i,j,zrange[k]);
               cenX=i;
               cenY=j;
             }
@@ -584,7 +679,7 @@ public class IntegrateUtils
         continue;
       }
       tempIsigI
-        =integratePeakSlice(ds,ids,cenX,cenY,zrange[k],increaseSlice,innerLog);
+        =integratePeakSlice(block,cenX,cenY,zrange[k],increaseSlice,innerLog);
       integSliceLogs[k]=innerLog.toString();
       // update the list of integrals if intensity is positive
       if(tempIsigI[0]!=0f){
@@ -613,15 +708,15 @@ public class IntegrateUtils
     // integrate the time slices after the peak
     try{
       for( int k=indexZcen+1 ; k<zrange.length ; k++ ){
-        maxP=getObs(ds,ids[cenX][cenY],zrange[k]);
+        maxP=block.obs(cenX,cenY,zrange[k]);
         if(zrange[k]<=maxZrange){
           // determine the local maximum
           for( int i=cenX-1 ; i<=cenX+1 ; i++ ){
             for( int j=cenY-1 ; j<=cenY+1 ; j++ ){
               if( i==(int)Math.round(peak.x()) && j==(int)Math.round(peak.y()))
                 continue;
-              if(getObs(ds,ids[i][j],zrange[k])>maxP){
-                maxP=getObs(ds,ids[i][j],zrange[k]);
+              if(block.obs(i,j,zrange[k])>maxP){
+                maxP=block.obs(i,j,zrange[k]);
                 cenX=i;
                 cenY=j;
               }
@@ -638,7 +733,7 @@ public class IntegrateUtils
           continue;
         }
         tempIsigI
-          =integratePeakSlice(ds,ids,cenX,cenY,zrange[k],increaseSlice,innerLog);
+          =integratePeakSlice(block,cenX,cenY,zrange[k],increaseSlice,innerLog);
         integSliceLogs[k]=innerLog.toString();
         // update the list of integrals if intensity is positive
         if(tempIsigI[0]!=0f){
@@ -805,6 +900,16 @@ public class IntegrateUtils
       if( zrange[i]<minZ || zrange[i]>=maxZ ) return; // ends of time axis
     }
 
+    // copy the counts around the peak, for all of the time slices, into
+    // a sub-block.  The center can move by one pixel per slice, and the
+    // rectangle on each slice can grow by SLICE_MARGIN pixels.
+    int margin = zrange.length + SLICE_MARGIN + Math.max( 0, increaseSlice );
+    PeakSubBlock block = new PeakSubBlock( ds, grid,
+                                           cenX - margin, cenX + margin,
+                                           cenY - margin, cenY + margin,
+                                           minZrange, maxZrange, false );
+    block.load();
+
     // determine the range in index
     int indexZmin=0;
     int indexZcen=0;
@@ -828,8 +933,8 @@ public class IntegrateUtils
     innerLog.delete(0,innerLog.length());
     innerLog.append(SCD_LogUtils.formatInt(cenX)+"  "+
                     SCD_LogUtils.formatInt(cenY) +
-                    SCD_LogUtils.formatInt(getObs(ds,grid.getData_entry(cenX, cenY),cenZ),6));
-    tempIsigI=integratePeakSlice(ds,grid,cenX,cenY,cenZ,increaseSlice,innerLog);
+                    SCD_LogUtils.formatInt(block.obs(cenX,cenY,cenZ),6));
+    tempIsigI=integratePeakSlice(block,cenX,cenY,cenZ,increaseSlice,innerLog);
     integSliceLogs[indexZcen]=innerLog.toString();
     // update the list of integrals if intensity is positive
     if(tempIsigI[0]!=0f){
@@ -848,15 +953,15 @@ public class IntegrateUtils
     float maxP;
     // integrate the time slices before the peak
     for( int k=indexZcen-1 ; k>=0 ; k-- ){
-      maxP=getObs(ds,grid.getData_entry( cenX, cenY),zrange[k]);
+      maxP=block.obs(cenX,cenY,zrange[k]);
       if(zrange[k]>=minZrange){
         // determine the local maximum
         for( int i=cenX-1 ; i<=cenX+1 ; i++ ){
           for( int j=cenY-1 ; j<=cenY+1 ; j++ ){
             if( i==(int)Math.round(peak.x()) && j==(int)Math.round(peak.y()))
               continue;
-            if(getObs(ds,grid.getData_entry( i, j),zrange[k])>maxP){
-              maxP=getObs(ds,grid.getData_entry( i, j),zrange[k]);
+            if(block.obs(i,j,zrange[k])>maxP){
+              maxP=block.obs(i,j,zrange[k]);
               cenX=i;
               cenY=j;
             }
@@ -873,7 +978,7 @@ public class IntegrateUtils
         continue;
       }
       tempIsigI
-        =integratePeakSlice(ds,grid,cenX,cenY,zrange[k],increaseSlice,innerLog);
+        =integratePeakSlice(block,cenX,cenY,zrange[k],increaseSlice,innerLog);
       integSliceLogs[k]=innerLog.toString();
       // update the list of integrals if intensity is positive
       if(tempIsigI[0]!=0f){
@@ -902,15 +1007,15 @@ public class IntegrateUtils
     // integrate the time slices after the peak
     try{
       for( int k=indexZcen+1 ; k<zrange.length ; k++ ){
-        maxP=getObs(ds,grid.getData_entry( cenX , cenY),zrange[k]);
+        maxP=block.obs(cenX,cenY,zrange[k]);
         if(zrange[k]<=maxZrange){
           // determine the local maximum
           for( int i=cenX-1 ; i<=cenX+1 ; i++ ){
             for( int j=cenY-1 ; j<=cenY+1 ; j++ ){
               if( i==(int)Math.round(peak.x()) && j==(int)Math.round(peak.y()))
                 continue;
-              if(getObs(ds,grid.getData_entry( i,j),zrange[k])>maxP){
-                maxP=getObs(ds,grid.getData_entry( i,j),zrange[k]);
+              if(block.obs(i,j,zrange[k])>maxP){
+                maxP=block.obs(i,j,zrange[k]);
                 cenX=i;
                 cenY=j;
               }
@@ -927,7 +1032,7 @@ public class IntegrateUtils
           continue;
         }
         tempIsigI
-          =integratePeakSlice(ds,grid,cenX,cenY,zrange[k],increaseSlice,innerLog);
+          =integratePeakSlice(block,cenX,cenY,zrange[k],increaseSlice,innerLog);
         integSliceLogs[k]=innerLog.toString();
         // update the list of integrals if intensity is positive
         if(tempIsigI[0]!=0f){
@@ -1037,88 +1142,15 @@ public class IntegrateUtils
    */
   public static float[] integratePeakSlice(DataSet ds, IDataGrid ids, int Xcen,
                         int Ycen, int z, int increaseSlice, StringBuffer log){
-    float[] IsigI=new float[2];
-    float[] tempIsigI=new float[2];
-
-    int[] init_rng= {Xcen-2,Ycen-2,Xcen+2,Ycen+2};
-    int[] rng     = {Xcen-2,Ycen-2,Xcen+2,Ycen+2};
-    int[] step    = {-1,-1,1,1};
-
-    int itteration=0;
-    final int MAX_ITTER=10;
-
-    // initial run with default size for integration
-    if( checkRange(ids,rng) ){
-      tempIsigI=integrateSlice(ds,ids,rng,z);
-      if(tempIsigI[0]==0f || tempIsigI[1]==0f){ // something wrong
-        SCD_LogUtils.formatRange(rng,log);
-        itteration=MAX_ITTER;
-      }
-
-      if( tempIsigI[0]>0f && tempIsigI[1]>0f ){
-        IsigI[0]=tempIsigI[0];
-        IsigI[1]=tempIsigI[1];
-      }
-    }
-    int direction=0;
-    for( int i=0 ; i<4 ; i++ ){
-      itteration=0;
-      direction=0;
-      while(direction<2 && itteration<MAX_ITTER){ // only change direction once
-        itteration++;                      // and allow a max num of itteration
-        rng[i]=rng[i]+step[i];
-        if( checkRange(ids,rng) ){
-          tempIsigI=integrateSlice(ds,ids,rng,z);
-          if(tempIsigI[0]==0f||tempIsigI[1]==0f){ // something wrong
-            SCD_LogUtils.formatRange(rng,log);
-            itteration=MAX_ITTER;
-          }
-          if( tempIsigI[0]>0f && tempIsigI[1]>0f ){
-            if( IsigI[0]/IsigI[1]<tempIsigI[0]/tempIsigI[1]){
-              IsigI[0]=tempIsigI[0];
-              IsigI[1]=tempIsigI[1];
-            }else{ // change direction
-              step[i]=-1*step[i];
-              rng[i]=rng[i]+step[i];
-              direction++;
-            }
-          }
-        }else{ // change direction
-          step[i]=-1*step[i];
-          rng[i]=rng[i]+step[i];
-          direction++;
-        }
-      }
-    }
-
-    // use a fixed box
-    if(IsigI[0]<=IsigI[1]*5f){
-      if(checkRange(ids,init_rng) )
-        IsigI=integrateSlice(ds,ids,init_rng,z);
-      SCD_LogUtils.formatRange(init_rng,log);
-      return IsigI;
-    }
-
-    // increase the size of the slice's integration (if requested)
-    if(increaseSlice>0){
-      rng[0]=rng[0]-increaseSlice;
-      rng[1]=rng[1]-increaseSlice;
-      rng[2]=rng[2]+increaseSlice;
-      rng[3]=rng[3]+increaseSlice;
-      if( checkRange(ids,rng) ){
-        IsigI=integrateSlice(ds,ids,rng,z);
-      }else{ // goes out of range
-        rng[0]=rng[0]+increaseSlice;
-        rng[1]=rng[1]+increaseSlice;
-        rng[2]=rng[2]-increaseSlice;
-        rng[3]=rng[3]-increaseSlice;
-      }
-    }
-
-    // add information to the log and return the integral
-    SCD_LogUtils.formatRange(rng,log);
-    return IsigI;
+    int margin = SLICE_MARGIN + Math.max( 0, increaseSlice );
+    PeakSubBlock block = new PeakSubBlock( ds, ids,
+                                           Xcen - margin, Xcen + margin,
+                                           Ycen - margin, Ycen + margin,
+                                           z, z, false );
+    block.load();
+    return integratePeakSlice( block, Xcen, Ycen, z, increaseSlice, log );
   }
+
   /**
    * Integrate a peak while varying the range in x and y. This does
    * the hard work of growing the rectangle on a time slice to
@@ -1126,6 +1158,23 @@ public class IntegrateUtils
    */
   public static float[] integratePeakSlice(DataSet ds, int[][] ids, int Xcen,
                         int Ycen, int z, int increaseSlice, StringBuffer log){
+    int margin = SLICE_MARGIN + Math.max( 0, increaseSlice );
+    PeakSubBlock block = new PeakSubBlock( ds, ids,
+                                           Xcen - margin, Xcen + margin,
+                                           Ycen - margin, Ycen + margin,
+                                           z, z, false );
+    block.load();
+    return integratePeakSlice( block, Xcen, Ycen, z, increaseSlice, log );
+  }
+
+  /**
+   * Integrate a peak while varying the range in x and y, using the counts
+   * in a sub-block that holds the data around the peak.  This does
+   * the hard work of growing the rectangle on a time slice to
+   * maximize I/dI.
+   */
+  private static float[] integratePeakSlice( PeakSubBlock block, int Xcen,
+                        int Ycen, int z, int increaseSlice, StringBuffer log){
     float[] IsigI=new float[2];
     float[] tempIsigI=new float[2];
 
@@ -1137,8 +1186,8 @@ public class IntegrateUtils
     final int MAX_ITTER=10;
 
     // initial run with default size for integration
-    if( checkRange(ids,rng) ){
-      tempIsigI=integrateSlice(ds,ids,rng,z);
+    if( block.checkRange(rng) ){
+      tempIsigI=integrateSlice(block,rng,z);
       if(tempIsigI[0]==0f || tempIsigI[1]==0f){ // something wrong
         SCD_LogUtils.formatRange(rng,log);
         itteration=MAX_ITTER;
@@ -1156,8 +1205,8 @@ public class IntegrateUtils
       while(direction<2 && itteration<MAX_ITTER){ // only change direction once
         itteration++;                      // and allow a max num of itteration
         rng[i]=rng[i]+step[i];
-        if( checkRange(ids,rng) ){
-          tempIsigI=integrateSlice(ds,ids,rng,z);
+        if( block.checkRange(rng) ){
+          tempIsigI=integrateSlice(block,rng,z);
           if(tempIsigI[0]==0f||tempIsigI[1]==0f){ // something wrong
             SCD_LogUtils.formatRange(rng,log);
             itteration=MAX_ITTER;
@@ -1182,8 +1231,8 @@ public class IntegrateUtils
 
     // use a fixed box
     if(IsigI[0]<=IsigI[1]*5f){
-      if(checkRange(ids,init_rng) )
-        IsigI=integrateSlice(ds,ids,init_rng,z);
+      if(block.checkRange(init_rng) )
+        IsigI=integrateSlice(block,init_rng,z);
       SCD_LogUtils.formatRange(init_rng,log);
       return IsigI;
     }
@@ -1194,8 +1243,8 @@ public class IntegrateUtils
       rng[1]=rng[1]-increaseSlice;
       rng[2]=rng[2]+increaseSlice;
       rng[3]=rng[3]+increaseSlice;
-      if( checkRange(ids,rng) ){
-        IsigI=integrateSlice(ds,ids,rng,z);
+      if( block.checkRange(rng) ){
+        IsigI=integrateSlice(block,rng,z);
       }else{ // goes out of range
         rng[0]=rng[0]+increaseSlice;
         rng[1]=rng[1]+increaseSlice;
@@ -1212,10 +1261,12 @@ public class IntegrateUtils
 
   /**
    * Integrate around the peak in the given time slice. This
-   * integrates the region passed to it.
+   * integrates the region passed to it.  If the region and its border
+   * are in the sub-block, the counts are taken directly from the block's
+   * array.
    */
-  private static float[] integrateSlice(DataSet ds, int[][] ids,
-                                                           int[] range, int z){
+  private static float[] integrateSlice( PeakSubBlock block,
+                                         int[] range, int z){
     float[] IsigI=new float[2];
 
     int minX=range[0];
@@ -1237,55 +1288,28 @@ public class IntegrateUtils
 
     float intensity;
 
-    for( int i=minX-1 ; i<=maxX+1 ; i++ ){
-      for( int j=minY-1 ; j<=maxY+1 ; j++ ){
-        intensity=getObs(ds,ids[i][j],z);
-        ibtot=ibtot+intensity;
-        if( i>=minX && i<=maxX && j>=minY && j<=maxY )
-          istot=istot+intensity;
+    if( block.contains( ibxmin, ibxmax, ibymin, ibymax, z, z ) ){
+      float[] counts = block.counts;
+      int     n_z    = block.n_z;
+      int     index;
+      for( int i=ibxmin ; i<=ibxmax ; i++ ){
+        index=block.index(i,ibymin,z);
+        for( int j=ibymin ; j<=ibymax ; j++ ){
+          intensity=counts[index];
+          index+=n_z;
+          ibtot=ibtot+intensity;
+          if( i>=minX && i<=maxX && j>=minY && j<=maxY )
+            istot=istot+intensity;
+        }
       }
-    }
-
-    ibtot=ibtot-istot;
-    IsigI[0]=istot-stob*ibtot;
-    IsigI[1]=(float)Math.sqrt(istot+stob*stob*ibtot);
-
-    return IsigI;
-  }
-
-  /**
-   * Integrate around the peak in the given time slice. This
-   * integrates the region passed to it.
-   */
-  private static float[] integrateSlice(DataSet ds, IDataGrid ids,
-                                                           int[] range, int z){
-    float[] IsigI=new float[2];
-
-    int minX=range[0];
-    int minY=range[1];
-    int maxX=range[2];
-    int maxY=range[3];
-
-    int ibxmin=minX-1;
-    int ibxmax=maxX+1;
-    int ibymin=minY-1;
-    int ibymax=maxY+1;
-
-    float isigtot = (float)((maxX-minX+1)*(maxY-minY+1));
-    float ibktot  = (float)((ibxmax-ibxmin+1)*(ibymax-ibymin+1)-isigtot);
-    float stob    = isigtot/ibktot;
-
-    float ibtot=0f;
-    float istot=0f;
-
-    float intensity;
-
-    for( int i=minX-1 ; i<=maxX+1 ; i++ ){
-      for( int j=minY-1 ; j<=maxY+1 ; j++ ){
-        intensity=getObs(ds,ids.getData_entry(i,j),z);
-        ibtot=ibtot+intensity;
-        if( i>=minX && i<=maxX && j>=minY && j<=maxY )
-          istot=istot+intensity;
+    }else{
+      for( int i=ibxmin ; i<=ibxmax ; i++ ){
+        for( int j=ibymin ; j<=ibymax ; j++ ){
+          intensity=block.obs(i,j,z);
+          ibtot=ibtot+intensity;
+          if( i>=minX && i<=maxX && j>=minY && j<=maxY )
+            istot=istot+intensity;
+        }
       }
     }
 
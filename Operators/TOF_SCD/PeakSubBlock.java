@@ -0,0 +1,379 @@
+/* 
+ * File: PeakSubBlock.java
+ *
+ * Copyright (C) 2026, ISAW Development Team
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307, USA.
+ *
+ *  Last Modified:
+ * 
+ *  $Author$
+ *  $Date$            
+ *  $Revision$
+ */
+
+
+package Operators.TOF_SCD;
+
+import DataSetTools.dataset.*;
+
+/**
+ *  This class holds a dense copy of the counts (and optionally the errors)
+ *  from a rectangular col x row x time channel region of one detector,
+ *  around a peak that is to be integrated.  The values are stored in
+ *  primitive arrays with the time channel index varying fastest, so the
+ *  integration kernels in IntegrateUtils can work on the region without
+ *  looking up a Data block for every voxel.
+ *
+ *  The pixels are addressed using the same x (col) and y (row) values that
+ *  the integrate methods use with either an ids[][] array of DataSet
+ *  indices, or an IDataGrid.  Values outside of the block are obtained
+ *  from the DataSet, exactly as IntegrateUtils.getObs() would obtain them.
+ *  Values that are not available in the DataSet, such as time channels
+ *  past the end of a spectrum, are 0, as with getObs().
+ */
+public class PeakSubBlock
+{
+  DataSet   ds;
+  int[][]   ids;          // exactly one of ids or grid is non-null
+  IDataGrid grid;
+
+  int       first_x;      // range of x, y and z values stored in the block
+  int       first_y;
+  int       first_z;
+  int       n_x;
+  int       n_y;
+  int       n_z;
+
+  float[]   counts;       // counts[ ((x-first_x)*n_y + (y-first_y))*n_z +
+  float[]   errors;       //         (z-first_z) ], errors may be null
+
+
+  /**
+   *  Construct an empty block for the specified region of a detector whose 
+   *  pixels are given by an array of DataSet indices.  The x and y ranges 
+   *  are clipped to the bounds of the ids array.  The values are set by
+   *  load(), or by LoadAll().
+   *
+   *  @param ds           The DataSet with the detector data.
+   *  @param ids          ids[x][y] is the index in the DataSet of the Data
+   *                      block for pixel (x,y).
+   *  @param min_x        The first x (col) value to include.
+   *  @param max_x        The last x (col) value to include.
+   *  @param min_y        The first y (row) value to include.
+   *  @param max_y        The last y (row) value to include.
+   *  @param min_z        The first time channel to include.
+   *  @param max_z        The last time channel to include.
+   *  @param with_errors  Flag indicating whether the errors should be 
+   *                      stored, as well as the counts.
+   */
+  public PeakSubBlock( DataSet ds,
+                       int[][] ids,
+                       int     min_x,
+                       int     max_x,
+                       int     min_y,
+                       int     max_y,
+                       int     min_z,
+                       int     max_z,
+                       boolean with_errors )
+  {
+    this.ds  = ds;
+    this.ids = ids;
+
+    int n_cols = ids.length;
+    int n_rows = ( n_cols > 0 ) ? ids[0].length : 0;
+    init( Math.max( 0, min_x ), Math.min( n_cols - 1, max_x ),
+          Math.max( 0, min_y ), Math.min( n_rows - 1, max_y ),
+          min_z, max_z, with_errors );
+  }
+
+
+  /**
+   *  Construct an empty block for the specified region of a detector, 
+   *  given by an IDataGrid.  The x and y ranges are clipped to 1 through
+   *  the number of columns and rows in the grid.  The values are set by 
+   *  load(), or by LoadAll().
+   *
+   *  @param ds           The DataSet with the detector data.
+   *  @param grid         The data grid for the detector.  The Data block
+   *                      for pixel (x,y) is grid.getData_entry(x,y).
+   *  @param min_x        The first x (col) value to include.
+   *  @param max_x        The last x (col) value to include.
+   *  @param min_y        The first y (row) value to include.
+   *  @param max_y        The last y (row) value to include.
+   *  @param min_z        The first time channel to include.
+   *  @param max_z        The last time channel to include.
+   *  @param with_errors  Flag indicating whether the errors should be 
+   *                      stored, as well as the counts.
+   */
+  public PeakSubBlock( DataSet   ds,
+                       IDataGrid grid,
+                       int       min_x,
+                       int       max_x,
+                       int       min_y,
+                       int       max_y,
+                       int       min_z,
+                       int       max_z,
+                       boolean   with_errors )
+  {
+    this.ds   = ds;
+    this.grid = grid;
+
+    init( Math.max( 1, min_x ), Math.min( grid.num_cols(), max_x ),
+          Math.max( 1, min_y ), Math.min( grid.num_rows(), max_y ),
+          min_z, max_z, with_errors );
+  }
+
+
+  /**
+   *  Set the bounds of the block and allocate the arrays.
+   */
+  private void init( int     min_x,
+                     int     max_x,
+                     int     min_y,
+                     int     max_y,
+                     int     min_z,
+                     int     max_z,
+                     boolean with_errors )
+  {
+    first_x = min_x;
+    first_y = min_y;
+    first_z = min_z;
+    n_x     = Math.max( 0, max_x - min_x + 1 );
+    n_y     = Math.max( 0, max_y - min_y + 1 );
+    n_z     = Math.max( 0, max_z - min_z + 1 );
+
+    long size = (long)n_x * n_y * n_z;
+    if ( size > Integer.MAX_VALUE )
+      throw new IllegalArgumentException( "Sub-block too large: " + 
+                                           n_x + " x " + n_y + " x " + n_z );
+    counts = new float[ (int)size ];
+    if ( with_errors )
+      errors = new float[ (int)size ];
+  }
+
+
+  /**
+   *  Copy the values for all pixels in this block from the DataSet.
+   */
+  public void load()
+  {
+    if ( ds == null )
+      return;
+
+    for ( int x = first_x; x < first_x + n_x; x++ )
+      for ( int y = first_y; y < first_y + n_y; y++ )
+        setPixel( x, y, getData( x, y ) );
+  }
+
+
+  /**
+   *  Copy the values for all of the specified blocks from the DataSet, 
+   *  visiting each pixel of the detector at most once.  This is more 
+   *  efficient than loading the blocks separately when many blocks are
+   *  taken from the same detector, since the Data block for a pixel that
+   *  is shared by several peak regions is only obtained once.  All of the
+   *  blocks must come from the same DataSet and detector.
+   *
+   *  @param blocks  Array of blocks to load.  Null entries are skipped.
+   */
+  public static void LoadAll( PeakSubBlock[] blocks )
+  {
+    PeakSubBlock first = null;
+    int min_x = Integer.MAX_VALUE;
+    int max_x = Integer.MIN_VALUE;
+    for ( int i = 0; i < blocks.length; i++ )
+    {
+      PeakSubBlock block = blocks[i];
+      if ( block == null )
+        continue;
+
+      if ( first == null )
+        first = block;
+      else if ( block.ds   != first.ds  || 
+                block.ids  != first.ids || 
+                block.grid != first.grid )
+        throw new IllegalArgumentException( 
+                        "All blocks must be from the same detector in LoadAll");
+
+      if ( block.n_x > 0 && block.n_y > 0 )
+      {
+        min_x = Math.min( min_x, block.first_x );
+        max_x = Math.max( max_x, block.first_x + block.n_x - 1 );
+      }
+    }
+
+    if ( first == null || first.ds == null )
+      return;
+
+    PeakSubBlock[] active = new PeakSubBlock[ blocks.length ];
+    for ( int x = min_x; x <= max_x; x++ )
+    {
+      int n_active = 0;                  // find the blocks that include col x
+      int min_y    = Integer.MAX_VALUE;
+      int max_y    = Integer.MIN_VALUE;
+      for ( int i = 0; i < blocks.length; i++ )
+      {
+        PeakSubBlock block = blocks[i];
+        if ( block != null && block.n_y > 0 &&
+             x >= block.first_x && x < block.first_x + block.n_x )
+        {
+          active[ n_active++ ] = block;
+          min_y = Math.min( min_y, block.first_y );
+          max_y = Math.max( max_y, block.first_y + block.n_y - 1 );
+        }
+      }
+
+      for ( int y = min_y; y <= max_y; y++ )
+      {
+        boolean fetched = false;
+        Data    d       = null;
+        for ( int i = 0; i < n_active; i++ )
+        {
+          PeakSubBlock block = active[i];
+          if ( y >= block.first_y && y < block.first_y + block.n_y )
+          {
+            if ( !fetched )
+            {
+              d       = first.getData( x, y );
+              fetched = true;
+            }
+            block.setPixel( x, y, d );
+          }
+        }
+      }
+    }
+  }
+
+
+  /**
+   *  Get the Data block for pixel (x,y) from the DataSet.
+   */
+  private Data getData( int x, int y )
+  {
+    if ( ids != null )
+      return ds.getData_entry( ids[x][y] );
+    else
+      return grid.getData_entry( x, y );
+  }
+
+
+  /**
+   *  Copy the values for time channels first_z, ..., first_z+n_z-1 from 
+   *  the specified Data block into the block at pixel (x,y).
+   */
+  private void setPixel( int x, int y, Data d )
+  {
+    if ( d == null )
+      return;
+
+    int base = ( (x - first_x) * n_y + (y - first_y) ) * n_z;
+    copy( d.getY_values(), counts, base );
+    if ( errors != null )
+      copy( d.getErrors(), errors, base );
+  }
+
+
+  /**
+   *  Copy the part of the source array that falls in the range of time
+   *  channels in this block to the destination array, starting at base.
+   */
+  private void copy( float[] source, float[] dest, int base )
+  {
+    if ( source == null )
+      return;
+
+    int from = Math.max( first_z, 0 );
+    int to   = Math.min( first_z + n_z - 1, source.length - 1 );
+    if ( from <= to )
+      System.arraycopy( source, from, dest, base + from - first_z, 
+                        to - from + 1 );
+  }
+
+
+  /**
+   *  Check whether the specified range of pixels and time channels lies
+   *  completely in this block.
+   */
+  public boolean contains( int min_x, int max_x,
+                           int min_y, int max_y,
+                           int min_z, int max_z )
+  {
+    return min_x >= first_x  &&  max_x < first_x + n_x  &&
+           min_y >= first_y  &&  max_y < first_y + n_y  &&
+           min_z >= first_z  &&  max_z < first_z + n_z;
+  }
+
+
+  /**
+   *  Get the position of the value for (x,y,z) in the counts and errors
+   *  arrays.  The position of (x,y+1,z) is index(x,y,z) + n_z.  No check
+   *  is made that (x,y,z) is in the block.
+   */
+  public int index( int x, int y, int z )
+  {
+    return ( (x - first_x) * n_y + (y - first_y) ) * n_z + (z - first_z);
+  }
+
+
+  /**
+   *  Get the count at pixel (x,y) and time channel z.  If the position is
+   *  outside of the block, the value is obtained from the DataSet.
+   */
+  public float obs( int x, int y, int z )
+  {
+    if ( contains( x, x, y, y, z, z ) )
+      return counts[ index( x, y, z ) ];
+
+    if ( ids != null )
+      return IntegrateUtils.getObs( ds, ids[x][y], z );
+    else
+      return IntegrateUtils.getObs( ds, grid.getData_entry( x, y ), z );
+  }
+
+
+  /**
+   *  Get the error estimate at pixel (x,y) and time channel z.  If the
+   *  position is outside of the block, or the block does not hold errors,
+   *  the value is obtained from the DataSet.
+   */
+  public float errObs( int x, int y, int z )
+  {
+    if ( errors != null && contains( x, x, y, y, z, z ) )
+      return errors[ index( x, y, z ) ];
+
+    if ( ids != null )
+      return IntegrateUtils.getErrObs( ds, ids[x][y], z );
+    else
+      return IntegrateUtils.getErrObs( ds, grid.getData_entry( x, y ), z );
+  }
+
+
+  /**
+   *  Determine whether the integration range lies on the detector, using
+   *  the same test as IntegrateUtils.checkRange() for the ids array or 
+   *  data grid that this block was taken from.
+   *
+   *  @param range  an array of ints with minx,miny,maxx,maxy
+   */
+  public boolean checkRange( int[] range )
+  {
+    if ( ids != null )
+      return IntegrateUtils.checkRange( ids, range );
+    else
+      return IntegrateUtils.checkRange( grid, range );
+  }
+
+}
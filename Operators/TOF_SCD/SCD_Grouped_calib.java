@@ -37,6 +37,7 @@ import DataSetTools.operator.*;
 import DataSetTools.trial.*;
 import DataSetTools.dataset.*;
 import DataSetTools.retriever.*;
+import DataSetTools.math.LevenbergMarquardt;
 
 import gov.anl.ipns.MathTools.*;
 import gov.anl.ipns.MathTools.Functions.*;
@@ -697,26 +698,14 @@ public class SCD_Grouped_calib extends GenericTOF_SCD
     String message = "Before fit... params are";
     error_f.ShowProgress( message, System.out );
     error_f.ShowProgress( message, log_print  );
-                                                // build the arrays of x values
-                                                // target function values
-                                                // (z_vals) and "fake"
-    double z_vals[] = new double[ peaks.size() ];
-    double sigmas[] = new double[ peaks.size() ];
-    double x_index[] = new double[ peaks.size() ];
-    for ( int i = 0; i < peaks.size(); i++ )
-    {
-      z_vals[i] = 0;
-//    sigmas[i] = Math.sqrt( counts[i] );
-      sigmas[i] = 1.0;
-      x_index[i]  = i;
-    }
                                            // build the data fitter and display
-                                           // the results.
+                                           // the results.  The fitter uses
+                                           // the x, y, z components of the
+                                           // Q errors of all peaks as the
+                                           // residuals.
     double tolerance = Math.pow( 10, tol_exp ); 
-    MarquardtArrayFitter fitter = 
-       new MarquardtArrayFitter( error_f, 
-                                 x_index, z_vals, sigmas, 
-                                 tolerance, max_steps );
+    LevenbergMarquardt fitter = 
+       new LevenbergMarquardt( error_f, tolerance, max_steps );
 
     if ( log_print != null )
     {
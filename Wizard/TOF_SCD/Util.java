@@ -71,6 +71,15 @@ public class Util {
                               File.separator;
    public static final String SLURM_RETURN_SUFFIX = "_returned.txt";
 
+   /**
+    *  If this system property is "true", the methods that find or integrate
+    *  peaks using separate processes will instead run the detectors on 
+    *  threads in the current JVM, using a PeaksBatchService, unless slurm
+    *  is used.  This avoids starting a JVM for each detector, but all of
+    *  the detectors being processed must fit in the current JVM's memory.
+    */
+   public static final String BATCH_IN_JVM_PROPERTY = "SCD_Batch_In_JVM";
+
    /**
     *  FindCentroidedPeaks method uses separate processes to find and centroid
     *  the peaks from several runs and several data sets per run
@@ -146,6 +155,8 @@ public class Util {
             int      max_processes )
   {
     boolean use_slurm = ( slurm_queue_name != null );
+    boolean in_jvm    = !use_slurm &&
+               "true".equalsIgnoreCase( System.getProperty( BATCH_IN_JVM_PROPERTY ) );
 
     if ( runnums == null )
     {
@@ -284,7 +295,31 @@ public class Util {
                                              do_centroid,
                                              show_peaks_view,
                                              num_slices );
-        ops.add( s_caller );
+        if ( in_jvm )
+          ops.add( new PeaksBatchService.FindPeaksOp( fin_name,
+                                                      fout_base,
+                                                      ds_num,
+                                                      num_peaks,
+                                                      min_intensity,
+                                                      min_time_chan,
+                                                      max_time_chan,
+
+                                                      use_calib_file,
+                                                      calib_file,
+                                                      calib_file_line,
+
+                                                      pixel_row,
+                                                      pixel_col,
+                                                      mon_count,
+                                                      max_Dspacing,
+                                                      use_new_find_peaks,
+                                                      do_smoothing,
+                                                      do_validity_test,
+                                                      do_centroid,
+                                                      show_peaks_view,
+                                                      num_slices ) );
+        else
+          ops.add( s_caller );
       }
 
     int max_time = ops.size() * 120000 + 600000;
@@ -299,31 +334,46 @@ public class Util {
     if ( use_slurm )
       System.out.println("USING " + num_processes + " processes on " +
                          slurm_queue_name );
+    else if ( in_jvm )
+      System.out.println("USING " + num_processes + " threads in this JVM");
     else
       System.out.println("USING " + num_processes + " local processes");
     System.out.println("TIME LIMIT(seconds) = " + max_time/1000.0 );
 
-    ParallelExecutor executor =
-                          new ParallelExecutor( ops, num_processes, max_time );
-
     Vector results = null;
-    try                                     // try to do everything during the
-    {                                       // alloted time and return partial
-      results = executor.runOperators();    // results if something fails
-    }                                       // or we run out of time.
-    catch ( ExecFailException fail_ex )
+    if ( in_jvm )
     {
-      FailState state = fail_ex.getFailureStatus();
+      PeaksBatchService service = new PeaksBatchService( num_processes );
+      results = service.runOperators( ops, max_time );
+      if ( service.getNumFinished() < ops.size() )
+      {
+        SharedMessages.addmsg("WARNING: Find peaks did not finish: " +
+                     "maximum time, " + max_time/1000 + " seconds, elapsed ");
+        SharedMessages.addmsg("The result returned is incomplete.");
+      }
+    }
+    else
+    {
+      ParallelExecutor executor =
+                          new ParallelExecutor( ops, num_processes, max_time );
+      try                                   // try to do everything during the
+      {                                     // alloted time and return partial
+        results = executor.runOperators();  // results if something fails
+      }                                     // or we run out of time.
+      catch ( ExecFailException fail_ex )
+      {
+        FailState state = fail_ex.getFailureStatus();
 
-      String reason;
-      if ( state == FailState.NOT_DONE )
-        reason = "maximum time, " + max_time/1000 + " seconds, elapsed ";
-      else
-        reason = "a process was interrupted.";
+        String reason;
+        if ( state == FailState.NOT_DONE )
+          reason = "maximum time, " + max_time/1000 + " seconds, elapsed ";
+        else
+          reason = "a process was interrupted.";
 
-      SharedMessages.addmsg("WARNING: Find peaks did not finish: " + reason);
-      SharedMessages.addmsg("The result returned is incomplete.");
-      results = fail_ex.getPartialResults();
+        SharedMessages.addmsg("WARNING: Find peaks did not finish: " + reason);
+        SharedMessages.addmsg("The result returned is incomplete.");
+        results = fail_ex.getPartialResults();
+      }
     }
 
     if ( fout_prefix.startsWith("/SNS/" ) &&             // do SNS Logging if
@@ -2107,6 +2157,8 @@ public class Util {
             )
    {
       boolean use_slurm = ( slurm_queue_name != null );
+      boolean in_jvm    = !use_slurm &&
+               "true".equalsIgnoreCase( System.getProperty( BATCH_IN_JVM_PROPERTY ) );
 
       int log_Nth_peak = 1;
       
@@ -2248,7 +2300,38 @@ public class Util {
                                                     rowYrange[1],
                                                     max_shoebox
                                                    );
-          ops.add( s_caller );
+          if ( in_jvm )
+            ops.add( new PeaksBatchService.IntegratePeaksOp( fin_name,
+                                                             fout_base,
+                                                             ds_num,
+
+                                                             use_calib_file,
+                                                             calib_file,
+                                                             calib_file_line,
+
+                                                             orientation_file,
+
+                                                             centering,
+                                                             timeZrange[0],
+                                                             timeZrange[1],
+                                                             incr_time_amount,
+
+                                                             d_min,
+                                                             maxUnitCellLength,
+
+                                                             PixelRows,
+                                                             PixelCols,
+                                                             log_Nth_peak,
+                                                             peak_algorithm,
+
+                                                             colXrange[0],
+                                                             colXrange[1],
+
+                                                             rowYrange[0],
+                                                             rowYrange[1],
+                                                             max_shoebox ) );
+          else
+            ops.add( s_caller );
        }
 
        int max_time = ops.size() * 120000 + 600000;
@@ -2263,31 +2346,47 @@ public class Util {
        if ( use_slurm )
          System.out.println("USING " + num_processes + " processes on " +
                             slurm_queue_name );
+       else if ( in_jvm )
+         System.out.println("USING " + num_processes + " threads in this JVM");
        else
          System.out.println("USING " + num_processes + " local processes");
        System.out.println("TIME LIMIT(seconds) = " + max_time/1000.0 );
 
-       ParallelExecutor executor =
-                         new ParallelExecutor( ops, num_processes, max_time );
-
        Vector results = null;
-       try                                  // try to do everything during the
-       {                                    // alloted time and return partial
-         results = executor.runOperators(); // results if something fails
-       }                                    // or we run out of time.
-       catch ( ExecFailException fail_ex )
+       if ( in_jvm )
        {
-         FailState state = fail_ex.getFailureStatus();
+         PeaksBatchService service = new PeaksBatchService( num_processes );
+         results = service.runOperators( ops, max_time );
+         if ( service.getNumFinished() < ops.size() )
+         {
+           SharedMessages.addmsg("WARNING: Integrate did not finish: " +
+                      "maximum time, " + max_time/1000 + " seconds, elapsed ");
+           SharedMessages.addmsg("The result returned is incomplete.");
+         }
+       }
+       else
+       {
+         ParallelExecutor executor =
+                         new ParallelExecutor( ops, num_processes, max_time );
+         try                                // try to do everything during the
+         {                                  // alloted time and return partial
+           results = executor.runOperators(); // results if something fails
+         }                                  // or we run out of time.
+         catch ( ExecFailException fail_ex )
+         {
+           FailState state = fail_ex.getFailureStatus();
 
-         String reason;
-         if ( state == FailState.NOT_DONE )
-           reason = "maximum time, " + max_time/1000 + " seconds, elapsed ";
-         else
-           reason = "a process was interrupted.";
+           String reason;
+           if ( state == FailState.NOT_DONE )
+             reason = "maximum time, " + max_time/1000 + " seconds, elapsed ";
+           else
+             reason = "a process was interrupted.";
 
-         SharedMessages.addmsg("WARNING: Find peaks did not finish: " + reason);
-         SharedMessages.addmsg("The result returned is incomplete.");
-         results = fail_ex.getPartialResults();
+           SharedMessages.addmsg("WARNING: Find peaks did not finish: " +
+                                  reason);
+           SharedMessages.addmsg("The result returned is incomplete.");
+           results = fail_ex.getPartialResults();
+         }
        }
 
        if ( fout_prefix.startsWith("/SNS/" ) &&          // do SNS Logging if